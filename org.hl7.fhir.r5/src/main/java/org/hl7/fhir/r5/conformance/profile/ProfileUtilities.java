@@ -432,7 +432,6 @@ public class ProfileUtilities {
   private boolean wantFixDifferentialFirstElementType;
   private Set<String> masterSourceFileNames;
   private Set<String> localFileNames;
-  private Map<String, SourcedChildDefinitions> childMapCache = new HashMap<>();
   private AllowUnknownProfile allowUnknownProfile = AllowUnknownProfile.ALL_TYPES;
   private MappingMergeModeOption mappingMergeMode = MappingMergeModeOption.APPEND;
   private boolean forPublication;
@@ -478,18 +477,11 @@ public class ProfileUtilities {
   }
 
   public SourcedChildDefinitions getChildMap(StructureDefinition profile, ElementDefinition element) throws DefinitionException {
-    String cacheKey = "cm."+profile.getVersionedUrl()+"#"+(element.hasId() ? element.getId() : element.getPath());
-    if (childMapCache.containsKey(cacheKey)) {
-      return childMapCache.get(cacheKey);
-    }
-    StructureDefinition src = profile;
     if (element.getContentReference() != null) {
-      List<ElementDefinition> list = null;
-      String id = null;
+      ElementDefinition target = null;
       if (element.getContentReference().startsWith("#")) {
         // internal reference
-        id = element.getContentReference().substring(1);
-        list = profile.getSnapshot().getElement();
+        target = SnapshotIndex.get(profile).getById(element.getContentReference().substring(1));
       } else if (element.getContentReference().contains("#")) {
         // external reference
         String ref = element.getContentReference();
@@ -497,24 +489,33 @@ public class ProfileUtilities {
         if (sd == null) {
           throw new DefinitionException("unable to process contentReference '"+element.getContentReference()+"' on element '"+element.getId()+"'");
         }
-        src = sd;
-        list = sd.getSnapshot().getElement();
-        id = ref.substring(ref.indexOf("#")+1);        
+        target = SnapshotIndex.get(sd).getById(ref.substring(ref.indexOf("#")+1));
       } else {
         throw new DefinitionException("unable to process contentReference '"+element.getContentReference()+"' on element '"+element.getId()+"'");
       }
-        
-      for (ElementDefinition e : list) {
-        if (id.equals(e.getId()))
-          return getChildMap(profile, e);
+      if (target != null) {
+        return getChildMap(profile, target);
       }
       throw new DefinitionException(context.formatMessage(I18nConstants.UNABLE_TO_RESOLVE_NAME_REFERENCE__AT_PATH_, element.getContentReference(), element.getPath()));
 
     } else {
+      SnapshotIndex snapshotIndex = SnapshotIndex.get(profile);
+      SourcedChildDefinitions result = snapshotIndex.getChildren(element);
+      if (result == null && element.hasId()) {
+        // the element isn't in the profile's snapshot, but it may be a copy of one that is (same id and path)
+        ElementDefinition same = snapshotIndex.getById(element.getId());
+        if (same != null && same.getPath().equals(element.getPath())) {
+          result = snapshotIndex.getChildren(same);
+        }
+      }
+      if (result != null) {
+        return result;
+      }
+      // the element isn't in the profile's snapshot at all. Scan the snapshot for elements with the element's path
       List<ElementDefinition> res = new ArrayList<ElementDefinition>();
       List<ElementDefinition> elements = profile.getSnapshot().getElement();
       String path = element.getPath();
-      for (int index = elements.indexOf(element) + 1; index < elements.size(); index++) {
+      for (int index = 0; index < elements.size(); index++) {
         ElementDefinition e = elements.get(index);
         if (e.getPath().startsWith(path + ".")) {
           // We only want direct children, not all descendants
@@ -523,9 +524,7 @@ public class ProfileUtilities {
         } else
           break;
       }
-      SourcedChildDefinitions result  = new SourcedChildDefinitions(src, res);
-      childMapCache.put(cacheKey, result);
-      return result;
+      return new SourcedChildDefinitions(profile, res);
     }
   }
 
@@ -534,10 +533,14 @@ public class ProfileUtilities {
     if (!element.hasSlicing())
       throw new Error(context.formatMessage(I18nConstants.GETSLICELIST_SHOULD_ONLY_BE_CALLED_WHEN_THE_ELEMENT_HAS_SLICING));
 
+    List<ElementDefinition> slices = SnapshotIndex.get(profile).getSlices(element);
+    if (slices != null) {
+      return new ArrayList<ElementDefinition>(slices);
+    }
     List<ElementDefinition> res = new ArrayList<ElementDefinition>();
     List<ElementDefinition> elements = profile.getSnapshot().getElement();
     String path = element.getPath();
-    for (int index = elements.indexOf(element) + 1; index < elements.size(); index++) {
+    for (int index = 0; index < elements.size(); index++) {
       ElementDefinition e = elements.get(index);
       if (e.getPath().startsWith(path + ".") || e.getPath().equals(path)) {
         // We want elements with the same path (until we hit an element that doesn't start with the same path)
@@ -971,6 +974,8 @@ public class ProfileUtilities {
     } finally {
       derived.clearUserData("profileutils.snapshot.generating");
       snapshotStack.remove(derived.getUrl());
+      // the snapshot is edited in place while it's generated (ids, paths, removed elements), so any index built along the way is stale
+      SnapshotIndex.invalidate(derived);
     }
     derived.setUserData("profileutils.snapshot.generated", true); // used by the publisher
   }
@@ -3905,6 +3910,7 @@ public class ProfileUtilities {
       if (!sd.hasSnapshot())
         sd.setSnapshot(new StructureDefinitionSnapshotComponent());
       generateIds(sd.getSnapshot().getElement(), sd.getUrl(), sd.getType(), sd);
+      SnapshotIndex.invalidate(sd);
     }
   }
 
@@ -0,0 +1,156 @@
+package org.hl7.fhir.r5.conformance.profile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r5.conformance.profile.ProfileUtilities.SourcedChildDefinitions;
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition;
+
+/**
+ * An index of the snapshot of a StructureDefinition: where each element is, what its direct children are,
+ * and what its slices are. Validating an instance walks the snapshot over and over again (for every element
+ * in the instance), and working these out by scanning the snapshot each time is most of the cost of
+ * navigating the definitions.
+ * <p>
+ * The index is built in a single pass over the snapshot the first time it's asked for, and kept on the
+ * StructureDefinition (as user data), so there's one per version of the profile, and it lives as long as the
+ * profile does. It's not changed once it's built, so it can be shared between threads. If the snapshot is
+ * replaced or the number of elements changes, the index is rebuilt. ProfileUtilities drops the index when it
+ * generates a snapshot or sets the ids in one; anything else that changes a snapshot in place (e.g. the paths
+ * or ids of the elements) should call invalidate.
+ * <p>
+ * The children and slices are the same as the ones found by scanning the snapshot (see ProfileUtilities.getChildMap
+ * and ProfileUtilities.getSliceList), in the same order.
+ */
+public class SnapshotIndex {
+
+  private static final String USER_DATA_INDEX = "sd.snapshot.index";
+
+  private final StructureDefinition profile;
+  private final List<ElementDefinition> elements;
+  private final int elementCount;
+  private final Map<ElementDefinition, Integer> positions = new IdentityHashMap<>();
+  private final Map<String, ElementDefinition> ids = new HashMap<>();
+  private final List<SourcedChildDefinitions> children = new ArrayList<>();
+  private final Map<ElementDefinition, List<ElementDefinition>> slices = new IdentityHashMap<>();
+
+  private SnapshotIndex(StructureDefinition profile) {
+    super();
+    this.profile = profile;
+    this.elements = profile.getSnapshot().getElement();
+    this.elementCount = elements.size();
+
+    // a stack of the elements that the element being looked at might be a child of. Each element on the stack
+    // is a prefix of the one above it, so an element is popped as soon as something that isn't inside it turns up
+    List<Integer> open = new ArrayList<>();
+    List<List<ElementDefinition>> lists = new ArrayList<>();
+    for (int i = 0; i < elementCount; i++) {
+      ElementDefinition ed = elements.get(i);
+      positions.putIfAbsent(ed, i);
+      if (ed.hasId()) {
+        ids.putIfAbsent(ed.getId(), ed);
+      }
+      List<ElementDefinition> list = new ArrayList<>();
+      lists.add(list);
+      String path = ed.getPath();
+      while (!open.isEmpty() && !isInside(path, elements.get(open.get(open.size() - 1)).getPath())) {
+        open.remove(open.size() - 1);
+      }
+      if (!open.isEmpty()) {
+        int parent = open.get(open.size() - 1);
+        if (path.indexOf('.', elements.get(parent).getPath().length() + 1) == -1) {
+          lists.get(parent).add(ed);
+        }
+      }
+      open.add(i);
+    }
+    for (List<ElementDefinition> list : lists) {
+      children.add(new SourcedChildDefinitions(profile, Collections.unmodifiableList(list)));
+    }
+    for (int i = 0; i < elementCount; i++) {
+      ElementDefinition ed = elements.get(i);
+      if (ed.hasSlicing()) {
+        slices.put(ed, listSlices(i));
+      }
+    }
+  }
+
+  private static boolean isInside(String path, String parent) {
+    return path.length() > parent.length() && path.charAt(parent.length()) == '.' && path.startsWith(parent);
+  }
+
+  private List<ElementDefinition> listSlices(int index) {
+    List<ElementDefinition> res = new ArrayList<ElementDefinition>();
+    String path = elements.get(index).getPath();
+    for (int i = index + 1; i < elementCount; i++) {
+      ElementDefinition e = elements.get(i);
+      if (e.getPath().equals(path)) {
+        res.add(e);
+      } else if (!isInside(e.getPath(), path)) {
+        break;
+      }
+    }
+    return Collections.unmodifiableList(res);
+  }
+
+  /**
+   * @return the index for the profile's snapshot, building it if it hasn't already been built
+   */
+  public static SnapshotIndex get(StructureDefinition profile) {
+    synchronized (profile) {
+      SnapshotIndex index = (SnapshotIndex) profile.getUserData(USER_DATA_INDEX);
+      // user data may be copied with the profile
+      if (index == null || index.profile != profile || index.elements != profile.getSnapshot().getElement() || index.elementCount != index.elements.size()) {
+        index = new SnapshotIndex(profile);
+        profile.setUserData(USER_DATA_INDEX, index);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * drop the index for the profile (if there is one), because the snapshot has changed
+   */
+  public static void invalidate(StructureDefinition profile) {
+    if (profile != null) {
+      synchronized (profile) {
+        profile.clearUserData(USER_DATA_INDEX);
+      }
+    }
+  }
+
+  /**
+   * @return where the element is in the snapshot, or -1 if it's not in the snapshot
+   */
+  public int indexOf(ElementDefinition element) {
+    Integer i = positions.get(element);
+    return i == null ? -1 : i;
+  }
+
+  /**
+   * @return the element in the snapshot with the id, or null
+   */
+  public ElementDefinition getById(String id) {
+    return ids.get(id);
+  }
+
+  /**
+   * @return the direct children of the element (including slices), or null if the element isn't in the snapshot
+   */
+  public SourcedChildDefinitions getChildren(ElementDefinition element) {
+    int i = indexOf(element);
+    return i == -1 ? null : children.get(i);
+  }
+
+  /**
+   * @return the slices of the element, or null if the element isn't in the snapshot or doesn't have slicing
+   */
+  public List<ElementDefinition> getSlices(ElementDefinition element) {
+    return slices.get(element);
+  }
+}
@@ -39,16 +39,21 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import lombok.Getter;
 import org.apache.commons.lang3.StringUtils;
@@ -57,6 +62,7 @@ import org.hl7.fhir.exceptions.DefinitionException;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.exceptions.TerminologyServiceException;
 import org.hl7.fhir.r5.conformance.profile.ProfileUtilities;
+import org.hl7.fhir.r5.context.CanonicalResourceManager.CacheStatistics;
 import org.hl7.fhir.r5.context.CanonicalResourceManager.CanonicalResourceProxy;
 import org.hl7.fhir.r5.context.ILoggingService.LogCategory;
 import org.hl7.fhir.r5.model.ActorDefinition;
@@ -122,6 +128,7 @@ import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyOperationContext;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyOperationContext.TerminologyServiceProtectionException;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyServiceErrorClass;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologySnapshot;
 import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache.CacheToken;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache.SourcedValueSet;
@@ -137,6 +144,7 @@ import org.hl7.fhir.r5.utils.ToolingExtensions;
 import org.hl7.fhir.r5.utils.client.EFhirClientException;
 import org.hl7.fhir.r5.utils.validation.ValidationContextCarrier;
 import org.hl7.fhir.utilities.FhirPublication;
+import org.hl7.fhir.utilities.TextFile;
 import org.hl7.fhir.utilities.TimeTracker;
 import org.hl7.fhir.utilities.ToolingClientLogger;
 import org.hl7.fhir.utilities.Utilities;
@@ -144,6 +152,7 @@ import org.hl7.fhir.utilities.VersionUtilities;
 import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
 import org.hl7.fhir.utilities.i18n.I18nBase;
 import org.hl7.fhir.utilities.i18n.I18nConstants;
+import org.hl7.fhir.utilities.npm.NpmPackage;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
 import org.hl7.fhir.utilities.validation.ValidationOptions;
@@ -229,17 +238,20 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     }
   }
 
-  private Object lock = new Object(); // used as a lock for the data that follows
+  // used as a lock for the resource data that follows. Lookups only take the read lock, so any number of 
+  // validator threads can share a loaded context; only loading or dropping resources takes the write lock
+  private final ReadWriteLock lock = new ReentrantReadWriteLock(); 
   protected String version; // although the internal resources are all R5, the version of FHIR they describe may not be 
 
   protected final TerminologyClientManager terminologyClientManager = new TerminologyClientManager(new TerminologyClientR5.TerminologyClientR5Factory(), UUID.randomUUID().toString());
   private boolean minimalMemory = false;
 
   private Map<String, Map<String, ResourceProxy>> allResourcesById = new HashMap<String, Map<String, ResourceProxy>>();
+  private Set<String> sharedResourceTypes = new HashSet<>(); // types in allResourcesById whose map is still shared with the context this was copied from
   // all maps are to the full URI
   private CanonicalResourceManager<CodeSystem> codeSystems = new CanonicalResourceManager<CodeSystem>(false, minimalMemory);
-  private final Set<String> supportedCodeSystems = new HashSet<String>();
-  private final Set<String> unsupportedCodeSystems = new HashSet<String>(); // know that the terminology server doesn't support them
+  private final Set<String> supportedCodeSystems = ConcurrentHashMap.newKeySet();
+  private final Set<String> unsupportedCodeSystems = ConcurrentHashMap.newKeySet(); // know that the terminology server doesn't support them
   private CanonicalResourceManager<ValueSet> valueSets = new CanonicalResourceManager<ValueSet>(false, minimalMemory);
   private CanonicalResourceManager<ConceptMap> maps = new CanonicalResourceManager<ConceptMap>(false, minimalMemory);
   protected CanonicalResourceManager<StructureMap> transforms = new CanonicalResourceManager<StructureMap>(false, minimalMemory);
@@ -256,7 +268,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   private final CanonicalResourceManager<ActorDefinition> actors = new CanonicalResourceManager<ActorDefinition>(false, minimalMemory);
   private final CanonicalResourceManager<Requirements> requirements = new CanonicalResourceManager<Requirements>(false, minimalMemory);
   private final CanonicalResourceManager<NamingSystem> systems = new CanonicalResourceManager<NamingSystem>(false, minimalMemory);
-  private Map<String, NamingSystem> systemUrlMap;
+  private volatile Map<String, NamingSystem> systemUrlMap; // built on demand, and dropped (under the write lock) when naming systems change
 
   
   private UcumService ucumService;
@@ -264,18 +276,18 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   protected Map<String, Set<String>> oidCacheManual = new HashMap<>();
   protected List<OIDSource> oidSources = new ArrayList<>();
 
-  protected Map<String, Map<String, ValidationResult>> validationCache = new HashMap<String, Map<String,ValidationResult>>();
+  protected Map<String, Map<String, ValidationResult>> validationCache = new ConcurrentHashMap<String, Map<String,ValidationResult>>();
   protected String name;
   private boolean allowLoadingDuplicates;
 
-  private final Set<String> codeSystemsUsed = new HashSet<>();
+  private final Set<String> codeSystemsUsed = ConcurrentHashMap.newKeySet(); // updated by validation threads without holding the lock
   protected ToolingClientLogger txLog;
   protected boolean canRunWithoutTerminology;
   protected boolean noTerminologyServer;
   private int expandCodesLimit = 1000;
   protected ILoggingService logger = new SystemOutLoggingService();
   protected Parameters expParameters;
-  private Map<String, PackageInformation> packages = new HashMap<>();
+  private Map<String, PackageInformation> packages = new ConcurrentHashMap<>();
 
   @Getter
   protected TerminologyCache txCache = new TerminologyCache(this, null);
@@ -306,25 +318,51 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     clock = new TimeTracker();
   }
 
+  /**
+   * Copy the content of another context into this one. The resources aren't copied: this 
+   * context is layered over the other one (see CanonicalResourceManager.layerOver), so the 
+   * copy is cheap no matter how many packages are loaded, and the resources (and anything 
+   * already parsed from them) are shared. Resources loaded into or dropped from this context 
+   * only affect this context. 
+   * <p>
+   * The other context should not have any more resources loaded into it once it has been copied 
+   * (which is the way the validator uses it - a base context is loaded once, and then copied 
+   * for each session)
+   * 
+   * @param other
+   */
   protected void copy(BaseWorkerContext other) {
-    synchronized (other.lock) { // tricky, because you need to lock this as well, but it's really not in use yet 
+    other.lock.readLock().lock(); // tricky, because you need to lock this as well, but it's really not in use yet
+    try {
       allResourcesById.putAll(other.allResourcesById);
-      codeSystems.copy(other.codeSystems);
-      valueSets.copy(other.valueSets);
-      maps.copy(other.maps);
-      transforms.copy(other.transforms);
-      structures.copy(other.structures);
-      typeManager = new TypeManager(structures);
-      searchParameters.copy(other.searchParameters);
-      plans.copy(other.plans);
-      questionnaires.copy(other.questionnaires);
-      operations.copy(other.operations);
-      systems.copy(other.systems);
+      sharedResourceTypes.addAll(other.allResourcesById.keySet());
+      for (CanonicalResourceManager<?> crm : other.resourceManagers()) {
+        crm.setLock(other.lock); // so this context's lookups read through to the other's resources under its lock
+      }
+      codeSystems.layerOver(other.codeSystems);
+      valueSets.layerOver(other.valueSets);
+      maps.layerOver(other.maps);
+      transforms.layerOver(other.transforms);
+      structures.layerOver(other.structures);
+      typeManager = new TypeManager(structures, other.typeManager);
+      searchParameters.layerOver(other.searchParameters);
+      plans.layerOver(other.plans);
+      questionnaires.layerOver(other.questionnaires);
+      operations.layerOver(other.operations);
+      actors.layerOver(other.actors);
+      requirements.layerOver(other.requirements);
+      systems.layerOver(other.systems);
       systemUrlMap = null;
-      guides.copy(other.guides);
-      capstmts.copy(other.capstmts);
-      measures.copy(other.measures);
-      libraries.copy(libraries);
+      guides.layerOver(other.guides);
+      capstmts.layerOver(other.capstmts);
+      measures.layerOver(other.measures);
+      libraries.layerOver(other.libraries);
+      if (other.minimalMemory) {
+        minimalMemory = true;
+        for (CanonicalResourceManager<?> crm : resourceManagers()) {
+          crm.setMinimalMemory(true);
+        }
+      }
 
       allowLoadingDuplicates = other.allowLoadingDuplicates;
       name = other.name;
@@ -350,6 +388,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       userAgent = other.userAgent;
       terminologyClientManager.copy(other.terminologyClientManager);
       cachingAllowed = other.cachingAllowed;
+    } finally {
+      other.lock.readLock().unlock();
     }
   }
   
@@ -357,21 +397,31 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   public void cacheResource(Resource r) throws FHIRException {
     cacheResourceFromPackage(r, null);  
   }
+
+  // must hold the write lock. The maps are shared with the context this was copied from until they're changed 
+  private Map<String, ResourceProxy> resourceMapForUpdate(String type) {
+    Map<String, ResourceProxy> map = allResourcesById.get(type);
+    if (map == null) {
+      map = new HashMap<String, ResourceProxy>();
+      allResourcesById.put(type, map);
+    } else if (sharedResourceTypes.remove(type)) {
+      map = new HashMap<String, ResourceProxy>(map);
+      allResourcesById.put(type, map);
+    }
+    return map;
+  }
   
 
   public void registerResourceFromPackage(CanonicalResourceProxy r, PackageInformation packageInfo) throws FHIRException {    
     PackageHackerR5.fixLoadedResource(r, packageInfo);
 
-    synchronized (lock) {
+    lock.writeLock().lock();
+    try {
       if (packageInfo != null) {
         packages.put(packageInfo.getVID(), packageInfo);
       }
       if (r.getId() != null) {
-        Map<String, ResourceProxy> map = allResourcesById.get(r.getType());
-        if (map == null) {
-          map = new HashMap<String, ResourceProxy>();
-          allResourcesById.put(r.getType(), map);
-        }
+        Map<String, ResourceProxy> map = resourceMapForUpdate(r.getType());
         if ((packageInfo == null || !packageInfo.isExamplesPackage()) || !map.containsKey(r.getId())) {
           map.put(r.getId(), new ResourceProxy(r));
         }
@@ -442,22 +492,21 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
         actors.register(r, packageInfo);
         break;
       }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
   public void cacheResourceFromPackage(Resource r, PackageInformation packageInfo) throws FHIRException {
  
-    synchronized (lock) {   
+    lock.writeLock().lock();
+    try {
       if (packageInfo != null) {
         packages.put(packageInfo.getVID(), packageInfo);
       }
 
       if (r.getId() != null) {
-        Map<String, ResourceProxy> map = allResourcesById.get(r.fhirType());
-        if (map == null) {
-          map = new HashMap<String, ResourceProxy>();
-          allResourcesById.put(r.fhirType(), map);
-        }
+        Map<String, ResourceProxy> map = resourceMapForUpdate(r.fhirType());
         if ((packageInfo == null || !packageInfo.isExamplesPackage()) || !map.containsKey(r.getId())) {
           map.put(r.getId(), new ResourceProxy(r));
         } else {
@@ -554,22 +603,35 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
           systemUrlMap = null;
         }
       }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
   public Map<String, NamingSystem> getNSUrlMap() {
-    if (systemUrlMap == null) {
-      systemUrlMap = new HashMap<>();
-      List<NamingSystem> nsl = systems.getList();
-      for (NamingSystem ns : nsl) {
-        for (NamingSystemUniqueIdComponent uid : ns.getUniqueId()) {
-          if (uid.getType() == NamingSystemIdentifierType.URI && uid.hasValue()) {
-            systemUrlMap.put(uid.getValue(), ns) ;
+    Map<String, NamingSystem> map = systemUrlMap;
+    if (map == null) {
+      // filled in before it's published, so other threads never see a partial map
+      lock.readLock().lock();
+      try {
+        map = systemUrlMap;
+        if (map == null) {
+          map = new HashMap<>();
+          List<NamingSystem> nsl = systems.getList();
+          for (NamingSystem ns : nsl) {
+            for (NamingSystemUniqueIdComponent uid : ns.getUniqueId()) {
+              if (uid.getType() == NamingSystemIdentifierType.URI && uid.hasValue()) {
+                map.put(uid.getValue(), ns) ;
+              }
+            }        
           }
-        }        
+          systemUrlMap = map;
+        }
+      } finally {
+        lock.readLock().unlock();
       }
     }
-    return systemUrlMap;
+    return map;
   }
 
   
@@ -688,13 +750,19 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       return fetchCodeSystem(s, v);
     }
     CodeSystem cs;
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
       cs = codeSystems.get(system);
+    } finally {
+      lock.readLock().unlock();
     }
     if (cs == null && locator != null) {
       locator.findResource(this, system);
-      synchronized (lock) {
+      lock.readLock().lock();
+      try {
         cs = codeSystems.get(system);
+      } finally {
+        lock.readLock().unlock();
       }
     }
     return cs;
@@ -710,13 +778,19 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       return fetchCodeSystem(system);
     }
     CodeSystem cs;
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
       cs = codeSystems.get(system, version);
+    } finally {
+      lock.readLock().unlock();
     }
     if (cs == null && locator != null) {
       locator.findResource(this, system);
-      synchronized (lock) {
+      lock.readLock().lock();
+      try {
         cs = codeSystems.get(system);
+      } finally {
+        lock.readLock().unlock();
       }
     }
     return cs;
@@ -762,44 +836,49 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   
   @Override
   public boolean supportsSystem(String system) throws TerminologyServiceException {
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
       if (codeSystems.has(system) && codeSystems.get(system).getContent() != CodeSystemContentMode.NOTPRESENT) {
         return true;
-      } else if (supportedCodeSystems.contains(system)) {
-        return true;
-      } else if (system.startsWith("http://example.org") || system.startsWith("http://acme.com") || system.startsWith("http://hl7.org/fhir/valueset-") || system.startsWith("urn:oid:")) {
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    // the rest doesn't touch the resource maps, so it's done without holding the lock (it may go to the server)
+    if (supportedCodeSystems.contains(system)) {
+      return true;
+    } else if (system.startsWith("http://example.org") || system.startsWith("http://acme.com") || system.startsWith("http://hl7.org/fhir/valueset-") || system.startsWith("urn:oid:")) {
+      return false;
+    } else {
+      if (noTerminologyServer) {
         return false;
-      } else {
-        if (noTerminologyServer) {
-          return false;
-        }
-        if (terminologyClientManager != null) {
-          try {
-            if (terminologyClientManager.supportsSystem(system)) {
-              supportedCodeSystems.add(system);
-            }
-          } catch (Exception e) {
-            if (canRunWithoutTerminology) {
-              noTerminologyServer = true;
-              logger.logMessage("==============!! Running without terminology server !! ==============");
-              if (terminologyClientManager.getMasterClient() != null) {
-                logger.logMessage("txServer = "+ terminologyClientManager.getMasterClient().getId());
-                logger.logMessage("Error = "+e.getMessage()+"");
-              }
-              logger.logMessage("=====================================================================");
-              return false;
-            } else {
-              e.printStackTrace();
-              throw new TerminologyServiceException(e);
-            }
+      }
+      if (terminologyClientManager != null) {
+        try {
+          if (terminologyClientManager.supportsSystem(system)) {
+            supportedCodeSystems.add(system);
           }
-          if (supportedCodeSystems.contains(system)) {
-            return true;
+        } catch (Exception e) {
+          if (canRunWithoutTerminology) {
+            noTerminologyServer = true;
+            logger.logMessage("==============!! Running without terminology server !! ==============");
+            if (terminologyClientManager.getMasterClient() != null) {
+              logger.logMessage("txServer = "+ terminologyClientManager.getMasterClient().getId());
+              logger.logMessage("Error = "+e.getMessage()+"");
+            }
+            logger.logMessage("=====================================================================");
+            return false;
+          } else {
+            e.printStackTrace();
+            throw new TerminologyServiceException(e);
           }
         }
+        if (supportedCodeSystems.contains(system)) {
+          return true;
+        }
       }
-      return false;
     }
+    return false;
   }
 
 
@@ -870,7 +949,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     }
 
     try {
-      ValueSet result = tc.getClient().expandValueset(vs, p);
+      ValueSet result = tc.coalesce(cacheToken, () -> tc.request(() -> tc.getClient().expandValueset(vs, p)), ValueSet::copy);
       res = new ValueSetExpansionOutcome(result).setTxLink(txLog.getLastId());  
     } catch (Exception e) {
       res = new ValueSetExpansionOutcome(e.getMessage() == null ? e.getClass().getName() : e.getMessage(), TerminologyServiceErrorClass.UNKNOWN, true);
@@ -982,7 +1061,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     txLog("$expand on "+txCache.summary(vs)+" on "+tc.getAddress());
     
     try {
-      ValueSet result = tc.getClient().expandValueset(vs, p);
+      ValueSet result = tc.coalesce(cacheToken, () -> tc.request(() -> tc.getClient().expandValueset(vs, p)), ValueSet::copy);
       if (result != null) {
         if (!result.hasUrl()) {
           result.setUrl(vs.getUrl());
@@ -1033,6 +1112,12 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   }
 
 
+  /**
+   * Validate a set of codes (Codings or CodeableConcepts), making as few calls to the terminology server(s) as 
+   * possible: anything in the cache or that can be validated locally is, and the rest go to the server in one 
+   * batch for each server. The server answers are cached just as validateCode would cache them, so this can 
+   * be used to fill the cache ahead of calls to validateCode for the same codes 
+   */
   @Override
   public void validateCodeBatch(ValidationOptions options, List<? extends CodingValidationRequest> codes, ValueSet vs) {
     if (options == null) {
@@ -1042,9 +1127,18 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     // 2nd pass: What can we do internally 
     // 3rd pass: hit the server
     for (CodingValidationRequest t : codes) {
-      t.setCacheToken(txCache != null ? txCache.generateValidationToken(options, t.getCoding(), vs == null ? t.getVsObj() : vs, expParameters) : null);
-      if (t.getCoding().hasSystem()) {
-        codeSystemsUsed.add(t.getCoding().getSystem());
+      if (t.isCodeableConcept()) {
+        t.setCacheToken(txCache != null ? txCache.generateValidationToken(options, t.getCodeableConcept(), vs == null ? t.getVsObj() : vs, expParameters) : null);
+        for (Coding c : t.getCodeableConcept().getCoding()) {
+          if (c.hasSystem()) {
+            codeSystemsUsed.add(c.getSystem());
+          }
+        }
+      } else {
+        t.setCacheToken(txCache != null ? txCache.generateValidationToken(options, t.getCoding(), vs == null ? t.getVsObj() : vs, expParameters) : null);
+        if (t.getCoding().hasSystem()) {
+          codeSystemsUsed.add(t.getCoding().getSystem());
+        }
       }
       if (txCache != null) { 
         t.setResult(txCache.getValidation(t.getCacheToken()));
@@ -1052,16 +1146,26 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     }
     if (options.isUseClient()) {
       for (CodingValidationRequest t : codes) {
-        if (!t.hasResult()) {
+        // as for validateCode, codes in server side code systems always go to the server
+        if (!t.hasResult() && (t.isCodeableConcept() || !ValueSetUtilities.isServerSide(t.getCoding().getSystem()))) {
           try {
             ValueSetValidator vsc = constructValueSetCheckerSimple(options, vs == null ? t.getVsObj() : vs);
+            vsc.setUnknownSystems(t.getUnknownSystems());
             vsc.setThrowToServer(options.isUseServer() && terminologyClientManager.hasClient());
-            ValidationResult res = vsc.validateCode("Coding", t.getCoding());
+            ValidationResult res = t.isCodeableConcept() ? vsc.validateCode("CodeableConcept", t.getCodeableConcept()) : vsc.validateCode("Coding", t.getCoding());
             if (txCache != null) {
               txCache.cacheValidation(t.getCacheToken(), res, TerminologyCache.TRANSIENT);
             }
             t.setResult(res);
+          } catch (VSCheckerException e) {
+            if (e.isWarning()) {
+              t.setLocalWarning(e.getMessage());
+            } else {  
+              t.setLocalError(e.getMessage());
+            }
+            t.setLocalErrorClass(e.getType());
           } catch (Exception e) {
+            t.setLocalError(e.getMessage());
           }
         }
       }      
@@ -1069,10 +1173,18 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
 
     for (CodingValidationRequest t : codes) {
       if (!t.hasResult()) {
-        String codeKey = t.getCoding().hasVersion() ? t.getCoding().getSystem()+"|"+t.getCoding().getVersion() : t.getCoding().getSystem();
-        if (!options.isUseServer()) {
+        String codeKey = t.isCodeableConcept() ? null : t.getCoding().hasVersion() ? t.getCoding().getSystem()+"|"+t.getCoding().getVersion() : t.getCoding().getSystem();
+        if (t.getLocalError() != null && !terminologyClientManager.hasClient()) {
+          if (t.getUnknownSystems().size() > 0) {
+            t.setResult(new ValidationResult(IssueSeverity.ERROR, t.getLocalError(), TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED, null).setUnknownSystems(t.getUnknownSystems()));
+          } else {
+            t.setResult(new ValidationResult(IssueSeverity.ERROR, t.getLocalError(), TerminologyServiceErrorClass.UNKNOWN, null));
+          }
+        } else if (t.getLocalWarning() != null && !terminologyClientManager.hasClient()) {
+          t.setResult(new ValidationResult(IssueSeverity.WARNING,formatMessage(I18nConstants.UNABLE_TO_VALIDATE_CODE_WITHOUT_USING_SERVER, t.getLocalWarning()), TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, null));
+        } else if (!options.isUseServer()) {
          t.setResult(new ValidationResult(IssueSeverity.WARNING,formatMessage(I18nConstants.UNABLE_TO_VALIDATE_CODE_WITHOUT_USING_SERVER), TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, null));
-        } else if (unsupportedCodeSystems.contains(codeKey)) {
+        } else if (codeKey != null && unsupportedCodeSystems.contains(codeKey)) {
           t.setResult(new ValidationResult(IssueSeverity.ERROR,formatMessage(I18nConstants.TERMINOLOGY_TX_SYSTEM_NOTKNOWN, t.getCoding().getSystem()), TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED, null));      
         } else if (noTerminologyServer) {
           t.setResult(new ValidationResult(IssueSeverity.ERROR,formatMessage(I18nConstants.ERROR_VALIDATING_CODE_RUNNING_WITHOUT_TERMINOLOGY_SERVICES), TerminologyServiceErrorClass.NOSERVICE, null));
@@ -1082,39 +1194,68 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     
     if (expParameters == null)
       throw new Error(formatMessage(I18nConstants.NO_EXPANSIONPROFILE_PROVIDED));
-    // for those that that failed, we try to validate on the server
-    Bundle batch = new Bundle();
-    batch.setType(BundleType.BATCH);
-    Set<String> systems = findRelevantSystems(vs);
+    // for those that that failed, we try to validate on the server, in one batch for each server 
+    Map<TerminologyClientContext, Bundle> batches = new LinkedHashMap<>();
+    Map<TerminologyClientContext, Set<String>> batchSystems = new HashMap<>();
     for (CodingValidationRequest codingValidationRequest : codes) {
       if (!codingValidationRequest.hasResult()) {
-        Parameters pIn = constructParameters(options, codingValidationRequest, vs == null ? codingValidationRequest.getVsObj() : vs);
+        ValueSet vsr = vs == null ? codingValidationRequest.getVsObj() : vs;
+        Set<String> systems = codingValidationRequest.isCodeableConcept() ? findRelevantSystems(codingValidationRequest.getCodeableConcept(), vsr) : findRelevantSystems(codingValidationRequest.getCoding(), vsr);
+        TerminologyClientContext tc = terminologyClientManager.chooseServer(vsr, systems, false);
+        Bundle batch = batches.get(tc);
+        if (batch == null) {
+          batch = new Bundle();
+          batch.setType(BundleType.BATCH);
+          batches.put(tc, batch);
+          batchSystems.put(tc, new HashSet<>());
+        }
+        batchSystems.get(tc).addAll(systems);
+        Parameters pIn = constructParameters(options, codingValidationRequest, vsr);
         setTerminologyOptions(options, pIn);
         BundleEntryComponent be = batch.addEntry();
         be.setResource(pIn);
         be.getRequest().setMethod(HTTPVerb.POST);
-        if (vs != null || codingValidationRequest.getVsObj() != null) {
+        if (vsr != null) {
           be.getRequest().setUrl("ValueSet/$validate-code");          
         } else {
           be.getRequest().setUrl("CodeSystem/$validate-code");
         }
         be.setUserData("source", codingValidationRequest);
-        systems.add(codingValidationRequest.getCoding().getSystem());
-        findRelevantSystems(systems, codingValidationRequest.getCoding());
       }
     }
     
-    if (batch.getEntry().size() > 0) {
-      TerminologyClientContext tc = terminologyClientManager.chooseServer(vs, systems, false);
-      Bundle resp = processBatch(tc, batch, systems);      
+    for (TerminologyClientContext tc : batches.keySet()) {
+      Bundle batch = batches.get(tc);
+      Bundle resp = processBatch(tc, batch, batchSystems.get(tc));      
       for (int i = 0; i < batch.getEntry().size(); i++) {
         CodingValidationRequest t = (CodingValidationRequest) batch.getEntry().get(i).getUserData("source");
         BundleEntryComponent r = resp.getEntry().get(i);
 
         if (r.getResource() instanceof Parameters) {
-          t.setResult(processValidationResult((Parameters) r.getResource(), vs != null ? vs.getUrl() : t.getVsObj() != null ? t.getVsObj().getUrl() : null, tc.getAddress()));
+          ValidationResult res = processValidationResult((Parameters) r.getResource(), vs != null ? vs.getUrl() : t.getVsObj() != null ? t.getVsObj().getUrl() : null, tc.getAddress());
+          boolean persistent = true;
+          if (!t.isCodeableConcept()) {
+            // reconcile the server answer with what the local checker said, as validateCode does 
+            String codeKey = getCodeKey(t.getCoding());
+            String localError = t.getLocalError();
+            String localWarning = t.getLocalWarning();
+            if (!res.isOk() && res.getErrorClass() == TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED && (localError != null && !localError.equals(ValueSetValidator.NO_TRY_THE_SERVER))) {
+              res = new ValidationResult(IssueSeverity.ERROR, localError, null).setTxLink(txLog == null ? null : txLog.getLastId()).setErrorClass(t.getLocalErrorClass() == null ? TerminologyServiceErrorClass.UNKNOWN : t.getLocalErrorClass());
+            } 
+            if (!res.isOk() && localError != null) {
+              res.setDiagnostics("Local Error: "+localError.trim()+". Server Error: "+res.getMessage());
+            } else if (!res.isOk() && res.getErrorClass() == TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED && res.getUnknownSystems() != null && res.getUnknownSystems().contains(codeKey) && localWarning != null) {
+              res = new ValidationResult(IssueSeverity.WARNING, localWarning, null);
+              res.setDiagnostics("Local Warning: "+localWarning.trim()+". Server Error: "+res.getMessage());
+              persistent = false;
+            }
+            if (persistent) {
+              updateUnsupportedCodeSystems(res, t.getCoding(), codeKey);
+            }
+          }
+          t.setResult(res);
           if (txCache != null) {
-            txCache.cacheValidation(t.getCacheToken(), t.getResult(), TerminologyCache.PERMANENT);
+            txCache.cacheValidation(t.getCacheToken(), t.getResult(), persistent ? TerminologyCache.PERMANENT : TerminologyCache.TRANSIENT);
           }
         } else {
           t.setResult(new ValidationResult(IssueSeverity.ERROR, getResponseText(r.getResource()), null).setTxLink(txLog == null ? null : txLog.getLastId()));          
@@ -1131,7 +1272,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     if (txLog != null) {
       txLog.clearLastId();
     }
-    Bundle resp = tc.getClient().validateBatch(batch);
+    Bundle resp = tc.request(() -> tc.getClient().validateBatch(batch));
     if (resp == null) {
       throw new FHIRException(formatMessage(I18nConstants.TX_SERVER_NO_BATCH_RESPONSE));          
     }
@@ -1178,7 +1319,15 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     for (CodingValidationRequest t : codes) {
       if (!t.hasResult()) {
         String codeKey = t.getCoding().hasVersion() ? t.getCoding().getSystem()+"|"+t.getCoding().getVersion() : t.getCoding().getSystem();
-        if (!options.isUseServer()) {
+        if (t.getLocalError() != null && !terminologyClientManager.hasClient()) {
+          if (t.getUnknownSystems().size() > 0) {
+            t.setResult(new ValidationResult(IssueSeverity.ERROR, t.getLocalError(), TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED, null).setUnknownSystems(t.getUnknownSystems()));
+          } else {
+            t.setResult(new ValidationResult(IssueSeverity.ERROR, t.getLocalError(), TerminologyServiceErrorClass.UNKNOWN, null));
+          }
+        } else if (t.getLocalWarning() != null && !terminologyClientManager.hasClient()) {
+          t.setResult(new ValidationResult(IssueSeverity.WARNING,formatMessage(I18nConstants.UNABLE_TO_VALIDATE_CODE_WITHOUT_USING_SERVER, t.getLocalWarning()), TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, null));
+        } else if (!options.isUseServer()) {
          t.setResult(new ValidationResult(IssueSeverity.WARNING,formatMessage(I18nConstants.UNABLE_TO_VALIDATE_CODE_WITHOUT_USING_SERVER), TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, null));
         } else if (unsupportedCodeSystems.contains(codeKey)) {
           t.setResult(new ValidationResult(IssueSeverity.ERROR,formatMessage(I18nConstants.TERMINOLOGY_TX_SYSTEM_NOTKNOWN, t.getCoding().getSystem()), TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED, null));      
@@ -1353,7 +1502,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     }
     try {
       Parameters pIn = constructParameters(options, code);
-      res = validateOnServer(tc, vs, pIn, options);
+      res = tc.coalesce(cacheToken, () -> validateOnServer(tc, vs, pIn, options), ValidationResult::copy);
     } catch (Exception e) {
       res = new ValidationResult(IssueSeverity.ERROR, e.getMessage() == null ? e.getClass().getName() : e.getMessage(), null).setTxLink(txLog == null ? null : txLog.getLastId()).setErrorClass(TerminologyServiceErrorClass.SERVER_ERROR);
     }
@@ -1432,7 +1581,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       if (txLog != null) {
         txLog.clearLastId();
       }
-      Parameters pOut = tc.getClient().subsumes(pIn);
+      Parameters pOut = tc.request(() -> tc.getClient().subsumes(pIn));
       return processSubsumesResult(pOut, tc.getClient().getAddress());
     } catch (Exception e) {
       // e.printStackTrace();
@@ -1493,9 +1642,13 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
 
   protected Parameters constructParameters(ValidationOptions options, CodingValidationRequest codingValidationRequest, ValueSet valueSet) {
     Parameters pIn = new Parameters();
-    pIn.addParameter().setName("coding").setValue(codingValidationRequest.getCoding());
-    if (options.isGuessSystem()) {
-      pIn.addParameter().setName("inferSystem").setValue(new BooleanType(true));
+    if (codingValidationRequest.isCodeableConcept()) {
+      pIn.addParameter().setName("codeableConcept").setValue(codingValidationRequest.getCodeableConcept());
+    } else {
+      pIn.addParameter().setName("coding").setValue(codingValidationRequest.getCoding());
+      if (options.isGuessSystem()) {
+        pIn.addParameter().setName("inferSystem").setValue(new BooleanType(true));
+      }
     }
     if (valueSet != null) {
       pIn.addParameter().setName("valueSet").setResource(valueSet);
@@ -1617,7 +1770,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     txLog("$validate "+txCache.summary(code)+" for "+ txCache.summary(vs)+" on "+tc.getAddress());
     try {
       Parameters pIn = constructParameters(options, code);
-      res = validateOnServer(tc, vs, pIn, options);
+      res = tc.coalesce(cacheToken, () -> validateOnServer(tc, vs, pIn, options), ValidationResult::copy);
     } catch (Exception e) {
       res = new ValidationResult(IssueSeverity.ERROR, e.getMessage() == null ? e.getClass().getName() : e.getMessage(), null).setTxLink(txLog == null ? null : txLog.getLastId());
     }
@@ -1715,9 +1868,9 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     }
     Parameters pOut;
     if (vs == null) {
-      pOut = tc.getClient().validateCS(pin);
+      pOut = tc.request(() -> tc.getClient().validateCS(pin));
     } else {
-      pOut = tc.getClient().validateVS(pin);
+      pOut = tc.request(() -> tc.getClient().validateVS(pin));
     }
     return processValidationResult(pOut, vs == null ? null : vs.getUrl(), tc.getClient().getAddress());
   }
@@ -1953,6 +2106,29 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     terminologyClientManager.setCache(txCache);
   }
 
+  public TerminologyCache getTxCache() {
+    return txCache;
+  }
+
+  /**
+   * Load a terminology snapshot (see TerminologySnapshot). The terminology resources in it are loaded like any 
+   * other package (lazily, if the package is in a folder), and the cache entries in it are added to the 
+   * terminology cache, so validation of the content it covers doesn't need the terminology server. 
+   * 
+   * The cache entries are lost if the terminology cache is replaced (initTxCache) after the snapshot is loaded
+   * 
+   * @return the number of resources loaded
+   */
+  public int loadTerminologySnapshot(NpmPackage npm) throws FHIRException, IOException {
+    int res = loadFromPackage(npm, null, TerminologySnapshot.TYPES);
+    for (String fn : npm.list(TerminologySnapshot.CACHE_FOLDER)) {
+      if (TerminologyCache.isNamedCacheFile(fn)) {
+        txCache.importEntries(fn.substring(0, fn.lastIndexOf(".")), TextFile.streamToString(npm.load(TerminologySnapshot.CACHE_FOLDER, fn)));
+      }
+    }
+    return res;
+  }
+
   public void clearTSCache(String url) throws Exception {
     txCache.removeCS(url);
   }
@@ -2074,7 +2250,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     if (class_ == StructureDefinition.class) {
       uri = ProfileUtilities.sdNs(uri, null);
     }
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
 
       if (version == null) {
         if (uri.contains("|")) {
@@ -2207,6 +2384,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
         return null;
       } 
       throw new FHIRException(formatMessage(I18nConstants.NOT_DONE_YET_CANT_FETCH_, uri));
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
@@ -2235,7 +2414,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     }
     uri = ProfileUtilities.sdNs(uri, null);
 
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
 
       String version = null;
       if (uri.contains("|")) {
@@ -2291,6 +2471,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
         return questionnaires.getPackageInfo(uri, version);
       }         
       return null;
+    } finally {
+      lock.readLock().unlock();
     }
   }
   
@@ -2303,7 +2485,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     if ("StructureDefinition".equals(cls)) {
       uri = ProfileUtilities.sdNs(uri, null);
     }
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
 
       if (version == null) {
         if (uri.contains("|")) {
@@ -2431,6 +2614,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
         return null;
       } 
       throw new FHIRException(formatMessage(I18nConstants.NOT_DONE_YET_CANT_FETCH_, uri));
+    } finally {
+      lock.readLock().unlock();
     }
   }
   
@@ -2443,7 +2628,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
 
     List<T> res = new ArrayList<>();
 
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
 
       if (class_ == Resource.class || class_ == DomainResource.class || class_ == CanonicalResource.class || class_ == null) {
         res.addAll((List<T>) structures.getList());
@@ -2495,6 +2681,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       } else if (class_ == SearchParameter.class) {
         res.addAll((List<T>) searchParameters.getList());
       }
+    } finally {
+      lock.readLock().unlock();
     }
     return res;
   }
@@ -2511,7 +2699,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   
   @Override
   public Resource fetchResourceById(String type, String uri) {
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
       String[] parts = uri.split("\\/");
       if (!Utilities.noString(type) && parts.length == 1) {
         if (allResourcesById.containsKey(type)) {
@@ -2530,6 +2719,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       } else {
         throw new Error(formatMessage(I18nConstants.UNABLE_TO_PROCESS_REQUEST_FOR_RESOURCE_FOR___, type, uri));
       }
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
@@ -2639,7 +2830,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   }
 
   public void reportStatus(JsonObject json) {
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
       json.addProperty("codeystem-count", codeSystems.size());
       json.addProperty("valueset-count", valueSets.size());
       json.addProperty("conceptmap-count", maps.size());
@@ -2649,6 +2841,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       json.addProperty("statements-count", capstmts.size());
       json.addProperty("measures-count", measures.size());
       json.addProperty("libraries-count", libraries.size());
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
@@ -2658,13 +2852,10 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   }
 
   public void dropResource(String fhirType, String id) {
-    synchronized (lock) {
+    lock.writeLock().lock();
+    try {
 
-      Map<String, ResourceProxy> map = allResourcesById.get(fhirType);
-      if (map == null) {
-        map = new HashMap<String, ResourceProxy>();
-        allResourcesById.put(fhirType, map);
-      }
+      Map<String, ResourceProxy> map = resourceMapForUpdate(fhirType);
       if (map.containsKey(id)) {
         map.remove(id); // this is a challenge because we might have more than one resource with this id (different versions)
       }
@@ -2700,6 +2891,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       } else if (fhirType.equals("Requirements")) {
         requirements.drop(id);
       }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -2720,41 +2913,56 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
 
   
   public String listSupportedSystems() {
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
       String sl = null;
       for (String s : supportedCodeSystems) {
         sl = sl == null ? s : sl + "\r\n" + s;
       }
       return sl;
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
 
   public int totalCount() {
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
       return valueSets.size() +  maps.size() + structures.size() + transforms.size();
+    } finally {
+      lock.readLock().unlock();
     }
   }
   
   public List<ConceptMap> listMaps() {
     List<ConceptMap> m = new ArrayList<ConceptMap>();
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
       maps.listAll(m);
+    } finally {
+      lock.readLock().unlock();
     }
     return m;
   }
   
   public List<StructureDefinition> listStructures() {
     List<StructureDefinition> m = new ArrayList<StructureDefinition>();
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
       structures.listAll(m);    
+    } finally {
+      lock.readLock().unlock();
     }
     return m;
   }
 
   public StructureDefinition getStructure(String code) {
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
       return structures.get(code);
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
@@ -2777,14 +2985,15 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   }
 
   public void cacheVS(JsonObject json, Map<String, ValidationResult> t) {
-    synchronized (lock) {
-      validationCache.put(json.get("url").getAsString(), t);
-    }
+    validationCache.put(json.get("url").getAsString(), t);
   }
 
   public SearchParameter getSearchParameter(String code) {
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
       return searchParameters.get(code);
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
@@ -3185,6 +3394,48 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     validationCache.clear();
     txCache.unload();
 }
+
+  private List<CanonicalResourceManager<?>> resourceManagers() {
+    return Arrays.asList(codeSystems, valueSets, maps, transforms, structures, measures, libraries, guides, capstmts, 
+        searchParameters, questionnaires, operations, plans, actors, requirements, systems);
+  }
+
+  public boolean isMinimalMemory() {
+    return minimalMemory;
+  }
+
+  /**
+   * In minimal memory mode, resources loaded on demand from packages can be released by the garbage 
+   * collector when memory is short, and are parsed again from the package when they are next needed. 
+   * This trades some speed for being able to load many more packages into a limited heap. 
+   * 
+   * Resources that are already loaded are released when this is switched on; use getResourceCacheStatistics() 
+   * to see how often resources are being parsed again
+   * 
+   * @param minimalMemory
+   */
+  public void setMinimalMemory(boolean minimalMemory) {
+    lock.writeLock().lock();
+    try {
+      this.minimalMemory = minimalMemory;
+      for (CanonicalResourceManager<?> crm : resourceManagers()) {
+        crm.setMinimalMemory(minimalMemory);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the hits, misses and evictions across all the resource managers in this context (in minimal memory mode)
+   */
+  public CacheStatistics getResourceCacheStatistics() {
+    CacheStatistics res = new CacheStatistics();
+    for (CanonicalResourceManager<?> crm : resourceManagers()) {
+      res.add(crm.getStatistics());
+    }
+    return res;
+  }
   
   private <T extends Resource> T doFindTxResource(Class<T> class_, String canonical) {
     // well, we haven't found it locally. We're going look it up
@@ -3259,7 +3510,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       if (uri.contains("#")) {
         uri = uri.substring(0, uri.indexOf("#"));
       } 
-      synchronized (lock) {
+      lock.readLock().lock();
+      try {
         if (class_ == Resource.class || class_ == null) {
           for (Map<String, ResourceProxy> rt : allResourcesById.values()) {
             for (ResourceProxy r : rt.values()) {
@@ -3334,6 +3586,8 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
             res.add((T) cr);
           } 
         }
+      } finally {
+        lock.readLock().unlock();
       }
     }
     return res;
@@ -1,6 +1,12 @@
 package org.hl7.fhir.r5.context;
 
+import java.lang.ref.SoftReference;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r5.model.CanonicalResource;
@@ -27,6 +33,40 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     "http://nucc.org/provider-taxonomy"
   };
 
+  /**
+   * Counts what happens when resources are fetched from proxies that are allowed to let go 
+   * of their parsed resources (see setMinimalMemory). A miss is a parse (the first, or after 
+   * an eviction); an eviction is a miss where the parsed resource had been collected
+   */
+  public static class CacheStatistics {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public long getHits() {
+      return hits.sum();
+    }
+
+    public long getMisses() {
+      return misses.sum();
+    }
+
+    public long getEvictions() {
+      return evictions.sum();
+    }
+
+    public void add(CacheStatistics other) {
+      hits.add(other.getHits());
+      misses.add(other.getMisses());
+      evictions.add(other.getEvictions());
+    }
+
+    @Override
+    public String toString() {
+      return "hits="+getHits()+", misses="+getMisses()+", evictions="+getEvictions();
+    }
+  }
+
   public static abstract class CanonicalResourceProxy {
     private String type;
     private String id;
@@ -35,6 +75,8 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     private String supplements;
     private String derivation;
     private CanonicalResource resource;
+    private SoftReference<CanonicalResource> softResource; // instead of resource, when evictable
+    private volatile CacheStatistics statistics; // not null if evictable
     private boolean hacked;
     private String content;
     
@@ -93,19 +135,84 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
       this.derivation = derivation;
     }
 
-    public CanonicalResource getResource() throws FHIRException {
-      if (resource == null) {
-        resource = loadResource();
-        if (hacked) {
-          resource.setUrl(url).setVersion(version);
-        }
-        if (resource instanceof CodeSystem) {
-          CodeSystemUtilities.crossLinkCodeSystem((CodeSystem) resource);
+    public synchronized CanonicalResource getResource() throws FHIRException {
+      if (statistics != null) {
+        CanonicalResource res = softResource == null ? null : softResource.get();
+        if (res != null) {
+          statistics.hits.increment();
+        } else {
+          if (softResource != null) {
+            statistics.evictions.increment();
+          }
+          statistics.misses.increment();
+          res = parseResource();
+          softResource = new SoftReference<>(res);
         }
+        return res;
+      }
+      if (resource == null) {
+        resource = parseResource();
       }
       return resource;
     }
 
+    private CanonicalResource parseResource() throws FHIRException {
+      CanonicalResource res = loadResource();
+      if (hacked) {
+        res.setUrl(url).setVersion(version);
+      }
+      if (res instanceof CodeSystem) {
+        CodeSystemUtilities.crossLinkCodeSystem((CodeSystem) res);
+      }
+      return res;
+    }
+
+    /**
+     * From now on, only keep a soft reference to the parsed resource, so the garbage collector 
+     * can reclaim it when memory is short. It will be parsed again by loadResource() the next 
+     * time it's needed, so loadResource() must be able to be called more than once. Note that 
+     * changes made to the resource after it is loaded (e.g. generating a snapshot) are lost 
+     * when it is evicted, and will be made again. The same goes for anything kept in the 
+     * resource's user data (e.g. the code system and value set indexes): it goes with the 
+     * resource, and is built again the next time it's needed
+     * 
+     * @param statistics where to count hits, misses and evictions
+     */
+    public synchronized void makeEvictable(CacheStatistics statistics) {
+      if (this.statistics == null) {
+        this.statistics = statistics;
+        if (resource != null) {
+          softResource = new SoftReference<>(resource);
+          resource = null;
+        }
+      }
+    }
+
+    /**
+     * Go back to holding the parsed resource (if it hasn't already been collected), 
+     * so it's never parsed more than once again
+     */
+    public synchronized void makePinned() {
+      if (statistics != null) {
+        resource = softResource == null ? null : softResource.get();
+        softResource = null;
+        statistics = null;
+      }
+    }
+
+    /**
+     * If evictable, let go of the parsed resource now, as if the garbage collector had collected it
+     */
+    public synchronized void evict() {
+      if (statistics != null && softResource != null) {
+        softResource.clear();
+      }
+    }
+
+    public boolean isEvictable() {
+      return statistics != null;
+    }
+
     public void setResource(CanonicalResource resource) {
       this.resource = resource;
     }
@@ -136,13 +243,14 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   }
 
   public class CachedCanonicalResource<T1 extends CanonicalResource> {
-    private T1 resource;
-    private CanonicalResourceProxy proxy;
+    private volatile T1 resource;
+    private final CanonicalResourceProxy proxy; // kept once loaded: readers on other threads may still be looking at it
     private PackageInformation packageInfo;
 
     public CachedCanonicalResource(T1 resource, PackageInformation packageInfo) {
       super();
       this.resource = resource;
+      this.proxy = null;
       this.packageInfo = packageInfo;
     }
     
@@ -153,19 +261,33 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     }
     
     public T1 getResource() {
-      if (resource == null) {
+      if (proxy != null && proxy.isEvictable()) {
+        // the proxy manages the parsed resource; don't hold on to it here 
         @SuppressWarnings("unchecked")
         T1 res = (T1) proxy.getResource();
         if (res == null) {
           throw new Error("Proxy loading a resource from "+packageInfo+" failed and returned null");
         }
+        res.setSourcePackage(packageInfo);
+        return res;
+      }
+      T1 res = resource;
+      if (res == null) {
         synchronized (this) {
-          resource = res;
+          res = resource;
+          if (res == null) {
+            @SuppressWarnings("unchecked")
+            T1 loaded = (T1) proxy.getResource();
+            if (loaded == null) {
+              throw new Error("Proxy loading a resource from "+packageInfo+" failed and returned null");
+            }
+            loaded.setSourcePackage(packageInfo);
+            resource = loaded;
+            res = loaded;
+          }
         }
-        resource.setSourcePackage(packageInfo);
-        proxy = null;
       }
-      return resource;
+      return res;
     }
     
     public PackageInformation getPackageInfo() {
@@ -271,6 +393,10 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   private Map<String, CachedCanonicalResource<T>> map;
   private Map<String, List<CachedCanonicalResource<T>>> supplements; // general index based on CodeSystem.supplements
   private String version; // for debugging purposes
+  private CanonicalResourceManager<T> base; // shared content underneath this manager - see layerOver()
+  private Set<CachedCanonicalResource<T>> dropped = new HashSet<>(); // resources in the base that have been dropped from this layer
+  private CacheStatistics statistics = new CacheStatistics();
+  private ReadWriteLock lock; // what protects this manager from concurrent change, if anything - see setLock()
   
   
   public CanonicalResourceManager(boolean enforceUniqueId, boolean minimalMemory) {
@@ -289,6 +415,45 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     return version;
   }
 
+  public boolean isMinimalMemory() {
+    return minimalMemory;
+  }
+
+  /**
+   * In minimal memory mode, resources that were registered as proxies (i.e. loaded from packages 
+   * on demand) are only held by soft references once they are parsed, and are parsed again if they 
+   * have been collected. Resources that were seen directly are always kept. Switching it on 
+   * also releases any proxied resources that have already been parsed; switching it off keeps 
+   * them again from then on. Anything held in the user data of an evicted resource is lost 
+   * with it (see CanonicalResourceProxy.makeEvictable)
+   *  
+   * @param minimalMemory
+   */
+  public void setMinimalMemory(boolean minimalMemory) {
+    this.minimalMemory = minimalMemory;
+    if (minimalMemory) {
+      for (CachedCanonicalResource<T> t : list) {
+        if (t.proxy != null) {
+          t.proxy.makeEvictable(statistics);
+          t.unload();
+        }
+      }
+    } else {
+      for (CachedCanonicalResource<T> t : list) {
+        if (t.proxy != null) {
+          t.proxy.makePinned();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return hits, misses and evictions for the resources in this manager (not including the base, if it's layered) 
+   */
+  public CacheStatistics getStatistics() {
+    return statistics;
+  }
+
 
   public void setVersion(String version) {
     this.version = version;
@@ -301,11 +466,105 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     list.addAll(source.list);
     map.putAll(source.map);
   }
+
+  /**
+   * Makes this manager a thin layer over another one. Everything in the base is visible 
+   * through this manager, but resources seen or dropped from now on only change this layer, 
+   * so the base can be shared by any number of layers (e.g. one per validation session).
+   * <p>
+   * This is O(1) - nothing is copied. Once it has layers, the base should not be changed
+   * (other than through a layer). If the base has a lock (see setLock), the layers take its 
+   * read lock whenever they read through to the base; whatever protects a layer from concurrent 
+   * change still has to protect the layer's own content
+   * 
+   * @param base
+   */
+  public void layerOver(CanonicalResourceManager<T> base) {
+    clear();
+    this.base = base;
+  }
+
+  public boolean isLayered() {
+    return base != null;
+  }
+
+  /**
+   * @param lock the lock that whatever owns this manager holds (for write) while it changes the manager. 
+   * Layers over this manager hold its read lock while they read through to it
+   */
+  public void setLock(ReadWriteLock lock) {
+    this.lock = lock;
+  }
+
+  private <R> R readBase(Supplier<R> read) {
+    Lock l = base.lock == null ? null : base.lock.readLock();
+    if (l != null) {
+      l.lock();
+    }
+    try {
+      return read.get();
+    } finally {
+      if (l != null) {
+        l.unlock();
+      }
+    }
+  }
+
+  private CachedCanonicalResource<T> lookup(String key) {
+    CachedCanonicalResource<T> cr = map.get(key);
+    if (cr == null && base != null) {
+      cr = readBase(() -> base.lookup(key));
+      if (cr != null && dropped.contains(cr)) {
+        return null;
+      }
+    }
+    return cr;
+  }
+
+  private List<CachedCanonicalResource<T>> lookupList(Function<CanonicalResourceManager<T>, Map<String, List<CachedCanonicalResource<T>>>> index, String key) {
+    List<CachedCanonicalResource<T>> res = index.apply(this).get(key);
+    if (res == null && base != null) {
+      res = readBase(() -> {
+        List<CachedCanonicalResource<T>> bl = base.lookupList(index, key);
+        return bl == null ? null : new ArrayList<>(bl);
+      });
+      if (res != null) {
+        res.removeAll(dropped);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * the list for the url in this layer, starting with whatever is in the base if this layer 
+   * doesn't have one yet (so that the version ordering is maintained across the layers)
+   */
+  private List<CachedCanonicalResource<T>> urlListForUpdate(String url) {
+    return listForUpdate(m -> m.listForUrl, url);
+  }
+
+  /**
+   * the list for the key in one of this layer's indexes, starting with whatever is in the base 
+   * if this layer doesn't have one yet (otherwise the base entries would be hidden)
+   */
+  private List<CachedCanonicalResource<T>> listForUpdate(Function<CanonicalResourceManager<T>, Map<String, List<CachedCanonicalResource<T>>>> index, String key) {
+    Map<String, List<CachedCanonicalResource<T>>> lists = index.apply(this);
+    List<CachedCanonicalResource<T>> set = lists.get(key);
+    if (set == null) {
+      set = lookupList(index, key);
+      set = set == null ? new ArrayList<>() : set; 
+      lists.put(key, set);
+    }
+    return set;
+  }
   
   public void register(CanonicalResourceProxy r, PackageInformation packgeInfo) {
     if (!r.hasId()) {
       throw new FHIRException("An id is required for a deferred load resource");
     }
+    if (minimalMemory) {
+      r.makeEvictable(statistics);
+    }
     CanonicalResourceManager<T>.CachedCanonicalResource<T> cr = new CachedCanonicalResource<T>(r, packgeInfo);
     see(cr);
   }
@@ -330,7 +589,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
       && Arrays.stream(INVALID_TERMINOLOGY_URLS).anyMatch((it)->it.equals(cr.getUrl()))) {
       return;
     }  
-    if (map.get(cr.getUrl()) != null && (cr.getPackageInfo() != null && cr.getPackageInfo().isExamplesPackage())) {
+    if (lookup(cr.getUrl()) != null && (cr.getPackageInfo() != null && cr.getPackageInfo().isExamplesPackage())) {
       return;
     }
     
@@ -340,16 +599,19 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     }      
 
     // -- 3. deleting existing content ---------------------------------------------------------------
-    if (enforceUniqueId && map.containsKey(cr.getId())) {
+    if (enforceUniqueId && lookup(cr.getId()) != null) {
       drop(cr.getId());      
     }
     
     // special case logic for UTG support prior to version 5
     if (cr.getPackageInfo() != null && cr.getPackageInfo().getId().startsWith("hl7.terminology")) {
       List<CachedCanonicalResource<T>> toDrop = new ArrayList<>();
-      for (CachedCanonicalResource<T> n : list) {
-        if (n.getUrl() != null && n.getUrl().equals(cr.getUrl()) && isBasePackage(n.getPackageInfo())) {
-          toDrop.add(n);
+      List<CachedCanonicalResource<T>> existing = base == null ? list : lookupList(m -> m.listForUrl, cr.getUrl());
+      if (existing != null) {
+        for (CachedCanonicalResource<T> n : existing) {
+          if (n.getUrl() != null && n.getUrl().equals(cr.getUrl()) && isBasePackage(n.getPackageInfo())) {
+            toDrop.add(n);
+          }
         }
       }
       for (CachedCanonicalResource<T> n : toDrop) {
@@ -363,18 +625,12 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     
     // -- 4. ok we add it to the list ---------------------------------------------------------------
     if (!enforceUniqueId) {
-      if (!listForId.containsKey(cr.getId())) {
-        listForId.put(cr.getId(), new ArrayList<>());
-      }    
-      List<CachedCanonicalResource<T>> set = listForId.get(cr.getId());
+      List<CachedCanonicalResource<T>> set = listForUpdate(m -> m.listForId, cr.getId());
       set.add(cr);      
     }
     list.add(cr);
-    if (!listForUrl.containsKey(cr.getUrl())) {
-      listForUrl.put(cr.getUrl(), new ArrayList<>());
-    }    
+    List<CachedCanonicalResource<T>> set = urlListForUpdate(cr.getUrl());
     addToSupplements(cr);
-    List<CachedCanonicalResource<T>> set = listForUrl.get(cr.getUrl());
     set.add(cr);
     if (set.size() > 1) {
       Collections.sort(set, new MetadataResourceVersionComparator<CachedCanonicalResource<T>>());
@@ -415,12 +671,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   private void addToSupplements(CanonicalResourceManager<T>.CachedCanonicalResource<T> cr) {
     String surl = cr.supplements();
     if (surl != null) {
-      List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = supplements.get(surl);
-      if (list == null) {
-        list = new ArrayList<>();
-        supplements.put(surl, list);
-      }
-      list.add(cr);
+      listForUpdate(m -> m.supplements, surl).add(cr);
     }    
   }
 
@@ -429,12 +680,17 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     while (map.values().remove(cr)); 
     while (listForId.values().remove(cr)); 
     while (listForUrl.values().remove(cr)); 
+    if (!enforceUniqueId && cr.getId() != null && (listForId.containsKey(cr.getId()) || base != null)) {
+      listForUpdate(m -> m.listForId, cr.getId()).remove(cr);
+    }
     String surl = cr.supplements();
-    if (surl != null) {
-      supplements.get(surl).remove(cr);
+    if (surl != null && (supplements.containsKey(surl) || base != null)) {
+      listForUpdate(m -> m.supplements, surl).remove(cr);
     }
-    list.remove(cr);
-    List<CachedCanonicalResource<T>> set = listForUrl.get(cr.getUrl());
+    if (!list.remove(cr) && base != null) {
+      dropped.add(cr); // it's in the base; hide it from this layer
+    }
+    List<CachedCanonicalResource<T>> set = base == null ? listForUrl.get(cr.getUrl()) : urlListForUpdate(cr.getUrl());
     if (set != null) { // it really should be
       boolean last = set.indexOf(cr) == set.size()-1;
       set.remove(cr);
@@ -458,14 +714,14 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   
   public void drop(String id) {
     if (enforceUniqueId) {
-      CachedCanonicalResource<T> cr = map.get(id);
+      CachedCanonicalResource<T> cr = lookup(id);
       if (cr != null) {
         drop(cr);
       }
     } else {
-      List<CachedCanonicalResource<T>> set = listForId.get(id);
+      List<CachedCanonicalResource<T>> set = lookupList(m -> m.listForId, id);
       if (set != null) { // it really should be
-        for (CachedCanonicalResource<T> i : set) {
+        for (CachedCanonicalResource<T> i : new ArrayList<>(set)) { // drop() removes it from the list
           drop(i);
         }
       }
@@ -506,32 +762,35 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
  
 
   public boolean has(String url) {
-    return map.containsKey(url);
+    return lookup(url) != null;
   }
 
   public boolean has(String system, String version) {
-    if (map.containsKey(system+"|"+version))
+    if (lookup(system+"|"+version) != null)
       return true;
     String mm = VersionUtilities.getMajMin(version);
     if (mm != null)
-      return map.containsKey(system+"|"+mm);
+      return lookup(system+"|"+mm) != null;
     else
       return false;
   }
   
   public T get(String url) {
-    return map.containsKey(url) ? map.get(url).getResource() : null;
+    CachedCanonicalResource<T> cr = lookup(url);
+    return cr != null ? cr.getResource() : null;
   }
   
   public T get(String system, String version) {
     if (version == null) {
       return get(system);
     } else {
-      if (map.containsKey(system+"|"+version))
-        return map.get(system+"|"+version).getResource();
+      CachedCanonicalResource<T> cr = lookup(system+"|"+version);
+      if (cr != null)
+        return cr.getResource();
       String mm = VersionUtilities.getMajMin(version);
-      if (mm != null && map.containsKey(system+"|"+mm))
-        return map.get(system+"|"+mm).getResource();
+      cr = mm == null ? null : lookup(system+"|"+mm);
+      if (cr != null)
+        return cr.getResource();
       else
         return null;
     }
@@ -539,7 +798,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   
   public List<T> getForUrl(String url) {
     List<T> res = new ArrayList<>();
-    List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = listForUrl.get(url);
+    List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = lookupList(m -> m.listForUrl, url);
     if (list != null) {
       for (CanonicalResourceManager<T>.CachedCanonicalResource<T> t : list) {
         res.add(t.getResource());
@@ -561,11 +820,12 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
    */
   public T get(String url, List<String> pvlist) {
     for (String pv : pvlist) {
-      if (map.containsKey(pv+":"+url)) {
-        return map.get(pv+":"+url).getResource();
+      CachedCanonicalResource<T> cr = lookup(pv+":"+url);
+      if (cr != null) {
+        return cr.getResource();
       }      
     }
-    return map.containsKey(url) ? map.get(url).getResource() : null;
+    return get(url);
   }
   
   public T get(String system, String version, List<String> pvlist) {
@@ -573,20 +833,24 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
       return get(system, pvlist);
     } else {
       for (String pv : pvlist) {
-        if (map.containsKey(pv+":"+system+"|"+version))
-          return map.get(pv+":"+system+"|"+version).getResource();
+        CachedCanonicalResource<T> cr = lookup(pv+":"+system+"|"+version);
+        if (cr != null)
+          return cr.getResource();
       }
       String mm = VersionUtilities.getMajMin(version);
-      if (mm != null && map.containsKey(system+"|"+mm))
+      if (mm != null && lookup(system+"|"+mm) != null)
         for (String pv : pvlist) {
-          if (map.containsKey(pv+":"+system+"|"+mm))
-            return map.get(pv+":"+system+"|"+mm).getResource();
+          CachedCanonicalResource<T> cr = lookup(pv+":"+system+"|"+mm);
+          if (cr != null)
+            return cr.getResource();
       }
 
-      if (map.containsKey(system+"|"+version))
-        return map.get(system+"|"+version).getResource();
-      if (mm != null && map.containsKey(system+"|"+mm))
-        return map.get(system+"|"+mm).getResource();
+      CachedCanonicalResource<T> cr = lookup(system+"|"+version);
+      if (cr != null)
+        return cr.getResource();
+      cr = mm == null ? null : lookup(system+"|"+mm);
+      if (cr != null)
+        return cr.getResource();
       else
         return null;
     }
@@ -596,13 +860,16 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
  
   public PackageInformation getPackageInfo(String system, String version) {
     if (version == null) {
-      return map.containsKey(system) ? map.get(system).getPackageInfo() : null;
+      CachedCanonicalResource<T> cr = lookup(system);
+      return cr != null ? cr.getPackageInfo() : null;
     } else {
-      if (map.containsKey(system+"|"+version))
-        return map.get(system+"|"+version).getPackageInfo();
+      CachedCanonicalResource<T> cr = lookup(system+"|"+version);
+      if (cr != null)
+        return cr.getPackageInfo();
       String mm = VersionUtilities.getMajMin(version);
-      if (mm != null && map.containsKey(system+"|"+mm))
-        return map.get(system+"|"+mm).getPackageInfo();
+      cr = mm == null ? null : lookup(system+"|"+mm);
+      if (cr != null)
+        return cr.getPackageInfo();
       else
         return null;
     }
@@ -612,19 +879,19 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   
   
   public int size() {
-    return list.size();
+    return base == null ? list.size() : readBase(() -> base.size()) - dropped.size() + list.size();
   }
   
 
   
   public void listAll(List<T> result) {
-    for (CachedCanonicalResource<T>  t : list) {
+    for (CachedCanonicalResource<T>  t : getCachedList()) {
       result.add(t.getResource()); 
     }
   }
 
   public void listAllM(List<CanonicalResource> result) {
-    for (CachedCanonicalResource<T>  t : list) {
+    for (CachedCanonicalResource<T>  t : getCachedList()) {
       result.add(t.getResource()); 
     }
   }
@@ -651,7 +918,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     boolean possibleMatches = false;
     List<T> res = new ArrayList<>();
     if (version != null) {
-      List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = supplements.get(url+"|"+version);
+      List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = lookupList(m -> m.supplements, url+"|"+version);
       if (list != null) {
         for (CanonicalResourceManager<T>.CachedCanonicalResource<T> t : list) {
           possibleMatches = true;
@@ -661,7 +928,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
         }
       }      
     }
-    List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = supplements.get(url);
+    List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = lookupList(m -> m.supplements, url);
     if (list != null) {
       for (CanonicalResourceManager<T>.CachedCanonicalResource<T> t : list) {
         possibleMatches = true;
@@ -677,19 +944,35 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     }
   }
   
+  /**
+   * Drop everything in this manager. If it's layered, only this layer's changes are dropped: 
+   * the base isn't changed, and everything in it is visible again
+   */
   public void clear() {
     list.clear();
     map.clear();
-    
+    listForId.clear();
+    listForUrl.clear();
+    supplements.clear();
+    dropped.clear();
   }
 
+  /**
+   * @return the resources in this manager, including the base (if it's layered), in the order they were seen
+   */
   public List<CachedCanonicalResource<T>> getCachedList() {
-    return list;
+    if (base == null) {
+      return list;
+    }
+    List<CachedCanonicalResource<T>> res = readBase(() -> new ArrayList<>(base.getCachedList()));
+    res.removeAll(dropped);
+    res.addAll(list);
+    return res;
   }
 
   public List<T> getList() {
     List<T> res = new ArrayList<>();
-    for (CachedCanonicalResource<T> t : list) {
+    for (CachedCanonicalResource<T> t : getCachedList()) {
       if (!res.contains(t.getResource())) {
         res.add(t.getResource());
       }
@@ -704,7 +987,16 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   }
 
   public Set<String> keys() {
-    return map.keySet();
+    if (base == null) {
+      return map.keySet();
+    }
+    Set<String> res = new HashSet<>(map.keySet());
+    for (String key : readBase(() -> new ArrayList<>(base.keys()))) {
+      if (!res.contains(key) && lookup(key) != null) { // not if it's been dropped from this layer
+        res.add(key);
+      }
+    }
+    return res;
   }
 
   public boolean isEnforceUniqueId() {
@@ -712,6 +1004,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   }
 
 
+  // only unloads this layer - the base is shared
   public void unload() {
     for (CachedCanonicalResource<T> t : list) {
       t.unload();
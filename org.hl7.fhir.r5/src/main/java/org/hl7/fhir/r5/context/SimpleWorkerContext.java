@@ -101,16 +101,28 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     private final String filename;
     private final IContextResourceLoader loader;
     private PackageInformation pi;
+    private final SnapshotCache snapshotCache;
 
     public PackageResourceLoader(PackageResourceInformation pri, IContextResourceLoader loader, PackageInformation pi) {
+      this(pri, loader, pi, null);
+    }
+
+    public PackageResourceLoader(PackageResourceInformation pri, IContextResourceLoader loader, PackageInformation pi, SnapshotCache snapshotCache) {
       super(pri.getResourceType(), pri.getId(), loader == null ? pri.getUrl() :loader.patchUrl(pri.getUrl(), pri.getResourceType()), pri.getVersion(), pri.getSupplements(), pri.getDerivation(), pri.getContent());
       this.filename = pri.getFilename();
       this.loader = loader;
       this.pi = pi;
+      this.snapshotCache = snapshotCache;
     }
 
     @Override
     public CanonicalResource loadResource() {
+      if (snapshotCache != null && "StructureDefinition".equals(getType())) {
+        StructureDefinition sd = snapshotCache.load(pi, getId());
+        if (sd != null) {
+          return setPi(sd);
+        }
+      }
       try {
         FileInputStream f = ManagedFileAccess.inStream(filename);
         try  {
@@ -152,6 +164,7 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
   private boolean canNoTS;
   private XVerExtensionManager xverManager;
   private boolean allowLazyLoading = true;
+  private SnapshotCache snapshotCache;
 
   private SimpleWorkerContext() throws IOException, FHIRException {
     super();
@@ -183,6 +196,7 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     canNoTS = other.canNoTS;
     xverManager = other.xverManager;
     allowLazyLoading = other.allowLazyLoading;
+    snapshotCache = other.snapshotCache;
   }
 
 
@@ -216,6 +230,9 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     @With
     private final ILoggingService loggingService;
 
+    @With
+    private final String snapshotCachePath;
+
     public SimpleWorkerContextBuilder() {
       cacheTerminologyClientErrors = false;
       alwaysUseTerminologyServer = false;
@@ -225,6 +242,7 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
       userAgent = null;
       allowLoadingDuplicates = false;
       loggingService = new SystemOutLoggingService();
+      snapshotCachePath = null;
     }
 
     private SimpleWorkerContext getSimpleWorkerContextInstance() throws IOException {
@@ -261,6 +279,9 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
       context.setAllowLoadingDuplicates(allowLoadingDuplicates);      
       context.version = pi.getNpm().asString("version");
       context.terminologyClientManager.setFactory(loader.txFactory());
+      if (snapshotCachePath != null) {
+        context.setSnapshotCache(new SnapshotCache(snapshotCachePath, context.version));
+      }
       context.loadFromPackage(pi, loader);
       context.finishLoading(genSnapshots);
       return build(context);
@@ -493,6 +514,28 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
   }
 
 
+  /**
+   * @return the packages that were loaded for the package's dependencies (by id), which may be other versions 
+   * than the ones it asks for 
+   */
+  private List<String> loadedDependencies(NpmPackage pi) {
+    List<String> res = new ArrayList<>();
+    for (String dep : pi.dependencies()) {
+      String loaded = dep;
+      if (!loadedPackages.contains(dep) && dep.contains("#")) {
+        String id = dep.substring(0, dep.indexOf("#")+1);
+        for (String lp : loadedPackages) {
+          if (lp.startsWith(id)) {
+            loaded = lp;
+            break;
+          }
+        }
+      }
+      res.add(loaded);
+    }
+    return res;
+  }
+
   public int loadFromPackageInt(NpmPackage pi, IContextResourceLoader loader, List<String> types) throws IOException, FHIRException {
     int t = 0;
     if (progress) {
@@ -516,6 +559,9 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
       types = loader.getTypes();
     }
     PackageInformation pii = new PackageInformation(pi);
+    if (snapshotCache != null) {
+      snapshotCache.setDependencies(pii, loadedDependencies(pi));
+    }
     if (VersionUtilities.isR2Ver(pi.fhirVersion()) || !pi.canLazyLoad() || !allowLazyLoading) {
       // can't lazy load R2 because of valueset/codesystem implementation
       if (types == null || types.size() == 0) {
@@ -539,7 +585,7 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
             if (!pri.hasId()) {
               loadDefinitionItem(pri.getFilename(), ManagedFileAccess.inStream(pri.getFilename()), loader, null, pii);
             } else {
-              registerResourceFromPackage(new PackageResourceLoader(pri, loader, pii), pii);
+              registerResourceFromPackage(new PackageResourceLoader(pri, loader, pii, snapshotCache), pii);
             }
             t++;
           } catch (FHIRException e) {
@@ -699,6 +745,18 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     return res;
   }
 
+  public SnapshotCache getSnapshotCache() {
+    return snapshotCache;
+  }
+
+  /**
+   * Profiles from packages loaded after this is set are read from the cache if they're in it, and 
+   * put in it when their snapshots are generated
+   */
+  public void setSnapshotCache(SnapshotCache snapshotCache) {
+    this.snapshotCache = snapshotCache;
+  }
+
   public IValidatorFactory getValidatorFactory() {
     return validatorFactory;
   }
@@ -713,7 +771,11 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     if (r instanceof StructureDefinition) {
       StructureDefinition p = (StructureDefinition)r;
       try {
+        boolean generating = !p.hasSnapshot();
         new ContextUtilities(this).generateSnapshot(p);
+        if (generating && snapshotCache != null) {
+          snapshotCache.save(p);
+        }
       } catch (Exception e) {
         // not sure what to do in this case?
         System.out.println("Unable to generate snapshot @3 for "+uri+": "+e.getMessage());
@@ -746,7 +808,11 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
           }
           p.setGeneratingSnapshot(true);
           try {
+            boolean generating = !p.hasSnapshot();
             new ContextUtilities(this).generateSnapshot(p);
+            if (generating && snapshotCache != null) {
+              snapshotCache.save(p);
+            }
           } finally {
             p.setGeneratingSnapshot(false);      
           }
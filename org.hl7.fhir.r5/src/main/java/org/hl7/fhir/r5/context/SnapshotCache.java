@@ -0,0 +1,237 @@
+package org.hl7.fhir.r5.context;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.r5.conformance.profile.ProfileUtilities;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.r5.model.PackageInformation;
+import org.hl7.fhir.r5.model.Property;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.VersionUtil;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+import org.hl7.fhir.utilities.json.model.JsonObject;
+import org.hl7.fhir.utilities.json.model.JsonProperty;
+
+/**
+ * An on-disk cache of StructureDefinitions from packages, as they are once they have been
+ * loaded (converted to R5) and their snapshots have been generated. When a profile is in
+ * the cache, loading it skips the version conversion and snapshot generation, which is most
+ * of the cost of getting the validator ready.
+ * <p>
+ * The cache lives in its own folder (normally alongside the package cache), with a folder for
+ * each package (id#version), and in that a folder for each tool version / FHIR version / set of
+ * dependency versions the snapshots were generated with, since all of these change the snapshots. 
+ * Packages that aren't fixed (current / dev builds) aren't cached. The cache is only used when 
+ * it's asked for (see SimpleWorkerContextBuilder.withSnapshotCachePath).
+ * <p>
+ * Each file is a single line of JSON with the things the loader knows that aren't part of the
+ * resource (web path and root, and the user data that snapshot generation leaves on the profile),
+ * then the StructureDefinition as R5 JSON. Files are written to a temporary file and moved into
+ * place, so several processes can share the cache
+ * <p>
+ * User data that points at other objects (e.g. ProfileUtilities.UD_DERIVATION_POINTER, which points
+ * into the base profile) can't be kept, so profiles loaded from the cache don't have it
+ */
+public class SnapshotCache {
+
+  private static final String WEB_PATH = "webPath";
+  private static final String WEB_ROOT = "webroot";
+  private static final String USER_DATA = "userData";
+
+  // the user data that snapshot generation sets that can be written as JSON
+  private static final String[] USER_DATA_NAMES = { ProfileUtilities.UD_BASE_MODEL, ProfileUtilities.UD_BASE_PATH, ProfileUtilities.UD_IS_DERIVED, 
+      ProfileUtilities.UD_DERIVATION_EQUALS, "auto-added-slicing", "profileutils.snapshot.generated" };
+
+  private final String folder;
+  private final String fhirVersion;
+  private final String toolVersion;
+  private final Map<String, String> dependencies = new ConcurrentHashMap<>(); // package id#version -> the versions of its dependencies that were loaded
+
+  public SnapshotCache(String folder, String fhirVersion) throws IOException {
+    this(folder, fhirVersion, VersionUtil.getVersion());
+  }
+
+  public SnapshotCache(String folder, String fhirVersion, String toolVersion) throws IOException {
+    super();
+    this.folder = folder;
+    this.fhirVersion = fhirVersion;
+    this.toolVersion = toolVersion == null ? "dev" : toolVersion;
+    Utilities.createDirectory(folder);
+  }
+
+  public String getFolder() {
+    return folder;
+  }
+
+  public boolean isCacheable(PackageInformation pi) {
+    if (pi == null || pi.getId() == null || pi.getVersion() == null || "dev".equals(toolVersion)) {
+      return false;
+    }
+    return !Utilities.existsInList(pi.getVersion(), "current", "dev") && !pi.getVersion().contains("-cibuild") && !pi.getVersion().toUpperCase().endsWith("-SNAPSHOT") && !pi.isExamplesPackage();
+  }
+
+  /**
+   * Record the versions of the dependencies that were loaded for a package, which may not be the ones 
+   * it asks for (e.g. when another version was already loaded). Its profiles' snapshots are generated 
+   * against these, so they are part of the key. Until this is called for a package, the versions it asks for are used
+   */
+  public void setDependencies(PackageInformation pi, List<String> loaded) {
+    List<String> list = new ArrayList<>(loaded);
+    Collections.sort(list);
+    dependencies.put(pi.getId()+"#"+pi.getVersion(), String.join(",", list));
+  }
+
+  private File file(PackageInformation pi, String id) throws IOException {
+    String deps = dependencies.get(pi.getId()+"#"+pi.getVersion());
+    if (deps == null) {
+      List<String> list = new ArrayList<>(pi.getDependencies());
+      Collections.sort(list);
+      deps = String.join(",", list);
+    }
+    String v = toolVersion+"-"+fhirVersion+(pi.getDate() == null ? "" : "-"+pi.getDate().getTime())
+      +(deps.isEmpty() ? "" : "-"+UUID.nameUUIDFromBytes(deps.getBytes(StandardCharsets.UTF_8)));
+    return ManagedFileAccess.file(Utilities.path(folder, pi.getId()+"#"+pi.getVersion(), v, "StructureDefinition-"+id+".json"));
+  }
+
+  /**
+   * @return the cached StructureDefinition, with its snapshot, or null if it isn't in the cache (or the cache entry can't be read)
+   */
+  public StructureDefinition load(PackageInformation pi, String id) {
+    if (id == null || !isCacheable(pi)) {
+      return null;
+    }
+    try {
+      File f = file(pi, id);
+      if (!f.exists()) {
+        return null;
+      }
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(ManagedFileAccess.inStream(f), StandardCharsets.UTF_8))) {
+        JsonObject header = org.hl7.fhir.utilities.json.parser.JsonParser.parseObject(reader.readLine());
+        StructureDefinition sd = (StructureDefinition) new JsonParser().parse(reader.readLine());
+        if (header.has(WEB_PATH)) {
+          sd.setWebPath(header.asString(WEB_PATH));
+        }
+        if (header.has(WEB_ROOT)) {
+          sd.setUserData(WEB_ROOT, header.asString(WEB_ROOT));
+        }
+        if (header.has(USER_DATA)) {
+          loadUserData(sd, "StructureDefinition", header.getJsonObject(USER_DATA));
+        }
+        sd.setGeneratedSnapshot(true);
+        return sd;
+      }
+    } catch (Exception e) {
+      return null; // treat it as a miss; it will be written again
+    }
+  }
+
+  /**
+   * Put the StructureDefinition in the cache, if it came from a package that can be cached.
+   * Failing to write the cache isn't an error (though it is reported); the snapshot will just be generated again next time
+   */
+  public void save(StructureDefinition sd) {
+    PackageInformation pi = sd.getSourcePackage();
+    if (!sd.hasSnapshot() || !sd.hasId() || !isCacheable(pi)) {
+      return;
+    }
+    File tmp = null;
+    try {
+      File f = file(pi, sd.getId());
+      if (f.exists()) {
+        return;
+      }
+      Utilities.createDirectory(f.getParent());
+      JsonObject header = new JsonObject();
+      if (sd.hasWebPath()) {
+        header.add(WEB_PATH, sd.getWebPath());
+      }
+      if (sd.hasUserData(WEB_ROOT)) {
+        header.add(WEB_ROOT, sd.getUserString(WEB_ROOT));
+      }
+      JsonObject ud = new JsonObject();
+      saveUserData(sd, "StructureDefinition", ud);
+      if (!ud.getProperties().isEmpty()) {
+        header.add(USER_DATA, ud);
+      }
+      tmp = ManagedFileAccess.file(f.getParent(), "."+UUID.randomUUID().toString()+".tmp");
+      try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+        w.write(org.hl7.fhir.utilities.json.parser.JsonParser.compose(header, false));
+        w.write("\n");
+        w.write(new JsonParser().composeString(sd));
+        w.write("\n");
+      }
+      Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (Exception e) {
+      System.out.println("Unable to save the snapshot of "+sd.getVersionedUrl()+" in the snapshot cache: "+e.getMessage());
+      if (tmp != null) {
+        tmp.delete();
+      }
+    }
+  }
+
+  /**
+   * The user data is recorded against the path to the object it's on (e.g. StructureDefinition.snapshot[0].element[3].short[0]).
+   * Parsing the JSON gives back the same structure, so the paths are the same when it's loaded
+   */
+  private void saveUserData(Base focus, String path, JsonObject dst) {
+    JsonObject values = null;
+    for (String name : USER_DATA_NAMES) {
+      Object v = focus.getUserData(name);
+      if (v instanceof String || v instanceof Boolean) {
+        if (values == null) {
+          values = new JsonObject();
+          dst.add(path, values);
+        }
+        if (v instanceof Boolean) {
+          values.add(name, ((Boolean) v).booleanValue());
+        } else {
+          values.add(name, (String) v);
+        }
+      }
+    }
+    for (Property p : focus.children()) {
+      int i = 0;
+      for (Base child : p.getValues()) {
+        saveUserData(child, path+"."+p.getName()+"["+i+"]", dst);
+        i++;
+      }
+    }
+  }
+
+  private void loadUserData(Base focus, String path, JsonObject src) {
+    JsonObject values = src.getJsonObject(path);
+    if (values != null) {
+      for (JsonProperty p : values.getProperties()) {
+        if (p.getValue().isJsonBoolean()) {
+          focus.setUserData(p.getName(), values.asBoolean(p.getName()));
+        } else {
+          focus.setUserData(p.getName(), values.asString(p.getName()));
+        }
+      }
+    }
+    for (Property p : focus.children()) {
+      int i = 0;
+      for (Base child : p.getValues()) {
+        loadUserData(child, path+"."+p.getName()+"["+i+"]", src);
+        i++;
+      }
+    }
+  }
+}
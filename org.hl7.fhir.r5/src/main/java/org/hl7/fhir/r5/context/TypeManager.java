@@ -29,6 +29,26 @@ public class TypeManager {
     reload();
   }
 
+  /**
+   * Start from the types already known to another type manager, rather than reloading them 
+   * from the structures (which would force every type definition to be parsed). Used 
+   * when the structures are layered over the other manager's structures
+   */
+  public TypeManager(CanonicalResourceManager<StructureDefinition> structures, TypeManager base) {
+    super();
+    this.structures = structures;
+    copySets(base.typeDefinitions, typeDefinitions);
+    copySets(base.fhirTypeDefinitions, fhirTypeDefinitions);
+    primitiveNames.addAll(base.primitiveNames);
+    dataTypeNames.addAll(base.dataTypeNames);
+  }
+
+  private void copySets(Map<String, Set<StructureDefinition>> source, Map<String, Set<StructureDefinition>> dest) {
+    for (Map.Entry<String, Set<StructureDefinition>> e : source.entrySet()) {
+      dest.put(e.getKey(), new HashSet<>(e.getValue()));
+    }
+  }
+
   public void reload() {
     typeDefinitions.clear();
     primitiveNames.clear();
@@ -1,7 +1,5 @@
 package org.hl7.fhir.r5.elementmodel;
 
-import java.io.ByteArrayInputStream;
-
 /*
   Copyright (c) 2011+, HL7, Inc.
   All rights reserved.
@@ -62,6 +60,7 @@ import org.hl7.fhir.r5.formats.JsonCreatorDirect;
 import org.hl7.fhir.r5.model.ElementDefinition.TypeRefComponent;
 import org.hl7.fhir.r5.model.ElementDefinition;
 import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition.StructureDefinitionKind;
 import org.hl7.fhir.utilities.CommaSeparatedStringBuilder;
 import org.hl7.fhir.utilities.StringPair;
 import org.hl7.fhir.utilities.TextFile;
@@ -85,6 +84,8 @@ public class JsonParser extends ParserBase {
 
   private JsonCreator json;
   private boolean allowComments;
+  private boolean releaseJson; // true when the json was parsed here, so objects can be emptied once they've been turned into elements
+  private int retainJson; // > 0 when inside a resource that keeps its json (logical models)
 
   private Element baseElement;
 
@@ -137,24 +138,29 @@ public class JsonParser extends ParserBase {
     byte[] content = TextFile.streamToBytes(inStream);
     ValidatedFragment focusFragment = new ValidatedFragment(ValidatedFragment.FOCUS_NAME, "json", content, false);
     
-    ByteArrayInputStream stream = new ByteArrayInputStream(content);
-    
-    // if we're parsing at this point, then we're going to use the custom parser
-    String source = TextFile.streamToString(stream);
+    // the json is read straight from the bytes (not via a string), and since nothing else 
+    // can see the json objects, they are emptied as they are processed, so that the whole 
+    // json tree and the whole element tree aren't both in memory
     JsonObject obj = null;
     
     if (policy == ValidationPolicy.EVERYTHING) {
       try {
-        obj = org.hl7.fhir.utilities.json.parser.JsonParser.parseObject(source, true, true); 
+        obj = org.hl7.fhir.utilities.json.parser.JsonParser.parseObject(content, true, true); 
       } catch (Exception e) {
         logError(focusFragment.getErrors(), ValidationMessage.NO_RULE_DATE, -1, -1,context.formatMessage(I18nConstants.DOCUMENT), IssueType.INVALID, context.formatMessage(I18nConstants.ERROR_PARSING_JSON_, e.getMessage()), IssueSeverity.FATAL);
       }
     } else {
-      obj = org.hl7.fhir.utilities.json.parser.JsonParser.parseObject(source, true, true); 
+      obj = org.hl7.fhir.utilities.json.parser.JsonParser.parseObject(content, true, true); 
     }
     
     if (obj != null) {
-      focusFragment.setElement(parse(focusFragment.getErrors(), obj));
+      releaseJson = true;
+      retainJson = 0;
+      try {
+        focusFragment.setElement(parse(focusFragment.getErrors(), obj));
+      } finally {
+        releaseJson = false;
+      }
     }
     List<ValidatedFragment> res = new ArrayList<>();
     res.add(focusFragment);
@@ -197,13 +203,19 @@ public class JsonParser extends ParserBase {
     baseElement.markLocation(line(object), col(object));
     baseElement.setType(name);
     baseElement.setPath(baseElement.fhirTypeRoot());
+    boolean retain = retainJson(baseElement, object);
     parseChildren(errors, path, object, baseElement, true, null);
+    if (retain) {
+      retainJson--;
+    }
     baseElement.numberChildren();
     return baseElement;
   }
 
   private void checkObject(List<ValidationMessage> errors, JsonObject object, Element b, String path) {
-    b.setNativeObject(object);
+    if (!releaseJson) {
+      b.setNativeObject(object);
+    }
     checkComments(errors, object, b, path);
     if (policy == ValidationPolicy.EVERYTHING) {
       if (object.getProperties().size() == 0) {
@@ -245,9 +257,26 @@ public class JsonParser extends ParserBase {
     if (object.isExtraComma()) {
       logError(errors, "2022-11-26", object.getEnd().getLine(), object.getEnd().getCol(), path, IssueType.INVALID, context.formatMessage(I18nConstants.JSON_COMMA_EXTRA, "Object"), IssueSeverity.ERROR);
     }
+    if (releaseJson && retainJson == 0) {
+      object.clear();
+    }
     return properties;
   }
 
+  /**
+   * When the json is being released as it is parsed, resources that are logical models keep their 
+   * json (some of them are checked against the json directly, e.g. ViewDefinition)
+   */
+  private boolean retainJson(Element element, JsonObject object) {
+    if (releaseJson && element.getProperty().getStructure().getKind() == StructureDefinitionKind.LOGICAL) {
+      element.setNativeObject(object);
+      retainJson++;
+      return true;
+    } else {
+      return false;
+    }
+  }
+
   private void checkNotProcessed(List<ValidationMessage> errors, String path, Element element, boolean hasResourceType, List<JsonProperty> children) {
     if (policy != ValidationPolicy.NONE) {
       for (JsonProperty e : children) {
@@ -708,7 +737,11 @@ public class JsonParser extends ParserBase {
       } else {
         parent.updateProperty(new Property(context, sd.getSnapshot().getElement().get(0), sd, this.getProfileUtilities(), this.getContextUtilities()), SpecialElement.fromProperty(parent.getProperty()), elementProperty);
         parent.setType(name);
+        boolean retain = retainJson(parent, res);
         parseChildren(errors, npath, res, parent, true, null);
+        if (retain) {
+          retainJson--;
+        }
       }
     }
     if (res.isExtraComma()) {
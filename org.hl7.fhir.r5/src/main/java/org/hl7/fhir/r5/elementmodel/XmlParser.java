@@ -42,14 +42,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import javax.xml.parsers.DocumentBuilder;
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMResult;
-import javax.xml.transform.sax.SAXSource;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.hl7.fhir.exceptions.DefinitionException;
 import org.hl7.fhir.exceptions.FHIRException;
@@ -67,7 +66,6 @@ import org.hl7.fhir.r5.model.ElementDefinition.PropertyRepresentation;
 import org.hl7.fhir.r5.model.Enumeration;
 import org.hl7.fhir.r5.model.StructureDefinition;
 import org.hl7.fhir.r5.utils.ToolingExtensions;
-import org.hl7.fhir.r5.utils.formats.XmlLocationAnnotator;
 import org.hl7.fhir.r5.utils.formats.XmlLocationData;
 import org.hl7.fhir.utilities.ElementDecoration;
 import org.hl7.fhir.utilities.StringPair;
@@ -86,14 +84,13 @@ import org.hl7.fhir.utilities.xml.XMLUtil;
 import org.hl7.fhir.utilities.xml.XMLWriter;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
-import org.xml.sax.ErrorHandler;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXParseException;
-import org.xml.sax.XMLReader;
 
 public class XmlParser extends ParserBase {
+  private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
   private boolean allowXsiLocation;
   private String version;
+  private Document dom; // for xhtml fragments
 
   public XmlParser(IWorkerContext context) {
     super(context);
@@ -122,77 +119,624 @@ public class XmlParser extends ParserBase {
     ValidatedFragment focusFragment = new ValidatedFragment(ValidatedFragment.FOCUS_NAME, "xml", content, false);
     
     ByteArrayInputStream stream = new ByteArrayInputStream(content);
-    Document doc = null;
+    if (policy == ValidationPolicy.EVERYTHING) {
+      // The XML parsers don't report the correct version/encoding.
+      // if we can, we'll inspect the header/encoding ourselves 
+      stream.mark(1024);
+      version = checkHeader(focusFragment.getErrors(), stream);
+      stream.reset();
+    }
+    focusFragment.setElement(parseStream(focusFragment.getErrors(), stream));
+    List<ValidatedFragment> res = new ArrayList<>();
+    res.add(focusFragment);
+    return res;
+  }
+
+  /**
+   * Parse the content with a StAX reader, building the element model as the XML is read
+   * rather than building a DOM and then walking it. Apart from xhtml (which is read
+   * into a DOM fragment for the xhtml parser), nothing but the element model is kept
+   */
+  private Element parseStream(List<ValidationMessage> errors, InputStream stream) throws FHIRFormatError, DefinitionException, FHIRException, IOException {
+    int start = errors.size();
+    XMLStreamReader xml = null;
     try {
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      // xxe protection
-      factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-      factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
-      factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
-      factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-      factory.setXIncludeAware(false);
-      factory.setExpandEntityReferences(false);
-
-      factory.setNamespaceAware(true);
-      if (policy == ValidationPolicy.EVERYTHING) {
-        // The SAX interface appears to not work when reporting the correct version/encoding.
-        // if we can, we'll inspect the header/encoding ourselves 
-
-        stream.mark(1024);
-        version = checkHeader(focusFragment.getErrors(), stream);
-        stream.reset();
-
-        // use a slower parser that keeps location data
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer nullTransformer = transformerFactory.newTransformer();
-        DocumentBuilder docBuilder = factory.newDocumentBuilder();
-        doc = docBuilder.newDocument();
-        DOMResult domResult = new DOMResult(doc);
-        SAXParserFactory spf = SAXParserFactory.newInstance();
-        spf.setNamespaceAware(true);
-        spf.setValidating(false);
-        // xxe protection
-        spf.setFeature("http://xml.org/sax/features/external-general-entities", false);
-        spf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-        SAXParser saxParser = spf.newSAXParser();
-        XMLReader xmlReader = saxParser.getXMLReader();
-        // xxe protection
-        xmlReader.setFeature("http://xml.org/sax/features/external-general-entities", false);
-        xmlReader.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-
-        XmlLocationAnnotator locationAnnotator = new XmlLocationAnnotator(xmlReader, doc);
-        InputSource inputSource = new InputSource(stream);
-        SAXSource saxSource = new SAXSource(locationAnnotator, inputSource);
-        nullTransformer.transform(saxSource, domResult);
-      } else {
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        builder.setErrorHandler(new NullErrorHandler());
-        doc = builder.parse(stream);
+      xml = makeStreamReader(stream);
+      Element result = null;
+      String rootNs = null;
+      int piCount = 0;
+      List<String> comments = new ArrayList<>();
+      while (xml.hasNext()) {
+        int event = xml.next();
+        if (event == XMLStreamConstants.DTD) {
+          // xxe protection - as for the DOM parsers, which set disallow-doctype-decl
+          throw new XMLStreamException("DOCTYPE is disallowed when the feature \"http://apache.org/xml/features/disallow-doctype-decl\" set to true.", xml.getLocation());
+        } else if (event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+          piCount++;
+        } else if (event == XMLStreamConstants.COMMENT) {
+          comments.add(xml.getText());
+        } else if (event == XMLStreamConstants.START_ELEMENT) {
+          rootNs = xml.getNamespaceURI();
+          result = parseRoot(errors, xml, comments);
+        }
       }
-    } catch (Exception e) {
-      if (e.getMessage().contains("lineNumber:") && e.getMessage().contains("columnNumber:")) {
-        int line = Utilities.parseInt(extractVal(e.getMessage(), "lineNumber"), 0); 
-        int col = Utilities.parseInt(extractVal(e.getMessage(), "columnNumber"), 0); 
-        logError(focusFragment.getErrors(), ValidationMessage.NO_RULE_DATE, line, col, "(xml)", IssueType.INVALID, e.getMessage().substring(e.getMessage().lastIndexOf(";")+1).trim(), IssueSeverity.FATAL);
+      if (policy == ValidationPolicy.EVERYTHING && FormatUtilities.FHIR_NS.equals(rootNs) && piCount > 0) {
+        List<ValidationMessage> piErrors = new ArrayList<>();
+        for (int i = 0; i < piCount; i++) {
+          logError(piErrors, ValidationMessage.NO_RULE_DATE, 0, 0, "(document)", IssueType.INVALID, context.formatMessage(
+              I18nConstants.NO_PROCESSING_INSTRUCTIONS_ALLOWED_IN_RESOURCES), IssueSeverity.ERROR);
+        }
+        errors.addAll(start, piErrors);
+      }
+      return result;
+    } catch (XMLStreamException e) {
+      // the content isn't well formed, so anything found in it before the problem is moot 
+      while (errors.size() > start) {
+        errors.remove(errors.size()-1);
+      }
+      String msg = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+      if (msg.contains("Message: ")) {
+        msg = msg.substring(msg.indexOf("Message: ")+9).trim();
+      }
+      int line = e.getLocation() == null ? 0 : e.getLocation().getLineNumber();
+      int col = e.getLocation() == null ? 0 : e.getLocation().getColumnNumber();
+      logError(errors, ValidationMessage.NO_RULE_DATE, line, col, "(xml)", IssueType.INVALID, msg, IssueSeverity.FATAL);
+      return null;
+    } finally {
+      if (xml != null) {
+        try {
+          xml.close();
+        } catch (XMLStreamException e) {
+          // nothing
+        }
+      }
+    }
+  }
+
+  private XMLStreamReader makeStreamReader(InputStream stream) throws XMLStreamException {
+    XMLInputFactory factory = XMLInputFactory.newDefaultFactory();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    // xxe protection
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    // otherwise CDATA sections are reported as text, and they're not allowed in FHIR content
+    if (factory.isPropertySupported(REPORT_CDATA)) {
+      factory.setProperty(REPORT_CDATA, true);
+    }
+    return factory.createXMLStreamReader(stream);
+  }
+
+  private Element parseRoot(List<ValidationMessage> errors, XMLStreamReader xml, List<String> comments) throws FHIRFormatError, DefinitionException, FHIRException, IOException, XMLStreamException {
+    XmlTag tag = new XmlTag(xml);
+    String path = "/"+pathPrefix(tag.ns)+tag.name;
+
+    StructureDefinition sd = getDefinition(errors, tag.line, tag.col, (tag.ns == null ? "noNamespace" : tag.ns), tag.name);
+    if (sd == null) {
+      skip(xml, tag);
+      return null;
+    }
+
+    Element result = new Element(tag.name, new Property(context, sd.getSnapshot().getElement().get(0), sd, getProfileUtilities(), getContextUtilities())).setFormat(FhirFormat.XML);
+    result.setPath(tag.name);
+    int index = errors.size();
+    checkElement(errors, tag, result, path, result.getProperty(), false);
+    result.markLocation(tag.line, tag.col);
+    result.setType(tag.name);
+    parseChildren(errors, path, xml, tag, result, comments);
+    checkEmpty(errors, index, tag, path);
+    result.numberChildren();
+    return result;
+  }
+
+  private void checkElement(List<ValidationMessage> errors, XmlTag tag, Element e, String path, Property prop, boolean xsiTypeChecked) throws FHIRFormatError {
+    if (policy == ValidationPolicy.EVERYTHING) {
+      String ns = prop.getXmlNamespace();
+      String elementNs = tag.ns == null ? "noNamespace" : tag.ns;
+      if (!elementNs.equals(ns)) {
+        logError(errors, ValidationMessage.NO_RULE_DATE, tag.line, tag.col, path, IssueType.INVALID, context.formatMessage(I18nConstants.WRONG_NAMESPACE__EXPECTED_, ns), IssueSeverity.ERROR);
+      }
+      if (!xsiTypeChecked) {
+        String xsiType = tag.getAttribute(FormatUtilities.NS_XSI, "type");
+        if (!Utilities.noString(xsiType)) {
+          String actualType = prop.getXmlTypeName();
+          if (xsiType.equals(actualType)) {
+            logError(errors, "2023-10-12", tag.line, tag.col, path, IssueType.INVALID, context.formatMessage(I18nConstants.XSI_TYPE_UNNECESSARY), IssueSeverity.INFORMATION);            
+          } else {
+            StructureDefinition sd = findLegalConstraint(xsiType, actualType);
+            if (sd != null) {
+              e.setType(sd.getType());
+              e.setExplicitType(xsiType);
+            } else {
+              logError(errors, "2023-10-12", tag.line, tag.col, path, IssueType.INVALID, context.formatMessage(I18nConstants.XSI_TYPE_WRONG, xsiType, actualType), IssueSeverity.ERROR);           
+            }  
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Whether an element is empty isn't known until it has been read, so this is checked afterwards,
+   * and the error goes in where checkElement would have put it 
+   */
+  private void checkEmpty(List<ValidationMessage> errors, int index, XmlTag tag, String path) throws FHIRFormatError {
+    if (policy == ValidationPolicy.EVERYTHING && !tag.content && FormatUtilities.FHIR_NS.equals(tag.ns)) { // this rule only applies to FHIR Content
+      List<ValidationMessage> list = new ArrayList<>();
+      logError(list, ValidationMessage.NO_RULE_DATE, tag.line, tag.col, path, IssueType.INVALID, context.formatMessage(I18nConstants.ELEMENT_MUST_HAVE_SOME_CONTENT), IssueSeverity.ERROR);
+      errors.addAll(index, list);
+    }
+  }
+
+  private void parseChildren(List<ValidationMessage> errors, String path, XMLStreamReader xml, XmlTag node, Element element, List<String> leadingComments) throws FHIRFormatError, FHIRException, IOException, DefinitionException, XMLStreamException {
+    // this parsing routine retains the original order in a the XML file, to support validation
+    element.getComments().addAll(0, leadingComments);
+    List<Property> properties = element.getProperty().getChildProperties(element.getName(), node.getAttribute(FormatUtilities.NS_XSI, "type"));
+    Property cgProp = getChoiceGroupProp(properties);
+    Property mtProp = cgProp == null ? null : getTextProp(cgProp.getChildProperties(null, null));
+
+    // the attributes and the text go before the child elements, but the text has to be read first. 
+    // so errors and elements for them are inserted here once the element has been read 
+    int errorIndex = errors.size();
+    int childIndex = element.getChildren().size();
+    List<ValidationMessage> attrErrors = new ArrayList<>();
+    List<Element> attrChildren = new ArrayList<>();
+    parseAttributes(attrErrors, path, node, element, properties, attrChildren);
+
+    StringBuilder directText = new StringBuilder();
+    List<XmlText> texts = new ArrayList<>();
+    StringBuilder text = null;
+    XmlTag firstChild = null;
+    XmlTag lastChild = null;
+    List<String> comments = new ArrayList<>();
+    String lastName = null;
+    int repeatCount = 0;
+    boolean done = false;
+    while (!done) {
+      int event = xml.next();
+      if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+        if (text == null) {
+          text = new StringBuilder();
+        }
+        text.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+        continue;
+      }
+      if (text != null) {
+        String s = text.toString();
+        text = null;
+        if (!Utilities.noString(s.trim())) {
+          node.content = true;
+          if (mtProp != null) {
+            if (cgProp.getName().equals(lastName)) {
+              repeatCount++;
+            } else {
+              lastName = cgProp.getName();
+              repeatCount = 0;
+            }
+
+            Element cgn = new Element(cgProp.getName(), cgProp).setFormat(FhirFormat.XML);
+            cgn.setPath(element.getPath()+"."+cgProp.getName()+"["+repeatCount+"]"); 
+            element.getChildren().add(cgn);
+
+            Element n = new Element(mtProp.getName(), mtProp, mtProp.getType(), s.trim()).markLocation(0, 0).setFormat(FhirFormat.XML);
+            cgn.getChildren().add(n);
+            n.setPath(element.getPath()+"."+mtProp.getName());
+          } else {
+            texts.add(new XmlText(s, lastChild));
+          }
+        }
+        if (mtProp == null) {
+          directText.append(s);
+        }
+      }
+      switch (event) {
+      case XMLStreamConstants.START_ELEMENT:
+        XmlTag child = new XmlTag(xml);
+        node.content = true;
+        if (firstChild == null) {
+          firstChild = child;
+        }
+        Property property = getElementProp(properties, child.name, child.ns);
+        if (property != null) {
+          if (property.getName().equals(lastName)) {
+            repeatCount++;
+          } else {
+            lastName = property.getName();
+            repeatCount = 0;
+          }
+          if (!property.isChoice() && "xhtml".equals(property.getType())) {
+            org.w3c.dom.Element dom = readDom(xml);
+            XhtmlNode xhtml;
+            if (property.getDefinition().hasRepresentation(PropertyRepresentation.CDATEXT))
+              xhtml = new CDANarrativeFormat().convert(dom);
+            else {
+              XhtmlParser xp = new XhtmlParser();
+              xhtml = xp.parseHtmlNode(dom);
+              if (policy == ValidationPolicy.EVERYTHING) {
+                for (StringPair s : xp.getValidationIssues()) {
+                  logError(errors, "2022-11-17", child.line, child.col, path, IssueType.INVALID, context.formatMessage(s.getName(), s.getValue()), IssueSeverity.ERROR);                
+                }
+              }
+            }
+            Element n = new Element(property.getName(), property, "xhtml", new XhtmlComposer(XhtmlComposer.XML, false).compose(xhtml)).setXhtml(xhtml).markLocation(child.line, child.col).setFormat(FhirFormat.XML).setNativeObject(dom);
+            n.setPath(element.getPath()+"."+property.getName());
+            element.getChildren().add(n);
+          } else {
+            String npath = path+"/"+pathPrefix(child.ns)+child.name;
+            String name = child.name;
+            if (!property.isChoice() && !name.equals(property.getName())) {
+              name = property.getName();
+            }
+            Element n = new Element(name, property).markLocation(child.line, child.col).setFormat(FhirFormat.XML);
+            if (property.isList()) {
+              n.setPath(element.getPath()+"."+property.getName()+"["+repeatCount+"]");    				  
+            } else {
+              n.setPath(element.getPath()+"."+property.getName());
+            }
+            boolean xsiTypeChecked = false;
+            boolean ok = true;
+            if (property.isChoice()) {
+              if (property.getDefinition().hasRepresentation(PropertyRepresentation.TYPEATTR)) {
+                String xsiType = child.getAttribute(FormatUtilities.NS_XSI, "type");
+                if (Utilities.noString(xsiType)) {
+                  if (ToolingExtensions.hasExtension(property.getDefinition(), "http://hl7.org/fhir/StructureDefinition/elementdefinition-defaulttype")) {
+                    xsiType = ToolingExtensions.readStringExtension(property.getDefinition(), "http://hl7.org/fhir/StructureDefinition/elementdefinition-defaulttype");
+                    n.setType(xsiType);
+                  } else {
+                    logError(errors, ValidationMessage.NO_RULE_DATE, child.line, child.col, path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.NO_TYPE_FOUND_ON_, child.name), IssueSeverity.ERROR);
+                    ok = false;
+                  }
+                } else {
+                  if (xsiType.contains(":"))
+                    xsiType = xsiType.substring(xsiType.indexOf(":")+1);
+                  n.setType(xsiType);
+                  n.setExplicitType(xsiType);
+                }
+                xsiTypeChecked = true;
+              } else
+                n.setType(n.getType());
+            }
+            int index = errors.size();
+            checkElement(errors, child, n, npath, n.getProperty(), xsiTypeChecked);
+            element.getChildren().add(n);
+            if (!ok) {
+              skip(xml, child);
+            } else if (property.isResource()) {
+              parseResource(errors, npath, xml, child, n, property);
+            } else {
+              parseChildren(errors, npath, xml, child, n, comments);
+            }
+            checkEmpty(errors, index, child, npath);
+          }
+        } else {
+          if (cgProp != null) {
+            property = getElementProp(cgProp.getChildProperties(null, null), child.name, child.ns);
+            if (property != null) {
+              if (cgProp.getName().equals(lastName)) {
+                repeatCount++;
+              } else {
+                lastName = cgProp.getName();
+                repeatCount = 0;
+              }
+
+              String npath = path+"/"+pathPrefix(cgProp.getXmlNamespace())+cgProp.getName();
+              Element cgn = new Element(cgProp.getName(), cgProp).setFormat(FhirFormat.XML);
+              cgn.setPath(element.getPath()+"."+cgProp.getName()+"["+repeatCount+"]"); 
+              element.getChildren().add(cgn);
+
+              npath = npath+"/"+pathPrefix(child.ns)+child.name;
+              Element n = new Element(child.name, property).markLocation(child.line, child.col).setFormat(FhirFormat.XML);
+              cgn.getChildren().add(n);
+              n.setPath(element.getPath()+"."+property.getName());
+              int index = errors.size();
+              checkElement(errors, child, n, npath, n.getProperty(), false);
+              parseChildren(errors, npath, xml, child, n, comments);
+              checkEmpty(errors, index, child, npath);
+            }
+          }
+          if (property == null) {
+            logError(errors, ValidationMessage.NO_RULE_DATE, child.line, child.col, path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.UNDEFINED_ELEMENT_, child.name, path), IssueSeverity.ERROR);
+            skip(xml, child);
+          }
+        }
+        child.end(xml);
+        lastChild = child;
+        comments.clear();
+        break;
+      case XMLStreamConstants.END_ELEMENT:
+        done = true;
+        break;
+      case XMLStreamConstants.COMMENT:
+        comments.add(xml.getText());
+        break;
+      case XMLStreamConstants.CDATA:
+        if (!Utilities.noString(xml.getText().trim())) {
+          node.content = true;
+        }
+        logError(errors, ValidationMessage.NO_RULE_DATE, xml.getLocation().getLineNumber(), xml.getLocation().getColumnNumber(), path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.CDATA_IS_NOT_ALLOWED), IssueSeverity.ERROR);
+        break;
+      case XMLStreamConstants.PROCESSING_INSTRUCTION:
+        logError(errors, ValidationMessage.NO_RULE_DATE, xml.getLocation().getLineNumber(), xml.getLocation().getColumnNumber(), path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.NODE_TYPE__IS_NOT_ALLOWED, Integer.toString(Node.PROCESSING_INSTRUCTION_NODE)), IssueSeverity.ERROR);
+        break;
+      case XMLStreamConstants.ENTITY_REFERENCE:
+        logError(errors, ValidationMessage.NO_RULE_DATE, xml.getLocation().getLineNumber(), xml.getLocation().getColumnNumber(), path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.NODE_TYPE__IS_NOT_ALLOWED, Integer.toString(Node.ENTITY_REFERENCE_NODE)), IssueSeverity.ERROR);
+        break;
+      default:
+        // nothing
+      }
+    }
+    if (lastChild != null) {
+      element.getComments().addAll(comments);
+    }
+
+    List<ValidationMessage> textErrors = new ArrayList<>();
+    String dt = directText.toString().trim();
+    if (!Utilities.noString(dt)) {
+      Property property = getTextProp(properties);
+      if (property != null) {
+        Element n;
+        if ("ED.data[x]".equals(property.getDefinition().getId()) || (property.getDefinition()!=null && property.getDefinition().getBase()!=null && "ED.data[x]".equals(property.getDefinition().getBase().getPath()))) {
+          if ("B64".equals(node.getAttribute("representation"))) {
+            n = new Element("dataBase64Binary", property, "base64Binary", dt).markLocation(node.line, node.col).setFormat(FhirFormat.XML);
+          } else {
+            n = new Element("dataString", property, "string", dt).markLocation(node.line, node.col).setFormat(FhirFormat.XML);
+          }
+        } else {
+          n = new Element(property.getName(), property, property.getType(), dt).markLocation(node.line, node.col).setFormat(FhirFormat.XML);
+        }
+        n.setPath(element.getPath()+"."+property.getName());
+        attrChildren.add(0, n);
       } else {
-        logError(focusFragment.getErrors(), ValidationMessage.NO_RULE_DATE, 0, 0, "(xml)", IssueType.INVALID, e.getMessage(), IssueSeverity.FATAL);
+        for (XmlText t : texts) {
+          // try to find the nearest element for a line/col location
+          XmlTag nt = t.prev != null ? t.prev : firstChild;
+          int line = nt == null ? 0 : t.prev != null ? nt.endLine : nt.line;
+          int col = nt == null ? 0 : t.prev != null ? nt.endCol : nt.col;
+          logError(textErrors, ValidationMessage.NO_RULE_DATE, line, col, path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.TEXT_SHOULD_NOT_BE_PRESENT, Utilities.makeSingleLine(t.text.trim())), IssueSeverity.ERROR);
+        }
+      }    		
+    }
+    textErrors.addAll(attrErrors);
+    errors.addAll(errorIndex, textErrors);
+    for (Element n : attrChildren) {
+      element.getChildren().add(childIndex++, n);
+    }
+  }
+
+  private void parseAttributes(List<ValidationMessage> errors, String path, XmlTag node, Element element, List<Property> properties, List<Element> children) throws FHIRFormatError, FHIRException {
+    for (XmlAttr attr : node.attributes) {
+      if (!validAttrValue(attr.value)) {
+        logError(errors, ValidationMessage.NO_RULE_DATE, node.line, node.col, path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.XML_ATTR_VALUE_INVALID, attr.qName), IssueSeverity.ERROR);
+      }
+      if (!(attr.qName.equals("xmlns") || attr.qName.startsWith("xmlns:"))) {
+        Property property = getAttrProp(properties, attr.name, attr.ns);
+        if (property != null) {
+          String av = attr.value;
+          if (ToolingExtensions.hasExtension(property.getDefinition(), ToolingExtensions.EXT_DATE_FORMAT))
+            av = convertForDateFormatFromExternal(ToolingExtensions.readStringExtension(property.getDefinition(), ToolingExtensions.EXT_DATE_FORMAT), av);          
+          if (property.getName().equals("value") && element.isPrimitive())
+            element.setValue(av);
+          else {
+            String[] vl = {av};
+            if (property.isList() && av.contains(" ")) {
+              vl = av.split(" ");
+            }
+            for (String v : vl) {
+              Element n = new Element(property.getName(), property, property.getType(), v).markLocation(node.line, node.col).setFormat(FhirFormat.XML);
+              n.setPath(element.getPath()+"."+property.getName());
+              children.add(n);
+            }
+          }
+        } else {
+          boolean ok = false;
+          if (FormatUtilities.FHIR_NS.equals(node.ns)) {
+            if (attr.name.equals("schemaLocation") && FormatUtilities.NS_XSI.equals(attr.ns)) {
+              ok = ok || allowXsiLocation; 
+            }
+          } else
+            ok = ok || (attr.name.equals("schemaLocation")); // xsi:schemalocation allowed for non FHIR content
+          ok = ok || (hasTypeAttr(element) && attr.name.equals("type") && FormatUtilities.NS_XSI.equals(attr.ns)); // xsi:type allowed if element says so
+          if (!ok) { 
+            logError(errors, ValidationMessage.NO_RULE_DATE, node.line, node.col, path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.UNDEFINED_ATTRIBUTE__ON__FOR_TYPE__PROPERTIES__, attr.qName, node.qName, element.fhirType(), properties), IssueSeverity.ERROR);
+          }
+        }
       }
-      doc = null;
     }
-    if (doc != null) {
-      focusFragment.setElement(parse(focusFragment.getErrors(), doc));
+  }
+
+  private void parseResource(List<ValidationMessage> errors, String string, XMLStreamReader xml, XmlTag container, Element parent, Property elementProperty) throws FHIRFormatError, DefinitionException, FHIRException, IOException, XMLStreamException {
+    List<String> comments = new ArrayList<>();
+    int event = xml.next();
+    while (event != XMLStreamConstants.START_ELEMENT) {
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        return;
+      } else if (event == XMLStreamConstants.COMMENT) {
+        comments.add(xml.getText());
+      } else if (isText(event) && !Utilities.noString(xml.getText().trim())) {
+        container.content = true;
+      }
+      event = xml.next();
     }
-    List<ValidatedFragment> res = new ArrayList<>();
-    res.add(focusFragment);
-    return res;
+    container.content = true;
+    XmlTag res = new XmlTag(xml);
+    String name = res.name;
+    StructureDefinition sd = context.fetchResource(StructureDefinition.class, ProfileUtilities.sdNs(name, null));
+    if (sd == null)
+      throw new FHIRFormatError(context.formatMessage(I18nConstants.CONTAINED_RESOURCE_DOES_NOT_APPEAR_TO_BE_A_FHIR_RESOURCE_UNKNOWN_NAME_, res.name));
+    parent.updateProperty(new Property(context, sd.getSnapshot().getElement().get(0), sd, getProfileUtilities(), getContextUtilities()), SpecialElement.fromProperty(parent.getProperty()), elementProperty);
+    parent.setType(name);
+    parseChildren(errors, res.name, xml, res, parent, comments);
+    skip(xml, container);
   }
 
+  /**
+   * read to the end of the element, just noting whether it has any content
+   */
+  private void skip(XMLStreamReader xml, XmlTag tag) throws XMLStreamException {
+    int depth = 0;
+    while (true) {
+      int event = xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        tag.content = true;
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        if (depth == 0) {
+          return;
+        }
+        depth--;
+      } else if (!tag.content && isText(event) && !Utilities.noString(xml.getText().trim())) {
+        tag.content = true;
+      }
+    }
+  }
 
-  private String extractVal(String src, String name) {
-    src = src.substring(src.indexOf(name)+name.length()+1);
-    src = src.substring(0, src.indexOf(";")).trim();
-    return src;
+  private boolean isText(int event) {
+    return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE || event == XMLStreamConstants.CDATA;
   }
+
+  /**
+   * The xhtml and CDA narrative parsers work on a DOM, so xhtml content is read into a DOM 
+   * element (not attached to the document)
+   */
+  private org.w3c.dom.Element readDom(XMLStreamReader xml) throws XMLStreamException, IOException {
+    if (dom == null) {
+      try {
+        dom = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+      } catch (ParserConfigurationException e) {
+        throw new IOException(e);
+      }
+    }
+    org.w3c.dom.Element element = dom.createElementNS(Utilities.noString(xml.getNamespaceURI()) ? null : xml.getNamespaceURI(), qName(xml.getPrefix(), xml.getLocalName()));
+    for (int i = 0; i < xml.getNamespaceCount(); i++) {
+      element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, xmlnsName(xml.getNamespacePrefix(i)), xml.getNamespaceURI(i));
+    }
+    for (int i = 0; i < xml.getAttributeCount(); i++) {
+      element.setAttributeNS(Utilities.noString(xml.getAttributeNamespace(i)) ? null : xml.getAttributeNamespace(i), qName(xml.getAttributePrefix(i), xml.getAttributeLocalName(i)), xml.getAttributeValue(i));
+    }
+    while (true) {
+      int event = xml.next();
+      switch (event) {
+      case XMLStreamConstants.START_ELEMENT:
+        element.appendChild(readDom(xml));
+        break;
+      case XMLStreamConstants.END_ELEMENT:
+        return element;
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.SPACE:
+        if (element.getLastChild() != null && element.getLastChild().getNodeType() == Node.TEXT_NODE) {
+          ((org.w3c.dom.Text) element.getLastChild()).appendData(xml.getText());
+        } else {
+          element.appendChild(dom.createTextNode(xml.getText()));
+        }
+        break;
+      case XMLStreamConstants.CDATA:
+        element.appendChild(dom.createCDATASection(xml.getText()));
+        break;
+      case XMLStreamConstants.COMMENT:
+        element.appendChild(dom.createComment(xml.getText()));
+        break;
+      case XMLStreamConstants.PROCESSING_INSTRUCTION:
+        element.appendChild(dom.createProcessingInstruction(xml.getPITarget(), xml.getPIData()));
+        break;
+      default:
+        // nothing
+      }
+    }
+  }
+
+  private static String qName(String prefix, String name) {
+    return Utilities.noString(prefix) ? name : prefix+":"+name;
+  }
+
+  private static String xmlnsName(String prefix) {
+    return Utilities.noString(prefix) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE+":"+prefix;
+  }
+
+  private static class XmlAttr {
+    private final String qName;
+    private final String name;
+    private final String ns;
+    private final String value;
+
+    private XmlAttr(String qName, String name, String ns, String value) {
+      this.qName = qName;
+      this.name = name;
+      this.ns = ns;
+      this.value = value;
+    }
+  }
+
+  /**
+   * What is known about an element from its start tag, plus where it ends, and whether 
+   * it turned out to have any content (for the empty element check) 
+   */
+  private static class XmlTag {
+    private final String ns;
+    private final String name;
+    private final String qName;
+    private final int line;
+    private final int col;
+    private int endLine;
+    private int endCol;
+    private final List<XmlAttr> attributes = new ArrayList<>();
+    private boolean content;
+
+    private XmlTag(XMLStreamReader xml) {
+      ns = Utilities.noString(xml.getNamespaceURI()) ? null : xml.getNamespaceURI();
+      name = xml.getLocalName();
+      qName = qName(xml.getPrefix(), name);
+      line = xml.getLocation().getLineNumber();
+      col = xml.getLocation().getColumnNumber();
+      for (int i = 0; i < xml.getNamespaceCount(); i++) {
+        String prefix = xml.getNamespacePrefix(i);
+        attributes.add(new XmlAttr(xmlnsName(prefix), Utilities.noString(prefix) ? XMLConstants.XMLNS_ATTRIBUTE : prefix, XMLConstants.XMLNS_ATTRIBUTE_NS_URI, xml.getNamespaceURI(i)));
+      }
+      for (int i = 0; i < xml.getAttributeCount(); i++) {
+        String ans = xml.getAttributeNamespace(i);
+        attributes.add(new XmlAttr(qName(xml.getAttributePrefix(i), xml.getAttributeLocalName(i)), xml.getAttributeLocalName(i), Utilities.noString(ans) ? null : ans, xml.getAttributeValue(i)));
+        content = true;
+      }
+      // in the same order as a DOM reports them
+      Collections.sort(attributes, (a1, a2) -> a1.qName.compareTo(a2.qName));
+    }
+
+    private void end(XMLStreamReader xml) {
+      endLine = xml.getLocation().getLineNumber();
+      endCol = xml.getLocation().getColumnNumber();
+    }
+
+    private String getAttribute(String ns, String name) {
+      for (XmlAttr a : attributes) {
+        if (name.equals(a.name) && ns.equals(a.ns)) {
+          return a.value;
+        }
+      }
+      return null;
+    }
+
+    private String getAttribute(String qName) {
+      for (XmlAttr a : attributes) {
+        if (qName.equals(a.qName)) {
+          return a.value;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * text that isn't allowed, and the element before it (for the location)
+   */
+  private static class XmlText {
+    private final String text;
+    private final XmlTag prev;
+
+    private XmlText(String text, XmlTag prev) {
+      this.text = text;
+      this.prev = prev;
+    }
+  }
+
   private void checkForProcessingInstruction(List<ValidationMessage> errors, Document document) throws FHIRFormatError {
     if (policy == ValidationPolicy.EVERYTHING && FormatUtilities.FHIR_NS.equals(document.getDocumentElement().getNamespaceURI())) {
       Node node = document.getFirstChild();
@@ -1004,21 +1548,4 @@ public class XmlParser extends ParserBase {
     }
     return "?xml-p2?";
   }
-
-  class NullErrorHandler implements ErrorHandler {
-    @Override
-    public void fatalError(SAXParseException e) {
-        // do nothing
-    }
-
-    @Override
-    public void error(SAXParseException e) {
-        // do nothing
-    }
-    
-    @Override
-    public void warning(SAXParseException e) {
-        // do nothing
-    }
-}
 }
\ No newline at end of file
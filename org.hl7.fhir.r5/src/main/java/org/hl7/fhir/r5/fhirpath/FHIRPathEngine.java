@@ -406,7 +406,23 @@ public class FHIRPathEngine {
     return parse(path, null);
   }
 
+  /**
+   * Parse a path for later use using execute. Parsed expressions are shared through the
+   * FHIRPathExpressionCache, so the node that is returned must not be modified
+   */
   public ExpressionNode parse(String path, String name) throws FHIRLexerException {
+    String key = path == null ? null : FHIRPathExpressionCache.key(path, allowDoubleQuotes);
+    ExpressionNode result = key == null ? null : FHIRPathExpressionCache.get(key);
+    if (result == null) {
+      result = parseUncached(path, name);
+      if (key != null) {
+        FHIRPathExpressionCache.put(key, result);
+      }
+    }
+    return result;
+  }
+
+  private ExpressionNode parseUncached(String path, String name) throws FHIRLexerException {
     FHIRLexer lexer = new FHIRLexer(path, name, false, allowDoubleQuotes);
     if (lexer.done()) {
       throw lexer.error("Path cannot be empty");
@@ -884,6 +900,47 @@ public class FHIRPathEngine {
     return convertToBoolean(evaluate(appInfo, focusResource, rootResource, base, node));
   }
 
+  /**
+   * compile a parsed expression so that it can be evaluated repeatedly without walking the 
+   * expression tree each time (see CompiledExpression). The result gives the same answers 
+   * as evaluating the expression directly, and can be shared between engines and threads
+   * 
+   * @param expression - the parsed expression
+   * @return
+   */
+  public CompiledExpression compile(ExpressionNode expression) {
+    return new CompiledExpression(expression, compileNode(expression, true));
+  }
+
+  /**
+   * evaluate a compiled expression and return the matching elements
+   * 
+   * @param base - the object against which the path is being evaluated
+   * @param expression - the compiled expression to use
+   * @return
+   * @throws FHIRException 
+   */
+  public List<Base> evaluate(Object appContext, Base focusResource, Base rootResource, Base base, CompiledExpression expression) throws FHIRException {
+    List<Base> list = new ArrayList<Base>();
+    if (base != null) {
+      list.add(base);
+    }
+    log = new StringBuilder();
+    return expression.root.execute(this, new ExecutionContext(appContext, focusResource, rootResource, base, null, base), list);
+  }
+
+  /**
+   * evaluate a compiled expression and return true or false (e.g. for an invariant)
+   * 
+   * @param appInfo - application context
+   * @param base - the object against which the path is being evaluated
+   * @return
+   * @throws FHIRException 
+   */
+  public boolean evaluateToBoolean(Object appInfo, Base focusResource, Base rootResource, Base base, CompiledExpression expression) throws FHIRException {
+    return convertToBoolean(evaluate(appInfo, focusResource, rootResource, base, expression));
+  }
+
   /**
    * evaluate a path and a string containing the outcome (for display)
    * 
@@ -1533,6 +1590,211 @@ public class FHIRPathEngine {
     return work;
   }
 
+  // -- compiled expressions -------------------------------------------------------------------------------
+  
+  /**
+   * A parsed expression turned into a tree of evaluators, one per node, that mirror execute(). 
+   * The nodes decide what they are going to do when they're compiled rather than each time they're 
+   * run, don't copy the results of child lookups through per-item lists, and count elements 
+   * directly for the common X.count() and children().count() forms (e.g. ele-1) rather than 
+   * collecting them first. Anything else (functions, constants, operators) is done by the same 
+   * code the interpreter uses, so the results are the same.
+   * <p>
+   * Compiled expressions don't hold on to an engine; the engine is passed in when they're run
+   */
+  public static class CompiledExpression {
+    private final ExpressionNode expression;
+    private final CompiledNode root;
+
+    private CompiledExpression(ExpressionNode expression, CompiledNode root) {
+      this.expression = expression;
+      this.root = root;
+    }
+
+    public ExpressionNode getExpression() {
+      return expression;
+    }
+
+    @Override
+    public String toString() {
+      return expression.toString();
+    }
+  }
+
+  private interface CompiledNode {
+    List<Base> execute(FHIRPathEngine engine, ExecutionContext context, List<Base> focus) throws FHIRException;
+  }
+
+  private static CompiledNode compileNode(ExpressionNode exp, boolean atEntry) {
+    CompiledNode node;
+    ExpressionNode inner = exp.getInner();
+    if (isPlainCount(inner) && exp.getKind() == Kind.Name && !exp.getName().startsWith("$") && !Character.isUpperCase(exp.getName().charAt(0))) {
+      node = compileCount(exp.getName(), atEntry, compileKind(exp, atEntry));
+      inner = inner.getInner();
+    } else if (isPlainCount(inner) && exp.getKind() == Kind.Function && exp.getFunction() == Function.Children && exp.getParameters().isEmpty()) {
+      node = compileCount("*", false, compileKind(exp, atEntry));
+      inner = inner.getInner();
+    } else {
+      node = compileKind(exp, atEntry);
+    }
+    
+    if (inner != null) {
+      CompiledNode start = node;
+      CompiledNode next = compileNode(inner, false);
+      node = (engine, context, focus) -> next.execute(engine, context, start.execute(engine, context, focus));
+    }
+    
+    if (exp.isProximal() && exp.getOperation() != null) {
+      List<ExpressionNode> holders = new ArrayList<>();
+      List<ExpressionNode> operands = new ArrayList<>();
+      List<CompiledNode> compiled = new ArrayList<>();
+      ExpressionNode next = exp.getOpNext();
+      ExpressionNode last = exp;
+      while (next != null) {
+        holders.add(last);
+        operands.add(next);
+        compiled.add(last.getOperation() == Operation.Is || last.getOperation() == Operation.As ? null : compileNode(next, true));
+        last = next;
+        next = next.getOpNext();
+      }
+      CompiledNode start = node;
+      node = (engine, context, focus) -> {
+        List<Base> work = start.execute(engine, context, focus);
+        for (int i = 0; i < holders.size(); i++) {
+          Operation operation = holders.get(i).getOperation();
+          List<Base> work2 = engine.preOperate(work, operation, exp);
+          if (work2 != null) {
+            work = work2;
+          } else if (compiled.get(i) == null) {
+            work2 = engine.executeTypeName(context, focus, operands.get(i), false);
+            work = engine.operate(context, work, operation, work2, holders.get(i));
+          } else {
+            work2 = compiled.get(i).execute(engine, context, focus);
+            work = engine.operate(context, work, operation, work2, holders.get(i));
+          }
+        }
+        return work;
+      };
+    }
+    return node;
+  }
+
+  // a count() that isn't followed by anything that works on the items being counted
+  private static boolean isPlainCount(ExpressionNode exp) {
+    return exp != null && exp.getKind() == Kind.Function && exp.getFunction() == Function.Count && exp.getParameters().isEmpty() 
+        && !(exp.isProximal() && exp.getOperation() != null);
+  }
+
+  private static CompiledNode compileKind(ExpressionNode exp, boolean atEntry) {
+    switch (exp.getKind()) {
+    case Unary:
+      return (engine, context, focus) -> {
+        List<Base> work = new ArrayList<Base>();
+        work.add(new IntegerType(0));
+        return work;
+      };
+    case Name:
+      String name = exp.getName();
+      if (atEntry && name.equals("$this")) {
+        return (engine, context, focus) -> {
+          List<Base> work = new ArrayList<Base>();
+          work.add(context.getThisItem());
+          return work;
+        };
+      } else if (atEntry && name.equals("$total")) {
+        return (engine, context, focus) -> new ArrayList<Base>(context.getTotal());
+      } else if (atEntry && name.equals("$index")) {
+        return (engine, context, focus) -> {
+          List<Base> work = new ArrayList<Base>();
+          work.add(context.getIndex());
+          return work;
+        };
+      } else if (atEntry) {
+        // might be a type name or a host constant - see execute(context, item, exp, atEntry)
+        return (engine, context, focus) -> {
+          List<Base> work = new ArrayList<Base>();
+          for (Base item : focus) {
+            for (Base base : engine.execute(context, item, exp, true)) {
+              if (base != null) {
+                work.add(base);
+              }
+            }
+          }
+          return work;
+        };
+      } else {
+        return (engine, context, focus) -> {
+          List<Base> work = new ArrayList<Base>();
+          for (Base item : focus) {
+            engine.getChildrenByName(item, name, work);
+          }
+          return work;
+        };
+      }
+    case Function:
+      return (engine, context, focus) -> new ArrayList<Base>(engine.evaluateFunction(context, focus, exp));
+    case Constant:
+      return (engine, context, focus) -> new ArrayList<Base>(engine.resolveConstant(context, exp.getConstant(), false, exp));
+    case Group:
+      CompiledNode group = compileNode(exp.getGroup(), atEntry);
+      return (engine, context, focus) -> new ArrayList<Base>(group.execute(engine, context, focus));
+    default:
+      throw new Error("Unknown expression kind "+exp.getKind());
+    }
+  }
+
+  /**
+   * count the children called name (or all of them, for *) without collecting them. getChildrenByName
+   * only ever drops null children (unless polymorphic names are in play, or it's been overridden), 
+   * so the count is the same. Otherwise, fall back to collecting them. At entry, the name might also 
+   * be a host constant - see execute(context, item, exp, atEntry)
+   */
+  private static CompiledNode compileCount(String name, boolean atEntry, CompiledNode collect) {
+    return (engine, context, focus) -> {
+      int count = 0;
+      if (engine.getClass() == FHIRPathEngine.class && !engine.isAllowPolymorphicNames()) {
+        boolean constants = atEntry && context.appInfo != null && engine.hostServices != null;
+        for (Base item : focus) {
+          if (constants) {
+            List<Base> temp = engine.hostServices.resolveConstant(engine, context.appInfo, name, true, false);
+            if (!temp.isEmpty()) {
+              count += countNonNull(temp);
+              continue;
+            }
+          }
+          int c = 0;
+          Base[] list = item.listChildrenByName(name, false);
+          if (list != null) {
+            for (Base v : list) {
+              if (v != null) {
+                c++;
+              }
+            }
+          }
+          if (c == 0 && constants) {
+            c = countNonNull(engine.hostServices.resolveConstant(engine, context.appInfo, name, false, false));
+          }
+          count += c;
+        }
+      } else {
+        count = collect.execute(engine, context, focus).size();
+      }
+      List<Base> result = new ArrayList<Base>();
+      result.add(new IntegerType(count).noExtensions());
+      return result;
+    };
+  }
+
+  private static int countNonNull(List<Base> list) {
+    int c = 0;
+    for (Base b : list) {
+      if (b != null) {
+        c++;
+      }
+    }
+    return c;
+  }
+
   private List<Base> executeTypeName(ExecutionContext context, List<Base> focus, ExpressionNode next, boolean atEntry) {
     List<Base> result = new ArrayList<Base>();
     if (next.getInner() != null) {
@@ -0,0 +1,132 @@
+package org.hl7.fhir.r5.fhirpath;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hl7.fhir.r5.fhirpath.ExpressionNode.Function;
+
+/**
+ * A process wide cache of parsed FHIRPath expressions, shared by all FHIRPathEngine instances
+ * (and so by the validator, SQL-on-FHIR runner, structure maps, liquid templates etc.),
+ * so that the same expression text is only lexed and parsed once.
+ * <p>
+ * Entries are keyed by the expression and the engine options that change what the parser produces
+ * (at present, whether double quotes are allowed). Expressions that use custom (host) functions
+ * are not cached, since whether they parse at all depends on the engine's host services.
+ * <p>
+ * The cache is bounded (least recently used expressions are dropped) and thread safe. The
+ * ExpressionNodes it returns are shared between engines and threads, so they must be treated
+ * as read only: FHIRPathEngine only reads them when evaluating. (check() does record types
+ * on the nodes, but these are only ever informational)
+ */
+public class FHIRPathExpressionCache {
+
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  private static int maxSize = DEFAULT_MAX_SIZE;
+  private static final LongAdder hits = new LongAdder();
+  private static final LongAdder misses = new LongAdder();
+  private static final Map<String, ExpressionNode> cache = new LinkedHashMap<String, ExpressionNode>(256, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, ExpressionNode> eldest) {
+      return size() > maxSize;
+    }
+  };
+
+  private FHIRPathExpressionCache() {
+    // static only
+  }
+
+  static String key(String expression, boolean allowDoubleQuotes) {
+    return (allowDoubleQuotes ? "d:" : "s:")+expression;
+  }
+
+  static ExpressionNode get(String key) {
+    ExpressionNode node;
+    synchronized (cache) {
+      node = cache.get(key);
+    }
+    if (node == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return node;
+  }
+
+  static void put(String key, ExpressionNode node) {
+    if (maxSize > 0 && isCacheable(node)) {
+      synchronized (cache) {
+        cache.put(key, node);
+      }
+    }
+  }
+
+  private static boolean isCacheable(ExpressionNode node) {
+    if (node == null) {
+      return true;
+    }
+    if (node.getFunction() == Function.Custom) {
+      return false;
+    }
+    if (node.getParameters() != null) {
+      for (ExpressionNode p : node.getParameters()) {
+        if (!isCacheable(p)) {
+          return false;
+        }
+      }
+    }
+    return isCacheable(node.getInner()) && isCacheable(node.getGroup()) && isCacheable(node.getOpNext());
+  }
+
+  public static int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * @param maxSize the number of expressions to keep. 0 turns the cache off
+   */
+  public static void setMaxSize(int maxSize) {
+    synchronized (cache) {
+      FHIRPathExpressionCache.maxSize = Math.max(0, maxSize);
+      if (cache.size() > FHIRPathExpressionCache.maxSize) {
+        cache.clear();
+      }
+    }
+  }
+
+  public static int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  public static long getHits() {
+    return hits.sum();
+  }
+
+  public static long getMisses() {
+    return misses.sum();
+  }
+
+  public static double getHitRate() {
+    long h = hits.sum();
+    long t = h + misses.sum();
+    return t == 0 ? 0 : (double) h / t;
+  }
+
+  public static void clear() {
+    synchronized (cache) {
+      cache.clear();
+    }
+    hits.reset();
+    misses.reset();
+  }
+
+  public static String getStatistics() {
+    return "FHIRPath parse cache: "+size()+" expressions, "+getHits()+" hits, "+getMisses()+" misses ("+Math.round(getHitRate()*100)+"%)";
+  }
+}
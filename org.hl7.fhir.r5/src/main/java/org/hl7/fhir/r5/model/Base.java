@@ -30,9 +30,9 @@ package org.hl7.fhir.r5.model;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.IBase;
@@ -130,9 +130,11 @@ public abstract class Base implements Serializable, IBase, IElement {
   }
   
   /**
-   * User appended data items - allow users to add extra information to the class
+   * User appended data items - allow users to add extra information to the class. Conformance resources 
+   * are shared between validators running on different threads, so this is a concurrent map, and 
+   * setting an item to null removes it
    */
-  private transient Map<String, Object> userData; 
+  private transient volatile Map<String, Object> userData; 
 
   /**
    * Post Validation Definition information
@@ -153,20 +155,37 @@ public abstract class Base implements Serializable, IBase, IElement {
    
   
   public Object getUserData(String name) {
-    if (userData == null)
+    Map<String, Object> ud = userData;
+    if (ud == null)
       return null;
-    return userData.get(name);
+    return ud.get(name);
+  }
+  
+  private Map<String, Object> userData() {
+    Map<String, Object> ud = userData;
+    if (ud == null) {
+      synchronized (this) {
+        ud = userData;
+        if (ud == null) {
+          ud = new ConcurrentHashMap<String, Object>();
+          userData = ud;
+        }
+      }
+    }
+    return ud;
   }
   
   public void setUserData(String name, Object value) {
-    if (userData == null)
-      userData = new HashMap<String, Object>();
-    userData.put(name, value);
+    if (value == null)
+      clearUserData(name);
+    else
+      userData().put(name, value);
   }
 
   public void clearUserData(String name) {
-    if (userData != null)
-      userData.remove(name);
+    Map<String, Object> ud = userData;
+    if (ud != null)
+      ud.remove(name);
   }
  
   
@@ -174,16 +193,15 @@ public abstract class Base implements Serializable, IBase, IElement {
     if (value == null)
       return;
     
-    if (userData == null)
-      userData = new HashMap<String, Object>();
-    userData.put(name, value);
+    userData().put(name, value);
   }
 
   public boolean hasUserData(String name) {
-    if (userData == null)
+    Map<String, Object> ud = userData;
+    if (ud == null)
       return false;
     else
-      return userData.containsKey(name) && (userData.get(name) != null);
+      return ud.get(name) != null;
   }
 
 	public String getUserString(String name) {
@@ -202,11 +220,9 @@ public abstract class Base implements Serializable, IBase, IElement {
   }
 
   public void copyUserData(Base other) {
-    if (other.userData != null) {
-      if (userData == null) {
-        userData = new HashMap<>();
-      }
-      userData.putAll(other.userData);
+    Map<String, Object> ud = other.userData;
+    if (ud != null) {
+      userData().putAll(ud);
     }
   }      
 
@@ -510,9 +526,9 @@ public abstract class Base implements Serializable, IBase, IElement {
   public abstract Base copy();
   
   public void copyValues(Base dst) {  
-    if (isCopyUserData() && userData != null) {
-      dst.userData = new HashMap<>();
-      dst.userData.putAll(userData);
+    Map<String, Object> ud = userData;
+    if (isCopyUserData() && ud != null) {
+      dst.userData = new ConcurrentHashMap<>(ud);
     }
   }
 
@@ -0,0 +1,370 @@
+package org.hl7.fhir.r5.terminologies;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r5.model.CodeSystem.ConceptPropertyComponent;
+import org.hl7.fhir.r5.model.Enumerations.FilterOperator;
+
+/**
+ * An index of the concepts in a CodeSystem, so that finding a concept doesn't mean walking the whole
+ * concept tree (which matters for big code systems loaded locally - ICD-10, LOINC parts, national code systems).
+ * <p>
+ * The index is built the first time it's asked for, and kept on the CodeSystem (as user data), so it goes
+ * away with the CodeSystem (and isn't used by copies of it). The concepts aren't checked for changes each
+ * time the index is asked for - that would cost as much as the walk the index saves - so if the concepts of
+ * a CodeSystem are changed after it has been indexed, call invalidate. CodeSystemUtilities.crossLinkCodeSystem
+ * (which the worker context calls when a CodeSystem is loaded) does.
+ * <p>
+ * Where more than one concept has the same code, the first one in the tree (depth first) is the one found,
+ * as with the tree walks. The index is thread safe once built. The is-a closure is built the first time
+ * it's needed, as intervals (see buildClosure), so subsumption checks don't walk the hierarchy
+ */
+public class CodeSystemIndex {
+
+  private static final String USER_DATA_INDEX = "cs.utils.index";
+
+  public static class AlternateCode {
+    private final ConceptDefinitionComponent concept;
+    private final ConceptPropertyComponent property;
+
+    private AlternateCode(ConceptDefinitionComponent concept, ConceptPropertyComponent property) {
+      super();
+      this.concept = concept;
+      this.property = property;
+    }
+
+    public ConceptDefinitionComponent getConcept() {
+      return concept;
+    }
+
+    public ConceptPropertyComponent getProperty() {
+      return property;
+    }
+  }
+
+  private final CodeSystem cs;
+  private final Map<String, ConceptDefinitionComponent> codes = new HashMap<>();
+  private final Map<String, ConceptDefinitionComponent> foldedCodes = new HashMap<>();
+  private final Map<String, List<AlternateCode>> alternateCodes = new HashMap<>();
+  private final Map<ConceptDefinitionComponent, List<ConceptDefinitionComponent>> parents = new IdentityHashMap<>();
+  private volatile Map<ConceptDefinitionComponent, Integer> order; // see buildClosure
+  private Map<ConceptDefinitionComponent, int[]> closure;
+
+  private CodeSystemIndex(CodeSystem cs) {
+    super();
+    this.cs = cs;
+    index(null, cs.getConcept());
+    for (ConceptDefinitionComponent cd : new ArrayList<>(parents.keySet())) {
+      crossLinks(cd);
+    }
+  }
+
+  /**
+   * @return the index for the code system, building it if it hasn't already been built
+   */
+  public static CodeSystemIndex get(CodeSystem cs) {
+    synchronized (cs) {
+      CodeSystemIndex index = (CodeSystemIndex) cs.getUserData(USER_DATA_INDEX);
+      // user data may be copied with the code system
+      if (index == null || index.cs != cs) {
+        index = new CodeSystemIndex(cs);
+        cs.setUserData(USER_DATA_INDEX, index);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * drop the index for the code system (if there is one), because the concepts have changed
+   */
+  public static void invalidate(CodeSystem cs) {
+    if (cs != null) {
+      synchronized (cs) {
+        cs.clearUserData(USER_DATA_INDEX);
+      }
+    }
+  }
+
+  private void index(ConceptDefinitionComponent parent, List<ConceptDefinitionComponent> list) {
+    for (ConceptDefinitionComponent cd : list) {
+      if (cd.hasCode()) {
+        codes.putIfAbsent(cd.getCode(), cd);
+        foldedCodes.putIfAbsent(fold(cd.getCode()), cd);
+      }
+      for (ConceptPropertyComponent p : cd.getProperty()) {
+        if ("alternateCode".equals(p.getCode()) && p.hasValue() && p.getValue().isPrimitive()) {
+          alternateCodes.computeIfAbsent(p.getValue().primitiveValue(), k -> new ArrayList<>()).add(new AlternateCode(cd, p));
+        }
+      }
+      List<ConceptDefinitionComponent> pl = parents.computeIfAbsent(cd, k -> new ArrayList<>());
+      if (parent != null && !pl.contains(parent)) {
+        pl.add(parent);
+      }
+      index(cd, cd.getConcept());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void crossLinks(ConceptDefinitionComponent cd) {
+    if (cd.hasUserData(CodeSystemUtilities.USER_DATA_CROSS_LINK)) {
+      for (ConceptDefinitionComponent child : (List<ConceptDefinitionComponent>) cd.getUserData(CodeSystemUtilities.USER_DATA_CROSS_LINK)) {
+        List<ConceptDefinitionComponent> pl = parents.computeIfAbsent(child, k -> new ArrayList<>());
+        if (!pl.contains(cd)) {
+          pl.add(cd);
+        }
+      }
+    }
+  }
+
+  /**
+   * the same comparison as String.equalsIgnoreCase, as a key
+   */
+  private static String fold(String code) {
+    char[] chars = code.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+    }
+    return new String(chars);
+  }
+
+  public CodeSystem getCodeSystem() {
+    return cs;
+  }
+
+  /**
+   * @return the concept with exactly this code, or null
+   */
+  public ConceptDefinitionComponent findCode(String code) {
+    return code == null ? null : codes.get(code);
+  }
+
+  /**
+   * @return the concept with this code, ignoring case, or null
+   */
+  public ConceptDefinitionComponent findCodeIgnoreCase(String code) {
+    if (code == null) {
+      return null;
+    }
+    ConceptDefinitionComponent cd = codes.get(code);
+    return cd != null ? cd : foldedCodes.get(fold(code));
+  }
+
+  /**
+   * @return the alternate codes (properties with code 'alternateCode') with this value, in tree order
+   */
+  public List<AlternateCode> getAlternateCodes(String code) {
+    List<AlternateCode> list = code == null ? null : alternateCodes.get(code);
+    return list == null ? Collections.emptyList() : list;
+  }
+
+  /**
+   * @return the first concept that has an alternate code with this value that passes the filter, or null
+   */
+  public ConceptDefinitionComponent findAlternateCode(String code, Predicate<ConceptPropertyComponent> filter) {
+    for (AlternateCode ac : getAlternateCodes(code)) {
+      if (filter == null || filter.test(ac.getProperty())) {
+        return ac.getConcept();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the concept with this code (or with case ignored, if caseSensitive is false), or else with an alternate code that passes the filter
+   */
+  public ConceptDefinitionComponent findCode(String code, boolean caseSensitive, Predicate<ConceptPropertyComponent> altCodeFilter) {
+    ConceptDefinitionComponent cd = caseSensitive ? findCode(code) : findCodeIgnoreCase(code);
+    return cd != null ? cd : findAlternateCode(code, altCodeFilter);
+  }
+
+  /**
+   * @return the parents of the concept - the concept it is nested in, and the concepts it is linked to by the parent property
+   */
+  public List<ConceptDefinitionComponent> getParents(ConceptDefinitionComponent cd) {
+    List<ConceptDefinitionComponent> list = parents.get(cd);
+    return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+  }
+
+  /**
+   * @return all the concepts that the concept is subsumed by (not including itself)
+   */
+  public Set<ConceptDefinitionComponent> getAncestors(ConceptDefinitionComponent cd) {
+    Set<ConceptDefinitionComponent> set = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<ConceptDefinitionComponent> queue = new ArrayDeque<>(getParents(cd));
+    while (!queue.isEmpty()) {
+      ConceptDefinitionComponent p = queue.pop();
+      if (p != cd && set.add(p)) {
+        queue.addAll(getParents(p));
+      }
+    }
+    return set;
+  }
+
+  /**
+   * @return true if child is the same concept as parent, or is a descendant of it
+   */
+  public boolean isA(ConceptDefinitionComponent child, ConceptDefinitionComponent parent) {
+    if (child == parent) {
+      return true;
+    }
+    if (order == null) {
+      buildClosure();
+    }
+    Integer n = order.get(child);
+    int[] intervals = closure.get(parent);
+    if (n == null || intervals == null) {
+      return false;
+    }
+    // find the last interval that starts at or before n
+    int lo = 0;
+    int hi = intervals.length / 2 - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) / 2;
+      if (intervals[mid * 2] <= n) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return intervals[lo * 2] <= n && n <= intervals[lo * 2 + 1];
+  }
+
+  /**
+   * @return whether concept passes a hierarchy filter (is-a, descendent-of, is-not-a, generalizes) on focus
+   */
+  public boolean passesHierarchyFilter(FilterOperator op, ConceptDefinitionComponent focus, ConceptDefinitionComponent concept) {
+    switch (op) {
+    case ISA: return isA(concept, focus);
+    case DESCENDENTOF: return concept != focus && isA(concept, focus);
+    case ISNOTA: return !isA(concept, focus);
+    case GENERALIZES: return isA(focus, concept);
+    default: throw new FHIRException("Filter operation "+op.toCode()+" is not a hierarchy filter");
+    }
+  }
+
+  public static boolean isHierarchyFilter(FilterOperator op) {
+    return op == FilterOperator.ISA || op == FilterOperator.DESCENDENTOF || op == FilterOperator.ISNOTA || op == FilterOperator.GENERALIZES;
+  }
+
+  /**
+   * The closure is stored as intervals of concept numbers. Concepts are numbered in post-order
+   * through the nesting of the concepts, so all the nested descendants of a concept have the numbers
+   * just before the concept's own number, and a single interval covers them. Concepts that are also
+   * linked to other parents by the parent property add the intervals of their own descendants to all those
+   * parents (merging them where they are adjacent). So for a strict hierarchy, each concept has one
+   * interval, and in any case, checking whether a concept is in the closure is a binary search
+   */
+  private synchronized void buildClosure() {
+    if (order != null) {
+      return;
+    }
+    Map<ConceptDefinitionComponent, Integer> o = new IdentityHashMap<>();
+    Map<ConceptDefinitionComponent, int[]> c = new IdentityHashMap<>();
+    int[] counter = new int[1];
+    for (ConceptDefinitionComponent cd : cs.getConcept()) {
+      number(cd, o, c, counter);
+    }
+    Set<ConceptDefinitionComponent> done = Collections.newSetFromMap(new IdentityHashMap<>());
+    Set<ConceptDefinitionComponent> visiting = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (ConceptDefinitionComponent cd : o.keySet()) {
+      close(cd, c, done, visiting);
+    }
+    closure = c;
+    order = o;
+  }
+
+  private void number(ConceptDefinitionComponent cd, Map<ConceptDefinitionComponent, Integer> o, Map<ConceptDefinitionComponent, int[]> c, int[] counter) {
+    if (o.containsKey(cd)) {
+      return;
+    }
+    int low = counter[0];
+    for (ConceptDefinitionComponent child : cd.getConcept()) {
+      number(child, o, c, counter);
+    }
+    int n = counter[0]++;
+    o.put(cd, n);
+    c.put(cd, new int[] { low, n });
+  }
+
+  @SuppressWarnings("unchecked")
+  private int[] close(ConceptDefinitionComponent cd, Map<ConceptDefinitionComponent, int[]> c, Set<ConceptDefinitionComponent> done, Set<ConceptDefinitionComponent> visiting) {
+    if (done.contains(cd) || !visiting.add(cd)) {
+      return c.get(cd); // done already, or a loop in the parent links - don't go round it
+    }
+    List<int[]> list = new ArrayList<>();
+    list.add(c.get(cd));
+    for (ConceptDefinitionComponent child : cd.getConcept()) {
+      list.add(close(child, c, done, visiting));
+    }
+    if (cd.hasUserData(CodeSystemUtilities.USER_DATA_CROSS_LINK)) {
+      for (ConceptDefinitionComponent child : (List<ConceptDefinitionComponent>) cd.getUserData(CodeSystemUtilities.USER_DATA_CROSS_LINK)) {
+        if (c.containsKey(child)) {
+          list.add(close(child, c, done, visiting));
+        }
+      }
+    }
+    visiting.remove(cd);
+    done.add(cd);
+    int[] res = merge(list);
+    c.put(cd, res);
+    return res;
+  }
+
+  /**
+   * @return the intervals in the list, merged, or the first entry if they all fall in it (the usual case)
+   */
+  private int[] merge(List<int[]> list) {
+    List<int[]> pairs = new ArrayList<>();
+    for (int[] intervals : list) {
+      for (int i = 0; i < intervals.length; i += 2) {
+        pairs.add(new int[] { intervals[i], intervals[i+1] });
+      }
+    }
+    pairs.sort((a, b) -> Integer.compare(a[0], b[0]));
+    List<int[]> merged = new ArrayList<>();
+    for (int[] p : pairs) {
+      int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+      if (last != null && p[0] <= last[1] + 1) {
+        last[1] = Math.max(last[1], p[1]);
+      } else {
+        merged.add(p);
+      }
+    }
+    if (merged.size() == 1) {
+      int[] first = list.get(0);
+      if (first.length == 2 && first[0] == merged.get(0)[0] && first[1] == merged.get(0)[1]) {
+        return first;
+      }
+    }
+    int[] res = new int[merged.size() * 2];
+    for (int i = 0; i < merged.size(); i++) {
+      res[i*2] = merged.get(i)[0];
+      res[i*2+1] = merged.get(i)[1];
+    }
+    return res;
+  }
+
+  /**
+   * @return true if the code child is the same as the code parent, or is a descendant of it (exact codes)
+   */
+  public boolean subsumes(String parent, String child) {
+    if (parent.equals(child)) {
+      return true;
+    }
+    ConceptDefinitionComponent p = findCode(parent);
+    ConceptDefinitionComponent c = findCode(child);
+    return p != null && c != null && isA(c, p);
+  }
+}
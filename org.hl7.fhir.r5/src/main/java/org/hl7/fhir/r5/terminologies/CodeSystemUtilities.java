@@ -520,6 +520,15 @@ public class CodeSystemUtilities extends TerminologyUtilities {
     return res;
   }
 
+  /**
+   * As findCodeOrAltCode(cs.getConcept(), code, use), but using the code system's index, for code systems that aren't being changed
+   */
+  public static ConceptDefinitionComponent findCodeOrAltCode(CodeSystem cs, String code, String use) {
+    CodeSystemIndex index = CodeSystemIndex.get(cs);
+    ConceptDefinitionComponent cd = index.findCode(code);
+    return cd != null ? cd : index.findAlternateCode(code, p -> use == null || hasUse(p, use));
+  }
+
   public static ConceptDefinitionComponent findCodeOrAltCode(List<ConceptDefinitionComponent> list, String code, String use) {
     for (ConceptDefinitionComponent c : list) {
       if (c.hasCode() && c.getCode().equals(code))
@@ -682,8 +691,10 @@ public class CodeSystemUtilities extends TerminologyUtilities {
 
   public static void crossLinkCodeSystem(CodeSystem cs) {
     String parent = getPropertyByUrl(cs, "http://hl7.org/fhir/concept-properties#parent");
+    CodeSystemIndex.invalidate(cs);
     if ((parent != null)) {
-      crossLinkConcepts(cs.getConcept(), cs.getConcept(), parent);
+      crossLinkConcepts(CodeSystemIndex.get(cs), cs.getConcept(), parent);
+      CodeSystemIndex.invalidate(cs); // the links change the is-a closure
     }
   }
 
@@ -696,12 +707,12 @@ public class CodeSystemUtilities extends TerminologyUtilities {
     return null;
   }
 
-  private static void crossLinkConcepts(List<ConceptDefinitionComponent> root, List<ConceptDefinitionComponent> focus, String parent) {
+  private static void crossLinkConcepts(CodeSystemIndex root, List<ConceptDefinitionComponent> focus, String parent) {
     for (ConceptDefinitionComponent def : focus) {
       List<ConceptPropertyComponent> pcl = getPropertyValues(def, parent);
       for (ConceptPropertyComponent pc : pcl) {
         String code = pc.getValue().primitiveValue();
-        ConceptDefinitionComponent tgt = findCode(root, code);
+        ConceptDefinitionComponent tgt = root.findCode(code);
         if (!tgt.hasUserData(USER_DATA_CROSS_LINK)) {
           tgt.setUserData(USER_DATA_CROSS_LINK, new ArrayList<>());
         }
@@ -819,7 +830,7 @@ public class CodeSystemUtilities extends TerminologyUtilities {
 
   private static void mergeSupplements(CodeSystem ret, ConceptDefinitionComponent fdef, List<CodeSystem> supplements) {
     for (CodeSystem cs : supplements) {
-      ConceptDefinitionComponent def = CodeSystemUtilities.findCode(cs.getConcept(), fdef.getCode());
+      ConceptDefinitionComponent def = CodeSystemIndex.get(cs).findCode(fdef.getCode());
       if (def != null) {
         for (Extension ext : def.getExtension()) {
           fdef.addExtension(ext.copy());
@@ -979,16 +990,7 @@ public class CodeSystemUtilities extends TerminologyUtilities {
   }
 
   public static Boolean subsumes(CodeSystem cs, String pc, String cc) {
-    if (pc.equals(cc)) {
-      return true;
-    }
-    List<ConceptDefinitionComponent> child = findCodeWithParents(null, cs.getConcept(), cc);
-    for (ConceptDefinitionComponent item : child) {
-      if (pc.equals(item.getCode())) {
-        return true;
-      }
-    }
-    return false;
+    return CodeSystemIndex.get(cs).subsumes(pc, cc);
   }
 
   public static Set<String> codes(CodeSystem cs) {
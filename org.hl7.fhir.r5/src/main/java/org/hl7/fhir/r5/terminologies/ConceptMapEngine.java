@@ -31,69 +31,163 @@ package org.hl7.fhir.r5.terminologies;
 
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.hl7.fhir.exceptions.FHIRException;
-import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.context.IWorkerContext;
 import org.hl7.fhir.r5.model.Coding;
 import org.hl7.fhir.r5.model.ConceptMap;
 import org.hl7.fhir.r5.model.ConceptMap.ConceptMapGroupComponent;
+import org.hl7.fhir.r5.model.ConceptMap.ConceptMapGroupUnmappedComponent;
+import org.hl7.fhir.r5.model.ConceptMap.OtherElementComponent;
 import org.hl7.fhir.r5.model.ConceptMap.SourceElementComponent;
 import org.hl7.fhir.r5.model.ConceptMap.TargetElementComponent;
+import org.hl7.fhir.r5.model.DataType;
 import org.hl7.fhir.r5.model.Enumerations.ConceptMapRelationship;
+import org.hl7.fhir.r5.terminologies.ConceptMapIndex.ConceptMapIndexEntry;
 import org.hl7.fhir.utilities.CanonicalPair;
 
+/**
+ * Translates codes using the ConceptMaps in the context. Source codes are found using the
+ * map's index (ConceptMapIndex), not by scanning the groups.
+ * <p>
+ * If the source code isn't in the map, the unmapped rules of the groups for the source system
+ * are applied. Targets that depend on other elements are only used when the properties
+ * passed in satisfy all their dependencies, and are preferred to the targets that don't.
+ */
 public class ConceptMapEngine {
 
-  private SimpleWorkerContext context;
+  private IWorkerContext context;
 
-  public ConceptMapEngine(SimpleWorkerContext context) {
+  public ConceptMapEngine(IWorkerContext context) {
     this.context = context;
   }
 
   public Coding translate(Coding source, String url) throws FHIRException {
+    return translate(source, url, null);
+  }
+
+  /**
+   * @param properties the values of the other elements that targets may depend on (by attribute), or null
+   */
+  public Coding translate(Coding source, String url, Map<String, DataType> properties) throws FHIRException {
+    return translate(fetchMap(url), source, properties, newVisited());
+  }
+
+  /**
+   * Translate a list of codings with the same map. The map is only fetched once.
+   *
+   * @return a list of the same size as sources, with null where a coding has no translation
+   */
+  public List<Coding> translate(List<Coding> sources, String url) throws FHIRException {
+    ConceptMap cm = fetchMap(url);
+    List<Coding> res = new ArrayList<>(sources.size());
+    for (Coding source : sources) {
+      res.add(translate(cm, source, null, newVisited()));
+    }
+    return res;
+  }
+
+  private ConceptMap fetchMap(String url) {
     ConceptMap cm = context.fetchResource(ConceptMap.class, url);
     if (cm == null)
       throw new FHIRException("Unable to find ConceptMap '"+url+"'");
-    if (source.hasSystem()) 
-      return translateBySystem(cm, source.getSystem(), source.getCode());
-    else
-      return translateByJustCode(cm, source.getCode());
+    return cm;
   }
 
-  private Coding translateByJustCode(ConceptMap cm, String code) throws FHIRException {
-    SourceElementComponent ct = null;
-    ConceptMapGroupComponent cg = null;
-    for (ConceptMapGroupComponent g : cm.getGroup()) {
-      for (SourceElementComponent e : g.getElement()) {
-        if (code.equals(e.getCode())) {
-          if (e != null)
-            throw new FHIRException("Unable to process translate "+code+" because multiple candidate matches were found in concept map "+cm.getUrl());
-          ct = e;
-          cg = g;
-        }
-      }
-    }
-    if (ct == null)
+  // maps are tracked by identity, since contained maps (and maps made on the fly) may have no url
+  private Set<ConceptMap> newVisited() {
+    return Collections.newSetFromMap(new IdentityHashMap<>());
+  }
+
+  private Coding translate(ConceptMap cm, Coding source, Map<String, DataType> properties, Set<ConceptMap> visited) throws FHIRException {
+    if (!visited.add(cm))
+      throw new FHIRException("Unable to process translate "+source.getCode()+" because the concept map "+cm.getUrl()+" refers back to itself (through otherMap)");
+    String system = source.hasSystem() ? source.getSystem() : null;
+    List<ConceptMapIndexEntry> matches = ConceptMapIndex.get(cm).findCode(system, source.getVersion(), source.getCode());
+    if (matches.isEmpty())
+      return translateUnmapped(cm, system, source, properties, visited);
+    if (matches.size() > 1)
+      throw new FHIRException("Unable to process translate "+source.getCode()+" because multiple candidate matches were found in concept map "+cm.getUrl());
+    ConceptMapGroupComponent cg = matches.get(0).getGroup();
+    SourceElementComponent ct = matches.get(0).getElement();
+    if (ct.getNoMap())
       return null;
     TargetElementComponent tt = null;
+    boolean specific = false;
     for (TargetElementComponent t : ct.getTarget()) {
-      if (!t.hasDependsOn() && !t.hasProduct() && isOkRelationship(t.getRelationship())) {
-        if (tt != null)
-          throw new FHIRException("Unable to process translate "+code+" because multiple targets were found in concept map "+cm.getUrl());
-        tt = t;       
+      if (!t.hasProduct() && isOkRelationship(t.getRelationship())) {
+        if (!t.hasDependsOn()) {
+          if (!specific) {
+            if (tt != null)
+              throw new FHIRException("Unable to process translate "+source.getCode()+" because multiple targets were found in concept map "+cm.getUrl());
+            tt = t;
+          }
+        } else if (dependenciesMet(t, properties)) {
+          if (specific)
+            throw new FHIRException("Unable to process translate "+source.getCode()+" because multiple targets were found in concept map "+cm.getUrl());
+          tt = t;
+          specific = true;
+        }
       }
     }
     if (tt == null)
       return null;
     CanonicalPair cp = new CanonicalPair(cg.getTarget());
-    return new Coding().setSystem(cp.getUrl()).setVersion(cp.getVersion()).setCode(tt.getCode()).setDisplay(tt.getDisplay());      
+    return new Coding().setSystem(cp.getUrl()).setVersion(cp.getVersion()).setCode(tt.getCode()).setDisplay(tt.getDisplay());
   }
 
-  private boolean isOkRelationship(ConceptMapRelationship relationship) {
-    return relationship != null && relationship != ConceptMapRelationship.NOTRELATEDTO;
+  private Coding translateUnmapped(ConceptMap cm, String system, Coding source, Map<String, DataType> properties, Set<ConceptMap> visited) throws FHIRException {
+    for (ConceptMapGroupComponent g : ConceptMapIndex.get(cm).getGroups(system)) {
+      if (g.hasUnmapped() && g.getUnmapped().hasMode()) {
+        ConceptMapGroupUnmappedComponent um = g.getUnmapped();
+        if (um.hasRelationship() && !isOkRelationship(um.getRelationship()))
+          return null;
+        CanonicalPair cp = new CanonicalPair(g.getTarget());
+        switch (um.getMode()) {
+        case USESOURCECODE:
+          return new Coding().setSystem(cp.getUrl()).setVersion(cp.getVersion()).setCode(source.getCode()).setDisplay(source.getDisplay());
+        case FIXED:
+          return um.hasCode() ? new Coding().setSystem(cp.getUrl()).setVersion(cp.getVersion()).setCode(um.getCode()).setDisplay(um.getDisplay()) : null;
+        case OTHERMAP:
+          return um.hasOtherMap() ? translate(fetchMap(um.getOtherMap()), source, properties, visited) : null;
+        default:
+          return null;
+        }
+      }
+    }
+    return null;
   }
 
-  private Coding translateBySystem(ConceptMap cm, String system, String code) {
-    throw new Error("Not done yet");
+  private boolean dependenciesMet(TargetElementComponent t, Map<String, DataType> properties) {
+    if (properties == null)
+      return false;
+    for (OtherElementComponent dep : t.getDependsOn()) {
+      DataType value = properties.get(dep.getAttribute());
+      if (value == null || !dep.hasValue() || !sameValue(dep.getValue(), value))
+        return false;
+    }
+    return true;
+  }
+
+  private boolean sameValue(DataType expected, DataType value) {
+    if (expected instanceof Coding && value instanceof Coding) {
+      Coding c1 = (Coding) expected;
+      Coding c2 = (Coding) value;
+      return c1.hasCode() && c1.getCode().equals(c2.getCode()) && (!c1.hasSystem() || c1.getSystem().equals(c2.getSystem()));
+    }
+    if (expected.isPrimitive() && value.isPrimitive())
+      return expected.primitiveValue() != null && expected.primitiveValue().equals(value.primitiveValue());
+    return expected.equalsDeep(value);
+  }
+
+  private boolean isOkRelationship(ConceptMapRelationship relationship) {
+    return relationship != null && relationship != ConceptMapRelationship.NOTRELATEDTO;
   }
 
 }
\ No newline at end of file
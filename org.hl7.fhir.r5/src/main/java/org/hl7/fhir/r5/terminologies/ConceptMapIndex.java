@@ -0,0 +1,183 @@
+package org.hl7.fhir.r5.terminologies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r5.model.ConceptMap;
+import org.hl7.fhir.r5.model.ConceptMap.ConceptMapGroupComponent;
+import org.hl7.fhir.r5.model.ConceptMap.SourceElementComponent;
+import org.hl7.fhir.utilities.CanonicalPair;
+
+/**
+ * An index of the source codes in a ConceptMap, so that translating a code doesn't mean scanning every
+ * element of every group. Transforms and translations look up codes in the same map over and over again.
+ * <p>
+ * The index is built the first time it's asked for, and kept on the map (as user data), so it lives
+ * as long as the map does. Maps are not expected to change once they're loaded; if one does, call invalidate.
+ * (A group added or removed is noticed, since that's cheap to check, but elements changed within a group aren't.)
+ * <p>
+ * Where there's more than one matching element, they're returned in the order they appear in the map.
+ * A group's source is indexed as it is, and also without the version, if it has one.
+ */
+public class ConceptMapIndex {
+
+  public static class ConceptMapIndexEntry {
+    private final ConceptMapGroupComponent group;
+    private final SourceElementComponent element;
+
+    private ConceptMapIndexEntry(ConceptMapGroupComponent group, SourceElementComponent element) {
+      super();
+      this.group = group;
+      this.element = element;
+    }
+
+    public ConceptMapGroupComponent getGroup() {
+      return group;
+    }
+
+    public SourceElementComponent getElement() {
+      return element;
+    }
+  }
+
+  private static final String USER_DATA_INDEX = "cm.index";
+
+  private final ConceptMap map;
+  private final int groupCount;
+  private final Map<String, List<ConceptMapIndexEntry>> codes = new HashMap<>(); // code -> entries, whatever the system
+  private final Map<String, Map<String, List<ConceptMapIndexEntry>>> systems = new HashMap<>(); // group source -> code -> entries
+  private final Map<String, List<ConceptMapGroupComponent>> groups = new HashMap<>(); // group source -> groups
+
+  private ConceptMapIndex(ConceptMap map) {
+    super();
+    this.map = map;
+    this.groupCount = map.getGroup().size();
+    for (ConceptMapGroupComponent g : map.getGroup()) {
+      List<String> keys = sourceKeys(g);
+      for (String key : keys) {
+        groups.computeIfAbsent(key, k -> new ArrayList<>()).add(g);
+      }
+      for (SourceElementComponent e : g.getElement()) {
+        if (e.hasCode()) {
+          ConceptMapIndexEntry entry = new ConceptMapIndexEntry(g, e);
+          codes.computeIfAbsent(e.getCode(), k -> new ArrayList<>()).add(entry);
+          for (String key : keys) {
+            systems.computeIfAbsent(key, k -> new HashMap<>()).computeIfAbsent(e.getCode(), k -> new ArrayList<>()).add(entry);
+          }
+        }
+      }
+    }
+  }
+
+  private List<String> sourceKeys(ConceptMapGroupComponent g) {
+    List<String> keys = new ArrayList<>();
+    if (g.hasSource()) {
+      keys.add(g.getSource());
+      CanonicalPair cp = new CanonicalPair(g.getSource());
+      if (cp.getVersion() != null) {
+        keys.add(cp.getUrl());
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * @return the index for the map, building it if it hasn't already been built
+   */
+  public static ConceptMapIndex get(ConceptMap map) {
+    ConceptMapIndex index = (ConceptMapIndex) map.getUserData(USER_DATA_INDEX);
+    if (index != null && index.isCurrent(map)) {
+      return index;
+    }
+    synchronized (map) {
+      index = (ConceptMapIndex) map.getUserData(USER_DATA_INDEX);
+      if (index == null || !index.isCurrent(map)) {
+        index = new ConceptMapIndex(map);
+        map.setUserData(USER_DATA_INDEX, index);
+      }
+      return index;
+    }
+  }
+
+  // user data may be copied with the map
+  private boolean isCurrent(ConceptMap map) {
+    return this.map == map && groupCount == map.getGroup().size();
+  }
+
+  /**
+   * drop the index for the map (if there is one), because the contents have changed
+   */
+  public static void invalidate(ConceptMap map) {
+    if (map != null) {
+      synchronized (map) {
+        map.clearUserData(USER_DATA_INDEX);
+      }
+    }
+  }
+
+  /**
+   * @param system the source system (or null, to match the code in any group)
+   * @return the elements with the code, in the groups for the system, in the order they appear in the map
+   */
+  public List<ConceptMapIndexEntry> findCode(String system, String code) {
+    if (code == null) {
+      return Collections.emptyList();
+    }
+    List<ConceptMapIndexEntry> list;
+    if (system == null) {
+      list = codes.get(code);
+    } else {
+      Map<String, List<ConceptMapIndexEntry>> map = systems.get(system);
+      list = map == null ? null : map.get(code);
+    }
+    return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+  }
+
+  /**
+   * Unlike findCode, a source without a version doesn't match groups whose source has a version
+   * 
+   * @param source the group source, exactly as it appears in the map (or null, to match the code in any group)
+   * @return the elements with the code, in the groups with that source, in the order they appear in the map
+   */
+  public List<ConceptMapIndexEntry> findCodeInSource(String source, String code) {
+    List<ConceptMapIndexEntry> list = findCode(source, code);
+    if (source == null) {
+      return list;
+    }
+    List<ConceptMapIndexEntry> res = new ArrayList<>();
+    for (ConceptMapIndexEntry entry : list) {
+      if (source.equals(entry.getGroup().getSource())) {
+        res.add(entry);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * as for findCode(system, code), but if there's a version, prefer the groups for that version of the system
+   */
+  public List<ConceptMapIndexEntry> findCode(String system, String version, String code) {
+    if (system != null && version != null) {
+      List<ConceptMapIndexEntry> list = findCode(system+"|"+version, code);
+      if (!list.isEmpty()) {
+        return list;
+      }
+    }
+    return findCode(system, code);
+  }
+
+  /**
+   * @param system the source system (or null, for all the groups)
+   * @return the groups for the source system, in the order they appear in the map
+   */
+  public List<ConceptMapGroupComponent> getGroups(String system) {
+    if (system == null) {
+      return Collections.unmodifiableList(map.getGroup());
+    }
+    List<ConceptMapGroupComponent> list = groups.get(system);
+    return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+  }
+}
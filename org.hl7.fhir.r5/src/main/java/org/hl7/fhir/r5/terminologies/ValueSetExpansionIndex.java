@@ -0,0 +1,91 @@
+package org.hl7.fhir.r5.terminologies;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionComponent;
+import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
+
+/**
+ * An index of the codes in a ValueSet expansion, so that checking whether a code is in an expansion
+ * doesn't mean walking the whole contains tree. The validator checks the same expansion over and over
+ * again in a validation run.
+ * <p>
+ * The index is built the first time it's asked for, and kept on the expansion (as user data), so it lives
+ * as long as the expansion does - including the expansions the worker context caches. Expansions are not
+ * expected to change once they've been made, and the contents aren't checked for changes each time the
+ * index is asked for (that would cost as much as the walk the index saves); if one does change, call invalidate.
+ * <p>
+ * Where a code appears more than once in the expansion, the first one (depth first) is the one found,
+ * as with the tree walks, whatever its version. The index doesn't change once it's built, and getting it
+ * and looking codes up in it don't lock or allocate
+ */
+public class ValueSetExpansionIndex {
+
+  private static final String USER_DATA_INDEX = "vs.exp.index";
+
+  private final ValueSetExpansionComponent expansion;
+  private final Map<String, Map<String, ValueSetExpansionContainsComponent>> codes = new HashMap<>(); // system -> code -> first entry
+
+  private ValueSetExpansionIndex(ValueSetExpansionComponent expansion) {
+    super();
+    this.expansion = expansion;
+    index(expansion.getContains());
+  }
+
+  /**
+   * @return the index for the expansion, building it if it hasn't already been built
+   */
+  public static ValueSetExpansionIndex get(ValueSetExpansionComponent expansion) {
+    ValueSetExpansionIndex index = (ValueSetExpansionIndex) expansion.getUserData(USER_DATA_INDEX);
+    // user data may be copied with the expansion
+    if (index != null && index.expansion == expansion) {
+      return index;
+    }
+    synchronized (expansion) {
+      index = (ValueSetExpansionIndex) expansion.getUserData(USER_DATA_INDEX);
+      if (index == null || index.expansion != expansion) {
+        index = new ValueSetExpansionIndex(expansion);
+        expansion.setUserData(USER_DATA_INDEX, index);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * drop the index for the expansion (if there is one), because the contents have changed
+   */
+  public static void invalidate(ValueSetExpansionComponent expansion) {
+    if (expansion != null) {
+      synchronized (expansion) {
+        expansion.clearUserData(USER_DATA_INDEX);
+      }
+    }
+  }
+
+  private void index(List<ValueSetExpansionContainsComponent> list) {
+    for (ValueSetExpansionContainsComponent c : list) {
+      if (c.hasSystem() && c.hasCode()) {
+        Map<String, ValueSetExpansionContainsComponent> map = codes.computeIfAbsent(c.getSystem(), k -> new HashMap<>());
+        map.putIfAbsent(c.getCode(), c);
+      }
+      index(c.getContains());
+    }
+  }
+
+  /**
+   * @return the first entry in the expansion with the system and code, whatever its version, or null
+   */
+  public ValueSetExpansionContainsComponent findCode(String system, String code) {
+    if (system == null || code == null) {
+      return null;
+    }
+    Map<String, ValueSetExpansionContainsComponent> map = codes.get(system);
+    return map == null ? null : map.get(code);
+  }
+
+  public boolean hasCode(String system, String code) {
+    return findCode(system, code) != null;
+  }
+}
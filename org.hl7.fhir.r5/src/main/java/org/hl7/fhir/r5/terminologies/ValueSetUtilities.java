@@ -357,19 +357,7 @@ public class ValueSetUtilities extends TerminologyUtilities {
   }
 
   public static boolean hasCodeInExpansion(ValueSet vs, Coding code) {
-    return hasCodeInExpansion(vs.getExpansion().getContains(), code);
-  }
-
-  private static boolean hasCodeInExpansion(List<ValueSetExpansionContainsComponent> list, Coding code) {
-    for (ValueSetExpansionContainsComponent c : list) {
-      if (c.getSystem().equals(code.getSystem()) && c.getCode().equals(code.getCode())) {
-        return true;
-      }
-      if (hasCodeInExpansion(c.getContains(), code)) {
-        return true;
-      }
-    }
-    return false;
+    return ValueSetExpansionIndex.get(vs.getExpansion()).hasCode(code.getSystem(), code.getCode());
   }
 
   public static org.hl7.fhir.r5.model.ValueSet.ConceptPropertyComponent addProperty(ValueSet vs, ValueSetExpansionContainsComponent ctxt, String url, String code, String value) {
@@ -2,10 +2,16 @@ package org.hl7.fhir.r5.terminologies.client;
 
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
+import org.hl7.fhir.exceptions.TerminologyServiceException;
 import org.hl7.fhir.r5.model.CanonicalResource;
 import org.hl7.fhir.r5.model.CapabilityStatement;
 import org.hl7.fhir.r5.model.TerminologyCapabilities;
@@ -13,6 +19,7 @@ import org.hl7.fhir.r5.model.TerminologyCapabilities.TerminologyCapabilitiesCode
 import org.hl7.fhir.r5.model.TerminologyCapabilities.TerminologyCapabilitiesExpansionParameterComponent;
 import org.hl7.fhir.r5.terminologies.client.TerminologyClientContext.TerminologyClientContextUseCount;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache.CacheToken;
 
 public class TerminologyClientContext {
   public enum TerminologyClientContextUseType {
@@ -52,15 +59,23 @@ public class TerminologyClientContext {
   
   private Map<String, TerminologyClientContextUseCount> useCounts = new HashMap<>();
   private boolean isTxCaching;
-  private final Set<String> cached = new HashSet<>();
+  private final Set<String> cached = ConcurrentHashMap.newKeySet(); // added to by parallel requests
   private boolean master;
   private String cacheId;
+  private Semaphore requests; // null = no limit on the number of concurrent requests
+  private final Map<String, CompletableFuture<Object>> inFlight; // requests being made now, by token identity
 
   protected TerminologyClientContext(ITerminologyClient client, String cacheId, boolean master) {
+    this(client, cacheId, master, new ConcurrentHashMap<>());
+  }
+
+  // tests pass their own map, to see when a request finds one that's already being made
+  TerminologyClientContext(ITerminologyClient client, String cacheId, boolean master, Map<String, CompletableFuture<Object>> inFlight) {
     super();
     this.client = client;
     this.cacheId = cacheId;
     this.master = master;
+    this.inFlight = inFlight;
   }
 
   public Map<String, TerminologyClientContextUseCount> getUseCounts() {
@@ -192,6 +207,77 @@ public class TerminologyClientContext {
     return false;
   }
 
+  /**
+   * @param max the maximum number of requests that will be made to this server at once (across all threads). 
+   *   0 = no limit (the default for a context that isn't made by a TerminologyClientManager)
+   */
+  public void setMaxConcurrentRequests(int max) {
+    requests = max > 0 ? new Semaphore(max, true) : null;
+  }
+
+  /**
+   * Make a request to the server, once there's a free slot (see setMaxConcurrentRequests), 
+   * so that parallel validation doesn't flood the server
+   */
+  public <T> T request(Supplier<T> call) {
+    Semaphore s = requests;
+    if (s == null) {
+      return call.get();
+    }
+    try {
+      s.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TerminologyServiceException("Interrupted waiting to make a request to "+getAddress());
+    }
+    try {
+      return call.get();
+    } finally {
+      s.release();
+    }
+  }
+
+  /**
+   * Make a request to the server, unless the same request (i.e. one with the same cache token) is 
+   * already being made on another thread, in which case, wait for that one to finish and use its 
+   * answer (or its exception) instead. Each thread gets its own copy of the answer (made with copier), 
+   * since callers change it; callers are still responsible for caching it
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T coalesce(CacheToken cacheToken, Supplier<T> call, UnaryOperator<T> copier) {
+    String key = cacheToken == null ? null : cacheToken.getIdentity();
+    if (key == null) {
+      return call.get();
+    }
+    CompletableFuture<Object> future = new CompletableFuture<>();
+    CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      try {
+        T res = (T) existing.join();
+        return res == null ? null : copier.apply(res);
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        if (e.getCause() instanceof Error) {
+          throw (Error) e.getCause();
+        }
+        throw e;
+      }
+    }
+    try {
+      T res = call.get();
+      // the waiting threads copy this one, and this thread may change res as soon as it's returned
+      future.complete(res == null ? null : copier.apply(res));
+      return res;
+    } catch (RuntimeException | Error e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, future);
+    }
+  }
+
   @Override
   public String toString() {
     return client.getAddress();
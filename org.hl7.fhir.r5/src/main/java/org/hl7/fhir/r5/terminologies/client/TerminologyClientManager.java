@@ -82,6 +82,7 @@ public class TerminologyClientManager {
   }
 
   public static final String UNRESOLVED_VALUESET = "--unknown--";
+  public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8; // per server; enough to keep a server busy without flooding it
 
   private static final boolean IGNORE_TX_REGISTRY = false;
   
@@ -99,6 +100,7 @@ public class TerminologyClientManager {
   private String usage;
 
   private String monitorServiceURL;
+  private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
 
   public TerminologyClientManager(ITerminologyClientFactory factory, String cacheId) {
     super();
@@ -118,6 +120,7 @@ public class TerminologyClientManager {
     monitorServiceURL = other.monitorServiceURL;
     factory = other.factory;
     usage = other.usage;
+    maxConcurrentRequests = other.maxConcurrentRequests;
   }
 
 
@@ -215,6 +218,7 @@ public class TerminologyClientManager {
         throw new TerminologyServiceException(e);
       }
       client.setTxCache(cache);
+      client.setMaxConcurrentRequests(maxConcurrentRequests);
       serverList.add(client);
       serverMap.put(server, client);
     }
@@ -318,6 +322,7 @@ public class TerminologyClientManager {
   public TerminologyClientContext setMasterClient(ITerminologyClient client) {
     TerminologyClientContext details = new TerminologyClientContext(client, cacheId, true);
     details.setTxCache(cache);
+    details.setMaxConcurrentRequests(maxConcurrentRequests);
     serverList.clear();
     serverList.add(details);
     serverMap.put(client.getAddress(), details);  
@@ -410,6 +415,24 @@ public class TerminologyClientManager {
     this.expParameters = expParameters;
   }
 
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
+  /**
+   * Limit the number of requests made to any one server at once, across all the threads using this 
+   * manager, so that parallel validation doesn't flood a server. Requests past the limit wait until
+   * one finishes. The default is DEFAULT_MAX_CONCURRENT_REQUESTS
+   * 
+   * @param maxConcurrentRequests the most requests to make to any one server at once. 0 = no limit
+   */
+  public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+    this.maxConcurrentRequests = Math.max(0, maxConcurrentRequests);
+    for (TerminologyClientContext tc : serverList) {
+      tc.setMaxConcurrentRequests(this.maxConcurrentRequests);
+    }
+  }
+
   public String getUsage() {
     return usage;
   }
@@ -0,0 +1,31 @@
+package org.hl7.fhir.r5.terminologies.expansion;
+
+import java.util.List;
+
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r5.model.Enumerations.FilterOperator;
+import org.hl7.fhir.r5.terminologies.CodeSystemIndex;
+
+/**
+ * concept is-a / descendent-of / is-not-a / generalizes a focus concept, using the code system's closure
+ */
+public class ConceptHierarchyFilter extends ConceptFilter {
+
+  private CodeSystemIndex index;
+  private FilterOperator op;
+  private ConceptDefinitionComponent focus;
+
+  public ConceptHierarchyFilter(List<String> allErrors, CodeSystem cs, FilterOperator op, ConceptDefinitionComponent focus) {
+    super(allErrors);
+    this.index = CodeSystemIndex.get(cs);
+    this.op = op;
+    this.focus = focus;
+  }
+
+  @Override
+  public boolean includeConcept(CodeSystem cs, ConceptDefinitionComponent def) {
+    return index.passesHierarchyFilter(op, focus, def);
+  }
+
+}
@@ -0,0 +1,19 @@
+package org.hl7.fhir.r5.terminologies.expansion;
+
+import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
+
+/**
+ * Receives the concepts of an expansion one at a time, as the expander finds them, instead of
+ * the expander building the whole expansion in memory.
+ *
+ * Concepts are passed in the order they would appear in a flat expansion (excludeNested),
+ * and each code is only passed once
+ */
+public interface IValueSetExpansionConsumer {
+
+  /**
+   * @param concept the next concept in the expansion
+   * @return false to stop the expansion (e.g. when the consumer has found the code it's looking for, or has a full page)
+   */
+  public boolean seeConcept(ValueSetExpansionContainsComponent concept);
+}
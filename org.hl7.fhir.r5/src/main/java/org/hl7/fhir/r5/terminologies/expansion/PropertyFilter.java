@@ -9,6 +9,7 @@ import org.hl7.fhir.r5.model.CodeSystem.PropertyComponent;
 import org.hl7.fhir.r5.model.CodeSystem.PropertyType;
 import org.hl7.fhir.r5.model.Enumerations.FilterOperator;
 import org.hl7.fhir.r5.model.ValueSet.ConceptSetFilterComponent;
+import org.hl7.fhir.r5.terminologies.CodeSystemIndex;
 import org.hl7.fhir.utilities.Utilities;
 
 public class PropertyFilter extends ConceptFilter {
@@ -27,6 +28,16 @@ public class PropertyFilter extends ConceptFilter {
     ConceptPropertyComponent pc = getPropertyForConcept(def);
     if (pc != null) {
       String v = pc.getValue().isPrimitive() ? pc.getValue().primitiveValue() : null;
+      if (property.getType() == PropertyType.CODE && CodeSystemIndex.isHierarchyFilter(filter.getOp())) {
+        // the property value is a code in this code system
+        CodeSystemIndex index = CodeSystemIndex.get(cs);
+        ConceptDefinitionComponent focus = index.findCode(filter.getValue());
+        ConceptDefinitionComponent value = index.findCode(v);
+        if (focus == null || value == null) {
+          return filter.getOp() == FilterOperator.ISNOTA;
+        }
+        return index.passesHierarchyFilter(filter.getOp(), focus, value);
+      }
       switch (filter.getOp()) {
       case DESCENDENTOF: throw fail("not supported yet: "+filter.getOp().toCode());
       case EQUAL: return filter.getValue().equals(v);
@@ -115,6 +115,7 @@ import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionComponent;
 import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
 import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionParameterComponent;
 import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionPropertyComponent;
+import org.hl7.fhir.r5.terminologies.CodeSystemIndex;
 import org.hl7.fhir.r5.terminologies.CodeSystemUtilities;
 import org.hl7.fhir.r5.terminologies.ValueSetUtilities;
 import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpander.Token;
@@ -158,6 +159,35 @@ public class ValueSetExpander extends ValueSetProcessBase {
     }
   }
 
+  /**
+   * collects one page of a flat expansion while the expansion is running
+   */
+  private static class PageCollector implements IValueSetExpansionConsumer {
+    private int offset;
+    private int count;
+    private int index;
+    private List<ValueSetExpansionContainsComponent> contains = new ArrayList<>();
+
+    public PageCollector(int offset, int count) {
+      super();
+      this.offset = offset;
+      this.count = count;
+    }
+
+    @Override
+    public boolean seeConcept(ValueSetExpansionContainsComponent concept) {
+      if (index >= offset && contains.size() < count) {
+        contains.add(concept);
+      }
+      index++;
+      return true; // keep going, for the total
+    }
+
+    public List<ValueSetExpansionContainsComponent> getContains() {
+      return contains;
+    }
+  }
+
   private static final boolean REPORT_VERSION_ANYWAY = true;
   
   private ValueSet focus;
@@ -322,11 +352,18 @@ public class ValueSetExpander extends ValueSetProcessBase {
     if (wc.getMap().containsKey(s) || wc.getExcludeKeys().contains(s)) {
       wc.setCanBeHeirarchy(false);
     } else {
-      wc.getCodes().add(n);
-      wc.getMap().put(s, n);
+      if (wc.getConsumer() == null) {
+        wc.getCodes().add(n);
+        wc.getMap().put(s, n);
+      } else {
+        wc.getMap().put(s, null); // just the key, so duplicates are still found
+      }
       if (countToTotal) {
         wc.incTotal();
       }
+      if (wc.getConsumer() != null && (includeAbstract || !n.getAbstract()) && !wc.getConsumer().seeConcept(n)) {
+        throw new EFinished();
+      }
 //      if (wc == dwc && wc.getTotal() > maxExpansionSize) {
 //        if (wc.getOffset()+wc.getCount() > 0 && wc.getTotal() > wc.getOffset()+wc.getCount()) {
 //          wc.setTotal(-1);
@@ -335,6 +372,9 @@ public class ValueSetExpander extends ValueSetProcessBase {
 //        throw failCostly(context.formatMessage(I18nConstants.VALUESET_TOO_COSTLY, focus.getUrl(), ">" + Integer.toString(maxExpansionSize)));
 //      }
     }
+    if (wc.getConsumer() != null) {
+      return n; // the consumer has it; nothing is kept
+    }
     if (wc.isCanBeHeirarchy() && parent != null) {
       parent.getContains().add(n);
     } else if (!wc.getRootMap().containsKey(s)) {
@@ -654,12 +694,26 @@ public class ValueSetExpander extends ValueSetProcessBase {
   }
 
   public ValueSetExpansionOutcome expand(ValueSet source, Parameters expParams) {
+    return expand(source, expParams, null);
+  }
+
+  /**
+   * Expand the value set without building the expansion in memory: each concept is passed to the 
+   * consumer as it is found (flat, as if excludeNested was true), and only the keys of the codes
+   * are kept, so that duplicates can be recognised. The consumer can stop the expansion at any 
+   * time, so a caller that only wants to know whether a code is in the value set, or only wants 
+   * the first few codes, doesn't pay for the rest of the expansion.
+   * 
+   * There's no maximum expansion size in this mode. The outcome has the expansion, with its parameters
+   * and the total, if the expansion wasn't stopped, but no contains
+   */
+  public ValueSetExpansionOutcome expand(ValueSet source, Parameters expParams, IValueSetExpansionConsumer consumer) {
     
     allErrors.clear();
     try {
       opContext.seeContext(source.getVersionedUrl());
       
-      return expandInternal(source, expParams);
+      return consumer == null ? expandInternal(source, expParams) : doExpand(source, expParams, consumer);
     } catch (NoTerminologyServiceException e) {
       // well, we couldn't expand, so we'll return an interface to a checker that can check membership of the set
       // that might fail too, but it might not, later.
@@ -724,7 +778,24 @@ public class ValueSetExpander extends ValueSetProcessBase {
     }
   }
   
+  /**
+   * @return true if the code is in the value set, false if it isn't, or null if the value set can't be expanded. 
+   * The expansion stops as soon as the code is found
+   */
+  public Boolean hasCode(ValueSet source, Parameters expParams, String system, String code) {
+    boolean[] found = new boolean[1];
+    ValueSetExpansionOutcome vso = expand(source, expParams, c -> {
+      found[0] = code.equals(c.getCode()) && (system == null || system.equals(c.getSystem()));
+      return !found[0];
+    });
+    return found[0] ? Boolean.TRUE : vso.isOk() ? Boolean.FALSE : null;
+  }
+
   public ValueSetExpansionOutcome doExpand(ValueSet source, Parameters expParams) throws FHIRException, ETooCostly, FileNotFoundException, IOException, CodeSystemProviderExtension {
+    return doExpand(source, expParams, null);
+  }
+
+  private ValueSetExpansionOutcome doExpand(ValueSet source, Parameters expParams, IValueSetExpansionConsumer consumer) throws FHIRException, ETooCostly, FileNotFoundException, IOException, CodeSystemProviderExtension {
     if (expParams == null)
       expParams = makeDefaultExpansion();
     altCodeParams.seeParameters(expParams);
@@ -750,6 +821,14 @@ public class ValueSetExpander extends ValueSetProcessBase {
       langs = new AcceptLanguageHeader(focus.getLanguage(), true);
     }
 
+    PageCollector page = null;
+    if (consumer != null) {
+      dwc.setConsumer(consumer);
+    } else if (dwc.getCountParam() > 0 && expParams.getParameterBool("excludeNested")) {
+      // a flat page: keep the codes in the page as they are found, and just count the rest
+      page = new PageCollector(dwc.getOffsetParam(), dwc.getCountParam());
+      dwc.setConsumer(page);
+    }
     try {
       if (source.hasCompose()) {
 //        ExtensionsUtils.stripExtensions(focus.getCompose()); - disabled 23/05/2023 GDG - why was this ever thought to be a good idea?
@@ -757,9 +836,16 @@ public class ValueSetExpander extends ValueSetProcessBase {
       }
     } catch (EFinished e) {
       // nothing - we intended to trap this here
+      if (consumer != null) {
+        dwc.setNoTotal(true); // the consumer stopped the expansion, so we don't know how many more there are 
+      }
     }
 
-    if (dwc.getTotal() > maxExpansionSize && dwc.getOffsetParam() + dwc.getCountParam() == 0) {
+    if (consumer != null) {
+      // nothing - the consumer has seen the codes
+    } else if (page != null) {
+      focus.getExpansion().getContains().addAll(page.getContains());
+    } else if (dwc.getTotal() > maxExpansionSize && dwc.getOffsetParam() + dwc.getCountParam() == 0) {
       if (dwc.isNoTotal()) {
         throw failCostly(context.formatMessage(I18nConstants.VALUESET_TOO_COSTLY, focus.getVersionedUrl(), ">" + MessageFormat.format("{0,number,#}", maxExpansionSize)));        
       } else {
@@ -817,15 +903,8 @@ public class ValueSetExpander extends ValueSetProcessBase {
     return res;
   }
 
-  private ConceptDefinitionComponent getConceptForCode(List<ConceptDefinitionComponent> clist, String code) {
-    for (ConceptDefinitionComponent c : clist) {
-      if (code.equals(c.getCode()))
-        return c;
-      ConceptDefinitionComponent v = getConceptForCode(c.getConcept(), code);
-      if (v != null)
-        return v;
-    }
-    return null;
+  private ConceptDefinitionComponent getConceptForCode(CodeSystem cs, String code) {
+    return CodeSystemIndex.get(cs).findCode(code);
   }
 
   private void handleCompose(ValueSetComposeComponent compose, ValueSetExpansionComponent exp, Parameters expParams, String ctxt, List<Extension> extensions, ValueSet valueSet)
@@ -834,7 +913,7 @@ public class ValueSetExpander extends ValueSetProcessBase {
     // Exclude comes first because we build up a map of things to exclude
     for (ConceptSetComponent inc : compose.getExclude())
       excludeCodes(dwc, inc, expParams, exp, valueSet);
-    dwc.setCanBeHeirarchy(!expParams.getParameterBool("excludeNested") && dwc.getExcludeKeys().isEmpty() && dwc.getExcludeSystems().isEmpty() && dwc.getOffsetParam() == 0);
+    dwc.setCanBeHeirarchy(dwc.getConsumer() == null && !expParams.getParameterBool("excludeNested") && dwc.getExcludeKeys().isEmpty() && dwc.getExcludeSystems().isEmpty() && dwc.getOffsetParam() == 0);
     includeAbstract = !expParams.getParameterBool("excludeNotForUI");
     boolean first = true;
     for (ConceptSetComponent inc : compose.getInclude()) {
@@ -971,9 +1050,16 @@ public class ValueSetExpander extends ValueSetProcessBase {
 
        String s = key(n);
        if (!wc.getMap().containsKey(s) && !wc.getExcludeKeys().contains(s)) {
-         wc.getCodes().add(n);
-         wc.getMap().put(s, n);
+         if (wc.getConsumer() == null) {
+           wc.getCodes().add(n);
+           wc.getMap().put(s, n);
+         } else {
+           wc.getMap().put(s, null);
+         }
          wc.incTotal();
+         if (wc.getConsumer() != null && (includeAbstract || !n.getAbstract()) && !wc.getConsumer().seeConcept(n)) {
+           throw new EFinished();
+         }
        }
        copyExpansion(wc, cc.getContains());
     }
@@ -1112,7 +1198,7 @@ public class ValueSetExpander extends ValueSetProcessBase {
       dwc.setCanBeHeirarchy(false);
       for (ConceptReferenceComponent c : inc.getConcept()) {
         c.checkNoModifiers("Code in Value Set", "expanding");
-        ConceptDefinitionComponent def = CodeSystemUtilities.findCodeOrAltCode(cs.getConcept(), c.getCode(), null);
+        ConceptDefinitionComponent def = CodeSystemUtilities.findCodeOrAltCode(cs, c.getCode(), null);
         boolean inactive = false; // default is true if we're a fragment and  
         boolean isAbstract = false;
         if (def == null) {
@@ -1159,7 +1245,7 @@ public class ValueSetExpander extends ValueSetProcessBase {
     opContext.deadCheck();
     if ("concept".equals(fc.getProperty()) && fc.getOp() == FilterOperator.ISA) {
       // special: all codes in the target code system under the value
-      ConceptDefinitionComponent def = getConceptForCode(cs.getConcept(), fc.getValue());
+      ConceptDefinitionComponent def = getConceptForCode(cs, fc.getValue());
       if (def == null)
         throw failTSE("Code '" + fc.getValue() + "' not found in system '" + inc.getSystem() + "'");
       if (exclude) {
@@ -1169,19 +1255,21 @@ public class ValueSetExpander extends ValueSetProcessBase {
       }
     } else if ("concept".equals(fc.getProperty()) && fc.getOp() == FilterOperator.ISNOTA) {
       // special: all codes in the target code system that are not under the value
-      ConceptDefinitionComponent defEx = getConceptForCode(cs.getConcept(), fc.getValue());
+      ConceptDefinitionComponent defEx = getConceptForCode(cs, fc.getValue());
       if (defEx == null)
         throw failTSE("Code '" + fc.getValue() + "' not found in system '" + inc.getSystem() + "'");
+      // the exclusion stops the walk at the code; the filter catches its descendants that are reached through other parents
+      ConceptHierarchyFilter hf = new ConceptHierarchyFilter(allErrors, cs, FilterOperator.ISNOTA, defEx);
       for (ConceptDefinitionComponent def : cs.getConcept()) {
         if (exclude) {
-          excludeCodeAndDescendents(wc, cs, inc.getSystem(), def, null, imports, defEx, new AllConceptsFilter(allErrors), filters, exp);
+          excludeCodeAndDescendents(wc, cs, inc.getSystem(), def, null, imports, defEx, hf, filters, exp);
         } else {
-          addCodeAndDescendents(wc, cs, inc.getSystem(), def, null, expParams, imports, defEx, new AllConceptsFilter(allErrors), noInactive, exp.getProperty(), filters, exp);
+          addCodeAndDescendents(wc, cs, inc.getSystem(), def, null, expParams, imports, defEx, hf, noInactive, exp.getProperty(), filters, exp);
         }
       }
     } else if ("concept".equals(fc.getProperty()) && fc.getOp() == FilterOperator.DESCENDENTOF) {
       // special: all codes in the target code system under the value
-      ConceptDefinitionComponent def = getConceptForCode(cs.getConcept(), fc.getValue());
+      ConceptDefinitionComponent def = getConceptForCode(cs, fc.getValue());
       if (def == null)
         throw failTSE("Code '" + fc.getValue() + "' not found in system '" + inc.getSystem() + "'");
       for (ConceptDefinitionComponent c : def.getConcept())
@@ -1201,10 +1289,23 @@ public class ValueSetExpander extends ValueSetProcessBase {
         }
       }
 
+    } else if ("concept".equals(fc.getProperty()) && fc.getOp() == FilterOperator.GENERALIZES) {
+      // special: the code, and all codes in the target code system that it is under
+      ConceptDefinitionComponent def = getConceptForCode(cs, fc.getValue());
+      if (def == null)
+        throw failTSE("Code '" + fc.getValue() + "' not found in system '" + inc.getSystem() + "'");
+      ConceptHierarchyFilter hf = new ConceptHierarchyFilter(allErrors, cs, FilterOperator.GENERALIZES, def);
+      for (ConceptDefinitionComponent c : cs.getConcept()) {
+        if (exclude) {
+          excludeCodeAndDescendents(wc, cs, inc.getSystem(), c, null, imports, null, hf, filters, exp);
+        } else {
+          addCodeAndDescendents(wc, cs, inc.getSystem(), c, null, expParams, imports, null, hf, noInactive, exp.getProperty(), filters, exp);
+        }
+      }
     } else if ("display".equals(fc.getProperty()) && fc.getOp() == FilterOperator.EQUAL) {
       // gg; note: wtf is this: if the filter is display=v, look up the code 'v', and see if it's display is 'v'?
       dwc.setCanBeHeirarchy(false);
-      ConceptDefinitionComponent def = getConceptForCode(cs.getConcept(), fc.getValue());
+      ConceptDefinitionComponent def = getConceptForCode(cs, fc.getValue());
       if (def != null) {
         if (isNotBlank(def.getDisplay()) && isNotBlank(fc.getValue())) {
           if (def.getDisplay().contains(fc.getValue()) && passesOtherFilters(filters, cs, def.getCode())) {
@@ -23,6 +23,7 @@ class WorkingContext {
   private Integer countParam; // allowed count. Because of internal processing, we allow more 
   private int total; // running count. This might be more than actually seen if we call out to an external server and only get the first 1000 codes
   private boolean noTotal; // we lost count of the correct total
+  private IValueSetExpansionConsumer consumer; // if there's a consumer, codes are passed to it, and only their keys are kept
   
   public List<ValueSetExpansionContainsComponent> getCodes() {
     return codes;
@@ -99,5 +100,13 @@ class WorkingContext {
   public void setNoTotal(boolean noTotal) {
     this.noTotal = noTotal;
   }
+
+  public IValueSetExpansionConsumer getConsumer() {
+    return consumer;
+  }
+
+  public void setConsumer(IValueSetExpansionConsumer consumer) {
+    this.consumer = consumer;
+  }
   
 }
\ No newline at end of file
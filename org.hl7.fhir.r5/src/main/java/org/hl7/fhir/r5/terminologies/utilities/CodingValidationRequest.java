@@ -1,15 +1,29 @@
 package org.hl7.fhir.r5.terminologies.utilities;
 
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hl7.fhir.r5.model.CodeableConcept;
 import org.hl7.fhir.r5.model.Coding;
 import org.hl7.fhir.r5.model.ValueSet;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache.CacheToken;
 
+/**
+ * A code to validate as part of a batch. Usually this is a Coding, but it can also be 
+ * a CodeableConcept, which is validated as a whole (as validateCode(options, CodeableConcept, vs) does), 
+ * in which case getCoding() is null
+ */
 public class CodingValidationRequest {
   private Coding coding;
+  private CodeableConcept codeableConcept;
   private ValidationResult result;
   private CacheToken cacheToken;
   private String vs;
   private ValueSet vsObj;
+  private String localError;
+  private String localWarning;
+  private TerminologyServiceErrorClass localErrorClass;
+  private Set<String> unknownSystems = new HashSet<>();
 
   public CodingValidationRequest(Coding coding) {
     super();
@@ -28,6 +42,12 @@ public class CodingValidationRequest {
     this.vsObj = vsObj;
   }
 
+  public CodingValidationRequest(CodeableConcept codeableConcept, ValueSet vsObj) {
+    super();
+    this.codeableConcept = codeableConcept;
+    this.vsObj = vsObj;
+  }
+
   public String getVs() {
     return vs;
   }
@@ -48,6 +68,14 @@ public class CodingValidationRequest {
     return coding;
   }
 
+  public CodeableConcept getCodeableConcept() {
+    return codeableConcept;
+  }
+
+  public boolean isCodeableConcept() {
+    return codeableConcept != null;
+  }
+
   public boolean hasResult() {
     return result != null;
   }
@@ -70,5 +98,54 @@ public class CodingValidationRequest {
     this.cacheToken = cacheToken;
   }
 
+  /**
+   * internal logic; what the local checker said when it couldn't validate the code itself
+   */
+  public String getLocalError() {
+    return localError;
+  }
+
+  /**
+   * internal logic; external users of batch validation should ignore this property
+   */
+  public void setLocalError(String localError) {
+    this.localError = localError;
+  }
+
+  /**
+   * internal logic; what the local checker said when it couldn't validate the code itself
+   */
+  public String getLocalWarning() {
+    return localWarning;
+  }
+
+  /**
+   * internal logic; external users of batch validation should ignore this property
+   */
+  public void setLocalWarning(String localWarning) {
+    this.localWarning = localWarning;
+  }
+
+  /**
+   * internal logic; external users of batch validation should ignore this property
+   */
+  public TerminologyServiceErrorClass getLocalErrorClass() {
+    return localErrorClass;
+  }
+
+  /**
+   * internal logic; external users of batch validation should ignore this property
+   */
+  public void setLocalErrorClass(TerminologyServiceErrorClass localErrorClass) {
+    this.localErrorClass = localErrorClass;
+  }
+
+  /**
+   * internal logic; the code systems the local checker didn't know
+   */
+  public Set<String> getUnknownSystems() {
+    return unknownSystems;
+  }
+
 
 }
\ No newline at end of file
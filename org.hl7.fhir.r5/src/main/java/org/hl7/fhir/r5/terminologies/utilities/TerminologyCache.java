@@ -31,13 +31,26 @@ package org.hl7.fhir.r5.terminologies.utilities;
 
 
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -51,6 +64,7 @@ import org.hl7.fhir.r5.formats.JsonParser;
 import org.hl7.fhir.r5.model.*;
 import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionComponent;
 import org.hl7.fhir.r5.model.OperationOutcome.OperationOutcomeIssueComponent;
+import org.hl7.fhir.r5.model.Parameters.ParametersParameterComponent;
 import org.hl7.fhir.r5.model.ValueSet.ConceptSetComponent;
 import org.hl7.fhir.r5.model.ValueSet.ConceptSetFilterComponent;
 import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
@@ -78,6 +92,13 @@ import com.google.gson.JsonPrimitive;
  *  
  * the cache is a series of pairs: a map, and a list. the map is the loaded cache, the list is the persistent cache, carefully maintained in order for version control consistency
  * 
+ * The persistent cache for each name is a file that is only appended to: new entries are added to the end, and an 
+ * entry that replaces an earlier one is added to the end too (the last one wins when the file is read). Once there
+ * are more replaced entries in the file than current ones, the file is rewritten (compacted) in the background, 
+ * in the same order as the list (or straight away, if that's already so when the file is first read). The files are 
+ * only read when the named cache is first used, and then only the requests are kept in memory, with where each 
+ * result is in the file; the results are read and parsed when they are first asked for
+ * 
  * @author graha
  *
  */
@@ -126,15 +147,22 @@ public class TerminologyCache {
   private static final String CAPABILITY_STATEMENT_TITLE = ".capabilityStatement";
   private static final String TERMINOLOGY_CAPABILITIES_TITLE = ".terminologyCapabilities";
   private static final String FIXED_CACHE_VERSION = "4"; // last change: change the way tx.fhir.org handles expansions
+  private static final int COMPACTION_THRESHOLD = 100; // replaced entries in a file before it's worth compacting it
 
 
   private SystemNameKeyGenerator systemNameKeyGenerator = new SystemNameKeyGenerator();
 
+  /**
+   * The request (the JSON that is persisted with the result) is only built when it's needed - when the cache 
+   * has to be checked the slow way, or something is stored. Until then, the token is identified by the digest,
+   * which is made from the parts of the request, using memoised fingerprints for the value set and parameters
+   */
   public class CacheToken {
     @Getter
     private String name;
     private String key;
-    @Getter
+    private String digest;
+    private Supplier<String> requestBuilder;
     private String request;
     @Accessors(fluent = true)
     @Getter
@@ -147,6 +175,50 @@ public class TerminologyCache {
       else if (!systemName.equals(name))
         name = NAME_FOR_NO_SYSTEM;
     }
+
+    public String getRequest() {
+      if (request == null && requestBuilder != null) {
+        request = requestBuilder.get();
+        requestBuilder = null;
+      }
+      return request;
+    }
+
+    private String getKey() {
+      if (key == null && getRequest() != null) {
+        key = String.valueOf(hashJson(request));
+      }
+      return key;
+    }
+
+    private boolean hasKey() {
+      return digest != null || key != null || getRequest() != null;
+    }
+
+    /**
+     * @return a string that is the same for tokens for the same request (without building the request), or null if there's no request
+     */
+    public String getIdentity() {
+      return hasKey() ? name+"|"+(digest != null ? digest : getKey()) : null;
+    }
+  }
+
+  /**
+   * The JSON for a value set (or its essence) or parameters, as it goes in cache requests, and a digest of it.
+   * These are kept for each instance (weakly), since the same value sets and parameters are used over and over, 
+   * and serialising them was most of the cost of making a token. The stamp (see stamp()) is checked each time, 
+   * so it has to be cheap to work out  
+   */
+  private static class Fingerprint {
+    private final long stamp;
+    private final String json;
+    private final String digest;
+
+    private Fingerprint(long stamp, String json) {
+      this.stamp = stamp;
+      this.json = json;
+      this.digest = makeDigest(json);
+    }
   }
 
   public static class SubsumesResult {
@@ -232,15 +304,45 @@ public class TerminologyCache {
   private class CacheEntry {
     private String request;
     private boolean persistent;
+    private String source; // the result as imported, until it's parsed 
+    private long offset = -1; // or where the result is in the file, until it's parsed
+    private int length;
     private ValidationResult v;
     private ValueSetExpansionOutcome e;
     private SubsumesResult s;
+    private List<String> digests; // the token digests this entry is known by in NamedCache.digests
   }
 
   private class NamedCache {
     private String name; 
-    private List<CacheEntry> list = new ArrayList<CacheEntry>(); // persistent entries
+    private Map<String, CacheEntry> list = new LinkedHashMap<String, CacheEntry>(); // persistent entries, by request
     private Map<String, CacheEntry> map = new HashMap<String, CacheEntry>();
+    private Map<String, CacheEntry> digests = new HashMap<String, CacheEntry>(); // same entries, by token digest
+    private boolean loaded = true; // false until the file has been read
+    private boolean rewrite = true; // the file isn't known to match the list, so the next save writes all of it 
+    private int stale; // entries in the file that have been replaced by later ones
+    private int writes; // so compaction knows whether the file changed while it was working
+    private boolean compacting;
+
+    private void addDigest(String digest, CacheEntry e) {
+      digests.put(digest, e);
+      if (e.digests == null) {
+        e.digests = new ArrayList<>(1);
+      }
+      e.digests.add(digest);
+    }
+
+    private void dropDigests(CacheEntry e) {
+      if (e.digests != null) {
+        for (String digest : e.digests) {
+          // the digest may have been reused for a later entry
+          if (digests.get(digest) == e) {
+            digests.remove(digest);
+          }
+        }
+        e.digests = null;
+      }
+    }
   }
 
 
@@ -258,6 +360,9 @@ public class TerminologyCache {
 
   @Getter @Setter private static boolean cacheErrors;
 
+  private static ExecutorService compactor;
+  private final Map<Resource, Fingerprint> fingerprints = Collections.synchronizedMap(new WeakHashMap<>());
+  private final Map<Resource, Fingerprint> essenceFingerprints = Collections.synchronizedMap(new WeakHashMap<>());
 
   // use lock from the context
   public TerminologyCache(Object lock, String folder) throws FileNotFoundException, IOException, FHIRException {
@@ -372,20 +477,24 @@ public class TerminologyCache {
       else
         ct.name = NAME_FOR_NO_SYSTEM;
       nameCacheToken(vs, ct);
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      String expJS = json.composeString(expParameters);
+      Fingerprint exp = fingerprint(expParameters);
+      String opt = options == null ? "" : ", "+options.toJson();
 
       if (vs != null && vs.hasUrl() && vs.hasVersion()) {
-        ct.request = "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())
-        +"\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\""+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}\r\n";
+        String url = vs.getUrl();
+        String version = vs.getVersion();
+        ct.digest = makeDigest("vc-url", codingKey(code), url, version, opt, exp.digest);
+        ct.requestBuilder = () -> "{\"code\" : "+composeJson(code, "codeableConcept")+", \"url\": \""+Utilities.escapeJson(url)
+        +"\", \"version\": \""+Utilities.escapeJson(version)+"\""+opt+", \"profile\": "+exp.json+"}\r\n";
       } else if (options.getVsAsUrl()) {
-        ct.request = "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+extracted(json, vs)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
+        Fingerprint vfp = fingerprint(vs);
+        ct.digest = makeDigest("vc-vs", codingKey(code), vfp.digest, opt, exp.digest);
+        ct.requestBuilder = () -> "{\"code\" : "+composeJson(code, "code")+", \"valueSet\" :"+vfp.json+opt+", \"profile\": "+exp.json+"}";
       } else {
-        ValueSet vsc = getVSEssense(vs);
-        ct.request = "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+(vsc == null ? "null" : extracted(json, vsc))+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
+        Fingerprint vfp = essenceFingerprint(vs);
+        ct.digest = makeDigest("vc-vse", codingKey(code), vfp.digest, opt, exp.digest);
+        ct.requestBuilder = () -> "{\"code\" : "+composeJson(code, "code")+", \"valueSet\" :"+vfp.json+opt+", \"profile\": "+exp.json+"}";
       }
-      ct.key = String.valueOf(hashJson(ct.request));
       return ct;
     } catch (IOException e) {
       throw new Error(e);
@@ -402,12 +511,11 @@ public class TerminologyCache {
         ct.name = NAME_FOR_NO_SYSTEM;
       }
       ct.setName(vsUrl);
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      String expJS = json.composeString(expParameters);
+      Fingerprint exp = fingerprint(expParameters);
+      String opt = options == null ? "" : ", "+options.toJson();
 
-      ct.request = "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+(vsUrl == null ? "null" : vsUrl)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
-      ct.key = String.valueOf(hashJson(ct.request));
+      ct.digest = makeDigest("vc-vsurl", codingKey(code), vsUrl, opt, exp.digest);
+      ct.requestBuilder = () -> "{\"code\" : "+composeJson(code, "code")+", \"valueSet\" :"+(vsUrl == null ? "null" : vsUrl)+opt+", \"profile\": "+exp.json+"}";
       return ct;
     } catch (IOException e) {
       throw new Error(e);
@@ -434,19 +542,22 @@ public class TerminologyCache {
         }
       }
       nameCacheToken(vs, ct);
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      String expJS = json.composeString(expParameters);
+      Fingerprint exp = fingerprint(expParameters);
+      String opt = options == null ? "" : ", "+options.toJson();
       if (vs != null && vs.hasUrl() && vs.hasVersion()) {
-        ct.request = "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())+
-            "\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\""+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}\r\n";      
+        String url = vs.getUrl();
+        String version = vs.getVersion();
+        ct.digest = makeDigest("cc-url", codeableConceptKey(code), url, version, opt, exp.digest);
+        ct.requestBuilder = () -> "{\"code\" : "+composeJson(code, "codeableConcept")+", \"url\": \""+Utilities.escapeJson(url)+
+            "\", \"version\": \""+Utilities.escapeJson(version)+"\""+opt+", \"profile\": "+exp.json+"}\r\n";      
       } else if (vs == null) { 
-        ct.request = "{\"code\" : "+json.composeString(code, "codeableConcept")+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";        
+        ct.digest = makeDigest("cc", codeableConceptKey(code), opt, exp.digest);
+        ct.requestBuilder = () -> "{\"code\" : "+composeJson(code, "codeableConcept")+opt+", \"profile\": "+exp.json+"}";        
       } else {
-        ValueSet vsc = getVSEssense(vs);
-        ct.request = "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"valueSet\" :"+extracted(json, vsc)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
+        Fingerprint vfp = essenceFingerprint(vs);
+        ct.digest = makeDigest("cc-vse", codeableConceptKey(code), vfp.digest, opt, exp.digest);
+        ct.requestBuilder = () -> "{\"code\" : "+composeJson(code, "codeableConcept")+", \"valueSet\" :"+vfp.json+opt+", \"profile\": "+exp.json+"}";
       }
-      ct.key = String.valueOf(hashJson(ct.request));
       return ct;
     } catch (IOException e) {
       throw new Error(e);
@@ -468,22 +579,191 @@ public class TerminologyCache {
   public CacheToken generateExpandToken(ValueSet vs, boolean hierarchical) {
     CacheToken ct = new CacheToken();
     nameCacheToken(vs, ct);
+    String h = hierarchical ? "true" : "false";
     if (vs.hasUrl() && vs.hasVersion()) {
-      ct.request = "{\"hierarchical\" : "+(hierarchical ? "true" : "false")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())+"\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\"}\r\n";      
+      String url = vs.getUrl();
+      String version = vs.getVersion();
+      ct.digest = makeDigest("x-url", h, url, version);
+      ct.requestBuilder = () -> "{\"hierarchical\" : "+h+", \"url\": \""+Utilities.escapeJson(url)+"\", \"version\": \""+Utilities.escapeJson(version)+"\"}\r\n";      
     } else {
-      ValueSet vsc = getVSEssense(vs);
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
       try {
-        ct.request = "{\"hierarchical\" : "+(hierarchical ? "true" : "false")+", \"valueSet\" :"+extracted(json, vsc)+"}\r\n";
+        Fingerprint vfp = essenceFingerprint(vs);
+        ct.digest = makeDigest("x-vse", h, vfp.digest);
+        ct.requestBuilder = () -> "{\"hierarchical\" : "+h+", \"valueSet\" :"+vfp.json+"}\r\n";
       } catch (IOException e) {
         throw new Error(e);
       }
     }
-    ct.key = String.valueOf(hashJson(ct.request));
     return ct;
   }
 
+  private Fingerprint fingerprint(Resource resource) throws IOException {
+    if (resource == null) {
+      return new Fingerprint(0, "null");
+    }
+    long stamp = stamp(resource);
+    Fingerprint fp = fingerprints.get(resource);
+    if (fp == null || fp.stamp != stamp) {
+      JsonParser json = new JsonParser();
+      json.setOutputStyle(OutputStyle.PRETTY);
+      fp = new Fingerprint(stamp, resource instanceof ValueSet ? extracted(json, (ValueSet) resource) : json.composeString(resource));
+      fingerprints.put(resource, fp);
+    }
+    return fp;
+  }
+
+  private Fingerprint essenceFingerprint(ValueSet vs) throws IOException {
+    if (vs == null) {
+      return new Fingerprint(0, "null");
+    }
+    long stamp = stamp(vs);
+    Fingerprint fp = essenceFingerprints.get(vs);
+    if (fp == null || fp.stamp != stamp) {
+      JsonParser json = new JsonParser();
+      json.setOutputStyle(OutputStyle.PRETTY);
+      fp = new Fingerprint(stamp, extracted(json, getVSEssense(vs)));
+      essenceFingerprints.put(vs, fp);
+    }
+    return fp;
+  }
+
+  /**
+   * Drop the memoised fingerprints for a value set (or parameters) that has been changed in place, in a way 
+   * that its stamp doesn't show (see stamp())
+   */
+  public void invalidateFingerprints(Resource resource) {
+    fingerprints.remove(resource);
+    essenceFingerprints.remove(resource);
+  }
+
+  /**
+   * A cheap check that a memoised fingerprint still fits the instance. For parameters, which are small, and 
+   * are changed in place (e.g. the context's expansion parameters), it's the names and values. For value sets, 
+   * which are loaded or built and then used as they are, it's the url and version, and the number of includes, 
+   * concepts, filters and so on. A value set that is edited in place without changing any of those needs 
+   * invalidateFingerprints 
+   */
+  private static long stamp(Resource resource) {
+    long stamp = HASH_SEED;
+    if (resource instanceof ValueSet) {
+      ValueSet vs = (ValueSet) resource;
+      stamp = hashString(stamp, vs.getUrl());
+      stamp = hashString(stamp, vs.getVersion());
+      for (ConceptSetComponent inc : vs.getCompose().getInclude()) {
+        stamp = shape(stamp, inc);
+      }
+      stamp = (stamp ^ 4) * HASH_PRIME;
+      for (ConceptSetComponent inc : vs.getCompose().getExclude()) {
+        stamp = shape(stamp, inc);
+      }
+      stamp = (stamp ^ vs.getExpansion().getParameter().size()) * HASH_PRIME;
+      stamp = (stamp ^ vs.getExpansion().getContains().size()) * HASH_PRIME;
+    } else if (resource instanceof Parameters) {
+      for (ParametersParameterComponent p : ((Parameters) resource).getParameter()) {
+        stamp = hashString(stamp, p.getName());
+        if (p.hasValue() && p.getValue().isPrimitive() && !p.hasPart() && !p.hasResource()) {
+          stamp = hashString(stamp, p.getValue().fhirType());
+          stamp = hashString(stamp, p.getValue().primitiveValue());
+        } else {
+          stamp = hashContent(stamp, p);
+        }
+      }
+    } else {
+      stamp = hashContent(stamp, resource);
+    }
+    return stamp;
+  }
+
+  private static long shape(long stamp, ConceptSetComponent inc) {
+    stamp = hashString(stamp, inc.getSystem());
+    stamp = hashString(stamp, inc.getVersion());
+    stamp = (stamp ^ inc.getConcept().size()) * HASH_PRIME;
+    stamp = (stamp ^ inc.getFilter().size()) * HASH_PRIME;
+    return (stamp ^ inc.getValueSet().size()) * HASH_PRIME;
+  }
+
+  private static final long HASH_SEED = 0xcbf29ce484222325L;
+  private static final long HASH_PRIME = 0x100000001b3L;
+
+  /**
+   * a 64 bit hash (FNV-1a) of everything in the element: the names of the properties that have values, 
+   * and the primitive values 
+   */
+  private static long hashContent(long hash, Base base) {
+    hash = hashString(hash, base.fhirType());
+    if (base.isPrimitive()) {
+      hash = hashString(hash, base.primitiveValue());
+    }
+    for (Property p : base.children()) {
+      if (p.hasValues()) {
+        hash = hashString(hash, p.getName());
+        for (Base v : p.getValues()) {
+          if (v != null) {
+            hash = hashContent(hash, v);
+          }
+        }
+        hash = (hash ^ 1) * HASH_PRIME;
+      }
+    }
+    return (hash ^ 2) * HASH_PRIME;
+  }
+
+  private static long hashString(long hash, String s) {
+    if (s == null) {
+      return (hash ^ 3) * HASH_PRIME;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      hash = (hash ^ s.charAt(i)) * HASH_PRIME;
+    }
+    // terminate the string, so that "ab" + "c" and "a" + "bc" hash differently
+    return (hash ^ 0x10000) * HASH_PRIME;
+  }
+
+  private String codingKey(Coding code) throws IOException {
+    if (code.hasId() || code.hasExtension()) {
+      return composeJson(code, "code");
+    }
+    return code.getSystem()+"\u0000"+code.getVersion()+"\u0000"+code.getCode()+"\u0000"+code.getDisplay()+"\u0000"+(code.hasUserSelected() ? code.getUserSelected() : "");
+  }
+
+  private String codeableConceptKey(CodeableConcept code) throws IOException {
+    if (code.hasId() || code.hasExtension()) {
+      return composeJson(code, "codeableConcept");
+    }
+    StringBuilder b = new StringBuilder();
+    for (Coding c : code.getCoding()) {
+      b.append(codingKey(c));
+      b.append("\u0001");
+    }
+    b.append(code.getText());
+    return b.toString();
+  }
+
+  private String composeJson(DataType type, String name) {
+    try {
+      JsonParser json = new JsonParser();
+      json.setOutputStyle(OutputStyle.PRETTY);
+      return json.composeString(type, name);
+    } catch (IOException e) {
+      throw new Error(e);
+    }
+  }
+
+  private static String makeDigest(String... parts) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      for (String p : parts) {
+        if (p != null) {
+          md.update(p.getBytes(StandardCharsets.UTF_8));
+        }
+        md.update((byte) 0);
+      }
+      return Base64.getEncoder().encodeToString(Arrays.copyOf(md.digest(), 18));
+    } catch (NoSuchAlgorithmException e) {
+      throw new Error(e);
+    }
+  }
+
   public void nameCacheToken(ValueSet vs, CacheToken ct) {
     if (vs != null) {
       for (ConceptSetComponent inc : vs.getCompose().getInclude()) {
@@ -523,14 +803,43 @@ public class TerminologyCache {
       nc = new NamedCache();
       nc.name = cacheName;
       caches.put(nc.name, nc);
+    } else if (!nc.loaded) {
+      loadNamedCache(nc);
     }
     return nc;
   }
 
+  private CacheEntry getEntry(NamedCache nc, CacheToken cacheToken) {
+    CacheEntry e = cacheToken.digest == null ? null : nc.digests.get(cacheToken.digest);
+    if (e == null) {
+      // not looked up with this digest before (e.g. it was loaded from the file), so check the slow way
+      e = nc.map.get(cacheToken.getKey());
+      if (e != null && cacheToken.digest != null) {
+        nc.addDigest(cacheToken.digest, e);
+      }
+    }
+    if (e != null && isUnparsed(e)) {
+      try {
+        parseCacheEntry(nc, e);
+      } catch (Exception ex) {
+        System.out.println("Error loading entry from "+nc.name+": "+ex.getMessage()+" - ignoring it");
+        nc.map.remove(cacheToken.getKey());
+        nc.dropDigests(e);
+        // and don't write it back out when the file is rewritten
+        if (e.persistent && nc.list.get(e.request.trim()) == e) {
+          nc.list.remove(e.request.trim());
+          nc.stale++;
+        }
+        return null;
+      }
+    }
+    return e;
+  }
+
   public ValueSetExpansionOutcome getExpansion(CacheToken cacheToken) {
     synchronized (lock) {
       NamedCache nc = getNamedCache(cacheToken);
-      CacheEntry e = nc.map.get(cacheToken.key);
+      CacheEntry e = getEntry(nc, cacheToken);
       if (e == null)
         return null;
       else
@@ -542,7 +851,7 @@ public class TerminologyCache {
     synchronized (lock) {      
       NamedCache nc = getNamedCache(cacheToken);
       CacheEntry e = new CacheEntry();
-      e.request = cacheToken.request;
+      e.request = cacheToken.getRequest();
       e.persistent = persistent;
       e.e = res;
       store(cacheToken, persistent, nc, e);
@@ -561,29 +870,31 @@ public class TerminologyCache {
       return;
     }
 
-    boolean n = nc.map.containsKey(cacheToken.key);
-    nc.map.put(cacheToken.key, e);
+    CacheEntry old = nc.map.put(cacheToken.getKey(), e);
+    boolean n = old != null;
+    if (n) {
+      nc.dropDigests(old);
+    }
+    if (cacheToken.digest != null) {
+      nc.addDigest(cacheToken.digest, e);
+    }
     if (persistent) {
-      if (n) {
-        for (int i = nc.list.size()- 1; i>= 0; i--) {
-          if (nc.list.get(i).request.equals(e.request)) {
-            nc.list.remove(i);
-          }
-        }
+      if (n && nc.list.remove(e.request.trim()) != null) {
+        nc.stale++;
       }
-      nc.list.add(e);
-      save(nc);  
+      nc.list.put(e.request.trim(), e);
+      append(nc, e);  
     }
   }
 
   public ValidationResult getValidation(CacheToken cacheToken) {
-    if (cacheToken.key == null) {
+    if (!cacheToken.hasKey()) {
       return null;
     }
     synchronized (lock) {
       requestCount++;
       NamedCache nc = getNamedCache(cacheToken);
-      CacheEntry e = nc.map.get(cacheToken.key);
+      CacheEntry e = getEntry(nc, cacheToken);
       if (e == null) {
         networkCount++;
         return null;
@@ -595,11 +906,11 @@ public class TerminologyCache {
   }
 
   public void cacheValidation(CacheToken cacheToken, ValidationResult res, boolean persistent) {
-    if (cacheToken.key != null) {
+    if (cacheToken.hasKey()) {
       synchronized (lock) {      
         NamedCache nc = getNamedCache(cacheToken);
         CacheEntry e = new CacheEntry();
-        e.request = cacheToken.request;
+        e.request = cacheToken.getRequest();
         e.persistent = persistent;
         e.v = res;
         store(cacheToken, persistent, nc, e);
@@ -636,88 +947,189 @@ public class TerminologyCache {
       return;
 
     try {
-      OutputStreamWriter sw = new OutputStreamWriter(ManagedFileAccess.outStream(Utilities.path(folder, nc.name+CACHE_FILE_EXTENSION)), "UTF-8");
-      sw.write(ENTRY_MARKER+"\r\n");
+      // entries that haven't been parsed are read from the file, so it can't be written until they have been
+      StringWriter content = new StringWriter();
+      writeEntries(content, nc);
+      File f = ManagedFileAccess.file(Utilities.path(folder, nc.name+CACHE_FILE_EXTENSION));
+      TextFile.stringToFile(content.toString(), f);
+      nc.rewrite = false;
+      nc.stale = 0;
+      nc.writes++;
+      reindexEntries(nc, f);
+    } catch (Exception e) {
+      System.out.println("error saving "+nc.name+": "+e.getMessage());
+    }
+  }
+
+  private void append(NamedCache nc, CacheEntry ce) {
+    if (folder == null)
+      return;
+    if (nc.rewrite) {
+      save(nc);
+      return;
+    }
+
+    try {
+      File f = ManagedFileAccess.file(Utilities.path(folder, nc.name+CACHE_FILE_EXTENSION));
+      boolean exists = f.exists() && f.length() > 0;
+      OutputStreamWriter sw = new OutputStreamWriter(new FileOutputStream(f, true), "UTF-8");
+      if (!exists) {
+        sw.write(ENTRY_MARKER+"\r\n");
+      }
       JsonParser json = new JsonParser();
       json.setOutputStyle(OutputStyle.PRETTY);
-      for (CacheEntry ce : nc.list) {
-        sw.write(ce.request.trim());
-        sw.write(BREAK+"\r\n");
-        if (ce.e != null) {
-          sw.write("e: {\r\n");
-          if (ce.e.isFromServer())
-            sw.write("  \"from-server\" : true,\r\n");
-          if (ce.e.getValueset() != null)
-            sw.write("  \"valueSet\" : "+json.composeString(ce.e.getValueset()).trim()+",\r\n");
-          sw.write("  \"error\" : \""+Utilities.escapeJson(ce.e.getError()).trim()+"\"\r\n}\r\n");
-        } else if (ce.s != null) {
-          sw.write("s: {\r\n");
-          sw.write("  \"result\" : "+ce.s.result+"\r\n}\r\n");
-        } else {
-          sw.write("v: {\r\n");
-          boolean first = true;
-          if (ce.v.getDisplay() != null) {            
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"display\" : \""+Utilities.escapeJson(ce.v.getDisplay()).trim()+"\"");
-          }
-          if (ce.v.getCode() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"code\" : \""+Utilities.escapeJson(ce.v.getCode()).trim()+"\"");
-          }
-          if (ce.v.getSystem() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"system\" : \""+Utilities.escapeJson(ce.v.getSystem()).trim()+"\"");
-          }
-          if (ce.v.getVersion() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"version\" : \""+Utilities.escapeJson(ce.v.getVersion()).trim()+"\"");
-          }
-          if (ce.v.getSeverity() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"severity\" : "+"\""+ce.v.getSeverity().toCode().trim()+"\""+"");
-          }
-          if (ce.v.getMessage() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"error\" : \""+Utilities.escapeJson(ce.v.getMessage()).trim()+"\"");
-          }
-          if (ce.v.getErrorClass() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"class\" : \""+Utilities.escapeJson(ce.v.getErrorClass().toString())+"\"");
-          }
-          if (ce.v.getDefinition() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"definition\" : \""+Utilities.escapeJson(ce.v.getDefinition()).trim()+"\"");
-          }
-          if (ce.v.getStatus() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"status\" : \""+Utilities.escapeJson(ce.v.getStatus()).trim()+"\"");
-          }
-          if (ce.v.getServer() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"server\" : \""+Utilities.escapeJson(ce.v.getServer()).trim()+"\"");
-          }
-          if (ce.v.isInactive()) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"inactive\" : true");
-          }
-          if (ce.v.getUnknownSystems() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"unknown-systems\" : \""+Utilities.escapeJson(CommaSeparatedStringBuilder.join(",", ce.v.getUnknownSystems())).trim()+"\"");
-          }
-          if (ce.v.getIssues() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            OperationOutcome oo = new OperationOutcome();
-            oo.setIssue(ce.v.getIssues());
-            sw.write("  \"issues\" : "+json.composeString(oo).trim()+"\r\n");
-          }
-          sw.write("\r\n}\r\n");
-        }
-        sw.write(ENTRY_MARKER+"\r\n");
-      }      
+      writeEntry(sw, json, nc, ce);
       sw.close();
+      nc.writes++;
     } catch (Exception e) {
       System.out.println("error saving "+nc.name+": "+e.getMessage());
     }
+    compactIfStale(nc);
+  }
+
+  private void compactIfStale(NamedCache nc) {
+    if (folder != null && nc.stale > COMPACTION_THRESHOLD && nc.stale > nc.list.size() && !nc.compacting) {
+      nc.compacting = true;
+      getCompactor().submit(() -> compact(nc));
+    }
+  }
+
+  private static synchronized ExecutorService getCompactor() {
+    if (compactor == null) {
+      compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "terminology-cache-compaction");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return compactor;
+  }
+
+  /**
+   * Rewrite the file for the named cache without the replaced entries. The content is prepared 
+   * while holding the lock, but written without it; if anything is added to the cache in the meantime,
+   * the new file is abandoned, and compaction will be tried again on a later append
+   */
+  private void compact(NamedCache nc) {
+    File tmp = null;
+    try {
+      StringWriter content = new StringWriter();
+      int writes;
+      synchronized (lock) {
+        if (caches.get(nc.name) != nc) {
+          return;
+        }
+        writeEntries(content, nc);
+        writes = nc.writes;
+      }
+      tmp = ManagedFileAccess.file(Utilities.path(folder, nc.name+CACHE_FILE_EXTENSION+".tmp"));
+      TextFile.stringToFile(content.toString(), tmp);
+      synchronized (lock) {
+        if (caches.get(nc.name) == nc && nc.writes == writes) {
+          File f = ManagedFileAccess.file(Utilities.path(folder, nc.name+CACHE_FILE_EXTENSION));
+          Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+          nc.stale = 0;
+          nc.writes++;
+          reindexEntries(nc, f);
+        }
+      }
+    } catch (Exception e) {
+      System.out.println("error compacting "+nc.name+": "+e.getMessage());
+    } finally {
+      if (tmp != null && tmp.exists()) {
+        tmp.delete();
+      }
+      synchronized (lock) {
+        nc.compacting = false;
+      }
+    }
+  }
+
+  private void writeEntries(Writer sw, NamedCache nc) throws IOException {
+    sw.write(ENTRY_MARKER+"\r\n");
+    JsonParser json = new JsonParser();
+    json.setOutputStyle(OutputStyle.PRETTY);
+    for (CacheEntry ce : nc.list.values()) {
+      writeEntry(sw, json, nc, ce);
+    }      
+  }
+
+  private void writeEntry(Writer sw, JsonParser json, NamedCache nc, CacheEntry ce) throws IOException {
+    sw.write(ce.request.trim());
+    sw.write(BREAK+"\r\n");
+    if (isUnparsed(ce)) {
+      // never parsed, so it's still as it was read
+      sw.write(getSource(nc, ce)+"\r\n");
+    } else if (ce.e != null) {
+      sw.write("e: {\r\n");
+      if (ce.e.isFromServer())
+        sw.write("  \"from-server\" : true,\r\n");
+      if (ce.e.getValueset() != null)
+        sw.write("  \"valueSet\" : "+json.composeString(ce.e.getValueset()).trim()+",\r\n");
+      sw.write("  \"error\" : \""+Utilities.escapeJson(ce.e.getError()).trim()+"\"\r\n}\r\n");
+    } else if (ce.s != null) {
+      sw.write("s: {\r\n");
+      sw.write("  \"result\" : "+ce.s.result+"\r\n}\r\n");
+    } else {
+      sw.write("v: {\r\n");
+      boolean first = true;
+      if (ce.v.getDisplay() != null) {            
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"display\" : \""+Utilities.escapeJson(ce.v.getDisplay()).trim()+"\"");
+      }
+      if (ce.v.getCode() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"code\" : \""+Utilities.escapeJson(ce.v.getCode()).trim()+"\"");
+      }
+      if (ce.v.getSystem() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"system\" : \""+Utilities.escapeJson(ce.v.getSystem()).trim()+"\"");
+      }
+      if (ce.v.getVersion() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"version\" : \""+Utilities.escapeJson(ce.v.getVersion()).trim()+"\"");
+      }
+      if (ce.v.getSeverity() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"severity\" : "+"\""+ce.v.getSeverity().toCode().trim()+"\""+"");
+      }
+      if (ce.v.getMessage() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"error\" : \""+Utilities.escapeJson(ce.v.getMessage()).trim()+"\"");
+      }
+      if (ce.v.getErrorClass() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"class\" : \""+Utilities.escapeJson(ce.v.getErrorClass().toString())+"\"");
+      }
+      if (ce.v.getDefinition() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"definition\" : \""+Utilities.escapeJson(ce.v.getDefinition()).trim()+"\"");
+      }
+      if (ce.v.getStatus() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"status\" : \""+Utilities.escapeJson(ce.v.getStatus()).trim()+"\"");
+      }
+      if (ce.v.getServer() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"server\" : \""+Utilities.escapeJson(ce.v.getServer()).trim()+"\"");
+      }
+      if (ce.v.isInactive()) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"inactive\" : true");
+      }
+      if (ce.v.getUnknownSystems() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"unknown-systems\" : \""+Utilities.escapeJson(CommaSeparatedStringBuilder.join(",", ce.v.getUnknownSystems())).trim()+"\"");
+      }
+      if (ce.v.getIssues() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        OperationOutcome oo = new OperationOutcome();
+        oo.setIssue(ce.v.getIssues());
+        sw.write("  \"issues\" : "+json.composeString(oo).trim()+"\r\n");
+      }
+      sw.write("\r\n}\r\n");
+    }
+    sw.write(ENTRY_MARKER+"\r\n");
   }
 
   private boolean isCapabilityCache(String fn) {
@@ -759,10 +1171,24 @@ public class TerminologyCache {
     return null;
   }
 
-  private CacheEntry getCacheEntry(String request, String resultString) throws IOException {
-    CacheEntry ce = new CacheEntry();
-    ce.persistent = true;
-    ce.request = request;
+  private boolean isUnparsed(CacheEntry ce) {
+    return ce.source != null || ce.offset > -1;
+  }
+
+  private String getSource(NamedCache nc, CacheEntry ce) throws IOException {
+    if (ce.source != null) {
+      return ce.source;
+    }
+    byte[] bytes = new byte[ce.length];
+    try (RandomAccessFile f = new RandomAccessFile(ManagedFileAccess.file(Utilities.path(folder, nc.name+CACHE_FILE_EXTENSION)), "r")) {
+      f.seek(ce.offset);
+      f.readFully(bytes);
+    }
+    return new String(bytes, StandardCharsets.UTF_8).trim();
+  }
+
+  private void parseCacheEntry(NamedCache nc, CacheEntry ce) throws IOException {
+    String resultString = getSource(nc, ce);
     char e = resultString.charAt(0);
     resultString = resultString.substring(3);
     JsonObject o = (JsonObject) new com.google.gson.JsonParser().parse(resultString);
@@ -797,44 +1223,191 @@ public class TerminologyCache {
         ce.v.setIssues(oo.getIssue());
       }
     }
-    return ce;
+    ce.source = null;
+    ce.offset = -1;
   }
 
-  private void loadNamedCache(String fn) {
-    int c = 0;
+  private void loadNamedCache(NamedCache nc) {
+    nc.loaded = true;
     try {
-      String src = TextFile.fileToString(Utilities.path(folder, fn));
-      String title = fn.substring(0, fn.lastIndexOf("."));
+      indexEntries(ManagedFileAccess.file(Utilities.path(folder, nc.name+CACHE_FILE_EXTENSION)), (request, offset, length) -> {
+        CacheEntry cacheEntry = new CacheEntry();
+        cacheEntry.persistent = true;
+        cacheEntry.request = request;
+        cacheEntry.offset = offset;
+        cacheEntry.length = length;
+        nc.map.put(String.valueOf(hashJson(cacheEntry.request)), cacheEntry);
+        if (nc.list.remove(cacheEntry.request) != null) {
+          nc.stale++;
+        }
+        nc.list.put(cacheEntry.request, cacheEntry);
+      });
+    } catch (Exception e) {
+      System.out.println("Error loading "+nc.name+CACHE_FILE_EXTENSION+": "+e.getMessage()+" - ignoring it");
+      e.printStackTrace();
+      nc.rewrite = true;
+    }
+    // a file that has had a lot of entries replaced since it was last compacted is compacted now
+    compactIfStale(nc);
+  }
+
+  /**
+   * After the file has been rewritten, the results that haven't been parsed yet are somewhere else in it
+   */
+  private void reindexEntries(NamedCache nc, File f) throws IOException {
+    indexEntries(f, (request, offset, length) -> {
+      CacheEntry ce = nc.list.get(request);
+      if (ce != null && ce.offset > -1) {
+        ce.offset = offset;
+        ce.length = length;
+      }
+    });
+  }
+
+  private interface EntryIndexer {
+    void entry(String request, long offset, int length);
+  }
+
+  /**
+   * Read through a cache file, a line at a time, and pass on each request, with where its result is 
+   * in the file. The results (which are most of the file) are skipped over, not read into memory
+   */
+  private void indexEntries(File f, EntryIndexer indexer) throws IOException {
+    try (InputStream in = new BufferedInputStream(ManagedFileAccess.inStream(f))) {
+      byte[] line = new byte[256];
+      StringBuilder request = new StringBuilder();
+      long pos = 0; // where the next line starts
+      long start = -1; // where the result starts, once the break after the request has been read
+      long end = -1; // where the result's last line that isn't blank ends
+      int count = 0;
+      int b = 0;
+      while (b != -1) {
+        long lineStart = pos;
+        int len = 0;
+        while ((b = in.read()) != -1 && b != '\n') {
+          if (len == line.length) {
+            line = Arrays.copyOf(line, len * 2);
+          }
+          line[len++] = (byte) b;
+        }
+        pos = lineStart + len + (b == -1 ? 0 : 1);
+        int from = 0;
+        if (lineStart == 0 && len >= 3 && line[0] == (byte) 0xEF && line[1] == (byte) 0xBB && line[2] == (byte) 0xBF) {
+          from = 3; // byte order mark
+        } else if (lineStart == 0 && len > 0 && line[0] == '?') {
+          from = 1;
+        }
+        if (isEntryMarker(line, from, len)) {
+          count++;
+          if (start > -1) {
+            indexer.entry(request.toString().trim(), start, (int) (end - start));
+          } else if (!Utilities.noString(request.toString().trim())) {
+            throw new FHIRException("No "+BREAK+" in entry "+count);
+          }
+          request.setLength(0);
+          start = -1;
+          end = -1;
+        } else if (start == -1) {
+          String s = new String(line, from, len - from, StandardCharsets.UTF_8);
+          int j = s.indexOf(BREAK);
+          if (j > -1) {
+            request.append(s, 0, j);
+            start = pos;
+            end = pos;
+          } else {
+            request.append(s).append("\n");
+          }
+        } else if (!isBlank(line, len)) {
+          end = lineStart + len;
+        }
+      }
+    }
+  }
+
+  private boolean isEntryMarker(byte[] line, int from, int len) {
+    while (len > from && line[len - 1] <= ' ') {
+      len--;
+    }
+    if (len - from != ENTRY_MARKER.length()) {
+      return false;
+    }
+    for (int i = from; i < len; i++) {
+      if (line[i] != '-') {
+        return false;
+      }
+    }
+    return true;
+  }
 
-      NamedCache nc = new NamedCache();
-      nc.name = title;
+  private boolean isBlank(byte[] line, int len) {
+    for (int i = 0; i < len; i++) {
+      if (line[i] > ' ' || line[i] < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
 
-      if (src.startsWith("?"))
-        src = src.substring(1);
-      int i = src.indexOf(ENTRY_MARKER);
+  /**
+   * read the entries in the content of a cache file that isn't one of this cache's own files. They're only
+   * held in memory, and entries that are already in the cache are kept 
+   */
+  private void readEntries(NamedCache nc, String src, String source) {
+    int c = 0;
+    try {
+      int start = src.startsWith("?") ? 1 : 0;
+      int i = src.indexOf(ENTRY_MARKER, start);
       while (i > -1) {
         c++;
-        String s = src.substring(0, i);
-        src = src.substring(i + ENTRY_MARKER.length() + 1);
-        i = src.indexOf(ENTRY_MARKER);
+        String s = src.substring(start, i);
+        start = i + ENTRY_MARKER.length() + 1;
+        i = src.indexOf(ENTRY_MARKER, start);
         if (!Utilities.noString(s)) {
           int j = s.indexOf(BREAK);
-          String request = s.substring(0, j);
-          String p = s.substring(j + BREAK.length() + 1).trim();
-
-          CacheEntry cacheEntry = getCacheEntry(request, p);
-
-          nc.map.put(String.valueOf(hashJson(cacheEntry.request)), cacheEntry);
-          nc.list.add(cacheEntry);
+          CacheEntry cacheEntry = new CacheEntry();
+          cacheEntry.persistent = false;
+          cacheEntry.request = s.substring(0, j).trim();
+          cacheEntry.source = s.substring(j + BREAK.length() + 1).trim();
+          nc.map.putIfAbsent(String.valueOf(hashJson(cacheEntry.request)), cacheEntry);
         }
-        caches.put(nc.name, nc);
       }        
     } catch (Exception e) {
-      System.out.println("Error loading "+fn+": "+e.getMessage()+" entry "+c+" - ignoring it");
+      System.out.println("Error loading "+source+": "+e.getMessage()+" entry "+c+" - ignoring it");
       e.printStackTrace();
     }
   }
 
+  /**
+   * Add the entries in a cache file that was made somewhere else (e.g. one in a terminology snapshot). 
+   * They're used like any other entry, but they aren't written to this cache's folder, and where this 
+   * cache already has an answer for the same request, that's the one that is used
+   * 
+   * @param name the name of the cache file, without the extension 
+   * @param src the content of the cache file
+   */
+  public void importEntries(String name, String src) {
+    synchronized (lock) {
+      NamedCache nc = caches.get(name);
+      if (nc == null) {
+        nc = new NamedCache();
+        nc.name = name;
+        caches.put(nc.name, nc);
+      } else if (!nc.loaded) {
+        loadNamedCache(nc);
+      }
+      readEntries(nc, src, name+CACHE_FILE_EXTENSION);
+    }
+  }
+
+  /**
+   * @return true if the file is one of the named caches (e.g. one per code system) that hold the answers 
+   * to validation and expansion requests, and not one of the capability caches
+   */
+  public static boolean isNamedCacheFile(String fn) {
+    return fn.endsWith(CACHE_FILE_EXTENSION) && !fn.equals("validation" + CACHE_FILE_EXTENSION) && 
+        !fn.startsWith(CAPABILITY_STATEMENT_TITLE) && !fn.startsWith(TERMINOLOGY_CAPABILITIES_TITLE);
+  }
+
   private void load() throws FHIRException, IOException {
     IniFile ini = new IniFile(Utilities.path(folder, "servers.ini"));
     if (ini.hasSection("servers")) {
@@ -849,7 +1422,12 @@ public class TerminologyCache {
           if (isCapabilityCache(fn)) {
             loadCapabilityCache(fn);
           } else {
-            loadNamedCache(fn);
+            // read when it's first used
+            NamedCache nc = new NamedCache();
+            nc.name = fn.substring(0, fn.lastIndexOf("."));
+            nc.loaded = false;
+            nc.rewrite = false;
+            caches.put(nc.name, nc);
           }
         } catch (FHIRException e) {
           throw e;
@@ -1034,11 +1612,10 @@ public class TerminologyCache {
         ct.setName(child.getSystem());
       }
       ct.hasVersion = parent.hasVersion() || child.hasVersion();
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      String expJS = json.composeString(expParameters);
-      ct.request = "{\"op\": \"subsumes\", \"parent\" : "+json.composeString(parent, "code")+", \"child\" :"+json.composeString(child, "code")+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
-      ct.key = String.valueOf(hashJson(ct.request));
+      Fingerprint exp = fingerprint(expParameters);
+      String opt = options == null ? "" : ", "+options.toJson();
+      ct.digest = makeDigest("s", codingKey(parent), codingKey(child), opt, exp.digest);
+      ct.requestBuilder = () -> "{\"op\": \"subsumes\", \"parent\" : "+composeJson(parent, "code")+", \"child\" :"+composeJson(child, "code")+opt+", \"profile\": "+exp.json+"}";
       return ct;
     } catch (IOException e) {
       throw new Error(e);
@@ -1046,13 +1623,13 @@ public class TerminologyCache {
   }
 
   public Boolean getSubsumes(CacheToken cacheToken) {
-   if (cacheToken.key == null) {
+   if (!cacheToken.hasKey()) {
      return null;
    }
    synchronized (lock) {
      requestCount++;
      NamedCache nc = getNamedCache(cacheToken);
-     CacheEntry e = nc.map.get(cacheToken.key);
+     CacheEntry e = getEntry(nc, cacheToken);
      if (e == null) {
        networkCount++;
        return null;
@@ -1065,11 +1642,11 @@ public class TerminologyCache {
   }
 
   public void cacheSubsumes(CacheToken cacheToken, Boolean b, boolean persistent) {
-    if (cacheToken.key != null) {
+    if (cacheToken.hasKey()) {
       synchronized (lock) {      
         NamedCache nc = getNamedCache(cacheToken);
         CacheEntry e = new CacheEntry();
-        e.request = cacheToken.request;
+        e.request = cacheToken.getRequest();
         e.persistent = persistent;
         e.s = new SubsumesResult(b);
         store(cacheToken, persistent, nc, e);
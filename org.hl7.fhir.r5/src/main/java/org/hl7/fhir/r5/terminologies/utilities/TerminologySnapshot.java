@@ -0,0 +1,89 @@
+package org.hl7.fhir.r5.terminologies.utilities;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.CanonicalResource;
+import org.hl7.fhir.r5.utils.NPMPackageGenerator;
+import org.hl7.fhir.r5.utils.NPMPackageGenerator.Category;
+import org.hl7.fhir.utilities.TextFile;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+import org.hl7.fhir.utilities.json.model.JsonArray;
+import org.hl7.fhir.utilities.json.model.JsonObject;
+import org.hl7.fhir.utilities.npm.PackageGenerator.PackageType;
+
+/**
+ * A terminology snapshot is everything a validator needs to validate codes without a terminology server,
+ * for the code systems it covers, packed up so it can be taken to a validator that has no network access.
+ * <p>
+ * It's an NPM package, so it can be loaded the same way as any other package (BaseWorkerContext.loadTerminologySnapshot):
+ * <ul>
+ *   <li>the CodeSystems, ValueSets, ConceptMaps and NamingSystems are ordinary package resources. They're indexed
+ *   in the package, so when the snapshot is loaded from a folder they're only read when they're used; after that,
+ *   lookups use the indexes on the resources (CodeSystemIndex, ValueSetExpansionIndex)</li>
+ *   <li>the tx-cache folder has named cache files exported from a terminology cache (the answers the server gave
+ *   for code systems that aren't available as resources, e.g. SNOMED CT). These are added to the context's
+ *   terminology cache, but not written to its folder</li>
+ * </ul>
+ */
+public class TerminologySnapshot {
+
+  public static final String CACHE_FOLDER = "tx-cache";
+  public static final List<String> TYPES = Utilities.strings("CodeSystem", "ValueSet", "ConceptMap", "NamingSystem");
+
+  /**
+   * Build a snapshot
+   *
+   * @param id the package id for the snapshot
+   * @param version the version of the snapshot
+   * @param fhirVersion the FHIR version of the resources
+   * @param resources the terminology resources to include. Resources that aren't one of TYPES are ignored
+   * @param cacheFolder a terminology cache folder to export the entries from (or null)
+   * @param destination the name of the .tgz file to create
+   * @return the number of resources and cache files in the snapshot
+   */
+  public static int build(String id, String version, String fhirVersion, List<? extends CanonicalResource> resources, String cacheFolder, String destination) throws FHIRException, IOException {
+    JsonObject npm = new JsonObject();
+    npm.add("name", id);
+    npm.add("version", version);
+    npm.add("type", PackageType.CONFORMANCE.getCode());
+    npm.add("title", "Terminology Snapshot");
+    npm.add("fhirVersions", new JsonArray().add(fhirVersion));
+    NPMPackageGenerator gen = new NPMPackageGenerator(destination, npm, new Date(), true);
+
+    int count = 0;
+    int i = 0;
+    Set<String> ids = new HashSet<>();
+    JsonParser json = new JsonParser();
+    for (CanonicalResource cr : resources) {
+      if (TYPES.contains(cr.fhirType())) {
+        if (!cr.hasId() || !ids.add(cr.fhirType()+"/"+cr.getIdBase())) {
+          // resources are only loaded lazily if they have an id, and the id has to be unique
+          cr = cr.copy();
+          do {
+            i++;
+            cr.setId("tx"+i);
+          } while (!ids.add(cr.fhirType()+"/"+cr.getIdBase()));
+        }
+        gen.addFile(Category.RESOURCE, cr.fhirType()+"-"+cr.getIdBase()+".json", json.composeBytes(cr));
+        count++;
+      }
+    }
+    if (cacheFolder != null) {
+      for (String fn : ManagedFileAccess.file(cacheFolder).list()) {
+        if (TerminologyCache.isNamedCacheFile(fn)) {
+          gen.addFile(CACHE_FOLDER, fn, TextFile.fileToBytes(Utilities.path(cacheFolder, fn)));
+          count++;
+        }
+      }
+    }
+    gen.finish();
+    return count;
+  }
+}
@@ -2,6 +2,7 @@ package org.hl7.fhir.r5.terminologies.utilities;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -88,6 +89,31 @@ public class ValidationResult {
     }
   }
 
+  /**
+   * a copy that can be changed without changing this one (the concept definition is shared)
+   */
+  public ValidationResult copy() {
+    ValidationResult res = new ValidationResult(system, version, definition, preferredDisplay);
+    res.severity = severity;
+    res.messages.addAll(messages);
+    res.errorClass = errorClass;
+    res.txLink = txLink;
+    res.diagnostics = diagnostics;
+    if (issues == null) {
+      res.issues = null;
+    } else {
+      for (OperationOutcomeIssueComponent iss : issues) {
+        res.issues.add(iss.copy());
+      }
+    }
+    res.codeableConcept = codeableConcept == null ? null : codeableConcept.copy();
+    res.unknownSystems = unknownSystems == null ? null : new HashSet<>(unknownSystems);
+    res.inactive = inactive;
+    res.status = status;
+    res.server = server;
+    return res;
+  }
+
   public boolean isOk() {
     return severity == null || severity == IssueSeverity.INFORMATION || severity == IssueSeverity.WARNING;
   }
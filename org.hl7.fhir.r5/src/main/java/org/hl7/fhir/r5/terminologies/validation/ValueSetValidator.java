@@ -56,6 +56,8 @@ import org.hl7.fhir.r5.model.Enumerations.FilterOperator;
 import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionComponent;
 import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionDesignationComponent;
 import org.hl7.fhir.r5.model.CodeSystem.ConceptPropertyComponent;
+import org.hl7.fhir.r5.model.CodeSystem.PropertyComponent;
+import org.hl7.fhir.r5.model.CodeSystem.PropertyType;
 import org.hl7.fhir.r5.model.CodeableConcept;
 import org.hl7.fhir.r5.model.Coding;
 import org.hl7.fhir.r5.model.DataType;
@@ -77,8 +79,11 @@ import org.hl7.fhir.r5.model.ValueSet.ConceptReferenceDesignationComponent;
 import org.hl7.fhir.r5.model.ValueSet.ConceptSetComponent;
 import org.hl7.fhir.r5.model.ValueSet.ConceptSetFilterComponent;
 import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.hl7.fhir.r5.terminologies.CodeSystemIndex;
 import org.hl7.fhir.r5.terminologies.CodeSystemUtilities;
+import org.hl7.fhir.r5.terminologies.ValueSetExpansionIndex;
 import org.hl7.fhir.r5.terminologies.client.TerminologyClientManager;
+import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpander;
 import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpansionOutcome;
 import org.hl7.fhir.r5.terminologies.providers.CodeSystemProvider;
 import org.hl7.fhir.r5.terminologies.providers.SpecialCodeSystem;
@@ -426,7 +431,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
   private String lookupDisplay(Coding c) {
     CodeSystem cs = resolveCodeSystem(c.getSystem(), c.getVersion());
     if (cs != null) {
-      ConceptDefinitionComponent cd = CodeSystemUtilities.findCodeOrAltCode(cs.getConcept(), c.getCode(), null);
+      ConceptDefinitionComponent cd = CodeSystemUtilities.findCodeOrAltCode(cs, c.getCode(), null);
       if (cd != null) {
         return getPreferredDisplay(cd, cs); 
       }
@@ -794,52 +799,33 @@ public class ValueSetValidator extends ValueSetProcessBase {
   private ValidationResult findCodeInExpansion(Coding code) {
     if (valueset==null || !valueset.hasExpansion())
       return null;
-    return findCodeInExpansion(code, valueset.getExpansion().getContains());
-  }
-
-  private ValidationResult findCodeInExpansion(Coding code, List<ValueSetExpansionContainsComponent> contains) {
-    for (ValueSetExpansionContainsComponent containsComponent: contains) {
-      opContext.deadCheck();
-      if (containsComponent.getSystem().equals(code.getSystem()) && containsComponent.getCode().equals(code.getCode())) {
-        ConceptDefinitionComponent ccd = new ConceptDefinitionComponent();
-        ccd.setCode(containsComponent.getCode());
-        ccd.setDisplay(containsComponent.getDisplay());
-        ValidationResult res = new ValidationResult(code.getSystem(), code.hasVersion() ? code.getVersion() : containsComponent.getVersion(), ccd, getPreferredDisplay(ccd, null));
-        return res;
-      }
-      if (containsComponent.hasContains()) {
-        ValidationResult res = findCodeInExpansion(code, containsComponent.getContains());
-        if (res != null) {
-          return res;
-        }
-      }
+    opContext.deadCheck();
+    ValueSetExpansionContainsComponent containsComponent = ValueSetExpansionIndex.get(valueset.getExpansion()).findCode(code.getSystem(), code.getCode());
+    if (containsComponent == null) {
+      return null;
     }
-    return null;
+    ConceptDefinitionComponent ccd = new ConceptDefinitionComponent();
+    ccd.setCode(containsComponent.getCode());
+    ccd.setDisplay(containsComponent.getDisplay());
+    ValidationResult res = new ValidationResult(code.getSystem(), code.hasVersion() ? code.getVersion() : containsComponent.getVersion(), ccd, getPreferredDisplay(ccd, null));
+    return res;
   }
 
   private boolean checkExpansion(Coding code, VersionInfo vi) {
     if (valueset==null || !valueset.hasExpansion()) {
       return false;
     }
-    return checkExpansion(code, valueset.getExpansion().getContains(), vi);
-  }
-
-  private boolean checkExpansion(Coding code, List<ValueSetExpansionContainsComponent> contains, VersionInfo vi) {
-    for (ValueSetExpansionContainsComponent containsComponent: contains) {
-      opContext.deadCheck();
-      if (containsComponent.hasSystem() && containsComponent.hasCode() && containsComponent.getSystem().equals(code.getSystem()) && containsComponent.getCode().equals(code.getCode())) {
-        vi.setExpansionVersion(containsComponent.getVersion());
-        return true;
-      }
-      if (containsComponent.hasContains() && checkExpansion(code, containsComponent.getContains(), vi)) {
-        return true;
-      }
+    opContext.deadCheck();
+    ValueSetExpansionContainsComponent containsComponent = ValueSetExpansionIndex.get(valueset.getExpansion()).findCode(code.getSystem(), code.getCode());
+    if (containsComponent == null) {
+      return false;
     }
-    return false;
+    vi.setExpansionVersion(containsComponent.getVersion());
+    return true;
   }
 
   private ValidationResult validateCode(String path, Coding code, CodeSystem cs, CodeableConcept vcc, ValidationProcessInfo info) {
-    ConceptDefinitionComponent cc = cs.hasUserData("tx.cs.special") ? ((SpecialCodeSystem) cs.getUserData("tx.cs.special")).findConcept(code) : findCodeInConcept(cs.getConcept(), code.getCode(), cs.getCaseSensitive(), allAltCodes);
+    ConceptDefinitionComponent cc = cs.hasUserData("tx.cs.special") ? ((SpecialCodeSystem) cs.getUserData("tx.cs.special")).findConcept(code) : findCodeInCodeSystem(cs, code.getCode(), allAltCodes);
     if (cc == null) {
       cc = findSpecialConcept(code, cs);
     }
@@ -1007,41 +993,9 @@ public class ValueSetValidator extends ValueSetProcessBase {
     return true;
   }
 
-  private ConceptDefinitionComponent findCodeInConcept(ConceptDefinitionComponent concept, String code, boolean caseSensitive, AlternateCodesProcessingRules altCodeRules) {
+  private ConceptDefinitionComponent findCodeInCodeSystem(CodeSystem cs, String code, AlternateCodesProcessingRules altCodeRules) {
     opContext.deadCheck();
-    if (code.equals(concept.getCode())) {
-      return concept;
-    }
-    ConceptDefinitionComponent cc = findCodeInConcept(concept.getConcept(), code, caseSensitive, altCodeRules);
-    if (cc != null) {
-      return cc;
-    }
-    if (concept.hasUserData(CodeSystemUtilities.USER_DATA_CROSS_LINK)) {
-      List<ConceptDefinitionComponent> children = (List<ConceptDefinitionComponent>) concept.getUserData(CodeSystemUtilities.USER_DATA_CROSS_LINK);
-      for (ConceptDefinitionComponent c : children) {
-        cc = findCodeInConcept(c, code, caseSensitive, altCodeRules);
-        if (cc != null) {
-          return cc;
-        }
-      }
-    }
-    return null;
-  }
-  
-  private ConceptDefinitionComponent findCodeInConcept(List<ConceptDefinitionComponent> concept, String code, boolean caseSensitive, AlternateCodesProcessingRules altCodeRules) {
-    for (ConceptDefinitionComponent cc : concept) {
-      if (code.equals(cc.getCode()) || (!caseSensitive && (code.equalsIgnoreCase(cc.getCode())))) {
-        return cc;
-      }
-      if (Utilities.existsInList(code, alternateCodes(cc, altCodeRules))) {
-        return cc;
-      }
-      ConceptDefinitionComponent c = findCodeInConcept(cc, code, caseSensitive, altCodeRules);
-      if (c != null) {
-        return c;
-      }
-    }
-    return null;
+    return CodeSystemIndex.get(cs).findCode(code, cs.getCaseSensitive(), p -> altCodeRules.passes(p.getExtension()));
   }
 
 
@@ -1128,7 +1082,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
                   }
                 }
               } else {
-                ConceptDefinitionComponent cc = findCodeInConcept(cs.getConcept(), code, cs.getCaseSensitive(), allAltCodes);
+                ConceptDefinitionComponent cc = findCodeInCodeSystem(cs, code, allAltCodes);
                 if (cc != null) {
                   sys.add(vsi.getSystem());
                 }
@@ -1362,6 +1316,36 @@ public class ValueSetValidator extends ValueSetProcessBase {
   }
 
   private boolean codeInFilter(CodeSystem cs, String system, ConceptSetFilterComponent f, String code) throws FHIRException {
+    try {
+      return checkCodeInFilter(cs, system, f, code);
+    } catch (FHIRException e) {
+      // the filter can't be checked directly, but the expander might know how to do it
+      Boolean res = codeInFilterByExpansion(cs, f, code);
+      if (res == null) {
+        throw e;
+      }
+      return res;
+    }
+  }
+
+  /**
+   * See whether the code is in the codes that the filter selects, by expanding just that filter. The 
+   * expansion isn't kept, and stops as soon as the code is found
+   * 
+   * @return null if the filter can't be expanded either
+   */
+  private Boolean codeInFilterByExpansion(CodeSystem cs, ConceptSetFilterComponent f, String code) {
+    ValueSet vs = new ValueSet();
+    vs.setUrl(Utilities.makeUuidUrn());
+    vs.setStatus(PublicationStatus.ACTIVE);
+    ConceptSetComponent inc = vs.getCompose().addInclude();
+    inc.setSystem(cs.getUrl());
+    inc.setVersion(cs.getVersion());
+    inc.getFilter().add(f.copy());
+    return new ValueSetExpander(context, opContext.copy()).hasCode(vs, expansionProfile, cs.getUrl(), code);
+  }
+
+  private boolean checkCodeInFilter(CodeSystem cs, String system, ConceptSetFilterComponent f, String code) throws FHIRException {
     if ("concept".equals(f.getProperty()))
       return codeInConceptFilter(cs, f, code);
     else if ("code".equals(f.getProperty()) && f.getOp() == FilterOperator.REGEX)
@@ -1381,6 +1365,18 @@ public class ValueSetValidator extends ValueSetProcessBase {
   }
 
   private boolean codeInPropertyFilter(CodeSystem cs, ConceptSetFilterComponent f, String code) {
+    PropertyComponent pd = CodeSystemUtilities.getPropertyDefinition(cs, f.getProperty());
+    if (pd != null && pd.getType() == PropertyType.CODE && CodeSystemIndex.isHierarchyFilter(f.getOp())) {
+      // the property value is a code in this code system
+      DataType d = CodeSystemUtilities.getProperty(cs, code, f.getProperty());
+      CodeSystemIndex index = CodeSystemIndex.get(cs);
+      ConceptDefinitionComponent focus = index.findCode(f.getValue());
+      ConceptDefinitionComponent value = d == null ? null : index.findCode(d.primitiveValue());
+      if (focus == null || value == null) {
+        return f.getOp() == FilterOperator.ISNOTA;
+      }
+      return index.passesHierarchyFilter(f.getOp(), focus, value);
+    }
     switch (f.getOp()) {
     case EQUAL:
       if (f.getValue() == null) {
@@ -1464,6 +1460,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
     case ISA: return codeInConceptIsAFilter(cs, f, code, false);
     case ISNOTA: return !codeInConceptIsAFilter(cs, f, code, false);
     case DESCENDENTOF: return codeInConceptIsAFilter(cs, f, code, true); 
+    case GENERALIZES: return codeInConceptGeneralizesFilter(cs, f, code);
     default:
       System.out.println("todo: handle concept filters with op = "+f.getOp()); 
       throw new FHIRException(context.formatMessage(I18nConstants.UNABLE_TO_HANDLE_SYSTEM__CONCEPT_FILTER_WITH_OP__, cs.getUrl(), f.getOp()));
@@ -1474,18 +1471,34 @@ public class ValueSetValidator extends ValueSetProcessBase {
     if (!excludeRoot && code.equals(f.getValue())) {
       return true;
     }
-    ConceptDefinitionComponent cc = findCodeInConcept(cs.getConcept(), f.getValue(), cs.getCaseSensitive(), altCodeParams);
+    ConceptDefinitionComponent cc = findCodeInCodeSystem(cs, f.getValue(), altCodeParams);
     if (cc == null) {
       return false;
     }
-    ConceptDefinitionComponent cc2 = findCodeInConcept(cc, code, cs.getCaseSensitive(), altCodeParams);
-    return cc2 != null && cc2 != cc;
+    ConceptDefinitionComponent cc2 = findCodeInCodeSystem(cs, code, altCodeParams);
+    return cc2 != null && cc2 != cc && CodeSystemIndex.get(cs).isA(cc2, cc);
+  }
+
+  private boolean codeInConceptGeneralizesFilter(CodeSystem cs, ConceptSetFilterComponent f, String code) {
+    if (code.equals(f.getValue())) {
+      return true;
+    }
+    ConceptDefinitionComponent cc = findCodeInCodeSystem(cs, f.getValue(), altCodeParams);
+    ConceptDefinitionComponent cc2 = findCodeInCodeSystem(cs, code, altCodeParams);
+    return cc != null && cc2 != null && CodeSystemIndex.get(cs).isA(cc, cc2);
   }
 
   public boolean validateCodeInConceptList(String code, CodeSystem def, List<ConceptDefinitionComponent> list, AlternateCodesProcessingRules altCodeRules) {
     opContext.deadCheck();
     if (def.hasUserData("tx.cs.special")) {
       return ((SpecialCodeSystem) def.getUserData("tx.cs.special")).findConcept(new Coding().setCode(code)) != null; 
+    } else if (list == def.getConcept()) {
+      CodeSystemIndex index = CodeSystemIndex.get(def);
+      if (def.getCaseSensitive()) {
+        return index.findCode(code) != null || index.findAlternateCode(code, p -> altCodeRules.passes(p.getExtension())) != null;
+      } else {
+        return index.findCodeIgnoreCase(code) != null;
+      }
     } else if (def.getCaseSensitive()) {
       for (ConceptDefinitionComponent cc : list) {
         if (cc.getCode().equals(code)) { 
@@ -67,6 +67,8 @@ import org.hl7.fhir.r5.model.StructureDefinition.TypeDerivationRule;
 import org.hl7.fhir.r5.model.StructureMap.*;
 import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
 import org.hl7.fhir.r5.renderers.TerminologyRenderer;
+import org.hl7.fhir.r5.terminologies.ConceptMapIndex;
+import org.hl7.fhir.r5.terminologies.ConceptMapIndex.ConceptMapIndexEntry;
 import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpansionOutcome;
 import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
 import org.hl7.fhir.r5.utils.ToolingExtensions;
@@ -2072,21 +2074,13 @@ public class StructureMapUtilities {
           done = true;
         }
       } else {
-        List<SourceElementComponentWrapper> list = new ArrayList<SourceElementComponentWrapper>();
-        for (ConceptMapGroupComponent g : cmap.getGroup()) {
-          for (SourceElementComponent e : g.getElement()) {
-            if (!src.hasSystem() && src.getCode().equals(e.getCode()))
-              list.add(new SourceElementComponentWrapper(g, e));
-            else if (src.hasSystem() && src.getSystem().equals(g.getSource()) && src.getCode().equals(e.getCode()))
-              list.add(new SourceElementComponentWrapper(g, e));
-          }
-        }
+        List<ConceptMapIndexEntry> list = ConceptMapIndex.get(cmap).findCodeInSource(src.hasSystem() ? src.getSystem() : null, src.getCode());
         if (list.size() == 0)
           done = true;
-        else if (list.get(0).getComp().getTarget().size() == 0)
+        else if (list.get(0).getElement().getTarget().size() == 0)
           message = "Concept map " + su + " found no translation for " + src.getCode();
         else {
-          for (TargetElementComponent tgt : list.get(0).getComp().getTarget()) {
+          for (TargetElementComponent tgt : list.get(0).getElement().getTarget()) {
             if (tgt.getRelationship() == null || EnumSet.of(ConceptMapRelationship.RELATEDTO, ConceptMapRelationship.EQUIVALENT, ConceptMapRelationship.SOURCEISNARROWERTHANTARGET).contains(tgt.getRelationship())) {
               if (done) {
                 message = "Concept map " + su + " found multiple matches for " + src.getCode();
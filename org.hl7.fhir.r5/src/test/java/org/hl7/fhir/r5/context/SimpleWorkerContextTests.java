@@ -10,10 +10,14 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Stream;
 
+import org.hl7.fhir.r5.model.Bundle;
 import org.hl7.fhir.r5.model.CapabilityStatement;
 import org.hl7.fhir.r5.model.CodeableConcept;
 import org.hl7.fhir.r5.model.Coding;
@@ -23,14 +27,22 @@ import org.hl7.fhir.r5.model.TerminologyCapabilities;
 import org.hl7.fhir.r5.model.ValueSet;
 import org.hl7.fhir.r5.terminologies.client.ITerminologyClient;
 import org.hl7.fhir.r5.terminologies.client.TerminologyClientContext;
+import org.hl7.fhir.r5.terminologies.client.TerminologyClientManager;
 import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpander;
 import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpansionOutcome;
+import org.hl7.fhir.r5.terminologies.utilities.CodingValidationRequest;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyServiceErrorClass;
 import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
+import org.hl7.fhir.r5.terminologies.validation.VSCheckerException;
 import org.hl7.fhir.r5.terminologies.validation.ValueSetValidator;
 import org.hl7.fhir.r5.utils.validation.ValidationContextCarrier;
 import org.hl7.fhir.utilities.FhirPublication;
 import org.hl7.fhir.utilities.ToolingClientLogger;
+import org.hl7.fhir.utilities.json.model.JsonObject;
+import org.hl7.fhir.utilities.json.parser.JsonParser;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
 import org.hl7.fhir.utilities.validation.ValidationOptions;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -227,6 +239,162 @@ public class SimpleWorkerContextTests {
     Mockito.verify(terminologyCache).cacheValidation(cacheToken, expectedValidationResult,true);
   }
 
+  private static final String LOCAL_SYSTEM = "http://example.org/local";
+  private static final String SERVER_SYSTEM = "http://example.org/server";
+  private static final String OTHER_SYSTEM = "http://example.org/other";
+  private static final String OTHER_URL = "http://other.example.org/fhir";
+
+  /**
+   * tell the client manager which server to use for each system (as the tx registry would), through a system-map.json 
+   * in the cache folder
+   */
+  private void mapSystems(String... systemServerPairs) throws IOException {
+    JsonObject json = new JsonObject();
+    for (int i = 0; i < systemServerPairs.length; i = i + 2) {
+      JsonObject pair = new JsonObject();
+      pair.add("system", systemServerPairs[i]);
+      pair.add("server", systemServerPairs[i+1]);
+      json.forceArray("systems").add(pair);
+    }
+    Path folder = Files.createTempDirectory("tx-batch");
+    JsonParser.compose(json, folder.resolve("system-map.json").toFile(), true);
+    Mockito.doReturn(folder.toString()).when(terminologyCache).getFolder();
+    context.getTxClientManager().setCache(terminologyCache);
+  }
+
+  /**
+   * answers a $batch of $validate-codes with a display made from the server name and the code, and keeps the batch
+   */
+  private void answerBatches(ITerminologyClient client, String server, List<Bundle> batches) {
+    Mockito.doAnswer(inv -> {
+      Bundle batch = inv.getArgument(0);
+      batches.add(batch);
+      Bundle resp = new Bundle();
+      resp.setType(Bundle.BundleType.BATCHRESPONSE);
+      for (Bundle.BundleEntryComponent be : batch.getEntry()) {
+        Coding c = (Coding) ((Parameters) be.getResource()).getParameter("coding").getValue();
+        Parameters pOut = new Parameters();
+        pOut.addParameter("result", true);
+        pOut.addParameter("display", server+":"+c.getCode());
+        resp.addEntry().setResource(pOut);
+      }
+      return resp;
+    }).when(client).validateBatch(any(Bundle.class));
+  }
+
+  private List<String> batchCodes(Bundle batch) {
+    List<String> codes = new ArrayList<>();
+    for (Bundle.BundleEntryComponent be : batch.getEntry()) {
+      codes.add(((Coding) ((Parameters) be.getResource()).getParameter("coding").getValue()).getCode());
+    }
+    return codes;
+  }
+
+  @Test
+  public void testValidateCodeBatchLocalAndServer() throws IOException {
+    mapSystems(SERVER_SYSTEM, DUMMY_URL);
+    ValidationOptions validationOptions = new ValidationOptions(FhirPublication.R5).withVersionFlexible(false);
+    ValueSet valueSet = new ValueSet();
+    List<CodingValidationRequest> codes = new ArrayList<>();
+    codes.add(new CodingValidationRequest(new Coding(LOCAL_SYSTEM, "a", null)));
+    codes.add(new CodingValidationRequest(new Coding(SERVER_SYSTEM, "b", null)));
+    codes.add(new CodingValidationRequest(new Coding(LOCAL_SYSTEM, "c", null)));
+    TerminologyCache.CacheToken[] tokens = new TerminologyCache.CacheToken[codes.size()];
+    for (int i = 0; i < codes.size(); i++) {
+      tokens[i] = mock(TerminologyCache.CacheToken.class);
+      Mockito.doReturn(tokens[i]).when(terminologyCache).generateValidationToken(validationOptions, codes.get(i).getCoding(), valueSet, expParameters);
+    }
+
+    // the local checker knows the local system, and sends the other one to the server
+    Mockito.doReturn(valueSetCheckerSimple).when(context).constructValueSetCheckerSimple(any(), any());
+    Mockito.doAnswer(inv -> {
+      Coding c = inv.getArgument(1);
+      if (SERVER_SYSTEM.equals(c.getSystem())) {
+        throw new VSCheckerException(ValueSetValidator.NO_TRY_THE_SERVER, null);
+      }
+      return new ValidationResult(c.getSystem(), null, null, "local:"+c.getCode());
+    }).when(valueSetCheckerSimple).validateCode(eq("Coding"), any(Coding.class));
+    List<Bundle> batches = new ArrayList<>();
+    answerBatches(terminologyClient, "server", batches);
+
+    context.validateCodeBatch(validationOptions, codes, valueSet);
+
+    // only the code the local checker couldn't do goes to the server
+    assertEquals(1, batches.size());
+    assertEquals(List.of("b"), batchCodes(batches.get(0)));
+    assertEquals("local:a", codes.get(0).getResult().getDisplay());
+    assertEquals("server:b", codes.get(1).getResult().getDisplay());
+    assertTrue(codes.get(1).getResult().isOk());
+    assertEquals("local:c", codes.get(2).getResult().getDisplay());
+
+    // and the answers are cached as validateCode would cache them
+    Mockito.verify(terminologyCache).cacheValidation(tokens[0], codes.get(0).getResult(), false);
+    Mockito.verify(terminologyCache).cacheValidation(tokens[1], codes.get(1).getResult(), true);
+    Mockito.verify(terminologyCache).cacheValidation(tokens[2], codes.get(2).getResult(), false);
+  }
+
+  @Test
+  public void testValidateCodeBatchUnknownSystems() {
+    ValidationOptions validationOptions = new ValidationOptions(FhirPublication.R5).withVersionFlexible(false);
+    ValueSet valueSet = new ValueSet();
+    List<CodingValidationRequest> codes = new ArrayList<>();
+    codes.add(new CodingValidationRequest(new Coding(LOCAL_SYSTEM, "a", null)));
+    codes.add(new CodingValidationRequest(new Coding(OTHER_SYSTEM, "b", null)));
+
+    // as validateCode does, the local checker is given a set to note the code systems it doesn't know in
+    List<Set<String>> sets = new ArrayList<>();
+    Mockito.doReturn(valueSetCheckerSimple).when(context).constructValueSetCheckerSimple(any(), any());
+    Mockito.doAnswer(inv -> sets.add(inv.getArgument(0))).when(valueSetCheckerSimple).setUnknownSystems(any());
+    Mockito.doAnswer(inv -> {
+      Coding c = inv.getArgument(1);
+      Set<String> unknownSystems = sets.get(sets.size() - 1);
+      unknownSystems.add(c.getSystem());
+      return new ValidationResult(IssueSeverity.ERROR, "unknown "+c.getSystem(), TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED, null).setUnknownSystems(unknownSystems);
+    }).when(valueSetCheckerSimple).validateCode(eq("Coding"), any(Coding.class));
+
+    context.validateCodeBatch(validationOptions, codes, valueSet);
+
+    // each code gets its own set, so one code's unknown systems aren't reported against another
+    assertEquals(2, sets.size());
+    assertEquals(Set.of(LOCAL_SYSTEM), codes.get(0).getResult().getUnknownSystems());
+    assertEquals(Set.of(OTHER_SYSTEM), codes.get(1).getResult().getUnknownSystems());
+  }
+
+  @Test
+  public void testValidateCodeBatchMultipleServers() throws IOException, URISyntaxException {
+    mapSystems(SERVER_SYSTEM, DUMMY_URL, OTHER_SYSTEM, OTHER_URL);
+    ITerminologyClient otherClient = mock(ITerminologyClient.class);
+    Mockito.doReturn(OTHER_URL).when(otherClient).getAddress();
+    TerminologyClientManager.ITerminologyClientFactory factory = mock(TerminologyClientManager.ITerminologyClientFactory.class);
+    Mockito.doReturn(otherClient).when(factory).makeClient(any(), eq(OTHER_URL), any(), any());
+    context.getTxClientManager().setFactory(factory);
+
+    ValidationOptions validationOptions = new ValidationOptions(FhirPublication.R5).withVersionFlexible(false).withNoClient();
+    ValueSet valueSet = new ValueSet();
+    List<CodingValidationRequest> codes = new ArrayList<>();
+    codes.add(new CodingValidationRequest(new Coding(SERVER_SYSTEM, "1", null)));
+    codes.add(new CodingValidationRequest(new Coding(OTHER_SYSTEM, "2", null)));
+    codes.add(new CodingValidationRequest(new Coding(SERVER_SYSTEM, "3", null)));
+    codes.add(new CodingValidationRequest(new Coding(OTHER_SYSTEM, "4", null)));
+    List<Bundle> batches = new ArrayList<>();
+    answerBatches(terminologyClient, "server", batches);
+    List<Bundle> otherBatches = new ArrayList<>();
+    answerBatches(otherClient, "other", otherBatches);
+
+    context.validateCodeBatch(validationOptions, codes, valueSet);
+
+    // one batch for each server, with the codes in the order they were asked for
+    assertEquals(1, batches.size());
+    assertEquals(List.of("1", "3"), batchCodes(batches.get(0)));
+    assertEquals(1, otherBatches.size());
+    assertEquals(List.of("2", "4"), batchCodes(otherBatches.get(0)));
+    assertEquals("server:1", codes.get(0).getResult().getDisplay());
+    assertEquals("other:2", codes.get(1).getResult().getDisplay());
+    assertEquals("server:3", codes.get(2).getResult().getDisplay());
+    assertEquals("other:4", codes.get(3).getResult().getDisplay());
+    Mockito.verify(valueSetCheckerSimple, times(0)).validateCode(any(), any(Coding.class));
+  }
+
   @Test
   public void testValidateCodableConceptWithCache() throws IOException {
     CodeableConcept codeableConcept = new CodeableConcept();
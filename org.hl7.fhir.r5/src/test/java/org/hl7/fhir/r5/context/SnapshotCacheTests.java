@@ -0,0 +1,142 @@
+package org.hl7.fhir.r5.context;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.r5.conformance.profile.ProfileUtilities;
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.PackageInformation;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.junit.jupiter.api.Test;
+
+public class SnapshotCacheTests {
+
+  private static final Date DATE = new Date(1700000000000L);
+
+  private SnapshotCache makeCache(String fhirVersion, String toolVersion) throws IOException {
+    return new SnapshotCache(Files.createTempDirectory("snapshot-cache").toString(), fhirVersion, toolVersion);
+  }
+
+  private StructureDefinition makeProfile(PackageInformation pi) {
+    StructureDefinition sd = new StructureDefinition();
+    sd.setId("test");
+    sd.setUrl("http://example.org/StructureDefinition/test");
+    sd.setWebPath("StructureDefinition-test.html");
+    sd.setSourcePackage(pi);
+    ElementDefinition ed = sd.getSnapshot().addElement().setPath("Patient");
+    ed.setId("Patient");
+    ed = sd.getSnapshot().addElement().setPath("Patient.name");
+    ed.setId("Patient.name");
+    ed.setShort("The name");
+    ed.setUserData(ProfileUtilities.UD_BASE_MODEL, "http://hl7.org/fhir/StructureDefinition/Patient");
+    ed.setUserData(ProfileUtilities.UD_BASE_PATH, "Patient.name");
+    ed.getShortElement().setUserData(ProfileUtilities.UD_DERIVATION_EQUALS, true);
+    return sd;
+  }
+
+  @Test
+  public void testHit() throws IOException {
+    SnapshotCache cache = makeCache("4.0.1", "6.0.0");
+    PackageInformation pi = new PackageInformation("test.pkg", "1.0.0", "4.0.1", DATE);
+    assertNull(cache.load(pi, "test"));
+
+    cache.save(makeProfile(pi));
+    StructureDefinition sd = cache.load(pi, "test");
+    assertNotNull(sd);
+    assertEquals("http://example.org/StructureDefinition/test", sd.getUrl());
+    assertEquals("StructureDefinition-test.html", sd.getWebPath());
+    assertTrue(sd.isGeneratedSnapshot());
+    assertEquals(2, sd.getSnapshot().getElement().size());
+
+    // the user data that snapshot generation leaves on the elements comes back too
+    ElementDefinition ed = sd.getSnapshot().getElement().get(1);
+    assertEquals("http://hl7.org/fhir/StructureDefinition/Patient", ed.getUserString(ProfileUtilities.UD_BASE_MODEL));
+    assertEquals("Patient.name", ed.getUserString(ProfileUtilities.UD_BASE_PATH));
+    assertEquals(Boolean.TRUE, ed.getShortElement().getUserData(ProfileUtilities.UD_DERIVATION_EQUALS));
+    assertFalse(sd.getSnapshot().getElement().get(0).hasUserData(ProfileUtilities.UD_BASE_MODEL));
+  }
+
+  @Test
+  public void testMiss() throws IOException {
+    SnapshotCache cache = makeCache("4.0.1", "6.0.0");
+    PackageInformation pi = new PackageInformation("test.pkg", "1.0.0", "4.0.1", DATE);
+    cache.save(makeProfile(pi));
+
+    assertNull(cache.load(pi, "other"));
+    assertNull(cache.load(new PackageInformation("other.pkg", "1.0.0", "4.0.1", DATE), "test"));
+    assertNull(cache.load(new PackageInformation("test.pkg", "1.0.1", "4.0.1", DATE), "test"));
+    assertNull(cache.load(null, "test"));
+    assertNull(cache.load(pi, null));
+  }
+
+  @Test
+  public void testInvalidation() throws IOException {
+    SnapshotCache cache = makeCache("4.0.1", "6.0.0");
+    PackageInformation pi = new PackageInformation("test.pkg", "1.0.0", "4.0.1", DATE);
+    cache.save(makeProfile(pi));
+    assertNotNull(cache.load(pi, "test"));
+
+    // a republished package (different date), a different FHIR version, or a different tool version don't use the entry
+    assertNull(cache.load(new PackageInformation("test.pkg", "1.0.0", "4.0.1", new Date(DATE.getTime() + 1000)), "test"));
+    assertNull(new SnapshotCache(cache.getFolder(), "5.0.0", "6.0.0").load(pi, "test"));
+    assertNull(new SnapshotCache(cache.getFolder(), "4.0.1", "6.0.1").load(pi, "test"));
+    assertNotNull(new SnapshotCache(cache.getFolder(), "4.0.1", "6.0.0").load(pi, "test"));
+
+    // an entry that can't be read is a miss
+    List<Path> files;
+    try (Stream<Path> s = Files.walk(Path.of(cache.getFolder()))) {
+      files = s.filter(p -> p.getFileName().toString().equals("StructureDefinition-test.json")).collect(Collectors.toList());
+    }
+    assertEquals(1, files.size());
+    Files.write(files.get(0), "{}\n{\"resourceType\":".getBytes(StandardCharsets.UTF_8));
+    assertNull(cache.load(pi, "test"));
+  }
+
+  @Test
+  public void testDependencies() throws IOException {
+    SnapshotCache cache = makeCache("4.0.1", "6.0.0");
+    PackageInformation pi = new PackageInformation("test.pkg", "1.0.0", "4.0.1", DATE);
+    pi.getDependencies().add("dep.pkg#1.0.0");
+    cache.save(makeProfile(pi));
+    assertNotNull(cache.load(pi, "test"));
+
+    // the snapshots depend on the versions of the dependencies that were actually loaded
+    cache.setDependencies(pi, Arrays.asList("dep.pkg#1.0.1"));
+    assertNull(cache.load(pi, "test"));
+    cache.setDependencies(pi, Arrays.asList("dep.pkg#1.0.0"));
+    assertNotNull(cache.load(pi, "test"));
+    assertNull(cache.load(new PackageInformation("test.pkg", "1.0.0", "4.0.1", DATE), "test"));
+  }
+
+  @Test
+  public void testNotCacheable() throws IOException {
+    SnapshotCache cache = makeCache("4.0.1", "6.0.0");
+    assertTrue(cache.isCacheable(new PackageInformation("test.pkg", "1.0.0", "4.0.1", DATE)));
+    for (String version : new String[] { "current", "dev", "1.0.0-cibuild", "1.0.0-SNAPSHOT", "1.0.0-snapshot" }) {
+      PackageInformation pi = new PackageInformation("test.pkg", version, "4.0.1", DATE);
+      assertFalse(cache.isCacheable(pi), version);
+      cache.save(makeProfile(pi));
+      assertNull(cache.load(pi, "test"), version);
+    }
+
+    // nor is anything, if the tool version isn't known
+    SnapshotCache dev = makeCache("4.0.1", null);
+    PackageInformation pi = new PackageInformation("test.pkg", "1.0.0", "4.0.1", DATE);
+    assertFalse(dev.isCacheable(pi));
+    dev.save(makeProfile(pi));
+    assertNull(dev.load(pi, "test"));
+  }
+}
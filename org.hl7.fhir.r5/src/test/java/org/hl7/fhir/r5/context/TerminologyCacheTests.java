@@ -9,8 +9,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -21,10 +23,12 @@ import java.util.stream.Stream;
 
 import org.apache.commons.io.IOUtils;
 import org.hl7.fhir.r5.formats.IParser;
+import org.hl7.fhir.r5.model.BooleanType;
 import org.hl7.fhir.r5.model.CanonicalResource;
 import org.hl7.fhir.r5.model.CapabilityStatement;
 import org.hl7.fhir.r5.model.CodeableConcept;
 import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.Enumerations;
 import org.hl7.fhir.r5.model.Parameters;
 import org.hl7.fhir.r5.model.TerminologyCapabilities;
 import org.hl7.fhir.r5.model.ValueSet;
@@ -162,6 +166,139 @@ public class TerminologyCacheTests implements ResourceLoaderTests {
     deleteTempCacheDirectory(tempCacheDirectory);
   }
 
+  @Test
+  public void testCachePersistenceReplacedEntries() throws IOException {
+    Object lock = new Object();
+    Path tempCacheDirectory = createTempCacheDirectory();
+    ValueSet valueSet = new ValueSet();
+    valueSet.setUrl("dummyValueSetURL");
+
+    TerminologyCache terminologyCacheA = new TerminologyCache(lock, tempCacheDirectory.toString());
+    Coding coding1 = new Coding().setSystem("http://loinc.org").setCode("dummyCode1");
+    Coding coding2 = new Coding().setSystem("http://loinc.org").setCode("dummyCode2");
+    TerminologyCache.CacheToken token1 = terminologyCacheA.generateValidationToken(CacheTestUtils.validationOptions, coding1, valueSet, new Parameters());
+    TerminologyCache.CacheToken token2 = terminologyCacheA.generateValidationToken(CacheTestUtils.validationOptions, coding2, valueSet, new Parameters());
+    terminologyCacheA.cacheValidation(token1, new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "first", null), true);
+    terminologyCacheA.cacheValidation(token2, new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "second", null), true);
+    terminologyCacheA.cacheValidation(token1, new ValidationResult(ValidationMessage.IssueSeverity.WARNING, "replaced", null), true);
+
+    // the replacement is appended to the file, and wins when the file is read again
+    String src = new String(Files.readAllBytes(tempCacheDirectory.resolve("loinc.cache")), java.nio.charset.StandardCharsets.UTF_8);
+    assertTrue(src.indexOf("\"first\"") < src.indexOf("\"replaced\""));
+
+    TerminologyCache terminologyCacheB = new TerminologyCache(lock, tempCacheDirectory.toString());
+    assertEquals("replaced", terminologyCacheB.getValidation(terminologyCacheB.generateValidationToken(CacheTestUtils.validationOptions, coding1, valueSet, new Parameters())).getMessage());
+    assertEquals("second", terminologyCacheB.getValidation(terminologyCacheB.generateValidationToken(CacheTestUtils.validationOptions, coding2, valueSet, new Parameters())).getMessage());
+    deleteTempCacheDirectory(tempCacheDirectory);
+  }
+
+  @Test
+  public void testValueSetFingerprints() throws IOException {
+    TerminologyCache terminologyCache = createTerminologyCache();
+    ValueSet valueSet = new ValueSet();
+    valueSet.getCompose().addInclude().setSystem("http://loinc.org");
+    Coding coding = new Coding().setSystem("http://loinc.org").setCode("dummyCode");
+    Parameters parameters = new Parameters();
+
+    TerminologyCache.CacheToken tokenA = terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, parameters);
+    terminologyCache.cacheValidation(tokenA, new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "dummyInfo", null), false);
+
+    // the same value set again, and a copy of it: found without rebuilding the request
+    TerminologyCache.CacheToken tokenB = terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, parameters);
+    assertEquals("dummyInfo", terminologyCache.getValidation(tokenB).getMessage());
+    TerminologyCache.CacheToken tokenC = terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet.copy(), parameters);
+    assertEquals("dummyInfo", terminologyCache.getValidation(tokenC).getMessage());
+    assertEquals(tokenA.getRequest(), tokenC.getRequest());
+
+    // changing the value set changes the token
+    valueSet.getCompose().addInclude().setSystem("http://snomed.info/sct");
+    TerminologyCache.CacheToken tokenD = terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, parameters);
+    assertNull(terminologyCache.getValidation(tokenD));
+    assertFalse(tokenA.getRequest().equals(tokenD.getRequest()));
+  }
+
+  @Test
+  public void testValueSetFingerprintsInPlaceEdits() throws IOException {
+    TerminologyCache terminologyCache = createTerminologyCache();
+    ValueSet valueSet = new ValueSet();
+    ValueSet.ConceptSetComponent inc = valueSet.getCompose().addInclude().setSystem("http://loinc.org");
+    inc.addConcept().setCode("1234-5");
+    inc.addFilter().setProperty("concept").setOp(Enumerations.FilterOperator.ISA).setValue("LP1234");
+    Coding coding = new Coding().setSystem("http://loinc.org").setCode("1234-5");
+    Parameters parameters = new Parameters();
+    parameters.addParameter("includeDesignations", true);
+
+    TerminologyCache.CacheToken tokenA = terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, parameters);
+    terminologyCache.cacheValidation(tokenA, new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "dummyInfo", null), false);
+    assertEquals("dummyInfo", terminologyCache.getValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, parameters)).getMessage());
+
+    // none of these change the number of anything in the value set, so the memoised fingerprint is used 
+    // until it's dropped 
+    inc.getConceptFirstRep().setCode("1234-6");
+    assertEquals(tokenA.getRequest(), terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, parameters).getRequest());
+    terminologyCache.invalidateFingerprints(valueSet);
+    TerminologyCache.CacheToken tokenB = terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, parameters);
+    assertNull(terminologyCache.getValidation(tokenB));
+    assertFalse(tokenA.getRequest().equals(tokenB.getRequest()));
+    terminologyCache.cacheValidation(tokenB, new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "dummyInfoB", null), false);
+
+    inc.getFilterFirstRep().setValue("LP5678");
+    terminologyCache.invalidateFingerprints(valueSet);
+    TerminologyCache.CacheToken tokenC = terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, parameters);
+    assertNull(terminologyCache.getValidation(tokenC));
+    assertFalse(tokenB.getRequest().equals(tokenC.getRequest()));
+
+    inc.getFilterFirstRep().setValue("LP1234");
+    terminologyCache.invalidateFingerprints(valueSet);
+    // but a change to the parameters is noticed
+    parameters.getParameterFirstRep().setValue(new BooleanType(false));
+    TerminologyCache.CacheToken tokenD = terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, parameters);
+    assertNull(terminologyCache.getValidation(tokenD));
+    assertFalse(tokenB.getRequest().equals(tokenD.getRequest()));
+
+    // putting it back finds the earlier entry again
+    parameters.getParameterFirstRep().setValue(new BooleanType(true));
+    assertEquals("dummyInfoB", terminologyCache.getValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, parameters)).getMessage());
+
+    // and the same for the essence of the value set used in expansion tokens
+    TerminologyCache.CacheToken expA = terminologyCache.generateExpandToken(valueSet, false);
+    inc.getConceptFirstRep().setCode("1234-7");
+    terminologyCache.invalidateFingerprints(valueSet);
+    TerminologyCache.CacheToken expB = terminologyCache.generateExpandToken(valueSet, false);
+    assertFalse(expA.getRequest().equals(expB.getRequest()));
+  }
+
+  @Test
+  public void testCachePersistenceRewriteUnreadEntries() throws IOException {
+    Object lock = new Object();
+    Path tempCacheDirectory = createTempCacheDirectory();
+    ValueSet valueSet = new ValueSet();
+    valueSet.setUrl("dummyValueSetURL");
+    Coding coding1 = new Coding().setSystem("http://loinc.org").setCode("dummyCode1");
+    Coding coding2 = new Coding().setSystem("http://loinc.org").setCode("dummyCode2");
+    Coding coding3 = new Coding().setSystem("http://loinc.org").setCode("dummyCode3");
+
+    TerminologyCache terminologyCacheA = new TerminologyCache(lock, tempCacheDirectory.toString());
+    terminologyCacheA.cacheValidation(terminologyCacheA.generateValidationToken(CacheTestUtils.validationOptions, coding1, valueSet, new Parameters()), new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "first", null), true);
+    terminologyCacheA.cacheValidation(terminologyCacheA.generateValidationToken(CacheTestUtils.validationOptions, coding2, valueSet, new Parameters()), new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "second", null), true);
+    // an entry that can't be read, so the whole file is written again when the next entry is added
+    Path file = tempCacheDirectory.resolve("loinc.cache");
+    Files.write(file, ("broken\r\n"+"-".repeat(85)+"\r\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    // the results of the entries that were there are only read from the file when they're asked for, so they have to be read before it's rewritten
+    TerminologyCache terminologyCacheB = new TerminologyCache(lock, tempCacheDirectory.toString());
+    terminologyCacheB.cacheValidation(terminologyCacheB.generateValidationToken(CacheTestUtils.validationOptions, coding3, valueSet, new Parameters()), new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "third", null), true);
+    assertFalse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).contains("broken"));
+    // and they're found in the new file
+    assertEquals("first", terminologyCacheB.getValidation(terminologyCacheB.generateValidationToken(CacheTestUtils.validationOptions, coding1, valueSet, new Parameters())).getMessage());
+    assertEquals("second", terminologyCacheB.getValidation(terminologyCacheB.generateValidationToken(CacheTestUtils.validationOptions, coding2, valueSet, new Parameters())).getMessage());
+
+    TerminologyCache terminologyCacheC = new TerminologyCache(lock, tempCacheDirectory.toString());
+    assertEquals("first", terminologyCacheC.getValidation(terminologyCacheC.generateValidationToken(CacheTestUtils.validationOptions, coding1, valueSet, new Parameters())).getMessage());
+    assertEquals("third", terminologyCacheC.getValidation(terminologyCacheC.generateValidationToken(CacheTestUtils.validationOptions, coding3, valueSet, new Parameters())).getMessage());
+    deleteTempCacheDirectory(tempCacheDirectory);
+  }
+
   private void assertCanonicalResourceEquals(CanonicalResource a, CanonicalResource b) {
     assertTrue(a.equalsDeep(b));
   }
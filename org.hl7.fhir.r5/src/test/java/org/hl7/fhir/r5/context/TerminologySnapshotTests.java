@@ -0,0 +1,105 @@
+package org.hl7.fhir.r5.context;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.Enumerations.CodeSystemContentMode;
+import org.hl7.fhir.r5.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache.CacheToken;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologySnapshot;
+import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
+import org.junit.jupiter.api.Test;
+
+public class TerminologySnapshotTests {
+
+  private static final Coding SNAPSHOT_CODE = new Coding("http://loinc.org", "1234-5", null);
+  private static final Coding LOCAL_CODE = new Coding("http://loinc.org", "6789-0", null);
+
+  private ValueSet makeValueSet() {
+    ValueSet vs = new ValueSet();
+    vs.setId("vs");
+    vs.setUrl("http://example.org/ValueSet/vs");
+    vs.setStatus(PublicationStatus.ACTIVE);
+    vs.getCompose().addInclude().setSystem("http://loinc.org");
+    return vs;
+  }
+
+  private CacheToken token(TerminologyCache cache, Coding coding) {
+    return cache.generateValidationToken(CacheTestUtils.validationOptions, coding, makeValueSet(), new Parameters());
+  }
+
+  private String build(Path folder) throws IOException {
+    // the cache the snapshot is made from: what the server said about both codes
+    Path source = Files.createDirectory(folder.resolve("source"));
+    TerminologyCache cache = new TerminologyCache(new Object(), source.toString());
+    cache.cacheValidation(token(cache, SNAPSHOT_CODE), new ValidationResult(IssueSeverity.INFORMATION, "from snapshot", null), true);
+    cache.cacheValidation(token(cache, LOCAL_CODE), new ValidationResult(IssueSeverity.INFORMATION, "from snapshot", null), true);
+
+    CodeSystem cs = new CodeSystem(); // no id - the snapshot gives it one
+    cs.setUrl("http://example.org/CodeSystem/cs");
+    cs.setStatus(PublicationStatus.ACTIVE);
+    cs.setContent(CodeSystemContentMode.COMPLETE);
+    cs.addConcept().setCode("a").setDisplay("A");
+    StructureDefinition sd = new StructureDefinition(); // not terminology, so not in the snapshot
+    sd.setId("sd");
+    sd.setUrl("http://example.org/StructureDefinition/sd");
+
+    String dest = folder.resolve("snapshot.tgz").toString();
+    assertEquals(3, TerminologySnapshot.build("example.tx.snapshot", "1.0.0", "5.0.0", List.of(cs, makeValueSet(), sd), source.toString(), dest));
+    return dest;
+  }
+
+  @Test
+  public void testBuildAndLoad() throws IOException {
+    Path folder = Files.createTempDirectory("tx-snapshot");
+    String dest = build(folder);
+
+    // the validator that loads it already has its own answer for one of the codes
+    Path local = Files.createDirectory(folder.resolve("local"));
+    SimpleWorkerContext context = new SimpleWorkerContext.SimpleWorkerContextBuilder().fromNothing();
+    context.initTxCache(local.toString());
+    TerminologyCache cache = context.getTxCache();
+    cache.cacheValidation(token(cache, LOCAL_CODE), new ValidationResult(IssueSeverity.INFORMATION, "local", null), true);
+
+    NpmPackage npm;
+    try (InputStream stream = Files.newInputStream(Path.of(dest))) {
+      npm = NpmPackage.fromPackage(stream, dest);
+    }
+    assertEquals("example.tx.snapshot", npm.name());
+    assertEquals(2, context.loadTerminologySnapshot(npm));
+
+    assertNotNull(context.fetchResource(CodeSystem.class, "http://example.org/CodeSystem/cs"));
+    assertNotNull(context.fetchResource(ValueSet.class, "http://example.org/ValueSet/vs"));
+    assertNull(context.fetchResource(StructureDefinition.class, "http://example.org/StructureDefinition/sd"));
+
+    // the snapshot answers what the local cache doesn't know, but doesn't replace the local answers
+    assertEquals("from snapshot", cache.getValidation(token(cache, SNAPSHOT_CODE)).getMessage());
+    assertEquals("local", cache.getValidation(token(cache, LOCAL_CODE)).getMessage());
+
+    // and the entries from the snapshot aren't written to the local cache folder
+    String src = new String(Files.readAllBytes(local.resolve("loinc.cache")), StandardCharsets.UTF_8);
+    assertTrue(src.contains("\"local\""));
+    assertFalse(src.contains("from snapshot"));
+    cache.cacheValidation(token(cache, new Coding("http://loinc.org", "1111-1", null)), new ValidationResult(IssueSeverity.INFORMATION, "another", null), true);
+    src = new String(Files.readAllBytes(local.resolve("loinc.cache")), StandardCharsets.UTF_8);
+    assertFalse(src.contains("from snapshot"));
+  }
+}
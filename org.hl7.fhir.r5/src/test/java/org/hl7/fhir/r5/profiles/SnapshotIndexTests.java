@@ -0,0 +1,137 @@
+package org.hl7.fhir.r5.profiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+
+import org.hl7.fhir.r5.conformance.profile.ProfileUtilities;
+import org.hl7.fhir.r5.conformance.profile.SnapshotIndex;
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.junit.jupiter.api.Test;
+
+public class SnapshotIndexTests {
+
+  private StructureDefinition makeProfile() {
+    StructureDefinition sd = new StructureDefinition();
+    sd.setUrl("http://example.org/StructureDefinition/test");
+    addElement(sd, "Test", "Test");
+    addElement(sd, "Test.id", "Test.id");
+    addElement(sd, "Test.identifier", "Test.identifier").getSlicing().setRules(ElementDefinition.SlicingRules.OPEN);
+    addElement(sd, "Test.identifier.system", "Test.identifier.system");
+    addElement(sd, "Test.identifier", "Test.identifier:a").setSliceName("a");
+    addElement(sd, "Test.identifier.system", "Test.identifier:a.system");
+    addElement(sd, "Test.identifier.value", "Test.identifier:a.value");
+    addElement(sd, "Test.identifier", "Test.identifier:b").setSliceName("b");
+    addElement(sd, "Test.name", "Test.name");
+    addElement(sd, "Test.name.given", "Test.name.given");
+    addElement(sd, "Test.names", "Test.names");
+    addElement(sd, "Test.part", "Test.part").setContentReference("#Test.name");
+    return sd;
+  }
+
+  private ElementDefinition addElement(StructureDefinition sd, String path, String id) {
+    ElementDefinition ed = sd.getSnapshot().addElement().setPath(path);
+    ed.setId(id);
+    return ed;
+  }
+
+  private ElementDefinition get(StructureDefinition sd, String id) {
+    for (ElementDefinition ed : sd.getSnapshot().getElement()) {
+      if (id.equals(ed.getId())) {
+        return ed;
+      }
+    }
+    return null;
+  }
+
+  private void assertIds(List<ElementDefinition> list, String... ids) {
+    assertEquals(ids.length, list.size());
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(ids[i], list.get(i).getId());
+    }
+  }
+
+  @Test
+  public void testChildren() {
+    StructureDefinition sd = makeProfile();
+    SnapshotIndex index = SnapshotIndex.get(sd);
+    assertIds(index.getChildren(get(sd, "Test")).getList(), "Test.id", "Test.identifier", "Test.identifier:a", "Test.identifier:b", "Test.name", "Test.names", "Test.part");
+    assertIds(index.getChildren(get(sd, "Test.identifier")).getList(), "Test.identifier.system");
+    assertIds(index.getChildren(get(sd, "Test.identifier:a")).getList(), "Test.identifier:a.system", "Test.identifier:a.value");
+    assertIds(index.getChildren(get(sd, "Test.identifier:b")).getList());
+    assertIds(index.getChildren(get(sd, "Test.name")).getList(), "Test.name.given");
+    assertNull(index.getChildren(new ElementDefinition().setPath("Test")));
+    assertEquals(4, index.indexOf(get(sd, "Test.identifier:a")));
+  }
+
+  @Test
+  public void testSlices() {
+    StructureDefinition sd = makeProfile();
+    SnapshotIndex index = SnapshotIndex.get(sd);
+    assertIds(index.getSlices(get(sd, "Test.identifier")), "Test.identifier:a", "Test.identifier:b");
+    assertNull(index.getSlices(get(sd, "Test.name")));
+  }
+
+  @Test
+  public void testProfileUtilities() {
+    StructureDefinition sd = makeProfile();
+    ProfileUtilities pu = new ProfileUtilities(null, null, null);
+    assertIds(pu.getChildMap(sd, get(sd, "Test.identifier:a")).getList(), "Test.identifier:a.system", "Test.identifier:a.value");
+    assertIds(pu.getChildMap(sd, get(sd, "Test.part")).getList(), "Test.name.given");
+    assertIds(pu.getSliceList(sd, get(sd, "Test.identifier")), "Test.identifier:a", "Test.identifier:b");
+  }
+
+  @Test
+  public void testProfileUtilitiesMissingElement() {
+    StructureDefinition sd = makeProfile();
+    ProfileUtilities pu = new ProfileUtilities(null, null, null);
+    // a copy of a snapshot element has the same children as the element
+    assertIds(pu.getChildMap(sd, get(sd, "Test.identifier:a").copy()).getList(), "Test.identifier:a.system", "Test.identifier:a.value");
+    // any other element that's not in the snapshot is looked up by path from the start of the snapshot, as it always 
+    // was, so it has no children, even if its id is the id of a snapshot element with a different path
+    assertIds(pu.getChildMap(sd, new ElementDefinition().setPath("Test.name")).getList());
+    ElementDefinition other = new ElementDefinition().setPath("Test.names");
+    other.setId("Test.name");
+    assertIds(pu.getChildMap(sd, other).getList());
+  }
+
+  @Test
+  public void testRebuild() {
+    StructureDefinition sd = makeProfile();
+    SnapshotIndex index = SnapshotIndex.get(sd);
+    assertSame(index, SnapshotIndex.get(sd));
+    addElement(sd, "Test.name.family", "Test.name.family");
+    assertIds(SnapshotIndex.get(sd).getChildren(get(sd, "Test.name")).getList(), "Test.name.given", "Test.name.family");
+    StructureDefinition copy = sd.copy();
+    assertIds(SnapshotIndex.get(copy).getChildren(get(copy, "Test.name")).getList(), "Test.name.given", "Test.name.family");
+  }
+
+  @Test
+  public void testInvalidate() {
+    StructureDefinition sd = new StructureDefinition();
+    sd.setUrl("http://example.org/StructureDefinition/test");
+    addElement(sd, "Test", "Test");
+    ElementDefinition name = addElement(sd, "Test.name", "a");
+    addElement(sd, "Test.name.given", "b");
+    SnapshotIndex index = SnapshotIndex.get(sd);
+    assertSame(name, index.getById("a"));
+    assertNull(index.getById("Test.name"));
+
+    // setting the ids changes the snapshot in place, so the index is dropped
+    new ProfileUtilities(null, null, null).setIds(sd, false);
+    assertNotSame(index, SnapshotIndex.get(sd));
+    assertSame(name, SnapshotIndex.get(sd).getById("Test.name"));
+    assertNull(SnapshotIndex.get(sd).getById("a"));
+
+    // as must anything else that does
+    index = SnapshotIndex.get(sd);
+    name.setId("c");
+    assertSame(index, SnapshotIndex.get(sd));
+    SnapshotIndex.invalidate(sd);
+    assertSame(name, SnapshotIndex.get(sd).getById("c"));
+  }
+}
@@ -0,0 +1,105 @@
+package org.hl7.fhir.r5.terminologies;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r5.model.CodeSystem.PropertyType;
+import org.hl7.fhir.r5.model.CodeType;
+import org.hl7.fhir.r5.model.Enumerations.FilterOperator;
+import org.hl7.fhir.r5.model.StringType;
+import org.junit.jupiter.api.Test;
+
+public class CodeSystemIndexTests {
+
+  private CodeSystem makeCodeSystem() {
+    CodeSystem cs = new CodeSystem();
+    cs.setUrl("http://example.org/cs");
+    cs.addProperty().setCode("parent").setUri("http://hl7.org/fhir/concept-properties#parent").setType(PropertyType.CODE);
+    ConceptDefinitionComponent a = cs.addConcept().setCode("A").setDisplay("A");
+    ConceptDefinitionComponent a1 = a.addConcept().setCode("A1").setDisplay("A1");
+    a1.addConcept().setCode("A1x").setDisplay("A1x");
+    a1.addProperty().setCode("alternateCode").setValue(new StringType("alt-a1"));
+    ConceptDefinitionComponent b = cs.addConcept().setCode("B").setDisplay("B");
+    b.addProperty().setCode("parent").setValue(new CodeType("A1"));
+    b.addConcept().setCode("B1").setDisplay("B1");
+    cs.addConcept().setCode("C").setDisplay("C");
+    return cs;
+  }
+
+  @Test
+  public void testFindCode() {
+    CodeSystem cs = makeCodeSystem();
+    CodeSystemIndex index = CodeSystemIndex.get(cs);
+    assertEquals("A1x", index.findCode("A1x").getCode());
+    assertNull(index.findCode("a1x"));
+    assertEquals("A1x", index.findCodeIgnoreCase("a1x").getCode());
+    assertNull(index.findCode("alt-a1"));
+    assertEquals("A1", index.findAlternateCode("alt-a1", null).getCode());
+    assertNull(index.findAlternateCode("alt-a1", p -> false));
+    assertEquals("A1", index.findCode("alt-a1", true, null).getCode());
+    assertSame(index, CodeSystemIndex.get(cs));
+  }
+
+  @Test
+  public void testIsA() {
+    CodeSystem cs = makeCodeSystem();
+    CodeSystemUtilities.crossLinkCodeSystem(cs);
+    CodeSystemIndex index = CodeSystemIndex.get(cs);
+    assertTrue(index.subsumes("A", "A1x"));
+    assertTrue(index.subsumes("A1", "A1"));
+    assertFalse(index.subsumes("A1x", "A"));
+    // B is under A1 through the parent property
+    assertTrue(index.subsumes("A", "B"));
+    assertEquals(2, index.getAncestors(index.findCode("B")).size());
+    assertTrue(CodeSystemUtilities.subsumes(cs, "A1", "B"));
+    assertFalse(CodeSystemUtilities.subsumes(cs, "B", "A"));
+    // and so are B's children
+    assertTrue(index.subsumes("A", "B1"));
+    assertTrue(index.subsumes("A1", "B1"));
+    assertFalse(index.subsumes("A1x", "B1"));
+    assertFalse(index.subsumes("A", "C"));
+    assertFalse(index.subsumes("C", "B1"));
+  }
+
+  @Test
+  public void testHierarchyFilters() {
+    CodeSystem cs = makeCodeSystem();
+    CodeSystemUtilities.crossLinkCodeSystem(cs);
+    CodeSystemIndex index = CodeSystemIndex.get(cs);
+    ConceptDefinitionComponent a1 = index.findCode("A1");
+    ConceptDefinitionComponent b1 = index.findCode("B1");
+    assertTrue(index.passesHierarchyFilter(FilterOperator.ISA, a1, a1));
+    assertFalse(index.passesHierarchyFilter(FilterOperator.DESCENDENTOF, a1, a1));
+    assertTrue(index.passesHierarchyFilter(FilterOperator.DESCENDENTOF, a1, b1));
+    assertFalse(index.passesHierarchyFilter(FilterOperator.ISNOTA, a1, b1));
+    assertTrue(index.passesHierarchyFilter(FilterOperator.ISNOTA, a1, index.findCode("C")));
+    assertTrue(index.passesHierarchyFilter(FilterOperator.GENERALIZES, b1, index.findCode("A")));
+    assertFalse(index.passesHierarchyFilter(FilterOperator.GENERALIZES, b1, index.findCode("A1x")));
+  }
+
+  @Test
+  public void testInvalidate() {
+    CodeSystem cs = makeCodeSystem();
+    CodeSystemIndex index = CodeSystemIndex.get(cs);
+    cs.getConcept().get(0).addConcept().setCode("A2");
+    CodeSystemIndex.invalidate(cs);
+    assertNotSame(index, CodeSystemIndex.get(cs));
+    assertEquals("A2", CodeSystemIndex.get(cs).findCode("A2").getCode());
+    // a copy doesn't use the original's index
+    CodeSystem copy = cs.copy();
+    assertNotSame(CodeSystemIndex.get(cs).findCode("A2"), CodeSystemIndex.get(copy).findCode("A2"));
+    // changes aren't noticed until the index is invalidated
+    index = CodeSystemIndex.get(cs);
+    cs.addConcept().setCode("D");
+    assertSame(index, CodeSystemIndex.get(cs));
+    assertNull(CodeSystemIndex.get(cs).findCode("D"));
+    CodeSystemIndex.invalidate(cs);
+    assertEquals("D", CodeSystemIndex.get(cs).findCode("D").getCode());
+  }
+}
@@ -0,0 +1,136 @@
+package org.hl7.fhir.r5.terminologies;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.model.CodeType;
+import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.ConceptMap;
+import org.hl7.fhir.r5.model.ConceptMap.ConceptMapGroupComponent;
+import org.hl7.fhir.r5.model.ConceptMap.ConceptMapGroupUnmappedMode;
+import org.hl7.fhir.r5.model.ConceptMap.SourceElementComponent;
+import org.hl7.fhir.r5.model.DataType;
+import org.hl7.fhir.r5.model.Enumerations.ConceptMapRelationship;
+import org.junit.jupiter.api.Test;
+
+public class ConceptMapEngineTests {
+
+  private static final String MAP_URL = "http://example.org/ConceptMap/cm";
+  private static final String OTHER_MAP_URL = "http://example.org/ConceptMap/other";
+  private static final String SRC = "http://example.org/src";
+  private static final String TGT = "http://example.org/tgt";
+
+  private ConceptMap makeMap() {
+    ConceptMap cm = new ConceptMap();
+    cm.setUrl(MAP_URL);
+    ConceptMapGroupComponent g = cm.addGroup().setSource(SRC+"|1").setTarget(TGT);
+    g.addElement().setCode("a").addTarget().setCode("A").setRelationship(ConceptMapRelationship.EQUIVALENT);
+    SourceElementComponent e = g.addElement().setCode("b");
+    e.addTarget().setCode("B").setRelationship(ConceptMapRelationship.EQUIVALENT);
+    e.addTarget().setCode("B-red").setRelationship(ConceptMapRelationship.EQUIVALENT).addDependsOn().setAttribute("colour").setValue(new CodeType("red"));
+    g.addElement().setCode("c").setNoMap(true);
+    g.getUnmapped().setMode(ConceptMapGroupUnmappedMode.OTHERMAP).setOtherMap(OTHER_MAP_URL);
+    return cm;
+  }
+
+  private ConceptMap makeOtherMap() {
+    ConceptMap cm = new ConceptMap();
+    cm.setUrl(OTHER_MAP_URL);
+    ConceptMapGroupComponent g = cm.addGroup().setSource(SRC).setTarget(TGT);
+    g.addElement().setCode("d").addTarget().setCode("D").setRelationship(ConceptMapRelationship.EQUIVALENT);
+    g.getUnmapped().setMode(ConceptMapGroupUnmappedMode.USESOURCECODE);
+    return cm;
+  }
+
+  private ConceptMapEngine makeEngine(ConceptMap... maps) {
+    IWorkerContext context = mock(IWorkerContext.class);
+    for (ConceptMap cm : maps) {
+      when(context.fetchResource(ConceptMap.class, cm.getUrl())).thenReturn(cm);
+    }
+    return new ConceptMapEngine(context);
+  }
+
+  @Test
+  public void testTranslate() {
+    ConceptMapEngine engine = makeEngine(makeMap(), makeOtherMap());
+    assertEquals("A", engine.translate(new Coding(null, "a", null), MAP_URL).getCode());
+    Coding c = engine.translate(new Coding(SRC, "a", null), MAP_URL);
+    assertEquals(TGT, c.getSystem());
+    assertEquals("A", c.getCode());
+    assertNull(engine.translate(new Coding(SRC, "c", null), MAP_URL));
+  }
+
+  @Test
+  public void testDependsOn() {
+    ConceptMapEngine engine = makeEngine(makeMap(), makeOtherMap());
+    assertEquals("B", engine.translate(new Coding(SRC, "b", null), MAP_URL).getCode());
+    Map<String, DataType> props = new HashMap<>();
+    props.put("colour", new CodeType("red"));
+    assertEquals("B-red", engine.translate(new Coding(SRC, "b", null), MAP_URL, props).getCode());
+    props.put("colour", new CodeType("blue"));
+    assertEquals("B", engine.translate(new Coding(SRC, "b", null), MAP_URL, props).getCode());
+  }
+
+  @Test
+  public void testUnmapped() {
+    ConceptMapEngine engine = makeEngine(makeMap(), makeOtherMap());
+    // not in the first map, so it goes to the other map
+    assertEquals("D", engine.translate(new Coding(SRC, "d", null), MAP_URL).getCode());
+    // not in either map, so the other map uses the source code
+    Coding c = engine.translate(new Coding(SRC, "e", null), MAP_URL);
+    assertEquals(TGT, c.getSystem());
+    assertEquals("e", c.getCode());
+  }
+
+  @Test
+  public void testUnmappedLoop() {
+    ConceptMap cm = makeMap();
+    cm.getGroupFirstRep().getUnmapped().setOtherMap(MAP_URL);
+    ConceptMapEngine engine = makeEngine(cm);
+    assertThrows(FHIRException.class, () -> engine.translate(new Coding(SRC, "e", null), MAP_URL));
+  }
+
+  @Test
+  public void testBatch() {
+    ConceptMapEngine engine = makeEngine(makeMap(), makeOtherMap());
+    List<Coding> res = engine.translate(Arrays.asList(new Coding(SRC, "a", null), new Coding(SRC, "c", null), new Coding(SRC, "d", null)), MAP_URL);
+    assertEquals(3, res.size());
+    assertEquals("A", res.get(0).getCode());
+    assertNull(res.get(1));
+    assertEquals("D", res.get(2).getCode());
+  }
+
+  @Test
+  public void testIndex() {
+    ConceptMap cm = makeMap();
+    ConceptMapIndex index = ConceptMapIndex.get(cm);
+    assertEquals(1, index.findCode(SRC, "a").size());
+    assertEquals(1, index.findCode(SRC+"|1", "a").size());
+    assertEquals(1, index.findCode(null, "a").size());
+    assertEquals(0, index.findCode("http://example.org/other", "a").size());
+    assertSame(index, ConceptMapIndex.get(cm));
+    // a change to the elements of a group needs an explicit invalidate
+    cm.getGroupFirstRep().addElement().setCode("a");
+    ConceptMapIndex.invalidate(cm);
+    assertEquals(2, ConceptMapIndex.get(cm).findCode(SRC, "a").size());
+    // but a new group is noticed
+    cm.addGroup().setSource("http://example.org/other").addElement().setCode("a");
+    assertEquals(1, ConceptMapIndex.get(cm).findCode("http://example.org/other", "a").size());
+
+    // the exact source only matches groups with that source, version and all
+    assertEquals(0, index.findCodeInSource(SRC, "a").size());
+    assertEquals(1, index.findCodeInSource(SRC+"|1", "a").size());
+    assertEquals(1, index.findCodeInSource(null, "a").size());
+  }
+}
@@ -0,0 +1,62 @@
+package org.hl7.fhir.r5.terminologies;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.junit.jupiter.api.Test;
+
+public class ValueSetExpansionIndexTests {
+
+  private ValueSet makeValueSet() {
+    ValueSet vs = new ValueSet();
+    vs.setUrl("http://example.org/vs");
+    ValueSetExpansionContainsComponent a = vs.getExpansion().addContains().setSystem("http://example.org/cs").setVersion("1").setCode("A").setDisplay("A");
+    a.addContains().setSystem("http://example.org/cs").setVersion("1").setCode("A1").setDisplay("A one");
+    vs.getExpansion().addContains().setSystem("http://example.org/cs").setVersion("2").setCode("A1").setDisplay("A one (2)");
+    vs.getExpansion().addContains().setSystem("http://example.org/other").setCode("A").setDisplay("other A");
+    return vs;
+  }
+
+  @Test
+  public void testFindCode() {
+    ValueSet vs = makeValueSet();
+    ValueSetExpansionIndex index = ValueSetExpansionIndex.get(vs.getExpansion());
+    assertTrue(index.hasCode("http://example.org/cs", "A1"));
+    assertFalse(index.hasCode("http://example.org/cs", "a1"));
+    assertFalse(index.hasCode("http://example.org/other", "A1"));
+    assertFalse(index.hasCode(null, "A"));
+    // the first one, depth first, whatever the version
+    assertEquals("A one", index.findCode("http://example.org/cs", "A1").getDisplay());
+    assertEquals("other A", index.findCode("http://example.org/other", "A").getDisplay());
+    assertNull(index.findCode("http://example.org/other", null));
+    assertSame(index, ValueSetExpansionIndex.get(vs.getExpansion()));
+    assertTrue(ValueSetUtilities.hasCodeInExpansion(vs, new Coding("http://example.org/cs", "A1", null)));
+  }
+
+  @Test
+  public void testInvalidate() {
+    ValueSet vs = makeValueSet();
+    ValueSetExpansionIndex index = ValueSetExpansionIndex.get(vs.getExpansion());
+    vs.getExpansion().getContains().get(0).addContains().setSystem("http://example.org/cs").setCode("A2");
+    ValueSetExpansionIndex.invalidate(vs.getExpansion());
+    assertNotSame(index, ValueSetExpansionIndex.get(vs.getExpansion()));
+    assertTrue(ValueSetExpansionIndex.get(vs.getExpansion()).hasCode("http://example.org/cs", "A2"));
+    // changes aren't noticed until the index is invalidated
+    index = ValueSetExpansionIndex.get(vs.getExpansion());
+    vs.getExpansion().addContains().setSystem("http://example.org/cs").setCode("B");
+    assertSame(index, ValueSetExpansionIndex.get(vs.getExpansion()));
+    assertFalse(index.hasCode("http://example.org/cs", "B"));
+    ValueSetExpansionIndex.invalidate(vs.getExpansion());
+    assertTrue(ValueSetExpansionIndex.get(vs.getExpansion()).hasCode("http://example.org/cs", "B"));
+    // a copy doesn't use the original's index
+    ValueSet copy = vs.copy();
+    assertNotSame(ValueSetExpansionIndex.get(vs.getExpansion()).findCode("http://example.org/cs", "B"), ValueSetExpansionIndex.get(copy.getExpansion()).findCode("http://example.org/cs", "B"));
+  }
+}
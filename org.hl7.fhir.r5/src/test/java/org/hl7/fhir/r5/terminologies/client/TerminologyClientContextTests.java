@@ -0,0 +1,82 @@
+package org.hl7.fhir.r5.terminologies.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
+import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.junit.jupiter.api.Test;
+
+public class TerminologyClientContextTests {
+
+  @Test
+  public void testServerRequestsCoalesced() throws InterruptedException {
+    TerminologyCache.CacheToken cacheToken = mock(TerminologyCache.CacheToken.class);
+    doReturn("dummyIdentity").when(cacheToken).getIdentity();
+
+    // counted down when a request finds the same one already being made
+    CountDownLatch joined = new CountDownLatch(1);
+    ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<String, CompletableFuture<Object>>() {
+      @Override
+      public CompletableFuture<Object> putIfAbsent(String key, CompletableFuture<Object> value) {
+        CompletableFuture<Object> existing = super.putIfAbsent(key, value);
+        if (existing != null) {
+          joined.countDown();
+        }
+        return existing;
+      }
+    };
+    TerminologyClientContext terminologyClientContext = new TerminologyClientContext(mock(ITerminologyClient.class), "dummy", true, inFlight);
+
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    ValidationResult serverResult = new ValidationResult(ValidationMessage.IssueSeverity.ERROR, "dummyError", null);
+    Supplier<ValidationResult> request = () -> {
+      calls.incrementAndGet();
+      started.countDown();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return serverResult;
+    };
+
+    ValidationResult[] results = new ValidationResult[2];
+    Thread first = new Thread(() -> results[0] = terminologyClientContext.coalesce(cacheToken, request, ValidationResult::copy));
+    first.start();
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    Thread second = new Thread(() -> results[1] = terminologyClientContext.coalesce(cacheToken, request, ValidationResult::copy));
+    second.start();
+    assertTrue(joined.await(10, TimeUnit.SECONDS));
+    release.countDown();
+    first.join(10000);
+    second.join(10000);
+    assertFalse(first.isAlive());
+    assertFalse(second.isAlive());
+
+    assertEquals(1, calls.get());
+    assertTrue(inFlight.isEmpty());
+    assertSame(serverResult, results[0]);
+    // the waiting thread gets its own copy, so the first thread changing its result doesn't change it
+    assertNotSame(serverResult, results[1]);
+    assertEquals("dummyError", results[1].getMessage());
+    results[0].setDiagnostics("dummyDiagnostics");
+    assertNull(results[1].getDiagnostics());
+  }
+}
@@ -0,0 +1,152 @@
+package org.hl7.fhir.r5.terminologies.expansion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.model.BooleanType;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r5.model.CodeSystem.PropertyType;
+import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.Enumerations.CodeSystemContentMode;
+import org.hl7.fhir.r5.model.Enumerations.FilterOperator;
+import org.hl7.fhir.r5.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyOperationContext;
+import org.hl7.fhir.r5.terminologies.validation.ValueSetValidator;
+import org.hl7.fhir.utilities.validation.ValidationOptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ValueSetExpanderTests {
+
+  private static final String SYSTEM = "http://example.org/cs";
+
+  private SimpleWorkerContext context;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    CodeSystem cs = new CodeSystem();
+    cs.setUrl(SYSTEM);
+    cs.setVersion("1.0.0");
+    cs.setStatus(PublicationStatus.ACTIVE);
+    cs.setContent(CodeSystemContentMode.COMPLETE);
+    cs.addProperty().setCode("notSelectable").setType(PropertyType.BOOLEAN);
+    for (int i = 0; i < 10; i++) {
+      ConceptDefinitionComponent cc = cs.addConcept().setCode("c"+i).setDisplay("c"+i+" display");
+      if (i == 5) {
+        cc.addProperty().setCode("notSelectable").setValue(new BooleanType(true));
+      }
+    }
+    cs.getConceptFirstRep().addConcept().setCode("c0a").setDisplay("c0a display");
+    context = new SimpleWorkerContext.SimpleWorkerContextBuilder().fromNothing();
+    context.cacheResource(cs);
+  }
+
+  private ValueSet makeValueSet() {
+    ValueSet vs = new ValueSet();
+    vs.setUrl("http://example.org/vs");
+    vs.setStatus(PublicationStatus.ACTIVE);
+    vs.getCompose().addInclude().setSystem(SYSTEM);
+    return vs;
+  }
+
+  private ValueSetExpander makeExpander() {
+    return new ValueSetExpander(context, new TerminologyOperationContext(context, ValidationOptions.defaults()));
+  }
+
+  private Parameters makeParams(boolean excludeNotForUI, int offset, int count) {
+    Parameters p = new Parameters();
+    p.addParameter("excludeNested", true);
+    p.addParameter("excludeNotForUI", excludeNotForUI);
+    if (count > 0) {
+      p.addParameter("offset", offset);
+      p.addParameter("count", count);
+    }
+    return p;
+  }
+
+  private List<String> codes(List<ValueSetExpansionContainsComponent> list) {
+    List<String> res = new ArrayList<>();
+    for (ValueSetExpansionContainsComponent c : list) {
+      res.add(c.getCode());
+    }
+    return res;
+  }
+
+  @Test
+  public void testPaging() {
+    for (boolean excludeNotForUI : new boolean[] { false, true }) {
+      ValueSetExpansionOutcome all = makeExpander().expand(makeValueSet(), makeParams(excludeNotForUI, 0, 0));
+      assertTrue(all.isOk());
+      List<String> allCodes = codes(all.getValueset().getExpansion().getContains());
+      assertEquals(excludeNotForUI ? 10 : 11, allCodes.size());
+
+      // a page is the same part of the flat expansion that it always was, and the total is still the whole expansion
+      int[][] pages = { { 0, 3 }, { 3, 3 }, { 9, 5 }, { 20, 2 } };
+      for (int[] page : pages) {
+        ValueSetExpansionOutcome vso = makeExpander().expand(makeValueSet(), makeParams(excludeNotForUI, page[0], page[1]));
+        assertTrue(vso.isOk());
+        List<String> expected = allCodes.subList(Math.min(page[0], allCodes.size()), Math.min(page[0] + page[1], allCodes.size()));
+        assertEquals(expected, codes(vso.getValueset().getExpansion().getContains()));
+        assertEquals(all.getValueset().getExpansion().getTotal(), vso.getValueset().getExpansion().getTotal());
+        assertEquals(page[0], vso.getValueset().getExpansion().getOffset());
+      }
+    }
+  }
+
+  @Test
+  public void testConsumer() {
+    List<String> seen = new ArrayList<>();
+    ValueSetExpansionOutcome vso = makeExpander().expand(makeValueSet(), makeParams(false, 0, 0), c -> {
+      seen.add(c.getCode());
+      return true;
+    });
+    assertTrue(vso.isOk());
+    assertEquals(codes(makeExpander().expand(makeValueSet(), makeParams(false, 0, 0)).getValueset().getExpansion().getContains()), seen);
+    assertEquals(seen.size(), vso.getValueset().getExpansion().getTotal());
+    assertFalse(vso.getValueset().getExpansion().hasContains());
+  }
+
+  @Test
+  public void testConsumerStops() {
+    List<String> seen = new ArrayList<>();
+    ValueSetExpansionOutcome vso = makeExpander().expand(makeValueSet(), makeParams(false, 0, 0), c -> {
+      seen.add(c.getCode());
+      return seen.size() < 3;
+    });
+    // no more concepts once the consumer says stop, and the total isn't known
+    assertTrue(vso.isOk());
+    assertEquals(3, seen.size());
+    assertFalse(vso.getValueset().getExpansion().hasTotal());
+    assertFalse(vso.getValueset().getExpansion().hasContains());
+  }
+
+  @Test
+  public void testHasCode() {
+    assertEquals(Boolean.TRUE, makeExpander().hasCode(makeValueSet(), null, SYSTEM, "c7"));
+    assertEquals(Boolean.TRUE, makeExpander().hasCode(makeValueSet(), null, null, "c0a"));
+    assertEquals(Boolean.FALSE, makeExpander().hasCode(makeValueSet(), null, SYSTEM, "c99"));
+    assertEquals(Boolean.FALSE, makeExpander().hasCode(makeValueSet(), null, "http://example.org/other", "c7"));
+  }
+
+  @Test
+  public void testValidatorUsesExpansionForFilters() {
+    // the validator can't check display filters itself, so it asks the expander whether the filter has the code
+    ValueSet vs = makeValueSet();
+    vs.getCompose().getIncludeFirstRep().addFilter().setProperty("display").setOp(FilterOperator.EQUAL).setValue("c3");
+    ValidationOptions options = ValidationOptions.defaults().withNoServer();
+    ValueSetValidator vsv = new ValueSetValidator(context, new TerminologyOperationContext(context, options), options, vs, null, context.getTxClientManager());
+    assertTrue(vsv.validateCode("Coding", new Coding(SYSTEM, "c3", null)).isOk());
+    vsv = new ValueSetValidator(context, new TerminologyOperationContext(context, options), options, vs, null, context.getTxClientManager());
+    assertFalse(vsv.validateCode("Coding", new Coding(SYSTEM, "c4", null)).isOk());
+  }
+}
@@ -3,6 +3,14 @@ package org.hl7.fhir.r5.test;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.hl7.fhir.r5.context.CanonicalResourceManager;
 import org.hl7.fhir.r5.context.CanonicalResourceManager.CanonicalResourceProxy;
@@ -927,4 +935,260 @@ public class CanonicalResourceManagerTests {
     sl = mrm.getSupplements("http://url/CodeSystem/s234");
     Assertions.assertEquals(0, sl.size());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testDeferredLoadConcurrent() throws Exception {
+    CanonicalResourceManager<ValueSet> mrm = new CanonicalResourceManager<>(false, false);
+    ValueSet vs = new ValueSet();
+    vs.setId("2345");
+    vs.setUrl("http://url/ValueSet/234");
+    vs.setVersion("4.0.1");
+    AtomicInteger loads = new AtomicInteger();
+    mrm.register(new DeferredLoadTestResource(vs) {
+      @Override
+      public CanonicalResource loadResource() {
+        loads.incrementAndGet();
+        return super.loadResource();
+      }
+    }, null);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<ValueSet>> futures = new ArrayList<>();
+      for (int i = 0; i < 64; i++) {
+        futures.add(executor.submit(() -> mrm.get("http://url/ValueSet/234")));
+      }
+      for (Future<ValueSet> f : futures) {
+        Assertions.assertSame(vs, f.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    Assertions.assertEquals(1, loads.get());
+    Assertions.assertEquals("http://url/ValueSet/234", mrm.getCachedList().get(0).getUrl());
+  }
+
+  @Test
+  public void testMinimalMemory() {
+    CanonicalResourceManager<ValueSet> mrm = new CanonicalResourceManager<>(false, true);
+    ValueSet vs = new ValueSet();
+    vs.setId("2345");
+    vs.setUrl("http://url/ValueSet/234");
+    vs.setVersion("4.0.1");
+    DeferredLoadTestResource vsd = new DeferredLoadTestResource(vs);
+    mrm.register(vsd, null);
+    Assertions.assertTrue(vsd.isEvictable());
+
+    Assertions.assertNotNull(mrm.get("http://url/ValueSet/234"));
+    Assertions.assertNotNull(mrm.get("http://url/ValueSet/234", "4.0"));
+    Assertions.assertEquals(1, mrm.getStatistics().getMisses());
+    Assertions.assertEquals(1, mrm.getStatistics().getHits() + mrm.getStatistics().getEvictions());
+  }
+
+  @Test
+  public void testMinimalMemoryEviction() {
+    CanonicalResourceManager<ValueSet> mrm = new CanonicalResourceManager<>(false, true);
+    ValueSet vs = new ValueSet();
+    vs.setId("2345");
+    vs.setUrl("http://url/ValueSet/234");
+    vs.setVersion("4.0.1");
+    AtomicInteger loads = new AtomicInteger();
+    DeferredLoadTestResource vsd = new DeferredLoadTestResource(vs) {
+      @Override
+      public CanonicalResource loadResource() {
+        loads.incrementAndGet();
+        return vs.copy();
+      }
+    };
+    mrm.register(vsd, null);
+
+    ValueSet first = mrm.get("http://url/ValueSet/234");
+    Assertions.assertSame(first, mrm.get("http://url/ValueSet/234"));
+    Assertions.assertEquals(1, loads.get());
+    Assertions.assertEquals(1, mrm.getStatistics().getMisses());
+    Assertions.assertEquals(1, mrm.getStatistics().getHits());
+    Assertions.assertEquals(0, mrm.getStatistics().getEvictions());
+
+    // once evicted, it's parsed again
+    first.setUserData("index", "x");
+    vsd.evict();
+    ValueSet second = mrm.get("http://url/ValueSet/234");
+    Assertions.assertNotSame(first, second);
+    Assertions.assertFalse(second.hasUserData("index"));
+    Assertions.assertEquals(2, loads.get());
+    Assertions.assertEquals(2, mrm.getStatistics().getMisses());
+    Assertions.assertEquals(1, mrm.getStatistics().getEvictions());
+
+    // switching it off keeps the parsed resource, and it can't be evicted any more
+    mrm.setMinimalMemory(false);
+    Assertions.assertFalse(vsd.isEvictable());
+    vsd.evict();
+    Assertions.assertSame(second, mrm.get("http://url/ValueSet/234"));
+    Assertions.assertEquals(2, loads.get());
+    Assertions.assertEquals(2, mrm.getStatistics().getMisses());
+
+    // and switching it back on lets it go again
+    mrm.setMinimalMemory(true);
+    Assertions.assertTrue(vsd.isEvictable());
+    vsd.evict();
+    Assertions.assertNotSame(second, mrm.get("http://url/ValueSet/234"));
+    Assertions.assertEquals(3, loads.get());
+  }
+
+  @Test
+  public void testLayered() {
+    CanonicalResourceManager<ValueSet> base = new CanonicalResourceManager<>(true, false);
+    ValueSet vs1 = new ValueSet();
+    vs1.setId("2345");
+    vs1.setUrl("http://url/ValueSet/234");
+    vs1.setVersion("4.0.1");
+    base.see(vs1, null);
+    ValueSet vs2 = new ValueSet();
+    vs2.setId("2346");
+    vs2.setUrl("http://url/ValueSet/235");
+    base.see(vs2, null);
+
+    CanonicalResourceManager<ValueSet> mrm = new CanonicalResourceManager<>(true, false);
+    mrm.layerOver(base);
+    Assertions.assertEquals(2, mrm.size());
+    Assertions.assertNotNull(mrm.get("2345"));
+    Assertions.assertNotNull(mrm.get("http://url/ValueSet/234", "4.0"));
+
+    // a later version in the layer is visible in the layer, but not the base 
+    ValueSet vs3 = new ValueSet();
+    vs3.setId("2347");
+    vs3.setUrl("http://url/ValueSet/234");
+    vs3.setVersion("4.0.2");
+    mrm.see(vs3, null);
+    Assertions.assertEquals(3, mrm.size());
+    Assertions.assertEquals("4.0.2", mrm.get("http://url/ValueSet/234").getVersion());
+    Assertions.assertEquals("4.0.2", mrm.get("http://url/ValueSet/234", "4.0").getVersion());
+    Assertions.assertEquals(2, mrm.getForUrl("http://url/ValueSet/234").size());
+    Assertions.assertEquals(2, base.size());
+    Assertions.assertEquals("4.0.1", base.get("http://url/ValueSet/234").getVersion());
+    Assertions.assertNull(base.get("2347"));
+
+    // dropping from the layer hides the base resource from the layer only
+    mrm.drop("2346");
+    Assertions.assertNull(mrm.get("http://url/ValueSet/235"));
+    Assertions.assertEquals(2, mrm.size());
+    Assertions.assertEquals(2, mrm.getList().size());
+    Assertions.assertNotNull(base.get("http://url/ValueSet/235"));
+
+    mrm.drop("2347");
+    Assertions.assertEquals("4.0.1", mrm.get("http://url/ValueSet/234").getVersion());
+    Assertions.assertEquals(1, mrm.size());
+
+    // clearing the layer drops the layer's changes, and leaves the base as it was
+    mrm.see(vs3, null);
+    mrm.clear();
+    Assertions.assertTrue(mrm.isLayered());
+    Assertions.assertEquals(2, mrm.size());
+    Assertions.assertEquals("4.0.1", mrm.get("http://url/ValueSet/234").getVersion());
+    Assertions.assertNotNull(mrm.get("http://url/ValueSet/235"));
+    Assertions.assertNull(mrm.get("2347"));
+    Assertions.assertEquals(2, base.size());
+  }
+
+  @Test
+  public void testLayeredReadsUnderBaseLock() throws Exception {
+    CanonicalResourceManager<ValueSet> base = new CanonicalResourceManager<>(true, false);
+    ReadWriteLock lock = new ReentrantReadWriteLock();
+    base.setLock(lock);
+    ValueSet vs = new ValueSet();
+    vs.setId("2345");
+    vs.setUrl("http://url/ValueSet/234");
+    base.see(vs, null);
+    CanonicalResourceManager<ValueSet> mrm = new CanonicalResourceManager<>(true, false);
+    mrm.layerOver(base);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    lock.writeLock().lock();
+    Future<ValueSet> f;
+    try {
+      // while the base is being changed, a read through the layer waits
+      f = executor.submit(() -> mrm.get("http://url/ValueSet/234"));
+      Assertions.assertThrows(TimeoutException.class, () -> f.get(200, TimeUnit.MILLISECONDS));
+    } finally {
+      lock.writeLock().unlock();
+    }
+    try {
+      Assertions.assertSame(vs, f.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testLayeredSupplements() {
+    CanonicalResourceManager<CodeSystem> base = new CanonicalResourceManager<>(true, false);
+    CodeSystem css1 = new CodeSystem();
+    css1.setId("s2345");
+    css1.setUrl("http://url/CodeSystem/s234");
+    css1.setVersion("4.0.1");
+    css1.setSupplements("http://url/CodeSystem/234");
+    base.see(css1, null);
+
+    CanonicalResourceManager<CodeSystem> mrm = new CanonicalResourceManager<>(true, false);
+    mrm.layerOver(base);
+    Assertions.assertEquals(1, mrm.getSupplements("http://url/CodeSystem/234").size());
+
+    // a supplement added to the layer doesn't hide the one in the base
+    CodeSystem css2 = new CodeSystem();
+    css2.setId("s2346");
+    css2.setUrl("http://url/CodeSystem/s235");
+    css2.setVersion("4.0.1");
+    css2.setSupplements("http://url/CodeSystem/234");
+    mrm.see(css2, null);
+    Assertions.assertEquals(2, mrm.getSupplements("http://url/CodeSystem/234").size());
+    Assertions.assertEquals(1, base.getSupplements("http://url/CodeSystem/234").size());
+
+    mrm.drop("s2345");
+    List<CodeSystem> sl = mrm.getSupplements("http://url/CodeSystem/234");
+    Assertions.assertEquals(1, sl.size());
+    Assertions.assertEquals("s2346", sl.get(0).getId());
+    Assertions.assertEquals(1, base.getSupplements("http://url/CodeSystem/234").size());
+
+    mrm.drop("s2346");
+    Assertions.assertEquals(0, mrm.getSupplements("http://url/CodeSystem/234").size());
+    Assertions.assertEquals(1, base.getSupplements("http://url/CodeSystem/234").size());
+  }
+
+  @Test
+  public void testLayeredDropThrough() {
+    CanonicalResourceManager<ValueSet> base = new CanonicalResourceManager<>(false, false);
+    ValueSet vs1 = new ValueSet();
+    vs1.setId("2345");
+    vs1.setUrl("http://url/ValueSet/234");
+    vs1.setVersion("4.0.1");
+    base.see(vs1, null);
+
+    CanonicalResourceManager<ValueSet> mrm = new CanonicalResourceManager<>(false, false);
+    mrm.layerOver(base);
+
+    // the same id again in the layer (allowed, since ids aren't unique). Dropping the id drops both
+    ValueSet vs2 = new ValueSet();
+    vs2.setId("2345");
+    vs2.setUrl("http://url/ValueSet/234");
+    vs2.setVersion("4.0.2");
+    mrm.see(vs2, null);
+    Assertions.assertEquals(2, mrm.size());
+    Assertions.assertTrue(mrm.keys().contains("http://url/ValueSet/234|4.0.1"));
+    Assertions.assertTrue(mrm.keys().contains("http://url/ValueSet/234|4.0.2"));
+
+    mrm.drop("2345");
+    Assertions.assertEquals(0, mrm.size());
+    Assertions.assertNull(mrm.get("2345"));
+    Assertions.assertNull(mrm.get("http://url/ValueSet/234"));
+    Assertions.assertNull(mrm.get("http://url/ValueSet/234", "4.0.1"));
+    Assertions.assertFalse(mrm.keys().contains("2345"));
+    Assertions.assertFalse(mrm.keys().contains("http://url/ValueSet/234"));
+    Assertions.assertFalse(mrm.keys().contains("http://url/ValueSet/234|4.0.1"));
+    Assertions.assertFalse(mrm.keys().contains("http://url/ValueSet/234|4.0.2"));
+
+    // the base is unchanged
+    Assertions.assertEquals(1, base.size());
+    Assertions.assertEquals("4.0.1", base.get("http://url/ValueSet/234").getVersion());
+    Assertions.assertTrue(base.keys().contains("http://url/ValueSet/234|4.0.1"));
+  }
+}
@@ -15,6 +15,7 @@ import org.hl7.fhir.r5.elementmodel.Manager;
 import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.fhirpath.FHIRPathExpressionCache;
 import org.hl7.fhir.r5.fhirpath.TypeDetails;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine.IEvaluationContext;
 import org.hl7.fhir.r5.fhirpath.FHIRPathUtilityClasses.FunctionDetails;
@@ -226,13 +227,16 @@ public class FHIRPathTests {
     
     if (node != null) {
       try {
+        Base focus;
         if ("element".equals(test.getAttribute("mode"))) {
           List<ValidatedFragment> e = Manager.parse(fp.getWorker(), TestingUtilities.loadTestResourceStream("r5", input), input.endsWith(".json") ? FhirFormat.JSON : FhirFormat.XML);                        
-          outcome = fp.evaluate(e.get(0).getElement(), node);
+          focus = e.get(0).getElement();
         } else {
-          outcome = fp.evaluate(res, node);
+          focus = res;
         }
+        outcome = fp.evaluate(focus, node);
         Assertions.assertTrue(fail == TestResultType.OK, String.format("Expected exception didn't occur executing %s", expression));
+        checkCompiled(focus, node, outcome, expression);
       } catch (Exception e) {
         System.out.println("Execution Error: "+e.getMessage());
         Assertions.assertTrue(fail == TestResultType.EXECUTION, String.format("Unexpected exception executing %s: " + e.getMessage(), expression));
@@ -298,6 +302,19 @@ public class FHIRPathTests {
     }
   }
 
+  // the compiled form of the expression must give the same answer as the interpreter 
+  private void checkCompiled(Base focus, ExpressionNode node, List<Base> outcome, String expression) {
+    if (expression.contains("now()") || expression.contains("today()") || expression.contains("timeOfDay()")) {
+      return; // might not be the same a moment later
+    }
+    Base r = focus != null && focus.isResource() ? focus : null;
+    List<Base> compiled = fp.evaluate(null, r, r, focus, fp.compile(node));
+    assertEquals(outcome.size(), compiled.size(), String.format("Compiled expression found %d objects not %d for expression %s", compiled.size(), outcome.size(), expression));
+    for (int i = 0; i < outcome.size(); i++) {
+      Assertions.assertTrue(outcome.get(i) == compiled.get(i) || outcome.get(i).equalsDeep(compiled.get(i)), String.format("Compiled outcome %d: %s should be %s for expression %s", i, compiled.get(i), outcome.get(i), expression));
+    }
+  }
+
   @Test
   @DisplayName("resolveConstant returns a list of Base")
   public void resolveConstantReturnsList() {
@@ -329,4 +346,18 @@ public class FHIRPathTests {
     assertEquals(1, results.size());
     assertEquals("123", results.get(0).toString());
   }
+
+  @Test
+  public void testParseCacheSharedAcrossEngines() {
+    String expr = "Patient.name.where(use = 'official').given.first()";
+    FHIRPathEngine other = new FHIRPathEngine(TestingUtilities.getSharedWorkerContext());
+    ExpressionNode n1 = fp.parse(expr);
+    long hits = FHIRPathExpressionCache.getHits();
+    ExpressionNode n2 = other.parse(expr);
+    Assertions.assertSame(n1, n2);
+    Assertions.assertTrue(FHIRPathExpressionCache.getHits() > hits);
+
+    other.setAllowDoubleQuotes(!fp.isAllowDoubleQuotes());
+    Assertions.assertNotSame(n1, other.parse(expr));
+  }
 }
\ No newline at end of file
@@ -10,7 +10,11 @@ import org.hl7.fhir.r5.elementmodel.Manager;
 import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
 import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.r5.model.CodeType;
 import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.ConceptMap;
+import org.hl7.fhir.r5.model.ConceptMap.ConceptMapGroupComponent;
+import org.hl7.fhir.r5.model.Enumerations.ConceptMapRelationship;
 import org.hl7.fhir.r5.model.StructureMap;
 import org.hl7.fhir.r5.model.StructureMap.StructureMapGroupRuleTargetComponent;
 import org.hl7.fhir.r5.test.utils.TestingUtilities;
@@ -107,6 +111,28 @@ public class StructureMapUtilitiesTest implements ITransformerServices {
     Assertions.assertEquals("-backtick", structureMap.getGroup().get(0).getRule().get(2).getSourceFirstRep().getElement());
   }
 
+  @Test
+  public void testTranslateSourceSystem() throws FHIRException {
+    StructureMapUtilities scu = new StructureMapUtilities(context, this);
+    StructureMap map = new StructureMap();
+    map.setUrl("http://example.org/StructureMap/translate");
+    ConceptMap cm = new ConceptMap();
+    cm.setId("cm");
+    ConceptMapGroupComponent g = cm.addGroup().setSource("http://example.org/src|1").setTarget("http://example.org/tgt");
+    g.addElement().setCode("a").addTarget().setCode("A").setRelationship(ConceptMapRelationship.EQUIVALENT);
+    g = cm.addGroup().setSource("http://example.org/src").setTarget("http://example.org/tgt");
+    g.addElement().setCode("b").addTarget().setCode("B").setRelationship(ConceptMapRelationship.EQUIVALENT);
+    map.addContained(cm);
+
+    // a system only matches a group with exactly that source, so an unversioned system doesn't match a versioned group
+    Assertions.assertNull(scu.translate(null, map, new Coding("http://example.org/src", "a", null), "#cm", "code"));
+    Assertions.assertEquals("A", scu.translate(null, map, new Coding("http://example.org/src|1", "a", null), "#cm", "code").primitiveValue());
+    Assertions.assertEquals("B", scu.translate(null, map, new Coding("http://example.org/src", "b", null), "#cm", "code").primitiveValue());
+    Assertions.assertNull(scu.translate(null, map, new Coding("http://example.org/src|1", "b", null), "#cm", "code"));
+    // with no system, the code matches in any group
+    Assertions.assertEquals("A", scu.translate(null, map, new CodeType("a"), "#cm", "code").primitiveValue());
+  }
+
   @Override
   public void log(String message) {
   }
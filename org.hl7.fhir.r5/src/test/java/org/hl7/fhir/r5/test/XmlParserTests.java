@@ -1,18 +1,25 @@
 package org.hl7.fhir.r5.test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import org.hl7.fhir.r5.context.ContextUtilities;
 import org.hl7.fhir.r5.context.SimpleWorkerContext;
 import org.hl7.fhir.r5.elementmodel.Element;
 import org.hl7.fhir.r5.elementmodel.Manager;
 import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.elementmodel.ParserBase.ValidationPolicy;
+import org.hl7.fhir.r5.elementmodel.ValidatedFragment;
+import org.hl7.fhir.r5.elementmodel.XmlParser;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
 import org.hl7.fhir.r5.formats.IParser.OutputStyle;
 import org.hl7.fhir.r5.model.StructureDefinition;
 import org.hl7.fhir.r5.test.utils.TestingUtilities;
 import org.hl7.fhir.utilities.npm.FilesystemPackageCacheManager;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -62,4 +69,53 @@ public class XmlParserTests {
     Assertions.assertTrue(cdaSerialised.indexOf("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"")>0);
     Assertions.assertTrue(cdaSerialised.indexOf("xsi:type=\"CD\"")>0);
   }
-} 
\ No newline at end of file
+
+  @Test
+  public void testStreamParse() throws IOException {
+    String src = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"+
+        "<!-- before -->\n"+
+        "<Patient xmlns=\"http://hl7.org/fhir\">\n"+
+        "  <id value=\"pat1\"/>\n"+
+        "  <!-- the name -->\n"+
+        "  <name>\n"+
+        "    <family value=\"Smith\"/>\n"+
+        "    <given value=\"John\"/>\n"+
+        "    <given value=\"Q\"/>\n"+
+        "  </name>\n"+
+        "  <gender/>\n"+
+        "  <unknown value=\"x\"/>\n"+
+        "  <text><status value=\"generated\"/><div xmlns=\"http://www.w3.org/1999/xhtml\"><p>John <b>Smith</b></p></div></text>\n"+
+        "</Patient>";
+    XmlParser xp = new XmlParser(context);
+    xp.setupValidation(ValidationPolicy.EVERYTHING);
+    List<ValidatedFragment> res = xp.parse(new ByteArrayInputStream(src.getBytes(StandardCharsets.UTF_8)));
+    Element e = res.get(0).getElement();
+    List<ValidationMessage> errors = res.get(0).getErrors();
+
+    Assertions.assertEquals("Patient", e.fhirType());
+    Assertions.assertEquals(3, e.line());
+    Assertions.assertEquals("pat1", e.getNamedChildValue("id"));
+    Assertions.assertEquals("before", e.getComments().get(0).trim());
+    Element name = e.getNamedChild("name");
+    Assertions.assertEquals(6, name.line());
+    Assertions.assertEquals("the name", name.getComments().get(0).trim());
+    Assertions.assertEquals(2, name.getChildren("given").size());
+    Assertions.assertEquals("Q", name.getChildren("given").get(1).primitiveValue());
+    Assertions.assertTrue(e.getNamedChild("text").getNamedChild("div").getXhtml().allText().contains("John Smith"));
+
+    Assertions.assertEquals(2, errors.size());
+    Assertions.assertEquals(11, errors.get(0).getLine()); // empty gender
+    Assertions.assertEquals(12, errors.get(1).getLine()); // unknown element
+  }
+
+  @Test
+  public void testStreamParseNotWellFormed() throws IOException {
+    String src = "<Patient xmlns=\"http://hl7.org/fhir\">\n  <id value=\"pat1\"/>\n  <active value=\"true\">\n</Patient>";
+    XmlParser xp = new XmlParser(context);
+    xp.setupValidation(ValidationPolicy.EVERYTHING);
+    List<ValidatedFragment> res = xp.parse(new ByteArrayInputStream(src.getBytes(StandardCharsets.UTF_8)));
+    Assertions.assertNull(res.get(0).getElement());
+    Assertions.assertEquals(1, res.get(0).getErrors().size());
+    Assertions.assertEquals(4, res.get(0).getErrors().get(0).getLine());
+  }
+}
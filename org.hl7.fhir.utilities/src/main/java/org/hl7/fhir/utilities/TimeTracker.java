@@ -37,19 +37,45 @@ public class TimeTracker {
   }
 
   public Session start(String name) {
-    Counter c = null;
+    counter(name);
+    Session session = new Session(name);
+    sessions.add(session);
+    return session;
+  }
+
+  private Counter counter(String name) {
     for (Counter t : records) {
       if (t.name.equals(name)) {
-        c = t;
+        return t;
       }
     }
-    if (c == null) {
-      c = new Counter(name);
-      records.add(c);
+    Counter c = new Counter(name);
+    records.add(c);
+    return c;
+  }
+
+  /**
+   * Add the times recorded by another tracker to this one (e.g. from a tracker used by a worker thread, 
+   * since a tracker can't be used by more than one thread at once)
+   */
+  public void add(TimeTracker other) {
+    for (Counter t : other.records) {
+      Counter c = counter(t.name);
+      c.count = c.count + t.count;
+      c.length = c.length + t.length;
+    }
+  }
+
+  /**
+   * @return the number of sessions with the name that have ended
+   */
+  public int count(String name) {
+    for (Counter t : records) {
+      if (t.name.equals(name)) {
+        return t.count;
+      }
     }
-    Session session = new Session(name);
-    sessions.add(session);
-    return session;
+    return 0;
   }
 
   private void endSession(Session session) {
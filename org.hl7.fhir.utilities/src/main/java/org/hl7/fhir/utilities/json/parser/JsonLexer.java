@@ -1,6 +1,7 @@
 package org.hl7.fhir.utilities.json.parser;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
@@ -37,6 +38,8 @@ public class JsonLexer {
   
   private String source;
   private int cursor;
+  private Reader reader; // if the source is being streamed, rather than a string
+  private boolean eof;
   private String peek;
   private String value;
   private TokenType type;
@@ -60,8 +63,38 @@ public class JsonLexer {
     start();
   }
 
+  /**
+   * Read the JSON from a stream of characters, rather than a string, so that the source
+   * doesn't all have to be in memory at once. Byte order marks are skipped wherever they
+   * are (as they are removed from string sources)
+   */
+  public JsonLexer(Reader reader, boolean allowComments, boolean allowUnquotedStrings) throws IOException {
+    this.reader = reader;
+    this.allowComments = allowComments;
+    this.allowUnquotedStrings = allowUnquotedStrings;
+    cursor = -1;
+    location = new JsonLocationData(1, 1);  
+    start();
+  }
+
   private boolean more() {
-    return peek != null || cursor < source.length(); 
+    return peek != null || (reader == null ? cursor < source.length() : !eof); 
+  }
+
+  private int readChar() throws IOException {
+    if (eof) {
+      return -1;
+    }
+    int c;
+    do {
+      c = reader.read();
+    } while (c == '\uFEFF');
+    if (c == -1) {
+      eof = true;
+    } else {
+      cursor++;
+    }
+    return c;
   }
 
   private String getNext(int length) throws IOException {
@@ -77,10 +110,22 @@ public class JsonLexer {
     }
     if (result.length() < length) {
       int len = length - result.length(); 
-      if (cursor > source.length() - len) 
-        throw error("Attempt to read past end of source");
-      result = result + source.substring(cursor+1, cursor+len+1);
-      cursor = cursor + len;
+      if (reader != null) {
+        StringBuilder b = new StringBuilder(result);
+        for (int i = 0; i < len; i++) {
+          int c = readChar();
+          if (c == -1) {
+            throw error("Attempt to read past end of source");
+          }
+          b.append((char) c);
+        }
+        result = b.toString();
+      } else {
+        if (cursor > source.length() - len) 
+          throw error("Attempt to read past end of source");
+        result = result + source.substring(cursor+1, cursor+len+1);
+        cursor = cursor + len;
+      }
     }
     for (char ch : result.toCharArray())
       if (ch == '\n')
@@ -95,6 +140,9 @@ public class JsonLexer {
     if (peek != null) {
       ch = peek.charAt(0);
       peek = peek.length() == 1 ? null : peek.substring(1);
+    } else if (reader != null) {
+      int c = readChar();
+      ch = c == -1 ? 0 : (char) c;
     } else {
       cursor++;
       if (cursor >= source.length()) {
@@ -1,10 +1,14 @@
 package org.hl7.fhir.utilities.json.parser;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
@@ -53,11 +57,11 @@ import org.hl7.fhir.utilities.json.parser.JsonLexer.TokenType;
 public class JsonParser {
 
   public static JsonObject parseObject(InputStream stream) throws IOException, JsonException {
-    return new JsonParser().parseJsonObject(TextFile.streamToString(stream), false, false);
+    return new JsonParser().parseJsonObject(reader(stream), false, false);
   }
   
   public static JsonObject parseObject(byte[] content) throws IOException, JsonException {
-    return new JsonParser().parseJsonObject(TextFile.bytesToString(content), false, false);
+    return new JsonParser().parseJsonObject(reader(content), false, false);
   }
 
   public static JsonObject parseObject(String source) throws IOException, JsonException {
@@ -80,11 +84,11 @@ public class JsonParser {
   }
   
   public static JsonObject parseObject(InputStream stream, boolean isJson5) throws IOException, JsonException {
-    return new JsonParser().parseJsonObject(TextFile.streamToString(stream), isJson5, false);
+    return new JsonParser().parseJsonObject(reader(stream), isJson5, false);
   }
   
   public static JsonObject parseObject(byte[] content, boolean isJson5) throws IOException, JsonException {
-    return new JsonParser().parseJsonObject(TextFile.bytesToString(content), isJson5, false);
+    return new JsonParser().parseJsonObject(reader(content), isJson5, false);
   }
     
   public static JsonObject parseObject(String source, boolean isJson5) throws IOException, JsonException {
@@ -96,16 +100,25 @@ public class JsonParser {
   }
   
   public static JsonObject parseObject(InputStream stream, boolean isJson5, boolean allowDuplicates) throws IOException, JsonException {
-    return parseObject(TextFile.streamToString(stream), isJson5, allowDuplicates);
+    return new JsonParser().parseJsonObject(reader(stream), isJson5, allowDuplicates);
   }
   
   public static JsonObject parseObject(byte[] stream, boolean isJson5, boolean allowDuplicates) throws IOException, JsonException {
-    return parseObject(TextFile.bytesToString(stream), isJson5, allowDuplicates);
+    return new JsonParser().parseJsonObject(reader(stream), isJson5, allowDuplicates);
   }
 
   public static JsonObject parseObject(String source, boolean isJson5, boolean allowDuplicates) throws IOException, JsonException {
     return new JsonParser().parseJsonObject(source, isJson5, allowDuplicates);
   }
+
+  // objects parsed from bytes are read through a reader, so the source is never all in memory as a string 
+  private static Reader reader(InputStream stream) {
+    return new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+  }
+
+  private static Reader reader(byte[] content) {
+    return reader(new ByteArrayInputStream(content));
+  }
   
   // ================================================================
   
@@ -230,8 +243,21 @@ public class JsonParser {
     return parseSource(Utilities.stripBOM(source));
   }
 
+  private JsonObject parseJsonObject(Reader reader, boolean isJson5, boolean allowDuplicates) throws IOException, JsonException {
+    this.allowDuplicates = allowDuplicates;
+    this.allowComments = isJson5;
+    this.allowNoComma = isJson5;
+    this.allowUnquotedStrings = isJson5;
+    lexer = new JsonLexer(reader, allowComments, allowUnquotedStrings);
+    return parseObjectFromLexer();
+  }
+
   private JsonObject parseSource(String source) throws IOException, JsonException {
     lexer = new JsonLexer(source, allowComments, allowUnquotedStrings);
+    return parseObjectFromLexer();
+  }
+
+  private JsonObject parseObjectFromLexer() throws IOException, JsonException {
     lexer.setSourceName(sourceName);
     JsonObject result = new JsonObject();
     lexer.takeComments(result);
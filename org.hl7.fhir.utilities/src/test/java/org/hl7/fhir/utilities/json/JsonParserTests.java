@@ -1,6 +1,7 @@
 package org.hl7.fhir.utilities.json;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import org.hl7.fhir.utilities.json.model.JsonArray;
 import org.hl7.fhir.utilities.json.model.JsonBoolean;
@@ -614,4 +615,29 @@ public class JsonParserTests {
     Assertions.assertEquals(true, o.isExtraComma());
   }
   
+  @Test
+  public void testStreamSameAsString() throws IOException, JsonException {
+    String src = "\uFEFF// header\n{\n  \"a\" : \"b\\u00e9\",\n  \"n\" : [1, 2.5, -3e2],\n  c: true,\n  \"o\" : { \"x\" : null }\n}\n";
+    JsonObject s = JsonParser.parseObject(src, true, true);
+    JsonObject b = JsonParser.parseObject(src.getBytes(StandardCharsets.UTF_8), true, true);
+    Assertions.assertEquals(JsonParser.compose(s, true), JsonParser.compose(b, true));
+    Assertions.assertEquals(1, b.getComments().size());
+    Assertions.assertEquals("b\u00e9", b.asString("a"));
+    Assertions.assertEquals(true, b.getProperties().get(2).isUnquotedName());
+    for (int i = 0; i < s.getProperties().size(); i++) {
+      JsonElement se = s.getProperties().get(i).getValue();
+      JsonElement be = b.getProperties().get(i).getValue();
+      Assertions.assertEquals(se.getStart().getLine(), be.getStart().getLine());
+      Assertions.assertEquals(se.getStart().getCol(), be.getStart().getCol());
+      Assertions.assertEquals(se.getEnd().getLine(), be.getEnd().getLine());
+      Assertions.assertEquals(se.getEnd().getCol(), be.getEnd().getCol());
+    }
+  }
+
+  @Test
+  public void testStreamErrors() throws IOException, JsonException {
+    Assertions.assertThrows(IOException.class, () -> JsonParser.parseObject("{ \"a\" : \"b".getBytes(StandardCharsets.UTF_8), true, true));
+    Assertions.assertThrows(IOException.class, () -> JsonParser.parseObject("{ \"a\" : \"\\u00".getBytes(StandardCharsets.UTF_8), true, true));
+  }
+
 }
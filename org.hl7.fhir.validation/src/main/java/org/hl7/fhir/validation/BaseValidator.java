@@ -11,6 +11,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /*
   Copyright (c) 2011+, HL7, Inc.
@@ -146,6 +147,7 @@ public class BaseValidator implements IValidationContextResourceLoader {
   }
 
   public static final String NO_RULE_DATE = ValidationMessage.NO_RULE_DATE;
+  private static final Object[] NO_ARGS = new Object[0];
 
   protected final String META = "meta";
   protected final String ENTRY = "entry";
@@ -175,6 +177,7 @@ public class BaseValidator implements IValidationContextResourceLoader {
   protected boolean debug;
   protected boolean warnOnDraftOrExperimental; 
   protected Set<String> statusWarnings = new HashSet<>();  
+  protected Map<ValidationMessage, String> statusWarningMessages; // if not null, the key for each status warning raised, so duplicates can be removed when results from other threads are merged
   protected BestPracticeWarningLevel bpWarnings = BestPracticeWarningLevel.Warning;
   protected String sessionId = Utilities.makeUuidLC();
   protected List<UsageContext> usageContexts = new ArrayList<UsageContext>();
@@ -559,6 +562,105 @@ public class BaseValidator implements IValidationContextResourceLoader {
     return thePass;
   }
 
+  /*
+   * Most checks pass, and most of them are made with no more than a couple of message arguments. The
+   * overloads below let those calls through without allocating an array for the arguments (the
+   * arguments are only put into an array if the check fails), and the Supplier forms only build the 
+   * path if the check fails. Where a path has to be constructed for the check, use the Supplier forms
+   */
+
+  protected boolean rule(List<ValidationMessage> errors, String ruleDate, IssueType type, int line, int col, String path, boolean thePass, String theMessage) {
+    return thePass || rule(errors, ruleDate, type, line, col, path, thePass, theMessage, NO_ARGS);
+  }
+
+  protected boolean rule(List<ValidationMessage> errors, String ruleDate, IssueType type, int line, int col, String path, boolean thePass, String theMessage, Object arg1) {
+    return thePass || rule(errors, ruleDate, type, line, col, path, thePass, theMessage, new Object[] { arg1 });
+  }
+
+  protected boolean rule(List<ValidationMessage> errors, String ruleDate, IssueType type, int line, int col, String path, boolean thePass, String theMessage, Object arg1, Object arg2) {
+    return thePass || rule(errors, ruleDate, type, line, col, path, thePass, theMessage, new Object[] { arg1, arg2 });
+  }
+
+  protected boolean rule(List<ValidationMessage> errors, String ruleDate, IssueType type, int line, int col, Supplier<String> path, boolean thePass, String theMessage, Object... theMessageArguments) {
+    return thePass || rule(errors, ruleDate, type, line, col, path.get(), thePass, theMessage, theMessageArguments);
+  }
+
+  protected boolean rule(List<ValidationMessage> errors, String ruleDate, IssueType type, NodeStack stack, boolean thePass, String theMessage) {
+    return thePass || rule(errors, ruleDate, type, stack, thePass, theMessage, NO_ARGS);
+  }
+
+  protected boolean rule(List<ValidationMessage> errors, String ruleDate, IssueType type, NodeStack stack, boolean thePass, String theMessage, Object arg1) {
+    return thePass || rule(errors, ruleDate, type, stack, thePass, theMessage, new Object[] { arg1 });
+  }
+
+  protected boolean rule(List<ValidationMessage> errors, String ruleDate, IssueType type, NodeStack stack, boolean thePass, String theMessage, Object arg1, Object arg2) {
+    return thePass || rule(errors, ruleDate, type, stack, thePass, theMessage, new Object[] { arg1, arg2 });
+  }
+
+  protected boolean rule(List<ValidationMessage> errors, String ruleDate, IssueType type, Supplier<String> path, boolean thePass, String theMessage, Object... theMessageArguments) {
+    return thePass || rule(errors, ruleDate, type, path.get(), thePass, theMessage, theMessageArguments);
+  }
+
+  protected boolean warning(List<ValidationMessage> errors, String ruleDate, IssueType type, int line, int col, String path, boolean thePass, String msg) {
+    return thePass || warning(errors, ruleDate, type, line, col, path, thePass, msg, NO_ARGS);
+  }
+
+  protected boolean warning(List<ValidationMessage> errors, String ruleDate, IssueType type, int line, int col, String path, boolean thePass, String msg, Object arg1) {
+    return thePass || warning(errors, ruleDate, type, line, col, path, thePass, msg, new Object[] { arg1 });
+  }
+
+  protected boolean warning(List<ValidationMessage> errors, String ruleDate, IssueType type, int line, int col, String path, boolean thePass, String msg, Object arg1, Object arg2) {
+    return thePass || warning(errors, ruleDate, type, line, col, path, thePass, msg, new Object[] { arg1, arg2 });
+  }
+
+  protected boolean warning(List<ValidationMessage> errors, String ruleDate, IssueType type, int line, int col, Supplier<String> path, boolean thePass, String msg, Object... theMessageArguments) {
+    return thePass || warning(errors, ruleDate, type, line, col, path.get(), thePass, msg, theMessageArguments);
+  }
+
+  protected boolean warning(List<ValidationMessage> errors, String ruleDate, IssueType type, NodeStack stack, boolean thePass, String msg) {
+    return thePass || warning(errors, ruleDate, type, stack, thePass, msg, NO_ARGS);
+  }
+
+  protected boolean warning(List<ValidationMessage> errors, String ruleDate, IssueType type, NodeStack stack, boolean thePass, String msg, Object arg1) {
+    return thePass || warning(errors, ruleDate, type, stack, thePass, msg, new Object[] { arg1 });
+  }
+
+  protected boolean warning(List<ValidationMessage> errors, String ruleDate, IssueType type, NodeStack stack, boolean thePass, String msg, Object arg1, Object arg2) {
+    return thePass || warning(errors, ruleDate, type, stack, thePass, msg, new Object[] { arg1, arg2 });
+  }
+
+  protected boolean warning(List<ValidationMessage> errors, String ruleDate, IssueType type, Supplier<String> path, boolean thePass, String msg, Object... theMessageArguments) {
+    return thePass || warning(errors, ruleDate, type, path.get(), thePass, msg, theMessageArguments);
+  }
+
+  protected boolean hint(List<ValidationMessage> errors, String ruleDate, IssueType type, int line, int col, String path, boolean thePass, String theMessage, Object arg1) {
+    return thePass || hint(errors, ruleDate, type, line, col, path, thePass, theMessage, new Object[] { arg1 });
+  }
+
+  protected boolean hint(List<ValidationMessage> errors, String ruleDate, IssueType type, int line, int col, String path, boolean thePass, String theMessage, Object arg1, Object arg2) {
+    return thePass || hint(errors, ruleDate, type, line, col, path, thePass, theMessage, new Object[] { arg1, arg2 });
+  }
+
+  protected boolean hint(List<ValidationMessage> errors, String ruleDate, IssueType type, int line, int col, Supplier<String> path, boolean thePass, String theMessage, Object... theMessageArguments) {
+    return thePass || hint(errors, ruleDate, type, line, col, path.get(), thePass, theMessage, theMessageArguments);
+  }
+
+  protected boolean hint(List<ValidationMessage> errors, String ruleDate, IssueType type, NodeStack stack, boolean thePass, String msg) {
+    return thePass || hint(errors, ruleDate, type, stack, thePass, msg, NO_ARGS);
+  }
+
+  protected boolean hint(List<ValidationMessage> errors, String ruleDate, IssueType type, NodeStack stack, boolean thePass, String msg, Object arg1) {
+    return thePass || hint(errors, ruleDate, type, stack, thePass, msg, new Object[] { arg1 });
+  }
+
+  protected boolean hint(List<ValidationMessage> errors, String ruleDate, IssueType type, NodeStack stack, boolean thePass, String msg, Object arg1, Object arg2) {
+    return thePass || hint(errors, ruleDate, type, stack, thePass, msg, new Object[] { arg1, arg2 });
+  }
+
+  protected boolean hint(List<ValidationMessage> errors, String ruleDate, IssueType type, Supplier<String> path, boolean thePass, String theMessage, Object... theMessageArguments) {
+    return thePass || hint(errors, ruleDate, type, path.get(), thePass, theMessage, theMessageArguments);
+  }
+
   protected boolean rulePlural(List<ValidationMessage> errors, String ruleDate, IssueType type, String path, boolean thePass, int num, String theMessage, Object... theMessageArguments) {
     if (!thePass && doingErrors()) {
       String message = context.formatMessagePlural(num, theMessage, theMessageArguments);
@@ -1054,21 +1156,16 @@ public class BaseValidator implements IValidationContextResourceLoader {
     return null;
   }
 
-  protected Element resolveInBundle(Element bundle, List<Element> entries, String ref, String fullUrl, String type, String id, NodeStack stack, List<ValidationMessage> errors, String name, Element source, boolean isWarning, boolean isNLLink) {
-    @SuppressWarnings("unchecked")
-    Map<String, List<Element>> map = (Map<String, List<Element>>) bundle.getUserData("validator.entrymap");
-    @SuppressWarnings("unchecked")
-    Map<String, List<Element>> relMap = (Map<String, List<Element>>) bundle.getUserData("validator.entrymapR");
-    List<Element> list = null;
-
-    if (map == null) {
-      map = new HashMap<>();
-      bundle.setUserData("validator.entrymap", map);
-      relMap = new HashMap<>();
-      bundle.setUserData("validator.entrymapR", relMap);
+  /**
+   * build the maps of the bundle entries by fullUrl and type/id that resolveInBundle uses (if they haven't already been built)
+   */
+  protected void indexBundleEntries(Element bundle, List<Element> entries) {
+    if (!bundle.hasUserData("validator.entrymap")) {
+      Map<String, List<Element>> map = new HashMap<>();
+      Map<String, List<Element>> relMap = new HashMap<>();
       for (Element entry : entries) {
         String fu = entry.getNamedChildValue(FULL_URL, false);
-        list = map.get(fu);
+        List<Element> list = map.get(fu);
         if (list == null) {
           list = new ArrayList<Element>();
           map.put(fu, list);
@@ -1090,7 +1187,17 @@ public class BaseValidator implements IValidationContextResourceLoader {
           }
         }
       }      
+      bundle.setUserData("validator.entrymap", map);
+      bundle.setUserData("validator.entrymapR", relMap);
     }
+  }
+
+  protected Element resolveInBundle(Element bundle, List<Element> entries, String ref, String fullUrl, String type, String id, NodeStack stack, List<ValidationMessage> errors, String name, Element source, boolean isWarning, boolean isNLLink) {
+    indexBundleEntries(bundle, entries);
+    @SuppressWarnings("unchecked")
+    Map<String, List<Element>> map = (Map<String, List<Element>>) bundle.getUserData("validator.entrymap");
+    @SuppressWarnings("unchecked")
+    Map<String, List<Element>> relMap = (Map<String, List<Element>>) bundle.getUserData("validator.entrymapR");
     
     String fragment = null;
     if (ref != null && ref.contains("#")) {
@@ -1557,38 +1664,33 @@ public class BaseValidator implements IValidationContextResourceLoader {
 
     StandardsStatus standardsStatus = ToolingExtensions.getStandardsStatus(ex);
     if (standardsStatus == StandardsStatus.DEPRECATED) {
-      if (!statusWarnings.contains(vurl+":DEPRECATED")) {  
-        statusWarnings.add(vurl+":DEPRECATED");
-        hint(errors, "2023-08-10", IssueType.BUSINESSRULE, element.line(), element.col(), path, false, I18nConstants.MSG_DEPENDS_ON_DEPRECATED, type, vurl);
-      }
+      statusHint(errors, vurl+":DEPRECATED", element, path, I18nConstants.MSG_DEPENDS_ON_DEPRECATED, type, vurl);
     } else if (standardsStatus == StandardsStatus.WITHDRAWN) {
-      if (!statusWarnings.contains(vurl+":WITHDRAWN")) {  
-        statusWarnings.add(vurl+":WITHDRAWN");
-        hint(errors, "2023-08-10", IssueType.BUSINESSRULE, element.line(), element.col(), path, false, I18nConstants.MSG_DEPENDS_ON_WITHDRAWN, type, vurl);
-      }
+      statusHint(errors, vurl+":WITHDRAWN", element, path, I18nConstants.MSG_DEPENDS_ON_WITHDRAWN, type, vurl);
     } else if (ex.getStatus() == PublicationStatus.RETIRED) {
-      if (!statusWarnings.contains(vurl+":RETIRED")) {  
-        statusWarnings.add(vurl+":RETIRED");
-        hint(errors, "2023-08-10", IssueType.BUSINESSRULE, element.line(), element.col(), path, false, I18nConstants.MSG_DEPENDS_ON_RETIRED, type, vurl);
-      }
+      statusHint(errors, vurl+":RETIRED", element, path, I18nConstants.MSG_DEPENDS_ON_RETIRED, type, vurl);
     } else if (false && warnOnDraftOrExperimental && source != null) {
       // for now, this is disabled; these warnings are just everywhere, and it's an intractible problem. 
       // working this through QA in IG publisher
       if (ex.getExperimental() && !source.getExperimental()) {
-        if (!statusWarnings.contains(vurl+":Experimental")) {  
-          statusWarnings.add(vurl+":Experimental");
-          hint(errors, "2023-08-10", IssueType.BUSINESSRULE, element.line(), element.col(), path, false, I18nConstants.MSG_DEPENDS_ON_EXPERIMENTAL, type, vurl);
-        }
+        statusHint(errors, vurl+":Experimental", element, path, I18nConstants.MSG_DEPENDS_ON_EXPERIMENTAL, type, vurl);
       } else if (ex.getStatus() == PublicationStatus.DRAFT && source.getStatus() != PublicationStatus.DRAFT) {
-        if (!statusWarnings.contains(vurl+":Draft")) {  
-          statusWarnings.add(vurl+":Draft");
-          hint(errors, "2023-08-10", IssueType.BUSINESSRULE, element.line(), element.col(), path, false, I18nConstants.MSG_DEPENDS_ON_DRAFT, type, vurl);
-        }
+        statusHint(errors, vurl+":Draft", element, path, I18nConstants.MSG_DEPENDS_ON_DRAFT, type, vurl);
       }
     }
     return ok;
   }
 
+  private void statusHint(List<ValidationMessage> errors, String key, Element element, String path, String msg, String type, String vurl) {
+    if (!statusWarnings.contains(key)) {  
+      statusWarnings.add(key);
+      int count = errors.size();
+      hint(errors, "2023-08-10", IssueType.BUSINESSRULE, element.line(), element.col(), path, false, msg, type, vurl);
+      if (statusWarningMessages != null && errors.size() > count) {
+        statusWarningMessages.put(errors.get(errors.size() - 1), key);
+      }
+    }
+  }
 
   public BestPracticeWarningLevel getBestPracticeWarningLevel() {
     return bpWarnings;
@@ -0,0 +1,203 @@
+package org.hl7.fhir.validation;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.model.OperationOutcome;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.utils.OperationOutcomeUtilities;
+import org.hl7.fhir.r5.utils.ToolingExtensions;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.validation.cli.renderers.ValidationOutputRenderer;
+import org.hl7.fhir.validation.instance.InstanceValidator;
+
+import lombok.Getter;
+
+/*
+Copyright (c) 2011+, HL7, Inc
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification,
+are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+ * Neither the name of HL7 nor the names of its contributors may be used to
+   endorse or promote products derived from this software without specific
+   prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+/**
+ * Validates bulk data (ndjson) files - one JSON resource per line.
+ * <p>
+ * The file is streamed: lines are read as they are needed, and validated on a pool
+ * of worker threads (the engine's thread count). Each line gets its own InstanceValidator.
+ * Outcomes are passed to the renderer in line order, and at most maxInFlight lines are
+ * held in memory at once, so memory use doesn't depend on the size of the file.
+ * <p>
+ * Issues are reported against the line number in the ndjson file (the column is the
+ * column in that line). Lines that have no issues are not rendered unless reportAllOk is set
+ */
+public class NDJsonValidator {
+
+  public static final String EXTENSION = ".ndjson";
+  private static final int LINES_IN_FLIGHT_PER_THREAD = 16;
+
+  private final ValidationEngine engine;
+  private final List<StructureDefinition> profiles;
+  private final int threads;
+  private int maxInFlight;
+  private boolean reportAllOk;
+
+  @Getter private int lineCount;
+  @Getter private int errorCount;
+  @Getter private int warningCount;
+
+  public NDJsonValidator(ValidationEngine engine, List<String> profiles) {
+    this.engine = engine;
+    this.profiles = engine.asSdList(profiles);
+    this.threads = Math.max(1, engine.getThreads());
+    this.maxInFlight = threads * LINES_IN_FLIGHT_PER_THREAD;
+  }
+
+  public static boolean isNDJson(String filename) {
+    return filename != null && filename.toLowerCase().endsWith(EXTENSION);
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  public NDJsonValidator setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = Math.max(1, maxInFlight);
+    return this;
+  }
+
+  public boolean isReportAllOk() {
+    return reportAllOk;
+  }
+
+  public NDJsonValidator setReportAllOk(boolean reportAllOk) {
+    this.reportAllOk = reportAllOk;
+    return this;
+  }
+
+  public void validate(String filename, ValidationOutputRenderer renderer) throws IOException, FHIRException, InterruptedException {
+    InputStream stream = ManagedFileAccess.inStream(filename);
+    try {
+      validate(filename, stream, renderer);
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Validate every line in the stream, handing the outcomes to the renderer in line order.
+   * The renderer must be already started; this doesn't call start() or finish(), so that several
+   * files can be rendered to the same output
+   */
+  public void validate(String name, InputStream stream, ValidationOutputRenderer renderer) throws IOException, FHIRException, InterruptedException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    engine.prepareContext();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      Deque<Future<OperationOutcome>> pending = new ArrayDeque<>();
+      int line = 0;
+      String src;
+      while ((src = reader.readLine()) != null) {
+        line++;
+        if (!Utilities.noString(src.trim())) {
+          if (pending.size() >= maxInFlight) {
+            render(pending.removeFirst(), renderer);
+          }
+          pending.addLast(executor.submit(new LineValidationTask(name, line, src)));
+        }
+      }
+      while (!pending.isEmpty()) {
+        render(pending.removeFirst(), renderer);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void render(Future<OperationOutcome> future, ValidationOutputRenderer renderer) throws IOException, InterruptedException {
+    OperationOutcome op;
+    try {
+      op = future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause() == null ? e : e.getCause();
+      throw new FHIRException("Validation Infrastructure fail: " + cause.getMessage(), cause);
+    }
+    lineCount++;
+    for (OperationOutcome.OperationOutcomeIssueComponent issue : op.getIssue()) {
+      if (issue.getSeverity() == OperationOutcome.IssueSeverity.FATAL || issue.getSeverity() == OperationOutcome.IssueSeverity.ERROR) {
+        errorCount++;
+      } else if (issue.getSeverity() == OperationOutcome.IssueSeverity.WARNING) {
+        warningCount++;
+      }
+    }
+    if (reportAllOk || op.hasIssue()) {
+      renderer.render(op);
+    }
+  }
+
+  private class LineValidationTask implements Callable<OperationOutcome> {
+    private final String name;
+    private final int line;
+    private final String src;
+
+    private LineValidationTask(String name, int line, String src) {
+      this.name = name;
+      this.line = line;
+      this.src = src;
+    }
+
+    @Override
+    public OperationOutcome call() throws Exception {
+      List<ValidationMessage> messages = new ArrayList<>();
+      InstanceValidator validator = engine.makeValidator(FhirFormat.JSON);
+      validator.setLogProgress(false);
+      validator.validate(null, messages, new ByteArrayInputStream(src.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON, profiles);
+      OperationOutcome op = new OperationOutcome();
+      for (ValidationMessage vm : ValidatorUtils.filterMessages(messages)) {
+        vm.setLine(line); // the resource is all on the one line, so the parser's line is always 1
+        op.getIssue().add(OperationOutcomeUtilities.convertToIssue(vm, op));
+      }
+      ToolingExtensions.addStringExtension(op, ToolingExtensions.EXT_OO_FILE, name);
+      return op;
+    }
+  }
+}
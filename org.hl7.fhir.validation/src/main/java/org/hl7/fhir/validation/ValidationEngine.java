@@ -2,6 +2,7 @@ package org.hl7.fhir.validation;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -20,6 +21,12 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.fhir.ucum.UcumEssenceService;
 import org.hl7.fhir.convertors.factory.VersionConvertorFactory_10_50;
@@ -48,10 +55,13 @@ import org.hl7.fhir.r5.model.Bundle;
 import org.hl7.fhir.r5.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.r5.model.CanonicalResource;
 import org.hl7.fhir.r5.model.CanonicalType;
+import org.hl7.fhir.r5.model.CodeSystem;
 import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.ConceptMap;
 import org.hl7.fhir.r5.model.DomainResource;
 import org.hl7.fhir.r5.model.ElementDefinition;
 import org.hl7.fhir.r5.model.ImplementationGuide;
+import org.hl7.fhir.r5.model.NamingSystem;
 import org.hl7.fhir.r5.model.OperationOutcome;
 import org.hl7.fhir.r5.model.PackageInformation;
 import org.hl7.fhir.r5.model.Parameters;
@@ -63,6 +73,7 @@ import org.hl7.fhir.r5.renderers.RendererFactory;
 import org.hl7.fhir.r5.renderers.utils.RenderingContext;
 import org.hl7.fhir.r5.renderers.utils.RenderingContext.GenerationRules;
 import org.hl7.fhir.r5.renderers.utils.RenderingContext.ResourceRendererMode;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologySnapshot;
 import org.hl7.fhir.r5.utils.EOperationOutcome;
 import org.hl7.fhir.r5.utils.ToolingExtensions;
 import org.hl7.fhir.r5.utils.structuremap.StructureMapUtilities;
@@ -212,6 +223,7 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
   @Getter @Setter private IWorkerContextManager.ICanonicalResourceLocator locator;
   @Getter @Setter private boolean assumeValidRestReferences;
   @Getter @Setter private boolean noExtensibleBindingMessages;
+  @Getter @Setter private boolean batchTerminology;
   @Getter @Setter private boolean noUnicodeBiDiControlChars;
   @Getter @Setter private boolean securityChecks;
   @Getter @Setter private boolean crumbTrails;
@@ -235,8 +247,25 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
   @Getter @Setter private IgLoader igLoader;
   @Getter @Setter private Coding jurisdiction;
 
+  /**
+   * The number of worker threads used when validating multiple sources. Each worker
+   * gets its own InstanceValidator, but they all share the one (read only) context.
+   * Results are always reported in the order the sources were provided.
+   * 1 (the default) validates everything sequentially on the calling thread
+   */
+  @Getter @Setter private int threads = 1;
 
-  private ContextUtilities cu = null;
+  /**
+   * The number of threads used to validate the entries in a bundle. Entries that refer to each
+   * other are validated together, and the results are the same as validating them one at a time.
+   * 1 (the default) validates the entries sequentially
+   */
+  @Getter @Setter private int bundleThreads = 1;
+
+  // the threads bundle entries are validated on, shared by all the validators this engine makes
+  private ExecutorService bundleExecutor;
+
+  private volatile ContextUtilities cu = null;
   
   /**
    * Creating a validation engine is an expensive operation - takes seconds. 
@@ -266,6 +295,7 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     locator = other.locator;
     assumeValidRestReferences = other.assumeValidRestReferences;
     noExtensibleBindingMessages = other.noExtensibleBindingMessages;
+    batchTerminology = other.batchTerminology;
     noUnicodeBiDiControlChars = other.noUnicodeBiDiControlChars;
     securityChecks = other.securityChecks;
     crumbTrails = other.crumbTrails;
@@ -286,6 +316,8 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     fhirPathEngine = other.fhirPathEngine;
     igLoader = other.igLoader;
     jurisdiction = other.jurisdiction;
+    threads = other.threads;
+    bundleThreads = other.bundleThreads;
   }
   
   /**
@@ -304,7 +336,8 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
    * the validation framework in their own implementation context
    */
   @Getter @Setter private Map<String, ValidationControl> validationControl = new HashMap<>();
-  private Map<String, Boolean> resolvedUrls = new HashMap<>();
+  // shared by all the validators this engine makes (see getValidator), which may be running in parallel
+  private Map<String, Boolean> resolvedUrls = new ConcurrentHashMap<>();
 
   private ValidationEngine()  {
 
@@ -338,6 +371,13 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     @With
     private boolean THO = true;
 
+    /**
+     * Keep the snapshots generated for profiles from packages in a cache alongside the package cache,
+     * so later runs can skip generating them (see SnapshotCache)
+     */
+    @With
+    private final boolean snapshotCache;
+
 
     public ValidationEngineBuilder() {
       terminologyCachePath = null;
@@ -349,9 +389,14 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
       timeTracker = null;
       canRunWithoutTerminologyServer = false;
       loggingService = new SystemOutLoggingService();
+      snapshotCache = false;
     }
 
     public ValidationEngineBuilder(String terminologyCachePath, String userAgent, String version, String txServer, String txLog, FhirPublication txVersion, TimeTracker timeTracker, boolean canRunWithoutTerminologyServer, ILoggingService loggingService, boolean THO) {
+      this(terminologyCachePath, userAgent, version, txServer, txLog, txVersion, timeTracker, canRunWithoutTerminologyServer, loggingService, THO, false);
+    }
+
+    public ValidationEngineBuilder(String terminologyCachePath, String userAgent, String version, String txServer, String txLog, FhirPublication txVersion, TimeTracker timeTracker, boolean canRunWithoutTerminologyServer, ILoggingService loggingService, boolean THO, boolean snapshotCache) {
       this.terminologyCachePath = terminologyCachePath;
       this.userAgent = userAgent;
       this.version = version;
@@ -362,14 +407,15 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
       this.canRunWithoutTerminologyServer = canRunWithoutTerminologyServer;
       this.loggingService = loggingService;
       this.THO = THO;
+      this.snapshotCache = snapshotCache;
     }
 
     public ValidationEngineBuilder withTxServer(String txServer, String txLog, FhirPublication txVersion) {
-      return new ValidationEngineBuilder(terminologyCachePath, userAgent, version, txServer, txLog, txVersion, timeTracker, canRunWithoutTerminologyServer, loggingService, THO);
+      return new ValidationEngineBuilder(terminologyCachePath, userAgent, version, txServer, txLog, txVersion, timeTracker, canRunWithoutTerminologyServer, loggingService, THO, snapshotCache);
     }
 
     public ValidationEngineBuilder withNoTerminologyServer() {
-      return new ValidationEngineBuilder(terminologyCachePath, userAgent, version, null, null, txVersion, timeTracker, true, loggingService, THO);
+      return new ValidationEngineBuilder(terminologyCachePath, userAgent, version, null, null, txVersion, timeTracker, true, loggingService, THO, snapshotCache);
     }
     
     public ValidationEngine fromNothing() throws IOException {
@@ -389,7 +435,7 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
 
     public ValidationEngine fromSource(String src) throws IOException, URISyntaxException {
       ValidationEngine engine = new ValidationEngine();
-      engine.loadCoreDefinitions(src, false, terminologyCachePath, userAgent, timeTracker, loggingService);
+      engine.loadCoreDefinitions(src, false, terminologyCachePath, userAgent, timeTracker, loggingService, snapshotCache);
       engine.getContext().setCanRunWithoutTerminology(canRunWithoutTerminologyServer);
       engine.getContext().setPackageTracker(engine);    
       if (txServer != null) {
@@ -435,18 +481,22 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
    * @param userAgent
    * @param tt
    * @param loggingService
+   * @param snapshotCache
    * @throws FHIRException
    * @throws IOException
    *
    * @see IgLoader#loadIgSource(String, boolean, boolean) loadIgSource for detailed description of the src parameter
    */
-  private void loadCoreDefinitions(String src, boolean recursive, String terminologyCachePath, String userAgent, TimeTracker tt, ILoggingService loggingService) throws FHIRException, IOException {
+  private void loadCoreDefinitions(String src, boolean recursive, String terminologyCachePath, String userAgent, TimeTracker tt, ILoggingService loggingService, boolean snapshotCache) throws FHIRException, IOException {
     NpmPackage npm = getPcm().loadPackage(src, null);
     if (npm != null) {
       version = npm.fhirVersion();
       SimpleWorkerContext.SimpleWorkerContextBuilder contextBuilder = new SimpleWorkerContext.SimpleWorkerContextBuilder().withLoggingService(loggingService);
       if (terminologyCachePath != null)
         contextBuilder = contextBuilder.withTerminologyCachePath(terminologyCachePath);
+      if (snapshotCache) {
+        contextBuilder = contextBuilder.withSnapshotCachePath(Utilities.path(getPcm().getFolder(), ".snapshots"));
+      }
       if (userAgent != null) {
         contextBuilder.withUserAgent(userAgent);
       }
@@ -615,6 +665,18 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
       }
     }
     
+    if (threads > 1) {
+      validateInParallel(refs, profiles, record, all, results);
+    } else {
+      validateSequentially(refs, profiles, record, all, results);
+    }
+    if (asBundle)
+      return results;
+    else
+      return results.getEntryFirstRep().getResource();
+  }
+
+  private void validateSequentially(List<SourceFile> refs, List<String> profiles, List<ValidationRecord> record, boolean all, Bundle results) throws FHIRException {
     for (SourceFile ref : refs) {
       if ((ref.isProcess() || all) && ref.getCnt() != null) {
         TimeTracker.Session tts = context.clock().start("validation");
@@ -635,10 +697,87 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
         ref.setProcess(false);
       }
     }
-    if (asBundle)
-      return results;
-    else
-      return results.getEntryFirstRep().getResource();
+  }
+
+  /**
+   * Validates the sources across a fixed pool of worker threads. The workers don't
+   * touch the shared records, the bundle or the context's clock; everything they produce 
+   * (including their times) is merged back here in the original source order, so the output 
+   * is the same as a sequential run
+   */
+  private void validateInParallel(List<SourceFile> refs, List<String> profiles, List<ValidationRecord> record, boolean all, Bundle results) throws FHIRException, InterruptedException {
+    List<SourceFile> todo = new ArrayList<>();
+    for (SourceFile ref : refs) {
+      if ((ref.isProcess() || all) && ref.getCnt() != null) {
+        todo.add(ref);
+      }
+    }
+    if (todo.isEmpty()) {
+      return;
+    }
+    System.out.println("  Validate " + todo.size() + " sources using " + Math.min(threads, todo.size()) + " threads");
+    prepareContext();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, todo.size()));
+    try {
+      List<SourceValidationTask> tasks = new ArrayList<>();
+      List<Future<OperationOutcome>> futures = new ArrayList<>();
+      for (SourceFile ref : todo) {
+        SourceValidationTask task = new SourceValidationTask(ref, profiles, record != null);
+        tasks.add(task);
+        futures.add(executor.submit(task));
+      }
+      for (int i = 0; i < todo.size(); i++) {
+        SourceFile ref = todo.get(i);
+        OperationOutcome outcome;
+        try {
+          outcome = futures.get(i).get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause() == null ? e : e.getCause();
+          System.out.println("Validation Infrastructure fail validating " + ref + ": " + cause.getMessage());
+          throw new FHIRException(cause);
+        }
+        System.out.println("  Validate " + ref.getRef() + " (" + tasks.get(i).elapsed + "ms)");
+        context.clock().add(tasks.get(i).clock);
+        results.addEntry().setResource(outcome);
+        if (record != null) {
+          for (ValidationRecord vr : tasks.get(i).record) {
+            recordMessages(record, vr.getLocation(), vr.getMessages());
+          }
+        }
+        ref.setProcess(false);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private class SourceValidationTask implements Callable<OperationOutcome> {
+    private final SourceFile ref;
+    private final List<String> profiles;
+    private final List<ValidationRecord> record;
+    private final TimeTracker clock = new TimeTracker();
+    private long elapsed;
+
+    private SourceValidationTask(SourceFile ref, List<String> profiles, boolean wantRecord) {
+      this.ref = ref;
+      this.profiles = profiles;
+      this.record = wantRecord ? new ArrayList<>() : null;
+    }
+
+    @Override
+    public OperationOutcome call() throws Exception {
+      long start = System.currentTimeMillis();
+      TimeTracker.Session tts = clock.start("validation");
+      try {
+        InstanceValidator validator = makeValidator(ref.getCnt().getCntType());
+        OperationOutcome outcome = validate(ref.getRef(), ref.getCnt().getFocus(), ref.getCnt().getCntType(), profiles, record, validator);
+        ToolingExtensions.addStringExtension(outcome, ToolingExtensions.EXT_OO_FILE, ref.getRef());
+        return outcome;
+      } finally {
+        tts.end();
+        elapsed = System.currentTimeMillis() - start;
+      }
+    }
   }
 
 
@@ -657,30 +796,37 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
   }
 
   public OperationOutcome validate(String location, ByteProvider source, FhirFormat cntType, List<String> profiles, List<ValidationRecord> record) throws FHIRException, IOException, EOperationOutcome, SAXException {
+    return validate(location, source, cntType, profiles, record, getValidator(cntType));
+  }
+
+  private OperationOutcome validate(String location, ByteProvider source, FhirFormat cntType, List<String> profiles, List<ValidationRecord> record, InstanceValidator validator) throws FHIRException, IOException, EOperationOutcome, SAXException {
     List<ValidationMessage> messages = new ArrayList<ValidationMessage>();
     if (doNative) {
       SchemaValidator.validateSchema(location, cntType, messages);
     }
-    InstanceValidator validator = getValidator(cntType);
     validator.validate(null, messages, new ByteArrayInputStream(source.getBytes()), cntType, asSdList(profiles));
     if (showTimes) {
       System.out.println(location + ": " + validator.reportTimes());
     }
     if (record != null) {
-      boolean found = false;
-      for (ValidationRecord t : record) {
-        if (t.getLocation().equals(location)) {
-          found = true;
-          t.setMessages(messages);
-        }
-      }
-      if (!found) {
-        record.add(new ValidationRecord(location, messages));
-      }
+      recordMessages(record, location, messages);
     }
     return ValidatorUtils.messagesToOutcome(messages, context, fhirPathEngine);
   }
 
+  private void recordMessages(List<ValidationRecord> record, String location, List<ValidationMessage> messages) {
+    boolean found = false;
+    for (ValidationRecord t : record) {
+      if (t.getLocation().equals(location)) {
+        found = true;
+        t.setMessages(messages);
+      }
+    }
+    if (!found) {
+      record.add(new ValidationRecord(location, messages));
+    }
+  }
+
   public OperationOutcome validate(String location, byte[] source, FhirFormat cntType, List<String> profiles, IdStatus resourceIdRule, boolean anyExtensionsAllowed, BestPracticeWarningLevel bpWarnings, CheckDisplayOption displayOption) throws FHIRException, IOException, EOperationOutcome, SAXException {
     List<ValidationMessage> messages = new ArrayList<ValidationMessage>();
     if (doNative) {
@@ -844,8 +990,35 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
   }
 
   public InstanceValidator getValidator(FhirFormat format) throws FHIRException, IOException {
-    InstanceValidator validator = new InstanceValidator(context, null, null);
+    prepareContext();
+    return makeValidator(format);
+  }
+
+  /**
+   * The settings on the (shared) context that the validators depend on. This is done once
+   * before validating in parallel, so the workers don't change the context as they go
+   */
+  void prepareContext() {
     context.getTxClientManager().setUsage("validation");
+    if (language != null) {
+      context.setValidationMessageLanguage(Locale.forLanguageTag(language));
+    }
+    context.setLocale(locale);
+  }
+
+  private synchronized ExecutorService getBundleExecutor() {
+    if (bundleExecutor == null) {
+      bundleExecutor = Executors.newFixedThreadPool(bundleThreads, r -> {
+        Thread t = new Thread(r, "bundle-entry-validation");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return bundleExecutor;
+  }
+
+  InstanceValidator makeValidator(FhirFormat format) throws FHIRException, IOException {
+    InstanceValidator validator = new InstanceValidator(context, null, null);
     validator.setHintAboutNonMustSupport(hintAboutNonMustSupport);
     validator.setAnyExtensionsAllowed(anyExtensionsAllowed);
     validator.getExtensionDomains().clear();
@@ -854,17 +1027,18 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     validator.setWantInvariantInMessage(isWantInvariantInMessage());
     validator.setValidationLanguage(language);
     validator.setDisplayWarnings(isDisplayWarnings());
-    if (language != null) {
-      validator.getContext().setValidationMessageLanguage(Locale.forLanguageTag(language));
-    }
     validator.setAssumeValidRestReferences(assumeValidRestReferences);
     validator.setNoExtensibleWarnings(noExtensibleBindingMessages);
+    validator.setBatchTerminology(batchTerminology);
+    validator.setBundleEntryThreads(bundleThreads);
+    if (bundleThreads > 1) {
+      validator.setBundleExecutor(getBundleExecutor());
+    }
     validator.setSecurityChecks(securityChecks);
     validator.setCrumbTrails(crumbTrails);
     validator.setForPublication(forPublication);
     validator.setAllowExamples(allowExampleUrls);
     validator.setShowMessagesFromReferences(showMessagesFromReferences);
-    validator.getContext().setLocale(locale);
     validator.setFetcher(this);
     validator.getImplementationGuides().addAll(igs);
     validator.getBundleValidationRules().addAll(bundleValidationRules);
@@ -878,7 +1052,9 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     validator.setDoImplicitFHIRPathStringConversion(doImplicitFHIRPathStringConversion);
     validator.setCheckIPSCodes(checkIPSCodes);
     if (format == FhirFormat.SHC) {
-      igLoader.loadIg(getIgs(), getBinaries(), SHCParser.CURRENT_PACKAGE, true);      
+      synchronized (igLoader) { // validators may be created concurrently when validating in parallel
+        igLoader.loadIg(getIgs(), getBinaries(), SHCParser.CURRENT_PACKAGE, true);
+      }
     }
     validator.setJurisdiction(jurisdiction);
     validator.setLogProgress(true);
@@ -905,6 +1081,9 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     if (sdb != null) {
       makeSnapshot(sdb);
       new ProfileUtilities(context, null, null).setAutoFixSliceNames(true).generateSnapshot(sdb, sd, sd.getUrl(), null, sd.getName());
+      if (context.getSnapshotCache() != null) {
+        context.getSnapshotCache().save(sd);
+      }
     }
   }
 
@@ -1048,6 +1227,49 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     return connectToTSServer(src, log, version);
   }
 
+  /**
+   * load a terminology snapshot (see TerminologySnapshot) from a folder (an unpacked snapshot,
+   * which is loaded lazily) or a .tgz file. Do this after setting the terminology server
+   *
+   * @return the number of resources loaded
+   */
+  public int loadTerminologySnapshot(String src) throws FHIRException, IOException {
+    NpmPackage npm;
+    File f = ManagedFileAccess.file(src);
+    if (f.isDirectory()) {
+      npm = NpmPackage.fromFolder(src);
+    } else {
+      try (InputStream stream = ManagedFileAccess.inStream(f)) {
+        npm = NpmPackage.fromPackage(stream, src);
+      }
+    }
+    return context.loadTerminologySnapshot(npm);
+  }
+
+  /**
+   * build a terminology snapshot (see TerminologySnapshot) from the terminology resources that have been loaded, 
+   * other than the ones in the core specification (which every validator has anyway), and the entries in the 
+   * terminology cache folder
+   *
+   * @param id the package id of the snapshot, with an optional version (id#version, default version 1.0.0)
+   * @param destination the .tgz file to create
+   * @return the number of resources and cache files in the snapshot
+   */
+  public int buildTerminologySnapshot(String id, String destination) throws FHIRException, IOException {
+    String version = "1.0.0";
+    if (id.contains("#")) {
+      version = id.substring(id.indexOf("#") + 1);
+      id = id.substring(0, id.indexOf("#"));
+    }
+    List<CanonicalResource> resources = new ArrayList<>();
+    resources.addAll(context.fetchResourcesByType(CodeSystem.class));
+    resources.addAll(context.fetchResourcesByType(ValueSet.class));
+    resources.addAll(context.fetchResourcesByType(ConceptMap.class));
+    resources.addAll(context.fetchResourcesByType(NamingSystem.class));
+    resources.removeIf(cr -> cr.hasSourcePackage() && VersionUtilities.isCorePackage(cr.getSourcePackage().getId()));
+    return TerminologySnapshot.build(id, version, context.getVersion(), resources, context.getTxCache().getFolder(), destination);
+  }
+
   public ValidationEngine setMapLog(String mapLog) throws FileNotFoundException {
     if (mapLog != null) {
       this.mapLog = new PrintWriter(mapLog);
@@ -1171,10 +1393,7 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
       return false; // todo... how to access settings from here?
     }
     if (url.contains("*") && !url.contains("?")) {
-      if (cu == null) {
-        cu = new ContextUtilities(context);
-      }
-      List<StructureMap> maps = cu.listMaps(url);
+      List<StructureMap> maps = getContextUtilities().listMaps(url);
       if (!maps.isEmpty()) {
         return true;
       }
@@ -1196,6 +1415,20 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
   }
 
 
+  private ContextUtilities getContextUtilities() {
+    ContextUtilities res = cu;
+    if (res == null) {
+      synchronized (this) {
+        res = cu;
+        if (res == null) {
+          res = new ContextUtilities(context);
+          cu = res;
+        }
+      }
+    }
+    return res;
+  }
+
   @Override
   public CanonicalResource fetchCanonicalResource(IResourceValidator validator, Object appContext, String url) throws URISyntaxException {
     Resource res = context.fetchResource(Resource.class, url);
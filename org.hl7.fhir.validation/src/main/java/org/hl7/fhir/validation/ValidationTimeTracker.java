@@ -54,6 +54,17 @@ public class ValidationTimeTracker {
     specTime = specTime + (System.nanoTime() - start);
   }
   
+  /**
+   * add the times from another tracker (e.g. one used on another thread) - except for the overall time
+   */
+  public void add(ValidationTimeTracker other) {
+    txTime = txTime + other.txTime;
+    sdTime = sdTime + other.sdTime;
+    loadTime = loadTime + other.loadTime;
+    fpeTime = fpeTime + other.fpeTime;
+    specTime = specTime + other.specTime;
+  }
+
   public void reset() {
     overall = 0;
     txTime = 0;
@@ -133,6 +133,7 @@ public class ValidatorCli {
       new SpreadsheetTask(),
       new TestsTask(),
       new TxTestsTask(),
+      new TxSnapshotTask(),
       new TransformTask(),
       new VersionTask(),
       defaultCliTask);
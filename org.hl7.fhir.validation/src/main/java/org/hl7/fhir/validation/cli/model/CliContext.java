@@ -155,6 +155,27 @@ public class CliContext {
   
   @JsonProperty("watchSettleTime")
   private int watchSettleTime = 100;
+
+  @JsonProperty("threads")
+  private int threads = 1;
+
+  @JsonProperty("bundleThreads")
+  private int bundleThreads = 1;
+
+  @JsonProperty("minimalMemory")
+  private boolean minimalMemory = false;
+
+  @JsonProperty("snapshotCache")
+  private boolean snapshotCache = false;
+
+  @JsonProperty("batchTerminology")
+  private boolean batchTerminology = false;
+
+  @JsonProperty("txSnapshots")
+  private List<String> txSnapshots = new ArrayList<String>();
+
+  @JsonProperty("txSnapshotId")
+  private String txSnapshotId = null;
   
   @JsonProperty("bestPracticeLevel")
   private BestPracticeWarningLevel bestPracticeLevel = BestPracticeWarningLevel.Warning;
@@ -806,7 +827,14 @@ public class CliContext {
       Objects.equals(watchMode, that.watchMode) &&
       Objects.equals(bestPracticeLevel, that.bestPracticeLevel) &&
       Objects.equals(watchScanDelay, that.watchScanDelay) &&
-      Objects.equals(watchSettleTime, that.watchSettleTime) ;
+      Objects.equals(watchSettleTime, that.watchSettleTime) &&
+      Objects.equals(threads, that.threads) &&
+      Objects.equals(bundleThreads, that.bundleThreads) &&
+      minimalMemory == that.minimalMemory &&
+      snapshotCache == that.snapshotCache &&
+      batchTerminology == that.batchTerminology &&
+      Objects.equals(txSnapshots, that.txSnapshots) &&
+      Objects.equals(txSnapshotId, that.txSnapshotId);
   }
 
   @Override
@@ -814,7 +842,7 @@ public class CliContext {
     return Objects.hash(doNative, extensions, hintAboutNonMustSupport, recursive, doDebug, assumeValidRestReferences, canDoNative, noInternalCaching, 
             noExtensibleBindingMessages, noInvariants, displayWarnings, wantInvariantsInMessages, map, output, outputSuffix, htmlOutput, txServer, sv, txLog, txCache, mapLog, lang, srcLang, tgtLang, fhirpath, snomedCT,
             targetVer, igs, questionnaireMode, level, profiles, sources, inputs, mode, locale, locations, crumbTrails, forPublication, showTimes, allowExampleUrls, outputStyle, jurisdiction, noUnicodeBiDiControlChars, watchMode, watchScanDelay, watchSettleTime, bestPracticeLevel,
-            htmlInMarkdownCheck, allowDoubleQuotesInFHIRPath, checkIPSCodes);
+            htmlInMarkdownCheck, allowDoubleQuotesInFHIRPath, checkIPSCodes, threads, bundleThreads, minimalMemory, snapshotCache, batchTerminology, txSnapshots, txSnapshotId);
   }
 
   @Override
@@ -872,6 +900,13 @@ public class CliContext {
       ", bestPracticeLevel=" + bestPracticeLevel +
       ", watchSettleTime=" + watchSettleTime +
       ", watchScanDelay=" + watchScanDelay +
+      ", threads=" + threads +
+      ", bundleThreads=" + bundleThreads +
+      ", minimalMemory=" + minimalMemory +
+      ", snapshotCache=" + snapshotCache +
+      ", batchTerminology=" + batchTerminology +
+      ", txSnapshots=" + txSnapshots +
+      ", txSnapshotId=" + txSnapshotId +
       '}';
   }
 
@@ -916,6 +951,91 @@ public class CliContext {
   public void setWatchSettleTime(int watchSettleTime) {
     this.watchSettleTime = watchSettleTime;
   }
+
+  @JsonProperty("threads")
+  public int getThreads() {
+    return threads;
+  }
+
+  @JsonProperty("threads")
+  public CliContext setThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  @JsonProperty("bundleThreads")
+  public int getBundleThreads() {
+    return bundleThreads;
+  }
+
+  @JsonProperty("bundleThreads")
+  public CliContext setBundleThreads(int bundleThreads) {
+    this.bundleThreads = bundleThreads;
+    return this;
+  }
+
+  @JsonProperty("minimalMemory")
+  public boolean isMinimalMemory() {
+    return minimalMemory;
+  }
+
+  @JsonProperty("minimalMemory")
+  public CliContext setMinimalMemory(boolean minimalMemory) {
+    this.minimalMemory = minimalMemory;
+    return this;
+  }
+
+  @JsonProperty("snapshotCache")
+  public boolean isSnapshotCache() {
+    return snapshotCache;
+  }
+
+  @JsonProperty("snapshotCache")
+  public CliContext setSnapshotCache(boolean snapshotCache) {
+    this.snapshotCache = snapshotCache;
+    return this;
+  }
+
+  @JsonProperty("batchTerminology")
+  public boolean isBatchTerminology() {
+    return batchTerminology;
+  }
+
+  @JsonProperty("batchTerminology")
+  public CliContext setBatchTerminology(boolean batchTerminology) {
+    this.batchTerminology = batchTerminology;
+    return this;
+  }
+
+  @JsonProperty("txSnapshots")
+  public List<String> getTxSnapshots() {
+    return txSnapshots;
+  }
+
+  @JsonProperty("txSnapshots")
+  public CliContext setTxSnapshots(List<String> txSnapshots) {
+    this.txSnapshots = txSnapshots;
+    return this;
+  }
+
+  public CliContext addTxSnapshot(String txSnapshot) {
+    if (this.txSnapshots == null) {
+      this.txSnapshots = new ArrayList<>();
+    }
+    this.txSnapshots.add(txSnapshot);
+    return this;
+  }
+
+  @JsonProperty("txSnapshotId")
+  public String getTxSnapshotId() {
+    return txSnapshotId;
+  }
+
+  @JsonProperty("txSnapshotId")
+  public CliContext setTxSnapshotId(String txSnapshotId) {
+    this.txSnapshotId = txSnapshotId;
+    return this;
+  }
   
 
   @JsonProperty("bestPracticeLevel")
@@ -0,0 +1,38 @@
+package org.hl7.fhir.validation.cli.renderers;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.hl7.fhir.r5.formats.IParser;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.OperationOutcome;
+
+/**
+ * Writes each OperationOutcome as a single line of JSON, so output can be streamed
+ */
+public class NDJsonRenderer extends ValidationOutputRenderer {
+
+  @Override
+  public void render(OperationOutcome op) throws IOException {
+    IParser x = new JsonParser();
+    x.setOutputStyle(IParser.OutputStyle.NORMAL);
+    dst.println(x.composeString(op));
+  }
+
+  @Override
+  public boolean isSingleFile() {
+    return true;
+  }
+
+  @Override
+  public String getStyleCode() {
+    return "ndjson";
+  }
+
+  @Override
+  public void setFolder(File dir) {
+    throw new Error("Not supported");
+    
+  }
+  
+}
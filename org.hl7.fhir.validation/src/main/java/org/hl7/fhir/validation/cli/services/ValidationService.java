@@ -64,6 +64,7 @@ import org.hl7.fhir.validation.cli.renderers.CSVRenderer;
 import org.hl7.fhir.validation.cli.renderers.CompactRenderer;
 import org.hl7.fhir.validation.cli.renderers.DefaultRenderer;
 import org.hl7.fhir.validation.cli.renderers.ESLintCompactRenderer;
+import org.hl7.fhir.validation.cli.renderers.NDJsonRenderer;
 import org.hl7.fhir.validation.cli.renderers.NativeRenderer;
 import org.hl7.fhir.validation.cli.renderers.ValidationOutputRenderer;
 import org.hl7.fhir.validation.cli.utils.Common;
@@ -197,6 +198,10 @@ public class ValidationService {
     if (cliContext.getProfiles().size() > 0) {
       System.out.println("  Profiles: " + cliContext.getProfiles());
     }
+    if (isAllNDJson(cliContext.getSources())) {
+      validateNDJsonSources(cliContext, validator);
+      return;
+    }
     IgLoader igLoader = new IgLoader(validator.getPcm(), validator.getContext(), validator.getVersion());
         
     List<ValidationRecord> records = new ArrayList<>();
@@ -280,6 +285,51 @@ public class ValidationService {
     }
   }
 
+  private boolean isAllNDJson(List<String> sources) {
+    if (sources.isEmpty()) {
+      return false;
+    }
+    for (String s : sources) {
+      if (!NDJsonValidator.isNDJson(s)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Bulk data files are streamed through the NDJsonValidator rather than loaded whole. 
+   * Only the output styles that can be written an outcome at a time are supported
+   */
+  private void validateNDJsonSources(CliContext cliContext, ValidationEngine validator) throws Exception {
+    ValidationOutputRenderer renderer = makeValidationOutputRenderer(cliContext);
+    if (renderer.handlesBundleDirectly() || !renderer.isSingleFile()) {
+      throw new Error("The output style "+renderer.getStyleCode()+" can't be used when validating ndjson files. Use ndjson, csv, compact, or eslint-compact");
+    }
+    renderer.setCrumbTrails(validator.isCrumbTrails());
+    renderer.setRunDate(runDate);
+    PrintStream dst = cliContext.getOutput() == null ? System.out : new PrintStream(ManagedFileAccess.outStream(cliContext.getOutput()));
+    renderer.setOutput(dst);
+    NDJsonValidator ndjson = new NDJsonValidator(validator, cliContext.getProfiles());
+    long start = System.currentTimeMillis();
+    renderer.start(true);
+    try {
+      for (String src : cliContext.getSources()) {
+        System.out.println("  Validate " + src);
+        ndjson.validate(src, renderer);
+      }
+    } finally {
+      renderer.finish();
+      if (cliContext.getOutput() != null) {
+        dst.close();
+      }
+    }
+    System.out.println("Done. " + ndjson.getLineCount() + " resources, " + ndjson.getErrorCount() + " errors, " + ndjson.getWarningCount() + " warnings (" + (System.currentTimeMillis() - start) + "ms)");
+    if (ndjson.getErrorCount() > 0) {
+      SystemExitManager.setError(1);
+    }
+  }
+
   private int countErrors(OperationOutcome oo) {
     int error = 0;
     for (OperationOutcome.OperationOutcomeIssueComponent issue : oo.getIssue()) {
@@ -297,6 +347,8 @@ public class ValidationService {
     if (Utilities.noString(style)) {
       if (cliContext.getOutput() == null) {
         return new DefaultRenderer();
+      } else if (cliContext.getOutput().endsWith(NDJsonValidator.EXTENSION)) {
+        return new NDJsonRenderer();
       } else if (cliContext.getOutput().endsWith(".json")) {
         return new NativeRenderer(FhirFormat.JSON);
       } else {
@@ -310,6 +362,8 @@ public class ValidationService {
       return new CompactRenderer(false);
     } else if (Utilities.existsInList(style, "csv")) {
       return new CSVRenderer();
+    } else if (Utilities.existsInList(style, "ndjson")) {
+      return new NDJsonRenderer();
     } else if (Utilities.existsInList(style, "xml")) {
       return new NativeRenderer(FhirFormat.XML);
     } else if (Utilities.existsInList(style, "json")) {
@@ -488,10 +542,13 @@ public class ValidationService {
   @Nonnull
   protected ValidationEngine buildValidationEngine( CliContext cliContext, String definitions, TimeTracker timeTracker) throws IOException, URISyntaxException {
     System.out.print("  Load FHIR v" + cliContext.getSv() + " from " + definitions);
-    ValidationEngine validationEngine = getValidationEngineBuilder().withTHO(false).withVersion(cliContext.getSv()).withTimeTracker(timeTracker).withUserAgent(Common.getValidatorUserAgent()).fromSource(definitions);
+    ValidationEngine validationEngine = getValidationEngineBuilder().withTHO(false).withVersion(cliContext.getSv()).withTimeTracker(timeTracker).withUserAgent(Common.getValidatorUserAgent()).withSnapshotCache(cliContext.isSnapshotCache()).fromSource(definitions);
 
     System.out.println(" - " + validationEngine.getContext().countAllCaches() + " resources (" + timeTracker.milestone() + ")");
 
+    if (cliContext.isMinimalMemory()) {
+      validationEngine.getContext().setMinimalMemory(true);
+    }
     loadIgsAndExtensions(validationEngine, cliContext, timeTracker);
     System.out.print("  Get set... ");
     validationEngine.setQuestionnaireMode(cliContext.getQuestionnaireMode());
@@ -514,6 +571,7 @@ public class ValidationService {
     validationEngine.setHtmlInMarkdownCheck(cliContext.getHtmlInMarkdownCheck());
     validationEngine.setAllowDoubleQuotesInFHIRPath(cliContext.isAllowDoubleQuotesInFHIRPath());
     validationEngine.setNoExtensibleBindingMessages(cliContext.isNoExtensibleBindingMessages());
+    validationEngine.setBatchTerminology(cliContext.isBatchTerminology());
     validationEngine.setNoUnicodeBiDiControlChars(cliContext.isNoUnicodeBiDiControlChars());
     validationEngine.setNoInvariantChecks(cliContext.isNoInvariants());
     validationEngine.setDisplayWarnings(cliContext.isDisplayWarnings());
@@ -524,6 +582,8 @@ public class ValidationService {
     validationEngine.setCrumbTrails(cliContext.isCrumbTrails());
     validationEngine.setForPublication(cliContext.isForPublication());
     validationEngine.setShowTimes(cliContext.isShowTimes());
+    validationEngine.setThreads(cliContext.getThreads());
+    validationEngine.setBundleThreads(cliContext.getBundleThreads());
     validationEngine.setAllowExampleUrls(cliContext.isAllowExampleUrls());
     if (!cliContext.isDisableDefaultResourceFetcher()) {
       StandAloneValidatorFetcher fetcher = new StandAloneValidatorFetcher(validationEngine.getPcm(), validationEngine.getContext(), validationEngine);
@@ -553,6 +613,11 @@ public class ValidationService {
     for (String src : cliContext.getIgs()) {
       igLoader.loadIg(validationEngine.getIgs(), validationEngine.getBinaries(), src, cliContext.isRecursive());
     }
+    for (String src : cliContext.getTxSnapshots()) {
+      System.out.print("  Load Terminology Snapshot " + src);
+      int count = validationEngine.loadTerminologySnapshot(src);
+      System.out.println(" - " + count + " resources (" + timeTracker.milestone() + ")");
+    }
     System.out.println("  Package Summary: "+ validationEngine.getContext().loadedPackageSummary());
   }
 
@@ -583,6 +648,14 @@ public class ValidationService {
     throw new Exception("-> Multiple versions found. Specify a particular version using the -version parameter");
   }
 
+  public void buildTerminologySnapshot(CliContext cliContext, ValidationEngine validator) throws Exception {
+    if (cliContext.getOutput() == null) {
+      throw new Exception("Building a terminology snapshot requires the -output parameter to be set");
+    }
+    int count = validator.buildTerminologySnapshot(cliContext.getTxSnapshotId(), cliContext.getOutput());
+    System.out.println(" ...generated terminology snapshot "+cliContext.getOutput()+" ("+count+" resources and cache files)");
+  }
+
   public void generateSpreadsheet(CliContext cliContext, ValidationEngine validator) throws Exception {
     CanonicalResource cr = validator.loadCanonicalResource(cliContext.getSources().get(0), cliContext.getSv());
     boolean ok = true;
@@ -0,0 +1,43 @@
+package org.hl7.fhir.validation.cli.tasks;
+
+import java.io.PrintStream;
+
+import org.hl7.fhir.utilities.TimeTracker;
+import org.hl7.fhir.validation.ValidationEngine;
+import org.hl7.fhir.validation.cli.model.CliContext;
+import org.hl7.fhir.validation.cli.services.ValidationService;
+import org.hl7.fhir.validation.cli.utils.EngineMode;
+
+public class TxSnapshotTask extends ValidationEngineTask {
+
+  @Override
+  public String getName() {
+    return "tx-snapshot";
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Build Terminology Snapshot";
+  }
+
+  @Override
+  public boolean isHidden() {
+    return true;
+  }
+
+  @Override
+  public boolean shouldExecuteTask(CliContext cliContext, String[] args) {
+    return cliContext.getMode() == EngineMode.TX_SNAPSHOT;
+  }
+
+  @Override
+  public void printHelp(PrintStream out) {
+
+  }
+
+  @Override
+  public void executeTask(ValidationService validationService, ValidationEngine validationEngine, CliContext cliContext, String[] args, TimeTracker tt, TimeTracker.Session tts) throws Exception {
+    validationService.buildTerminologySnapshot(cliContext, validationEngine);
+  }
+
+}
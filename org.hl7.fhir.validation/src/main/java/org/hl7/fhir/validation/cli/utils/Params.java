@@ -113,6 +113,13 @@ public class Params {
   private static final String WATCH_MODE_PARAM = "-watch-mode";
   private static final String WATCH_SCAN_DELAY = "-watch-scan-delay";
   private static final String WATCH_SETTLE_TIME = "-watch-settle-time";
+  private static final String THREADS = "-threads";
+  private static final String BUNDLE_THREADS = "-bundle-threads";
+  private static final String MINIMAL_MEMORY = "-minimal-memory";
+  private static final String SNAPSHOT_CACHE = "-snapshot-cache";
+  private static final String TX_BATCH = "-tx-batch";
+  private static final String TX_SNAPSHOT = "-tx-snapshot";
+  private static final String BUILD_TX_SNAPSHOT = "-build-tx-snapshot";
 
   /**
    * Checks the list of passed in params to see if it contains the passed in param.
@@ -430,6 +437,36 @@ public class Params {
         } else {
           cliContext.setWatchScanDelay(readInteger(WATCH_SCAN_DELAY, args[++i]));
         }
+      } else if (args[i].equals(THREADS)) {
+        if (i + 1 == args.length) {
+          throw new Error("Specified -threads without indicating thread count");
+        } else {
+          cliContext.setThreads(readInteger(THREADS, args[++i]));
+        }
+      } else if (args[i].equals(BUNDLE_THREADS)) {
+        if (i + 1 == args.length) {
+          throw new Error("Specified -bundle-threads without indicating thread count");
+        } else {
+          cliContext.setBundleThreads(readInteger(BUNDLE_THREADS, args[++i]));
+        }
+      } else if (args[i].equals(MINIMAL_MEMORY)) {
+        cliContext.setMinimalMemory(true);
+      } else if (args[i].equals(TX_BATCH)) {
+        cliContext.setBatchTerminology(true);
+      } else if (args[i].equals(TX_SNAPSHOT)) {
+        if (i + 1 == args.length)
+          throw new Error("Specified -tx-snapshot without indicating snapshot file");
+        else
+          cliContext.addTxSnapshot(args[++i]);
+      } else if (args[i].equals(BUILD_TX_SNAPSHOT)) {
+        if (i + 1 == args.length) {
+          throw new Error("Specified -build-tx-snapshot without indicating the package id");
+        } else {
+          cliContext.setTxSnapshotId(args[++i]);
+          cliContext.setMode(EngineMode.TX_SNAPSHOT);
+        }
+      } else if (args[i].equals(SNAPSHOT_CACHE)) {
+        cliContext.setSnapshotCache(true);
       } else if (args[i].equals(WATCH_SETTLE_TIME)) {
           if (i + 1 == args.length) {
             throw new Error("Specified -watch-mode without indicating mode value");
@@ -66,6 +66,14 @@ public class CodingsObserver extends BaseValidator {
     
   }
 
+  /**
+   * move the codes seen by another observer (e.g. one used on another thread) to this one
+   */
+  public void takeCodes(CodingsObserver other) {
+    list.addAll(other.list);
+    other.list.clear();
+  }
+
   public void finish(List<ValidationMessage> errors, NodeStack rootStack) {
     if (checkIPSCodes) {
       System.out.println("");
@@ -41,19 +41,26 @@ import java.math.BigDecimal;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
 
@@ -79,6 +86,7 @@ import org.hl7.fhir.r5.elementmodel.ObjectConverter;
 import org.hl7.fhir.r5.elementmodel.ParserBase;
 import org.hl7.fhir.r5.elementmodel.ParserBase.ValidationPolicy;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode;
+import org.hl7.fhir.r5.fhirpath.FHIRPathEngine.CompiledExpression;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
 import org.hl7.fhir.r5.fhirpath.TypeDetails;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode.CollectionStatus;
@@ -222,6 +230,7 @@ import org.hl7.fhir.validation.instance.type.StructureMapValidator;
 import org.hl7.fhir.validation.instance.type.StructureMapValidator.VariableDefn;
 import org.hl7.fhir.validation.instance.type.StructureMapValidator.VariableSet;
 import org.hl7.fhir.validation.instance.type.ValueSetValidator;
+import org.hl7.fhir.validation.instance.utils.BundleEntryGroups;
 import org.hl7.fhir.validation.instance.utils.CanonicalResourceLookupResult;
 import org.hl7.fhir.validation.instance.utils.CanonicalTypeSorter;
 import org.hl7.fhir.validation.instance.utils.ChildIterator;
@@ -231,8 +240,10 @@ import org.hl7.fhir.validation.instance.utils.FHIRPathExpressionFixer;
 import org.hl7.fhir.validation.instance.utils.IndexedElement;
 import org.hl7.fhir.validation.instance.utils.NodeStack;
 import org.hl7.fhir.validation.instance.utils.ResolvedReference;
+import org.hl7.fhir.validation.instance.utils.SliceDiscriminatorValue;
 import org.hl7.fhir.validation.instance.utils.ResourceValidationTracker;
 import org.hl7.fhir.validation.instance.utils.StructureDefinitionSorterByUrl;
+import org.hl7.fhir.validation.instance.utils.TerminologyPrefetcher;
 import org.hl7.fhir.validation.instance.utils.ValidationContext;
 import org.w3c.dom.Document;
 
@@ -591,6 +602,9 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
   long lastlog = 0;
   private IEvaluationContext externalHostServices;
   private boolean noExtensibleWarnings;
+  private boolean batchTerminology;
+  private int bundleEntryThreads = 1;
+  private ExecutorService bundleExecutor;
   private String serverBase;
 
   private EnableWhenEvaluator myEnableWhenEvaluator = new EnableWhenEvaluator();
@@ -630,6 +644,76 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     codingObserver = new CodingsObserver(theContext, xverManager, debug);
   }
 
+  /**
+   * A validator with the same configuration as the parent, and a copy of the state of the current validation, 
+   * for validating part of the content on another thread. Anything that changes how content is validated 
+   * has to be copied here
+   */
+  private InstanceValidator(InstanceValidator parent) {
+    this(parent.context, parent.externalHostServices, null);
+    // configuration
+    this.checkDisplay = parent.checkDisplay;
+    this.anyExtensionsAllowed = parent.anyExtensionsAllowed;
+    this.errorForUnknownProfiles = parent.errorForUnknownProfiles;
+    this.noInvariantChecks = parent.noInvariantChecks;
+    this.wantInvariantInMessage = parent.wantInvariantInMessage;
+    this.noTerminologyChecks = parent.noTerminologyChecks;
+    this.hintAboutNonMustSupport = parent.hintAboutNonMustSupport;
+    this.showMessagesFromReferences = parent.showMessagesFromReferences;
+    this.validationLanguage = parent.validationLanguage;
+    this.baseOnly = parent.baseOnly;
+    this.noCheckAggregation = parent.noCheckAggregation;
+    this.wantCheckSnapshotUnchanged = parent.wantCheckSnapshotUnchanged;
+    this.noUnicodeBiDiControlChars = parent.noUnicodeBiDiControlChars;
+    this.htmlInMarkdownCheck = parent.htmlInMarkdownCheck;
+    this.allowComments = parent.allowComments;
+    this.allowDoubleQuotesInFHIRPath = parent.allowDoubleQuotesInFHIRPath;
+    this.igs = parent.igs;
+    this.extensionDomains.addAll(parent.extensionDomains);
+    this.resourceIdRule = parent.resourceIdRule;
+    this.allowXsiLocation = parent.allowXsiLocation;
+    this.suppressLoincSnomedMessages = parent.suppressLoincSnomedMessages;
+    this.noBindingMsgSuppressed = parent.noBindingMsgSuppressed;
+    this.policyAdvisor = parent.policyAdvisor;
+    this.noExtensibleWarnings = parent.noExtensibleWarnings;
+    this.batchTerminology = parent.batchTerminology;
+    this.serverBase = parent.serverBase;
+    this.tracker = parent.tracker;
+    this.assumeValidRestReferences = parent.assumeValidRestReferences;
+    this.securityChecks = parent.securityChecks;
+    this.crumbTrails = parent.crumbTrails;
+    this.bundleValidationRules.addAll(parent.bundleValidationRules);
+    this.validateValueSetCodesOnTxServer = parent.validateValueSetCodesOnTxServer;
+    this.questionnaireMode = parent.questionnaireMode;
+    this.testMode = parent.testMode;
+    this.example = parent.example;
+    this.signatureServices = parent.signatureServices;
+    this.codingObserver.setCheckIPSCodes(parent.codingObserver.isCheckIPSCodes());
+    this.fpe.setLegacyMode(parent.fpe.isLegacyMode());
+    this.fpe.setDoImplicitStringConversion(parent.fpe.isDoImplicitStringConversion());
+    this.fpe.setAllowDoubleQuotes(parent.fpe.isAllowDoubleQuotes());
+    this.logProgress = parent.logProgress;
+    this.level = parent.level;
+    this.jurisdiction = parent.jurisdiction;
+    this.allowExamples = parent.allowExamples;
+    this.forPublication = parent.forPublication;
+    this.debug = parent.debug;
+    this.warnOnDraftOrExperimental = parent.warnOnDraftOrExperimental;
+    this.bpWarnings = parent.bpWarnings;
+    this.usageContexts.addAll(parent.usageContexts);
+    this.baseOptions = parent.baseOptions;
+    this.fetcher = parent.fetcher;
+    this.getValidationControl().putAll(parent.getValidationControl());
+    // the state of the current validation
+    this.sessionId = parent.sessionId;
+    this.executionId = parent.executionId;
+    this.fetchCache.putAll(parent.fetchCache);
+    this.crLookups.putAll(parent.crLookups);
+    this.resourceTracker.putAll(parent.resourceTracker);
+    this.statusWarnings.addAll(parent.statusWarnings);
+    this.statusWarningMessages = new IdentityHashMap<>();
+  }
+
   @Override
   public boolean isNoExtensibleWarnings() {
     return noExtensibleWarnings;
@@ -992,6 +1076,10 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     setParents(element);
 
     long t = System.nanoTime();
+    if (batchTerminology && !noTerminologyChecks && baseOptions.isUseServer() && !context.isNoTerminologyServer()) {
+      new TerminologyPrefetcher(context, baseOptions, validationLanguage).prefetch(element);
+      timeTracker.tx(t, "tx prefetch");
+    }
     NodeStack stack = new NodeStack(context, path, element, validationLanguage);
     if (profiles == null || profiles.isEmpty()) {
       validateResource(new ValidationContext(appContext, element), errors, element, element, null, resourceIdRule, stack.resetIds(), null, new ValidationMode(ValidationReason.Validation, ProfileSource.BaseDefinition), false, false);
@@ -2118,7 +2206,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     if (ex == null) {
       if (extensionUrl != null && !isAbsolute(url)) {
         if (extensionUrl.equals(profile.getUrl())) {
-          ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, element.line(), element.col(), path + "[url='" + url + "']", hasExtensionSlice(profile, url), I18nConstants.EXTENSION_EXT_SUBEXTENSION_INVALID, url, profile.getVersionedUrl()) && ok;
+          ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, element.line(), element.col(), () -> path + "[url='" + url + "']", hasExtensionSlice(profile, url), I18nConstants.EXTENSION_EXT_SUBEXTENSION_INVALID, url, profile.getVersionedUrl()) && ok;
         }
       } else if (SpecialExtensions.isKnownExtension(url)) {
         ex = SpecialExtensions.getDefinition(url);
@@ -2134,9 +2222,9 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       trackUsage(ex, valContext, element);
       // check internal definitions are coherent
       if (isModifier) {
-        ok = rule(errors, NO_RULE_DATE, IssueType.STRUCTURE, element.line(), element.col(), path + "[url='" + url + "']", def.getIsModifier() == isModifier, I18nConstants.EXTENSION_EXT_MODIFIER_MISMATCHY) && ok;
+        ok = rule(errors, NO_RULE_DATE, IssueType.STRUCTURE, element.line(), element.col(), () -> path + "[url='" + url + "']", def.getIsModifier() == isModifier, I18nConstants.EXTENSION_EXT_MODIFIER_MISMATCHY) && ok;
       } else {
-        ok = rule(errors, NO_RULE_DATE, IssueType.STRUCTURE, element.line(), element.col(), path + "[url='" + url + "']", def.getIsModifier() == isModifier, I18nConstants.EXTENSION_EXT_MODIFIER_MISMATCHN) && ok;
+        ok = rule(errors, NO_RULE_DATE, IssueType.STRUCTURE, element.line(), element.col(), () -> path + "[url='" + url + "']", def.getIsModifier() == isModifier, I18nConstants.EXTENSION_EXT_MODIFIER_MISMATCHN) && ok;
       }
 
       // 1. can this extension be used here?
@@ -2144,9 +2232,9 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       ok = checkDefinitionStatus(errors, element, path, ex, profile, context.formatMessage(I18nConstants.MSG_DEPENDS_ON_EXTENSION)) && ok;
 
       if (isModifier)
-        ok = rule(errors, NO_RULE_DATE, IssueType.STRUCTURE, element.line(), element.col(), path + "[url='" + url + "']", ex.getSnapshot().getElement().get(0).getIsModifier(), I18nConstants.EXTENSION_EXT_MODIFIER_Y, url) && ok;
+        ok = rule(errors, NO_RULE_DATE, IssueType.STRUCTURE, element.line(), element.col(), () -> path + "[url='" + url + "']", ex.getSnapshot().getElement().get(0).getIsModifier(), I18nConstants.EXTENSION_EXT_MODIFIER_Y, url) && ok;
       else
-        ok = rule(errors, NO_RULE_DATE, IssueType.STRUCTURE, element.line(), element.col(), path + "[url='" + url + "']", !ex.getSnapshot().getElement().get(0).getIsModifier(), I18nConstants.EXTENSION_EXT_MODIFIER_N, url) && ok;
+        ok = rule(errors, NO_RULE_DATE, IssueType.STRUCTURE, element.line(), element.col(), () -> path + "[url='" + url + "']", !ex.getSnapshot().getElement().get(0).getIsModifier(), I18nConstants.EXTENSION_EXT_MODIFIER_N, url) && ok;
 
       // check the type of the extension:
       Set<String> allowedTypes = listExtensionTypes(ex);
@@ -4940,6 +5028,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       // GG: this approach is flawed because it treats discriminators individually rather than collectively
       StringBuilder expression = new StringBuilder("true");
       boolean anyFound = false;
+      String indexValue = null; // the value a single discriminator's only criteria element fixes (see SliceDiscriminatorValue)
       Set<String> discriminators = new HashSet<>();
       for (ElementDefinitionSlicingDiscriminatorComponent s : slicer.getSlicing().getDiscriminator()) {
         String discriminator = s.getPath();
@@ -5006,8 +5095,14 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
             }
           } else if (criteriaElement.hasFixed()) {
             buildFixedExpression(ed, expression, discriminator, criteriaElement);
+            if (criteriaElements.size() == 1) {
+              indexValue = SliceDiscriminatorValue.indexableValue(criteriaElement.getFixed());
+            }
           } else if (criteriaElement.hasPattern()) {
             buildPattternExpression(ed, expression, discriminator, criteriaElement);
+            if (criteriaElements.size() == 1) {
+              indexValue = SliceDiscriminatorValue.indexableValue(criteriaElement.getPattern());
+            }
           } else if (criteriaElement.hasBinding() && criteriaElement.getBinding().hasStrength() && criteriaElement.getBinding().getStrength().equals(BindingStrength.REQUIRED) && criteriaElement.getBinding().hasValueSet()) {
             expression.append(" and (" + discriminator + " memberOf '" + criteriaElement.getBinding().getValueSet() + "')");
           } else {
@@ -5030,10 +5125,25 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
         throw new FHIRException(context.formatMessage(I18nConstants.PROBLEM_PROCESSING_EXPRESSION__IN_PROFILE__PATH__, expression, profile.getVersionedUrl(), path, e.getMessage()));
       }
       timeTracker.fpe(t);
+      if (indexValue != null && slicer.getSlicing().getDiscriminator().size() == 1) {
+        ElementDefinitionSlicingDiscriminatorComponent s = slicer.getSlicing().getDiscriminatorFirstRep();
+        if ((s.getType() == DiscriminatorType.VALUE || s.getType() == DiscriminatorType.PATTERN) && SliceDiscriminatorValue.isSimplePath(s.getPath())) {
+          ed.setUserData("slice.expression.value", new SliceDiscriminatorValue(s.getPath(), indexValue));
+        }
+      }
       ed.setUserData("slice.expression.cache", n);
     } else {
     }
 
+    SliceDiscriminatorValue sdv = (SliceDiscriminatorValue) ed.getUserData("slice.expression.value");
+    Boolean matches = sdv == null ? null : sdv.matches(element);
+    if (matches != null) {
+      if (!matches) {
+        slicingHint(sliceInfo, NO_RULE_DATE, IssueType.STRUCTURE, element.line(), element.col(), path, false, isProfile(slicer), (context.formatMessage(I18nConstants.DOES_NOT_MATCH_SLICE_, ed.getSliceName(), n.toString().substring(8).trim())), "discriminator = " + Utilities.escapeXml(n.toString()), null);
+      }
+      return matches;
+    }
+
     ValidationContext shc = valContext.forSlicing();
     boolean pass = evaluateSlicingExpression(shc, element, path, profile, n);
     if (!pass) {
@@ -6153,8 +6263,12 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     // 4. check order if any slices are ordered. (todo)
         
     // 5. inspect each child for validity
-    for (ElementInfo ei : children) {
-      ok = checkChild(valContext, errors, profile, definition, resource, element, actualType, stack, inCodeableConcept, checkDisplayInContext, ei, extensionUrl, pct, mode) && ok;
+    if (bundleEntryThreads > 1 && element == resource && BUNDLE.equals(element.fhirType()) && !definition.getPath().contains(".") && valContext.getSliceRecords() == null) {
+      ok = checkBundleChildren(valContext, errors, profile, definition, resource, element, actualType, stack, inCodeableConcept, checkDisplayInContext, children, extensionUrl, pct, mode) && ok;
+    } else {
+      for (ElementInfo ei : children) {
+        ok = checkChild(valContext, errors, profile, definition, resource, element, actualType, stack, inCodeableConcept, checkDisplayInContext, ei, extensionUrl, pct, mode) && ok;
+      }
     }
 
     // check type invariants (after we've sliced the children)
@@ -6216,6 +6330,161 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     return childDefinitions;
   }
 
+  /**
+   * The outcome of validating a group of bundle entries on a worker thread: the messages for all the entries in 
+   * the group (in the order the entries are in the group), and where the messages for each entry end 
+   */
+  private static class BundleEntryGroupOutcome {
+    private List<ValidationMessage> errors = new ArrayList<>();
+    private Set<String> internalRefs;
+    private int[] ends;
+    private boolean[] oks;
+  }
+
+  /**
+   * Check the children of a bundle, validating the entries in parallel on bundleEntryThreads threads. 
+   * 
+   * The entries are split into groups that don't refer to each other (see BundleEntryGroups), and each group 
+   * is validated in document order by a worker with the same configuration as this validator. Everything the 
+   * workers produce is merged back here in document order, so the outcome is the same as checking the children 
+   * one at a time. Anything that looks across the entries (e.g. the checks in BundleValidator) happens after 
+   * this, on this thread.
+   * 
+   * If there's nothing to gain, or the entries can't be separated (e.g. there are ids outside the resources), 
+   * the children are just checked one at a time 
+   */
+  private boolean checkBundleChildren(ValidationContext valContext, List<ValidationMessage> errors, StructureDefinition profile, ElementDefinition definition,
+      Element resource, Element element, String actualType, NodeStack stack, boolean inCodeableConcept, boolean checkDisplayInContext, List<ElementInfo> children, String extensionUrl, PercentageTracker pct, ValidationMode mode) throws FHIRException {
+    boolean ok = true;
+    List<Element> entries = new ArrayList<>();
+    boolean parallel = true;
+    for (ElementInfo ei : children) {
+      if (ENTRY.equals(ei.getName())) {
+        entries.add(ei.getElement());
+        parallel = parallel && !BundleEntryGroups.hasIds(ei.getElement());
+      }
+    }
+    List<List<Integer>> groups = parallel && entries.size() > 1 ? BundleEntryGroups.group(entries) : null;
+    if (groups == null || groups.size() < 2) {
+      for (ElementInfo ei : children) {
+        ok = checkChild(valContext, errors, profile, definition, resource, element, actualType, stack, inCodeableConcept, checkDisplayInContext, ei, extensionUrl, pct, mode) && ok;
+      }
+      return ok;
+    }
+
+    // the children before the entries are checked first, as they would be anyway
+    int i = 0;
+    while (!ENTRY.equals(children.get(i).getName())) {
+      ok = checkChild(valContext, errors, profile, definition, resource, element, actualType, stack, inCodeableConcept, checkDisplayInContext, children.get(i), extensionUrl, pct, mode) && ok;
+      i++;
+    }
+    
+    List<ElementInfo> entryInfo = new ArrayList<>();
+    for (ElementInfo ei : children) {
+      if (ENTRY.equals(ei.getName())) {
+        entryInfo.add(ei);
+      }
+    }
+    // the workers share the bundle, so anything they'd build on it lazily has to be built now
+    indexBundleEntries(element, entries);
+
+    // each task takes an idle worker (or makes one) and gives it back when it's done, so there are never 
+    // more workers than threads, and none of them outlive this bundle
+    List<InstanceValidator> workers = new ArrayList<>();
+    Deque<InstanceValidator> idle = new ArrayDeque<>();
+    int[] entryGroups = new int[entries.size()];
+    int[] entryOffsets = new int[entries.size()];
+    List<BundleEntryGroupOutcome> outcomes = new ArrayList<>();
+    ExecutorService executor = getBundleExecutor();
+    try {
+      List<Future<BundleEntryGroupOutcome>> futures = new ArrayList<>();
+      for (int g = 0; g < groups.size(); g++) {
+        List<Integer> group = groups.get(g);
+        for (int j = 0; j < group.size(); j++) {
+          entryGroups[group.get(j)] = g;
+          entryOffsets[group.get(j)] = j;
+        }
+        futures.add(executor.submit(() -> {
+          InstanceValidator w;
+          synchronized (idle) {
+            w = idle.poll();
+            if (w == null) {
+              w = new InstanceValidator(this);
+              workers.add(w);
+            }
+          }
+          try {
+            BundleEntryGroupOutcome res = new BundleEntryGroupOutcome();
+            ValidationContext wc = valContext.forWorker();
+            res.ends = new int[group.size()];
+            res.oks = new boolean[group.size()];
+            for (int j = 0; j < group.size(); j++) {
+              res.oks[j] = w.checkChild(wc, res.errors, profile, definition, resource, element, actualType, stack, inCodeableConcept, checkDisplayInContext, entryInfo.get(group.get(j)), extensionUrl, pct, mode);
+              res.ends[j] = res.errors.size();
+            }
+            res.internalRefs = wc.getInternalRefs();
+            return res;
+          } finally {
+            synchronized (idle) {
+              idle.push(w);
+            }
+          }
+        }));
+      }
+      for (Future<BundleEntryGroupOutcome> future : futures) {
+        outcomes.add(future.get());
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause() == null ? e : e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new FHIRException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FHIRException(e);
+    }
+
+    // now merge everything back in document order
+    Map<ValidationMessage, String> statusWarningKeys = new IdentityHashMap<>();
+    for (InstanceValidator w : workers) {
+      statusWarningKeys.putAll(w.statusWarningMessages);
+    }
+    int entryIndex = 0;
+    for (; i < children.size(); i++) {
+      ElementInfo ei = children.get(i);
+      if (ENTRY.equals(ei.getName())) {
+        BundleEntryGroupOutcome outcome = outcomes.get(entryGroups[entryIndex]);
+        int offset = entryOffsets[entryIndex];
+        for (int j = offset == 0 ? 0 : outcome.ends[offset - 1]; j < outcome.ends[offset]; j++) {
+          ValidationMessage vm = outcome.errors.get(j);
+          String key = statusWarningKeys.get(vm);
+          // status warnings are only raised once, for the first use in document order
+          if (key == null || statusWarnings.add(key)) {
+            errors.add(vm);
+          }
+        }
+        ok = outcome.oks[offset] && ok;
+        entryIndex++;
+      } else {
+        ok = checkChild(valContext, errors, profile, definition, resource, element, actualType, stack, inCodeableConcept, checkDisplayInContext, ei, extensionUrl, pct, mode) && ok;
+      }
+    }
+    for (BundleEntryGroupOutcome outcome : outcomes) {
+      valContext.getInternalRefs().addAll(outcome.internalRefs);
+    }
+    for (InstanceValidator w : workers) {
+      statusWarnings.addAll(w.statusWarnings);
+      resourceTracker.putAll(w.resourceTracker);
+      crLookups.putAll(w.crLookups);
+      trackedMessages.addAll(w.trackedMessages);
+      messagesToRemove.addAll(w.messagesToRemove);
+      codingObserver.takeCodes(w.codingObserver);
+      timeTracker.add(w.timeTracker);
+    }
+    return ok;
+  }
+
   public boolean checkChild(ValidationContext valContext, List<ValidationMessage> errors, StructureDefinition profile, ElementDefinition definition,
     Element resource, Element element, String actualType, NodeStack stack, boolean inCodeableConcept, boolean checkDisplayInContext, ElementInfo ei, String extensionUrl, PercentageTracker pct, ValidationMode mode)
     throws FHIRException, DefinitionException {
@@ -6775,6 +7044,14 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     List<String> problematicPaths = new ArrayList<String>();
     String slicingPath = null;
     int sliceOffset = 0;
+    // a child can only match a definition with the same name, so only look at those children (in order)
+    Map<String, List<ElementInfo>> childrenByName = new HashMap<>();
+    for (ElementInfo ei : children) {
+      if (ei.sliceInfo == null) {
+        ei.sliceInfo = new ArrayList<>();
+      }
+      childrenByName.computeIfAbsent(ei.getName(), k -> new ArrayList<>()).add(ei);
+    }
     for (int i = 0; i < childDefinitions.getList().size(); i++) {
       ElementDefinition ed = childDefinitions.getList().get(i);
       boolean childUnsupportedSlicing = false;
@@ -6801,10 +7078,9 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       } else if (slicer != null && !slicer.getPath().equals(ed.getPath()))
         slicer = null;
 
-      for (ElementInfo ei : children) {
-        if (ei.sliceInfo == null) {
-          ei.sliceInfo = new ArrayList<>();
-        }
+      String name = tail(ed.getPath());
+      List<ElementInfo> candidates = name.endsWith("[x]") ? children : childrenByName.getOrDefault(name, Collections.emptyList());
+      for (ElementInfo ei : candidates) {
         unsupportedSlicing = matchSlice(valContext, errors, ei.sliceInfo, profile, stack, slicer, unsupportedSlicing, problematicPaths, sliceOffset, i, ed, childUnsupportedSlicing, ei, bh);
       }
     }
@@ -7105,6 +7381,11 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       timeTracker.fpe(t);
       inv.setUserData("validator.expression.cache", n);
     }
+    CompiledExpression c = (CompiledExpression) inv.getUserData("validator.expression.compiled");
+    if (c == null || c.getExpression() != n) {
+      c = fpe.compile(n);
+      inv.setUserData("validator.expression.compiled", c);
+    }
     
     valContext.setProfile(profile);
     
@@ -7112,7 +7393,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     String msg;
     try {
       long t = System.nanoTime();
-      invOK = fpe.evaluateToBoolean(valContext, resource, valContext.getRootResource(), element, n);
+      invOK = fpe.evaluateToBoolean(valContext, resource, valContext.getRootResource(), element, c);
       timeTracker.fpe(t);
       msg = fpe.forLog();
     } catch (Exception ex) {
@@ -7180,7 +7461,9 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
         defn = context.fetchResource(StructureDefinition.class, "http://hl7.org/fhir/StructureDefinition/" + resourceName);
       timeTracker.sd(t);
       //check exists
-      rok = rule(errors, NO_RULE_DATE, IssueType.INVALID, element.line(), element.col(), stack.addToLiteralPath(resourceName),
+      NodeStack typeStack = stack; // stack and resourceName change below, so the path is made from copies
+      String typeName = resourceName;
+      rok = rule(errors, NO_RULE_DATE, IssueType.INVALID, element.line(), element.col(), () -> typeStack.addToLiteralPath(typeName),
         defn != null, I18nConstants.VALIDATION_VAL_PROFILE_NODEFINITION, resourceName);
       ok = rok && ok;
     }
@@ -7387,6 +7670,56 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     return noTerminologyChecks;
   }
 
+  public boolean isBatchTerminology() {
+    return batchTerminology;
+  }
+
+  /**
+   * @param batchTerminology if true, the codes in a resource are sent to the terminology server in batches 
+   * before it is validated (see TerminologyPrefetcher), instead of one at a time as the validator gets to them 
+   */
+  public IResourceValidator setBatchTerminology(boolean batchTerminology) {
+    this.batchTerminology = batchTerminology;
+    return this;
+  }
+
+  public int getBundleEntryThreads() {
+    return bundleEntryThreads;
+  }
+
+  /**
+   * @param bundleEntryThreads if more than 1, the entries in a bundle are validated in parallel on this many threads 
+   * (entries that refer to each other are validated together). The results are the same as validating them one at a time
+   */
+  public IResourceValidator setBundleEntryThreads(int bundleEntryThreads) {
+    this.bundleEntryThreads = bundleEntryThreads;
+    return this;
+  }
+
+  /**
+   * The threads the entries in a bundle are validated on. If none has been provided, the validator makes 
+   * its own (bundleEntryThreads daemon threads) the first time it needs them, and keeps them for later bundles
+   */
+  private synchronized ExecutorService getBundleExecutor() {
+    if (bundleExecutor == null) {
+      bundleExecutor = Executors.newFixedThreadPool(bundleEntryThreads, r -> {
+        Thread t = new Thread(r, "bundle-entry-validation");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return bundleExecutor;
+  }
+
+  /**
+   * @param bundleExecutor the threads to validate the entries in a bundle on, so that validators can share them. 
+   * The validator doesn't shut it down
+   */
+  public IResourceValidator setBundleExecutor(ExecutorService bundleExecutor) {
+    this.bundleExecutor = bundleExecutor;
+    return this;
+  }
+
   public IResourceValidator setNoTerminologyChecks(boolean noTerminologyChecks) {
     this.noTerminologyChecks = noTerminologyChecks;
     return this;
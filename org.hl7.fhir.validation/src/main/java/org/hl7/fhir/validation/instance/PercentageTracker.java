@@ -33,7 +33,8 @@ public class PercentageTracker {
     return url;
   }
 
-  public void seeElement(Element e) {
+  // synchronized because the entries in a bundle may be validated in parallel
+  public synchronized void seeElement(Element e) {
     if (e.getInstanceId() != instance) {
       e.setInstanceId(instance);
       current++;
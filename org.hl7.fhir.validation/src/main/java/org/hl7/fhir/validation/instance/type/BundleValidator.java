@@ -1,8 +1,12 @@
 package org.hl7.fhir.validation.instance.type;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -103,7 +107,7 @@ public class BundleValidator extends BaseValidator {
 
       if (type.equals(DOCUMENT)) {
         Element resource = firstEntry.getNamedChild(RESOURCE, false);
-        if (rule(errors, NO_RULE_DATE, IssueType.INVALID, firstEntry.line(), firstEntry.col(), stack.addToLiteralPath(ENTRY, PATH_ARG), resource != null, I18nConstants.BUNDLE_BUNDLE_ENTRY_NOFIRSTRESOURCE)) {
+        if (rule(errors, NO_RULE_DATE, IssueType.INVALID, firstEntry.line(), firstEntry.col(), () -> stack.addToLiteralPath(ENTRY, PATH_ARG), resource != null, I18nConstants.BUNDLE_BUNDLE_ENTRY_NOFIRSTRESOURCE)) {
           String id = resource.getNamedChildValue(ID, false);
           ok = validateDocument(errors, bundle, entries, resource, firstStack.push(resource, -1, null, null), fullUrl, id) && ok;
         }
@@ -113,7 +117,7 @@ public class BundleValidator extends BaseValidator {
         ok = checkAllInterlinked(errors, entries, stack, bundle, false) && ok;
       } else if (type.equals(MESSAGE)) {
         Element resource = firstEntry.getNamedChild(RESOURCE, false);
-        if (rule(errors, NO_RULE_DATE, IssueType.INVALID, firstEntry.line(), firstEntry.col(), stack.addToLiteralPath(ENTRY, PATH_ARG), resource != null, I18nConstants.BUNDLE_BUNDLE_ENTRY_NOFIRSTRESOURCE)) {
+        if (rule(errors, NO_RULE_DATE, IssueType.INVALID, firstEntry.line(), firstEntry.col(), () -> stack.addToLiteralPath(ENTRY, PATH_ARG), resource != null, I18nConstants.BUNDLE_BUNDLE_ENTRY_NOFIRSTRESOURCE)) {
           String id = resource.getNamedChildValue(ID, false);
           ok = validateMessage(errors, entries, resource, firstStack.push(resource, -1, null, null), fullUrl, id) && ok;
           ok = checkAllInterlinked(errors, entries, stack, bundle, true) && ok;
@@ -140,8 +144,8 @@ public class BundleValidator extends BaseValidator {
       if (!Utilities.noString(fullUrl)) {
         if (Utilities.isAbsoluteUrl(fullUrl)) {
           if (rtype != null &&  fullUrl.matches(urlRegex)) {
-            if (rule(errors, "2023-11-13", IssueType.INVALID, entry.line(), entry.col(), stack.addToLiteralPath(ENTRY, PATH_ARG), id != null, I18nConstants.BUNDLE_ENTRY_URL_MATCHES_NO_ID, fullUrl)) {
-              ok = rule(errors, "2023-11-13", IssueType.INVALID, entry.line(), entry.col(), stack.addToLiteralPath(ENTRY, PATH_ARG), fullUrl.endsWith("/"+rtype+"/"+id), I18nConstants.BUNDLE_ENTRY_URL_MATCHES_TYPE_ID, fullUrl, rtype, id) && ok;
+            if (rule(errors, "2023-11-13", IssueType.INVALID, entry.line(), entry.col(), () -> stack.addToLiteralPath(ENTRY, PATH_ARG), id != null, I18nConstants.BUNDLE_ENTRY_URL_MATCHES_NO_ID, fullUrl)) {
+              ok = rule(errors, "2023-11-13", IssueType.INVALID, entry.line(), entry.col(), () -> stack.addToLiteralPath(ENTRY, PATH_ARG), fullUrl.endsWith("/"+rtype+"/"+id), I18nConstants.BUNDLE_ENTRY_URL_MATCHES_TYPE_ID, fullUrl, rtype, id) && ok;
             } else {
               ok = false;
             }
@@ -154,7 +158,7 @@ public class BundleValidator extends BaseValidator {
       if (url != null) {
         if (!(!url.equals(fullUrl) || (url.matches(urlRegex) && url.endsWith("/" + id))) && !isV3orV2Url(url))
           ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, entry.line(), entry.col(), stack.addToLiteralPath(ENTRY, PATH_ARG), false, I18nConstants.BUNDLE_BUNDLE_ENTRY_MISMATCHIDURL, url, fullUrl, id) && ok;
-        ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, entry.line(), entry.col(), stack.addToLiteralPath(ENTRY, PATH_ARG), !url.equals(fullUrl) || serverBase == null || (url.equals(Utilities.pathURL(serverBase, entry.getNamedChild(RESOURCE, false).fhirType(), id))), I18nConstants.BUNDLE_BUNDLE_ENTRY_CANONICAL, url, fullUrl) && ok;
+        ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, entry.line(), entry.col(), () -> stack.addToLiteralPath(ENTRY, PATH_ARG), !url.equals(fullUrl) || serverBase == null || (url.equals(Utilities.pathURL(serverBase, entry.getNamedChild(RESOURCE, false).fhirType(), id))), I18nConstants.BUNDLE_BUNDLE_ENTRY_CANONICAL, url, fullUrl) && ok;
       }
 
       if (!VersionUtilities.isR2Ver(context.getVersion())) {
@@ -628,12 +632,16 @@ public class BundleValidator extends BaseValidator {
   private boolean checkAllInterlinked(List<ValidationMessage> errors, List<Element> entries, NodeStack stack, Element bundle, boolean isMessage) {
     boolean ok = true;
     List<EntrySummary> entryList = new ArrayList<>();
+    Map<Element, EntrySummary> entryMap = new IdentityHashMap<>();
+    EntrySummary[] byIndex = new EntrySummary[entries.size()];
     int i = 0;
     for (Element entry : entries) {
       Element r = entry.getNamedChild(RESOURCE, false);
       if (r != null) {
         EntrySummary e = new EntrySummary(i, entry, r);
         entryList.add(e);
+        entryMap.put(entry, e);
+        byIndex[i] = e;
       }
       i++;
     }
@@ -643,65 +651,63 @@ public class BundleValidator extends BaseValidator {
       for (StringWithSource ref : references) {
         Element tgt = resolveInBundle(bundle, entries, ref.getReference(), e.getEntry().getChildValue(FULL_URL), e.getResource().fhirType(), e.getResource().getIdBase(), stack, errors, ref.getSource().getPath(), ref.getSource(), ref.isWarning() || true, ref.isNlLink());
         if (tgt != null) { 
-          EntrySummary t = entryForTarget(entryList, tgt); 
-          if (t != null ) { 
-            if (t != e) { 
-              e.getTargets().add(t); 
-            } else { 
-            } 
+          EntrySummary t = entryMap.get(tgt); 
+          if (t != null && t != e) { 
+            e.getTargets().add(t); 
+            t.getSources().add(e); 
           } 
         } 
       }
     }
 
+    // candidates are the entries that haven't been visited, but link to an entry that has (by entry index).
+    // Taking them in entry order, and going back to the start when the end is reached, finds the same 
+    // reverse links in the same order as scanning all the entries until a pass finds no more, but
+    // each entry is only looked at when one of its targets is visited
     Set<EntrySummary> visited = new HashSet<>();
+    BitSet candidates = new BitSet(entries.size());
     if (entryList.size() > 0) {
-      visitLinked(visited, entryList.get(0));
-    }
-    visitBundleLinks(visited, entryList, bundle);
-    boolean foundRevLinks;
-    do {
-      foundRevLinks = false;
-      for (EntrySummary e : entryList) {
-        if (!visited.contains(e)) {
-//          System.out.println("Not visited "+e.getIndex()+" - check for reverse links");             
-          boolean add = false;
-          for (EntrySummary t : e.getTargets()) {
-            if (visited.contains(t)) {
-              add = true;
-            }
-          }
-          if (add) {
-            if (isMessage) {
-              hint(errors, NO_RULE_DATE, IssueType.INFORMATIONAL, e.getEntry().line(), e.getEntry().col(), 
-                  stack.addToLiteralPath(ENTRY + '[' + (i + 1) + ']'), isExpectedToBeReverse(e.getResource().fhirType()), 
-                  I18nConstants.BUNDLE_BUNDLE_ENTRY_REVERSE_MSG, (e.getEntry().getChildValue(FULL_URL) != null ? "'" + e.getEntry().getChildValue(FULL_URL) + "'" : ""));              
-            } else {
-            // this was illegal up to R4B, but changed to be legal in R5
-            if (VersionUtilities.isR5VerOrLater(context.getVersion())) {
-              hint(errors, NO_RULE_DATE, IssueType.INFORMATIONAL, e.getEntry().line(), e.getEntry().col(), 
-                  stack.addToLiteralPath(ENTRY + '[' + (i + 1) + ']'), isExpectedToBeReverse(e.getResource().fhirType()), 
-                  I18nConstants.BUNDLE_BUNDLE_ENTRY_REVERSE_R5, (e.getEntry().getChildValue(FULL_URL) != null ? "'" + e.getEntry().getChildValue(FULL_URL) + "'" : ""));              
-            } else {
-              warning(errors, NO_RULE_DATE, IssueType.INVALID, e.getEntry().line(), e.getEntry().col(), 
-                stack.addToLiteralPath(ENTRY + '[' + (i + 1) + ']'), isExpectedToBeReverse(e.getResource().fhirType()), 
-                I18nConstants.BUNDLE_BUNDLE_ENTRY_REVERSE_R4, (e.getEntry().getChildValue(FULL_URL) != null ? "'" + e.getEntry().getChildValue(FULL_URL) + "'" : ""));
-            }
-            }
-            foundRevLinks = true;
-            visitLinked(visited, e);
-          }
+      visitLinked(visited, candidates, entryList.get(0));
+    }
+    visitBundleLinks(visited, candidates, entryList, bundle);
+    int c = candidates.nextSetBit(0);
+    while (c >= 0) {
+      candidates.clear(c);
+      EntrySummary e = byIndex[c];
+      if (!visited.contains(e)) {
+//        System.out.println("Not visited "+e.getIndex()+" - check for reverse links");             
+        if (isMessage) {
+          hint(errors, NO_RULE_DATE, IssueType.INFORMATIONAL, e.getEntry().line(), e.getEntry().col(), 
+              stack.addToLiteralPath(ENTRY + '[' + (i + 1) + ']'), isExpectedToBeReverse(e.getResource().fhirType()), 
+              I18nConstants.BUNDLE_BUNDLE_ENTRY_REVERSE_MSG, (e.getEntry().getChildValue(FULL_URL) != null ? "'" + e.getEntry().getChildValue(FULL_URL) + "'" : ""));              
+        } else {
+        // this was illegal up to R4B, but changed to be legal in R5
+        if (VersionUtilities.isR5VerOrLater(context.getVersion())) {
+          hint(errors, NO_RULE_DATE, IssueType.INFORMATIONAL, e.getEntry().line(), e.getEntry().col(), 
+              stack.addToLiteralPath(ENTRY + '[' + (i + 1) + ']'), isExpectedToBeReverse(e.getResource().fhirType()), 
+              I18nConstants.BUNDLE_BUNDLE_ENTRY_REVERSE_R5, (e.getEntry().getChildValue(FULL_URL) != null ? "'" + e.getEntry().getChildValue(FULL_URL) + "'" : ""));              
+        } else {
+          warning(errors, NO_RULE_DATE, IssueType.INVALID, e.getEntry().line(), e.getEntry().col(), 
+            stack.addToLiteralPath(ENTRY + '[' + (i + 1) + ']'), isExpectedToBeReverse(e.getResource().fhirType()), 
+            I18nConstants.BUNDLE_BUNDLE_ENTRY_REVERSE_R4, (e.getEntry().getChildValue(FULL_URL) != null ? "'" + e.getEntry().getChildValue(FULL_URL) + "'" : ""));
         }
+        }
+        visitLinked(visited, candidates, e);
+      }
+      c = candidates.nextSetBit(c + 1);
+      if (c < 0) {
+        c = candidates.nextSetBit(0);
       }
-    } while (foundRevLinks);
+    }
 
     i = 0;
     for (EntrySummary e : entryList) {
       Element entry = e.getEntry();
+      int index = i + 1;
       if (isMessage) {
-        warning(errors, NO_RULE_DATE, IssueType.INFORMATIONAL, entry.line(), entry.col(), stack.addToLiteralPath(ENTRY + '[' + (i + 1) + ']'), visited.contains(e), I18nConstants.BUNDLE_BUNDLE_ENTRY_ORPHAN_MESSAGE, (entry.getChildValue(FULL_URL) != null ? "'" + entry.getChildValue(FULL_URL) + "'" : ""));
+        warning(errors, NO_RULE_DATE, IssueType.INFORMATIONAL, entry.line(), entry.col(), () -> stack.addToLiteralPath(ENTRY + '[' + index + ']'), visited.contains(e), I18nConstants.BUNDLE_BUNDLE_ENTRY_ORPHAN_MESSAGE, (entry.getChildValue(FULL_URL) != null ? "'" + entry.getChildValue(FULL_URL) + "'" : ""));
       } else {
-        ok = rule(errors, NO_RULE_DATE, IssueType.INFORMATIONAL, entry.line(), entry.col(), stack.addToLiteralPath(ENTRY + '[' + (i + 1) + ']'), visited.contains(e), I18nConstants.BUNDLE_BUNDLE_ENTRY_ORPHAN_DOCUMENT, (entry.getChildValue(FULL_URL) != null ? "'" + entry.getChildValue(FULL_URL) + "'" : "")) && ok;
+        ok = rule(errors, NO_RULE_DATE, IssueType.INFORMATIONAL, entry.line(), entry.col(), () -> stack.addToLiteralPath(ENTRY + '[' + index + ']'), visited.contains(e), I18nConstants.BUNDLE_BUNDLE_ENTRY_ORPHAN_DOCUMENT, (entry.getChildValue(FULL_URL) != null ? "'" + entry.getChildValue(FULL_URL) + "'" : "")) && ok;
       }
       i++;
     }
@@ -710,7 +716,7 @@ public class BundleValidator extends BaseValidator {
 
 
 
-  private void visitBundleLinks(Set<EntrySummary> visited, List<EntrySummary> entryList, Element bundle) {
+  private void visitBundleLinks(Set<EntrySummary> visited, BitSet candidates, List<EntrySummary> entryList, Element bundle) {
     List<Element> links = bundle.getChildrenByName("link");
     for (Element link : links) {
       String rel = link.getNamedChildValue("relation", false);
@@ -720,7 +726,7 @@ public class BundleValidator extends BaseValidator {
           for (EntrySummary e : entryList) {
             if (e.getResource() != null) {
               if (url.equals(e.getResource().fhirType()+"/"+e.getResource().getIdBase())) {
-                visited.add(e);
+                markVisited(visited, candidates, e);
                 break;
               }
             }
@@ -784,22 +790,32 @@ public class BundleValidator extends BaseValidator {
     }
   }
 
-  private EntrySummary entryForTarget(List<EntrySummary> entryList, Element tgt) {
-    for (EntrySummary e : entryList) {
-      if (e.getEntry() == tgt) {
-        return e;
+  private void visitLinked(Set<EntrySummary> visited, BitSet candidates, EntrySummary t) {
+    // not recursive - chains of links in a bundle can be very long 
+    Deque<EntrySummary> todo = new ArrayDeque<>();
+    todo.push(t);
+    while (!todo.isEmpty()) {
+      EntrySummary e = todo.pop();
+      if (markVisited(visited, candidates, e)) {
+        for (EntrySummary tgt : e.getTargets()) {
+          if (!visited.contains(tgt)) {
+            todo.push(tgt);
+          }
+        }
       }
     }
-    return null;
   }
 
-  private void visitLinked(Set<EntrySummary> visited, EntrySummary t) {
-    if (!visited.contains(t)) {
-      visited.add(t);
-      for (EntrySummary e : t.getTargets()) {
-        visitLinked(visited, e);
+  private boolean markVisited(Set<EntrySummary> visited, BitSet candidates, EntrySummary e) {
+    if (!visited.add(e)) {
+      return false;
+    }
+    for (EntrySummary src : e.getSources()) {
+      if (!visited.contains(src)) {
+        candidates.set(src.getEntryIndex());
       }
     }
+    return true;
   }
 
   // not used?
@@ -832,15 +848,15 @@ public class BundleValidator extends BaseValidator {
 
   private List<StringWithSource> findReferences(Element start) {
     List<StringWithSource> references = new ArrayList<StringWithSource>();
-    findReferences(start, references);
+    findReferences(start, references, new HashSet<>());
     return references;
   }
 
-  private void findReferences(Element start, List<StringWithSource> references) {
+  private void findReferences(Element start, List<StringWithSource> references, Set<String> found) {
     for (Element child : start.getChildren()) {
       if (child.getType().equals("Reference")) {
         String ref = child.getChildValue("reference");
-        if (ref != null && !ref.startsWith("#") && !hasReference(ref, references))
+        if (ref != null && !ref.startsWith("#") && found.add(ref))
           references.add(new StringWithSource(ref, child, false, false));
       }
       if (Utilities.existsInList(child.getType(), "url", "uri"/*, "canonical"*/) &&
@@ -848,12 +864,12 @@ public class BundleValidator extends BaseValidator {
           !Utilities.existsInList(child.getProperty().getDefinition().getPath(), "Bundle.entry.fullUrl", "Coding.system",  "Identifier.system", "Meta.profile", "Extension.url", "Quantity.system",
               "MessageHeader.source.endpoint", "MessageHeader.destination.endpoint", "Endpoint.address")) {
         String ref = child.primitiveValue();
-        if (ref != null && !ref.startsWith("#") && !hasReference(ref, references))
+        if (ref != null && !ref.startsWith("#") && found.add(ref))
           references.add(new StringWithSource(ref, child, true, isNLLink(start)));
       }
       // don't walk into a sub-bundle 
       if (!"Bundle".equals(child.fhirType())) {
-        findReferences(child, references);
+        findReferences(child, references, found);
       }
     }
   }
@@ -863,15 +879,6 @@ public class BundleValidator extends BaseValidator {
     return parent != null && "extension".equals(parent.getName()) && "http://hl7.org/fhir/StructureDefinition/narrativeLink".equals(parent.getNamedChildValue("url", false));
   }
 
-  private boolean hasReference(String ref, List<StringWithSource> references) {
-    for (StringWithSource t : references) {
-      if (ref.equals(t.getReference())) {
-        return true;
-      }
-    }
-    return false;
-  }
-
   // hack for pre-UTG v2/v3
   private boolean isV3orV2Url(String url) {
     return url.startsWith("http://hl7.org/fhir/v3/") || url.startsWith("http://hl7.org/fhir/v2/");
@@ -125,9 +125,10 @@ public class ConceptMapValidator  extends BaseValidator {
         String type = property.getChildValue("type");
         String system = property.getChildValue("system");
         CodeSystem cs = system != null ? context.fetchCodeSystem(system) : null;
-        ok = rule(errors, "2023-03-05", IssueType.REQUIRED, property.line(), property.col(), stack.push(property, ci, null, null).getLiteralPath(), 
+        int index = ci;
+        ok = rule(errors, "2023-03-05", IssueType.REQUIRED, property.line(), property.col(), () -> stack.push(property, index, null, null).getLiteralPath(), 
             !"code".equals(type) || system != null, I18nConstants.CONCEPTMAP_GROUP_TARGET_PROPERTY_TYPE_NO_SYSTEM) && ok;
-        warning(errors, "2023-03-05", IssueType.REQUIRED, property.line(), property.col(), stack.push(property, ci, null, null).getLiteralPath(), 
+        warning(errors, "2023-03-05", IssueType.REQUIRED, property.line(), property.col(), () -> stack.push(property, index, null, null).getLiteralPath(), 
            system == null || cs != null, I18nConstants.CONCEPTMAP_GROUP_TARGET_PROPERTY_TYPE_UNKNOWN_SYSTEM, system);
         if (code != null) {
           props.put(code, new PropertyDefinition(type, system, cs));
@@ -222,18 +223,18 @@ public class ConceptMapValidator  extends BaseValidator {
     ctxt.sourceScope = sourceScope;
     ctxt.targetScope = targetScope;
     
-    Element e = grp.getNamedChild("source", false);
-    if (warning(errors, "2023-03-05", IssueType.REQUIRED, grp.line(), grp.col(), stack.getLiteralPath(), e != null, I18nConstants.CONCEPTMAP_GROUP_SOURCE_MISSING)) {
-      ctxt.source = readCSReference(e, grp.getNamedChild("sourceVersion", false), ctxt.getSourceVS());
+    Element source = grp.getNamedChild("source", false);
+    if (warning(errors, "2023-03-05", IssueType.REQUIRED, grp.line(), grp.col(), stack.getLiteralPath(), source != null, I18nConstants.CONCEPTMAP_GROUP_SOURCE_MISSING)) {
+      ctxt.source = readCSReference(source, grp.getNamedChild("sourceVersion", false), ctxt.getSourceVS());
       if (ctxt.source.cs != null) {
         if (isServerSideOnly(ctxt.source.cs)) {
-          hint(errors, "2024-03-25", IssueType.BUSINESSRULE, grp.line(), grp.col(), stack.push(e, -1, null, null).getLiteralPath(), false, I18nConstants.CONCEPTMAP_GROUP_SOURCE_SERVER_SIDE, e.getValue());
+          hint(errors, "2024-03-25", IssueType.BUSINESSRULE, grp.line(), grp.col(), stack.push(source, -1, null, null).getLiteralPath(), false, I18nConstants.CONCEPTMAP_GROUP_SOURCE_SERVER_SIDE, source.getValue());
           ctxt.source.cs = null;
-        } else if (!warning(errors, "2023-03-05", IssueType.NOTFOUND, grp.line(), grp.col(), stack.push(e, -1, null, null).getLiteralPath(), isOkCodeSystem(ctxt.source.cs), I18nConstants.CONCEPTMAP_GROUP_SOURCE_INCOMPLETE, e.getValue(), ctxt.source.cs.getContent().toCode())) {
+        } else if (!warning(errors, "2023-03-05", IssueType.NOTFOUND, grp.line(), grp.col(), () -> stack.push(source, -1, null, null).getLiteralPath(), isOkCodeSystem(ctxt.source.cs), I18nConstants.CONCEPTMAP_GROUP_SOURCE_INCOMPLETE, source.getValue(), ctxt.source.cs.getContent().toCode())) {
           ctxt.source.cs = null;
         }
       } else {
-        warning(errors, "2023-03-05", IssueType.NOTFOUND, grp.line(), grp.col(), stack.push(e, -1, null, null).getLiteralPath(), sourceScope != null, I18nConstants.CONCEPTMAP_GROUP_SOURCE_UNKNOWN, e.getValue());
+        warning(errors, "2023-03-05", IssueType.NOTFOUND, grp.line(), grp.col(), () -> stack.push(source, -1, null, null).getLiteralPath(), sourceScope != null, I18nConstants.CONCEPTMAP_GROUP_SOURCE_UNKNOWN, source.getValue());
       }
       if (ctxt.source.version == null && ctxt.source.cs != null && !CodeSystemUtilities.isExemptFromMultipleVersionChecking(ctxt.source.url)) {
           Set<String> possibleVersions = fetcher.fetchCanonicalResourceVersions(null, valContext.getAppContext(), ctxt.source.url);
@@ -241,18 +242,18 @@ public class ConceptMapValidator  extends BaseValidator {
               ctxt.source.url,  ctxt.source.cs.getVersion(), CommaSeparatedStringBuilder.join(", ", Utilities.sorted(possibleVersions)));
       }
     }
-    e = grp.getNamedChild("target", false);
-    if (warning(errors, "2023-03-05", IssueType.REQUIRED, grp.line(), grp.col(), stack.getLiteralPath(), e != null, I18nConstants.CONCEPTMAP_GROUP_TARGET_MISSING)) {
-      ctxt.target = readCSReference(e, grp.getNamedChild("targetVersion", false), ctxt.getTargetVS());
+    Element target = grp.getNamedChild("target", false);
+    if (warning(errors, "2023-03-05", IssueType.REQUIRED, grp.line(), grp.col(), stack.getLiteralPath(), target != null, I18nConstants.CONCEPTMAP_GROUP_TARGET_MISSING)) {
+      ctxt.target = readCSReference(target, grp.getNamedChild("targetVersion", false), ctxt.getTargetVS());
       if (ctxt.target.cs != null) {                              
         if (isServerSideOnly(ctxt.target.cs)) {
-          hint(errors, "2024-03-25", IssueType.BUSINESSRULE, grp.line(), grp.col(), stack.push(e, -1, null, null).getLiteralPath(), false, I18nConstants.CONCEPTMAP_GROUP_TARGET_SERVER_SIDE, e.getValue());
+          hint(errors, "2024-03-25", IssueType.BUSINESSRULE, grp.line(), grp.col(), stack.push(target, -1, null, null).getLiteralPath(), false, I18nConstants.CONCEPTMAP_GROUP_TARGET_SERVER_SIDE, target.getValue());
           ctxt.target.cs = null;
-        } else if (!warning(errors, "2023-03-05", IssueType.NOTFOUND, grp.line(), grp.col(), stack.push(e, -1, null, null).getLiteralPath(), isOkCodeSystem(ctxt.target.cs), I18nConstants.CONCEPTMAP_GROUP_TARGET_INCOMPLETE, e.getValue(), ctxt.target.cs.getContent().toCode())) {
+        } else if (!warning(errors, "2023-03-05", IssueType.NOTFOUND, grp.line(), grp.col(), () -> stack.push(target, -1, null, null).getLiteralPath(), isOkCodeSystem(ctxt.target.cs), I18nConstants.CONCEPTMAP_GROUP_TARGET_INCOMPLETE, target.getValue(), ctxt.target.cs.getContent().toCode())) {
           ctxt.target.cs = null;
         }
       } else {
-        warning(errors, "2023-03-05", IssueType.NOTFOUND, grp.line(), grp.col(), stack.push(e, -1, null, null).getLiteralPath(), targetScope != null, I18nConstants.CONCEPTMAP_GROUP_TARGET_UNKNOWN, e.getValue());                              
+        warning(errors, "2023-03-05", IssueType.NOTFOUND, grp.line(), grp.col(), () -> stack.push(target, -1, null, null).getLiteralPath(), targetScope != null, I18nConstants.CONCEPTMAP_GROUP_TARGET_UNKNOWN, target.getValue());                              
         
       }
       if (ctxt.target.version == null && ctxt.target.cs != null && !CodeSystemUtilities.isExemptFromMultipleVersionChecking(ctxt.target.url)) {
@@ -391,7 +392,7 @@ public class ConceptMapValidator  extends BaseValidator {
     Element codeE = property.getNamedChild("code", false);
     Element valueE = property.getNamedChild("value", false);
     String code = codeE.getValue();
-    if (rule(errors, "2023-03-05", IssueType.REQUIRED, codeE.line(), codeE.col(), stack.push(codeE, -1, null, null).getLiteralPath(), props.containsKey(code), I18nConstants.CONCEPTMAP_GROUP_TARGET_PROPERTY_INVALID, code, props.keySet())) {
+    if (rule(errors, "2023-03-05", IssueType.REQUIRED, codeE.line(), codeE.col(), () -> stack.push(codeE, -1, null, null).getLiteralPath(), props.containsKey(code), I18nConstants.CONCEPTMAP_GROUP_TARGET_PROPERTY_INVALID, code, props.keySet())) {
       PropertyDefinition defn = props.get(code);
       NodeStack stackV = stack.push(valueE, -1, null, null);
       if (rule(errors, "2023-03-05", IssueType.REQUIRED, codeE.line(), codeE.col(), stackV.getLiteralPath(), valueE.fhirType().equals(defn.getType()), I18nConstants.CONCEPTMAP_GROUP_TARGET_PROPERTY_TYPE_MISMATCH, valueE.fhirType(), defn.getType())) {
@@ -417,7 +418,7 @@ public class ConceptMapValidator  extends BaseValidator {
     Element codeE = attribute.getNamedChild("attribute", false);
     Element valueE = attribute.getNamedChild("value", false);
     String code = codeE.getValue();
-    if (rule(errors, "2023-03-05", IssueType.REQUIRED, codeE.line(), codeE.col(), stack.push(codeE, -1, null, null).getLiteralPath(), attribs.containsKey(code), I18nConstants.CONCEPTMAP_GROUP_TARGET_PROPERTY_INVALID, code, attribs.keySet())) {
+    if (rule(errors, "2023-03-05", IssueType.REQUIRED, codeE.line(), codeE.col(), () -> stack.push(codeE, -1, null, null).getLiteralPath(), attribs.containsKey(code), I18nConstants.CONCEPTMAP_GROUP_TARGET_PROPERTY_INVALID, code, attribs.keySet())) {
       NodeStack stackV = stack.push(valueE, -1, null, null);
       ok = rule(errors, "2023-03-05", IssueType.REQUIRED, codeE.line(), codeE.col(), stackV.getLiteralPath(), valueE.fhirType().equals(attribs.get(code)), I18nConstants.CONCEPTMAP_GROUP_TARGET_PROPERTY_TYPE_MISMATCH, valueE.fhirType(), attribs.get(code)) && ok;        
     } else {
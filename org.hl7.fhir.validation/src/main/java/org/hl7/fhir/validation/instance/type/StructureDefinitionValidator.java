@@ -525,26 +525,26 @@ public class StructureDefinitionValidator extends BaseValidator {
         // if we see fixed[x] or pattern[x] applied to a repeating element, we'll give the user a hint
         boolean repeating = !Utilities.existsInList(element.getChildValue("max"), "0", "1");
 
-        Element v = element.getNamedChild("defaultValue", false);
-        if (v != null) {
-          ok = rule(errors, NO_RULE_DATE, IssueType.EXCEPTION, stack.push(v, -1, null, null).getLiteralPath(), typeCodes.contains(v.fhirType()), I18nConstants.SD_VALUE_TYPE_IILEGAL, element.getIdBase(), "defaultValue", v.fhirType(), typeCodes) && ok;
+        Element dv = element.getNamedChild("defaultValue", false);
+        if (dv != null) {
+          ok = rule(errors, NO_RULE_DATE, IssueType.EXCEPTION, () -> stack.push(dv, -1, null, null).getLiteralPath(), typeCodes.contains(dv.fhirType()), I18nConstants.SD_VALUE_TYPE_IILEGAL, element.getIdBase(), "defaultValue", dv.fhirType(), typeCodes) && ok;
         }
-        v = element.getNamedChild("fixed", false);
-        if (v != null) {
-          ok = rule(errors, NO_RULE_DATE, IssueType.EXCEPTION, stack.push(v, -1, null, null).getLiteralPath(), typeCodes.contains(v.fhirType()), I18nConstants.SD_VALUE_TYPE_IILEGAL, element.getIdBase(), "fixed", v.fhirType(), typeCodes) && ok;
-          hint(errors, NO_RULE_DATE, IssueType.EXCEPTION, stack.push(v, -1, null, null).getLiteralPath(), !repeating, I18nConstants.SD_VALUE_TYPE_REPEAT_HINT, element.getIdBase(), "fixed");
-          if (context.isPrimitiveType(v.fhirType())) {
-            warning(errors, NO_RULE_DATE, IssueType.EXCEPTION, stack.push(v, -1, null, null).getLiteralPath(), !repeating, I18nConstants.SD_VALUE_TYPE_REPEAT_WARNING_DOTNET, element.getIdBase(), "fixed");
+        Element fv = element.getNamedChild("fixed", false);
+        if (fv != null) {
+          ok = rule(errors, NO_RULE_DATE, IssueType.EXCEPTION, () -> stack.push(fv, -1, null, null).getLiteralPath(), typeCodes.contains(fv.fhirType()), I18nConstants.SD_VALUE_TYPE_IILEGAL, element.getIdBase(), "fixed", fv.fhirType(), typeCodes) && ok;
+          hint(errors, NO_RULE_DATE, IssueType.EXCEPTION, () -> stack.push(fv, -1, null, null).getLiteralPath(), !repeating, I18nConstants.SD_VALUE_TYPE_REPEAT_HINT, element.getIdBase(), "fixed");
+          if (context.isPrimitiveType(fv.fhirType())) {
+            warning(errors, NO_RULE_DATE, IssueType.EXCEPTION, () -> stack.push(fv, -1, null, null).getLiteralPath(), !repeating, I18nConstants.SD_VALUE_TYPE_REPEAT_WARNING_DOTNET, element.getIdBase(), "fixed");
           } else {
-            warning(errors, NO_RULE_DATE, IssueType.EXCEPTION, stack.push(v, -1, null, null).getLiteralPath(), false, I18nConstants.SD_VALUE_COMPLEX_FIXED, v.fhirType());            
+            warning(errors, NO_RULE_DATE, IssueType.EXCEPTION, stack.push(fv, -1, null, null).getLiteralPath(), false, I18nConstants.SD_VALUE_COMPLEX_FIXED, fv.fhirType());            
           }
         }
-        v = element.getNamedChild("pattern", false);
-        if (v != null) {
-          ok = rule(errors, NO_RULE_DATE, IssueType.EXCEPTION, stack.push(v, -1, null, null).getLiteralPath(), typeCodes.contains(v.fhirType()), I18nConstants.SD_VALUE_TYPE_IILEGAL, element.getIdBase(), "pattern", v.fhirType(), typeCodes) && ok;
-          hint(errors, NO_RULE_DATE, IssueType.EXCEPTION, stack.push(v, -1, null, null).getLiteralPath(), !repeating, I18nConstants.SD_VALUE_TYPE_REPEAT_HINT, element.getIdBase(), "pattern");
-          if (context.isPrimitiveType(v.fhirType())) {
-            warning(errors, NO_RULE_DATE, IssueType.EXCEPTION, stack.push(v, -1, null, null).getLiteralPath(), !repeating, I18nConstants.SD_VALUE_TYPE_REPEAT_WARNING_DOTNET, element.getIdBase(), "pattern");
+        Element pv = element.getNamedChild("pattern", false);
+        if (pv != null) {
+          ok = rule(errors, NO_RULE_DATE, IssueType.EXCEPTION, () -> stack.push(pv, -1, null, null).getLiteralPath(), typeCodes.contains(pv.fhirType()), I18nConstants.SD_VALUE_TYPE_IILEGAL, element.getIdBase(), "pattern", pv.fhirType(), typeCodes) && ok;
+          hint(errors, NO_RULE_DATE, IssueType.EXCEPTION, () -> stack.push(pv, -1, null, null).getLiteralPath(), !repeating, I18nConstants.SD_VALUE_TYPE_REPEAT_HINT, element.getIdBase(), "pattern");
+          if (context.isPrimitiveType(pv.fhirType())) {
+            warning(errors, NO_RULE_DATE, IssueType.EXCEPTION, () -> stack.push(pv, -1, null, null).getLiteralPath(), !repeating, I18nConstants.SD_VALUE_TYPE_REPEAT_WARNING_DOTNET, element.getIdBase(), "pattern");
           }
         }
       } else {
@@ -361,7 +361,8 @@ public class StructureMapValidator extends BaseValidator {
     cc = 0;
     for (Element group : groups) {
       if (!group.hasUserData("structuremap.validated")) {
-        hint(errors, "2023-03-01", IssueType.INFORMATIONAL, group.line(), group.col(), stack.push(group, cc, null, null).getLiteralPath(), ok, I18nConstants.SM_ORPHAN_GROUP, group.getChildValue("name"));
+        int index = cc;
+        hint(errors, "2023-03-01", IssueType.INFORMATIONAL, group.line(), group.col(), () -> stack.push(group, index, null, null).getLiteralPath(), ok, I18nConstants.SM_ORPHAN_GROUP, group.getChildValue("name"));
         ok = validateGroup(valContext, errors, src, group, stack.push(group, cc, null, null), grpNames) && ok;
       }
       cc++;
@@ -405,7 +406,7 @@ public class StructureMapValidator extends BaseValidator {
     Element extend = group.getNamedChild("extends", false);
     if (extend != null) {
       ResolvedGroup grp = resolveGroup(extend.primitiveValue(), src);
-      if (rule(errors, "2023-03-01", IssueType.NOTSUPPORTED, extend.line(), extend.col(), stack.push(extend, -1, null, null).getLiteralPath(), grp != null, I18nConstants.SM_RULEGROUP_NOT_FOUND, extend.primitiveValue())) {
+      if (rule(errors, "2023-03-01", IssueType.NOTSUPPORTED, extend.line(), extend.col(), () -> stack.push(extend, -1, null, null).getLiteralPath(), grp != null, I18nConstants.SM_RULEGROUP_NOT_FOUND, extend.primitiveValue())) {
         // check inputs 
       } else {
         ok = false;
@@ -0,0 +1,171 @@
+package org.hl7.fhir.validation.instance.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.utilities.Utilities;
+
+/**
+ * Splits the entries in a bundle into groups that can be validated independently of each other.
+ * <p>
+ * When an entry is validated, the validator can follow references into the other entries in the bundle
+ * (and validate them against profiles, etc). So any entry that might refer to another entry has to be
+ * in the same group as it. This is deliberately conservative: anything in an entry that looks like it
+ * might be a reference (any uri, url, canonical, oid, uuid, or reference) is matched against anything that
+ * might identify another entry (fullUrl, type/id, id, url), including the tails of both
+ * (e.g. Patient/123 matches http://server/fhir/Patient/123).
+ * <p>
+ * Groups are returned in the order of their first entry, and the entries in each group are in document order
+ */
+public class BundleEntryGroups {
+
+  private static final Set<String> URI_TYPES = new HashSet<>(Arrays.asList("uri", "url", "canonical", "oid", "uuid"));
+
+  private int[] parents;
+
+  private BundleEntryGroups(int size) {
+    parents = new int[size];
+    for (int i = 0; i < size; i++) {
+      parents[i] = i;
+    }
+  }
+
+  /**
+   * @return the indexes of the entries in each group
+   */
+  public static List<List<Integer>> group(List<Element> entries) {
+    BundleEntryGroups groups = new BundleEntryGroups(entries.size());
+    Map<String, Integer> owners = new HashMap<>();
+    for (int i = 0; i < entries.size(); i++) {
+      for (String key : identityKeys(entries.get(i))) {
+        Integer owner = owners.putIfAbsent(key, i);
+        if (owner != null) {
+          groups.union(owner, i);
+        }
+      }
+    }
+    for (int i = 0; i < entries.size(); i++) {
+      List<String> refs = new ArrayList<>();
+      listReferences(entries.get(i), refs);
+      for (String ref : refs) {
+        for (String key : keys(ref)) {
+          Integer owner = owners.get(key);
+          if (owner != null) {
+            groups.union(owner, i);
+          }
+        }
+      }
+    }
+    Map<Integer, List<Integer>> res = new LinkedHashMap<>();
+    for (int i = 0; i < entries.size(); i++) {
+      res.computeIfAbsent(groups.find(i), k -> new ArrayList<>()).add(i);
+    }
+    return new ArrayList<>(res.values());
+  }
+
+  /**
+   * Ids are checked for uniqueness along the path to the first resource, so if anything in the entries
+   * outside the resources has an id, the entries depend on each other
+   *
+   * @return true if the entry has an id anywhere outside the resource(s) in it
+   */
+  public static boolean hasIds(Element entry) {
+    if (entry.hasChildren()) {
+      for (Element child : entry.getChildren()) {
+        if (!child.isResource() && ("id".equals(child.getName()) || hasIds(child))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private int find(int i) {
+    while (parents[i] != i) {
+      parents[i] = parents[parents[i]];
+      i = parents[i];
+    }
+    return i;
+  }
+
+  private void union(int i, int j) {
+    int ri = find(i);
+    int rj = find(j);
+    // the lower index is the root, so groups are keyed by their first entry
+    if (ri < rj) {
+      parents[rj] = ri;
+    } else if (rj < ri) {
+      parents[ri] = rj;
+    }
+  }
+
+  private static List<String> identityKeys(Element entry) {
+    List<String> res = new ArrayList<>();
+    String fu = entry.getChildValue("fullUrl");
+    if (!Utilities.noString(fu)) {
+      res.addAll(keys(fu));
+    }
+    Element resource = entry.getNamedChild("resource", false);
+    if (resource != null) {
+      String id = resource.getChildValue("id");
+      if (!Utilities.noString(id)) {
+        res.add(resource.fhirType()+"/"+id);
+        res.add(id);
+      }
+      String url = resource.getChildValue("url");
+      if (!Utilities.noString(url)) {
+        res.addAll(keys(url));
+      }
+    }
+    return res;
+  }
+
+  private static void listReferences(Element element, List<String> refs) {
+    if (element.hasChildren()) {
+      for (Element child : element.getChildren()) {
+        if ((URI_TYPES.contains(child.fhirType()) || "reference".equals(child.getName())) && child.hasPrimitiveValue()) {
+          String v = child.primitiveValue();
+          if (!Utilities.noString(v)) {
+            refs.add(v);
+          }
+        }
+        listReferences(child, refs);
+      }
+    }
+  }
+
+  private static List<String> keys(String ref) {
+    List<String> res = new ArrayList<>();
+    if (ref.contains("#")) {
+      ref = ref.substring(0, ref.indexOf("#"));
+    }
+    if (ref.contains("|")) {
+      ref = ref.substring(0, ref.indexOf("|"));
+    }
+    if (ref.contains("/_history")) {
+      ref = ref.substring(0, ref.indexOf("/_history"));
+    }
+    if (!Utilities.noString(ref)) {
+      res.add(ref);
+      if (ref.contains("/")) {
+        String tail = ref.substring(ref.lastIndexOf("/") + 1);
+        res.add(tail);
+        String head = ref.substring(0, ref.lastIndexOf("/"));
+        if (head.contains("/")) {
+          res.add(head.substring(head.lastIndexOf("/") + 1)+"/"+tail);
+        }
+      }
+      if (ref.contains(":")) {
+        res.add(ref.substring(ref.lastIndexOf(":") + 1));
+      }
+    }
+    return res;
+  }
+}
@@ -10,6 +10,7 @@ public class EntrySummary {
     Element entry;
     Element resource;
     List<EntrySummary> targets = new ArrayList<>();
+    List<EntrySummary> sources = new ArrayList<>(); // the entries that have this entry as a target
     private int index;
 
     public Element getEntry() {
@@ -39,6 +40,10 @@ public class EntrySummary {
         return this;
     }
 
+    public List<EntrySummary> getSources() {
+        return sources;
+    }
+
     public EntrySummary(int i, Element entry, Element resource) {
       this.index = i;
       this.entry = entry;
@@ -52,4 +57,8 @@ public class EntrySummary {
     public String getIndex() {
       return Integer.toString(index);
     }
+
+    public int getEntryIndex() {
+      return index;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+package org.hl7.fhir.validation.instance.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.model.DataType;
+import org.hl7.fhir.r5.model.StringType;
+import org.hl7.fhir.r5.model.UriType;
+
+/**
+ * The value of a slice's discriminator, where the slice is picked out by a single value or pattern discriminator
+ * that's a plain path to a string or uri (e.g. extension url, or identifier.system). Most large slice groups are
+ * like this, and checking the value directly is much cheaper than evaluating the discriminator expression
+ * for every element against every slice. The outcome is the same as evaluating the expression
+ * (that the value is one of the values at the path)
+ */
+public class SliceDiscriminatorValue {
+  private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList("and", "or", "xor", "implies", "is", "as", "in", "contains", "div", "mod", "true", "false"));
+
+  private final String[] steps;
+  private final String value;
+
+  public SliceDiscriminatorValue(String path, String value) {
+    this.steps = path.split("\\.");
+    this.value = value;
+  }
+
+  public static boolean isSimplePath(String path) {
+    if (path == null || !path.matches("[A-Za-z][A-Za-z0-9_]*(\\.[A-Za-z][A-Za-z0-9_]*)*")) {
+      return false;
+    }
+    for (String step : path.split("\\.")) {
+      if (KEYWORDS.contains(step)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the value that the discriminator has to have, or null if the fixed value or pattern isn't a plain string or uri
+   */
+  public static String indexableValue(DataType value) {
+    if (!(value instanceof StringType || value instanceof UriType) || value.hasExtension()) {
+      return null;
+    }
+    String v = value.primitiveValue();
+    if (v == null) {
+      return null;
+    }
+    for (char c : v.toCharArray()) {
+      if (c == '\'' || c == '\\' || c < ' ') {
+        return null;
+      }
+    }
+    return v;
+  }
+
+  /**
+   * @return whether the element has the value at the path, or null if that can't be determined without evaluating
+   * the expression (e.g. the path might go through a choice element)
+   */
+  public Boolean matches(Element element) {
+    List<Element> focus = new ArrayList<>();
+    focus.add(element);
+    for (String step : steps) {
+      List<Element> next = new ArrayList<>();
+      for (Element e : focus) {
+        if (e.hasChildren()) {
+          next.addAll(e.getChildren(step));
+        }
+      }
+      if (next.isEmpty()) {
+        return null;
+      }
+      focus = next;
+    }
+    for (Element e : focus) {
+      if (!e.isPrimitive()) {
+        return null;
+      }
+    }
+    for (Element e : focus) {
+      if (value.equals(e.primitiveValue())) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,180 @@
+package org.hl7.fhir.validation.instance.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.elementmodel.ObjectConverter;
+import org.hl7.fhir.r5.model.CodeableConcept;
+import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.ElementDefinition.ElementDefinitionBindingComponent;
+import org.hl7.fhir.r5.model.Enumerations.BindingStrength;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.terminologies.utilities.CodingValidationRequest;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.validation.ValidationOptions;
+
+/**
+ * The first pass of two phase terminology validation: walk a resource (e.g. a large bundle) before it is
+ * validated, collect the codes that the validator is going to ask the terminology server about, and ask
+ * about them all at once with validateCodeBatch (one batch per server, and per language), which puts the
+ * answers in the terminology cache.
+ * <p>
+ * The second pass is just the normal validation: when the validator gets to each code, it finds the
+ * answer in the cache, and reports any issues against the element it is looking at, as usual.
+ * <p>
+ * Only codes whose validation can be predicted from the resource itself are collected: CodeableConcepts, and
+ * Codings (outside CodeableConcepts) with a binding in the base definition of the element. Codes in extensions
+ * and codes that are bound differently in a profile are left to the normal pass. Collecting a code that the
+ * validator doesn't end up asking about costs some time on the server, but not a round trip
+ */
+public class TerminologyPrefetcher {
+
+  private static final int MAX_BATCH_SIZE = 1000;
+
+  private final IWorkerContext context;
+  private final ValidationOptions baseOptions;
+  private final String validationLanguage;
+  private final Map<String, List<CodingValidationRequest>> requests = new LinkedHashMap<>(); // by language
+  private final Set<String> seen = new HashSet<>();
+  private int count;
+
+  public TerminologyPrefetcher(IWorkerContext context, ValidationOptions baseOptions, String validationLanguage) {
+    super();
+    this.context = context;
+    this.baseOptions = baseOptions;
+    this.validationLanguage = validationLanguage;
+  }
+
+  /**
+   * @return the number of distinct codes that were sent to the server(s)
+   */
+  public int getCount() {
+    return count;
+  }
+
+  public void prefetch(Element resource) {
+    collect(resource, validationLanguage);
+    for (String lang : requests.keySet()) {
+      ValidationOptions options = baseOptions.withLanguage(lang);
+      List<CodingValidationRequest> list = requests.get(lang);
+      for (int i = 0; i < list.size(); i += MAX_BATCH_SIZE) {
+        List<CodingValidationRequest> batch = list.subList(i, Integer.min(list.size(), i + MAX_BATCH_SIZE));
+        try {
+          context.validateCodeBatch(options, batch, null);
+          count += batch.size();
+        } catch (Exception e) {
+          // nothing - the codes will be validated one at a time when the validator gets to them
+        }
+      }
+    }
+  }
+
+  private void collect(Element element, String lang) {
+    if (element.isResource()) {
+      String l = element.getNamedChildValue("language", false);
+      if (!Utilities.noString(l)) {
+        lang = l;
+      }
+    }
+    if (element.hasChildren()) {
+      for (Element child : element.getChildren()) {
+        if (Utilities.existsInList(child.getName(), "extension", "modifierExtension")) {
+          continue;
+        }
+        if ("CodeableConcept".equals(child.fhirType())) {
+          seeCodeableConcept(child, lang);
+        } else if ("Coding".equals(child.fhirType())) {
+          seeCoding(child, lang);
+        } else {
+          collect(child, lang);
+        }
+      }
+    }
+  }
+
+  private void seeCodeableConcept(Element element, String lang) {
+    CodeableConcept cc = ObjectConverter.readAsCodeableConcept(element);
+    if (!cc.hasCoding()) {
+      return;
+    }
+    ElementDefinitionBindingComponent binding = getBinding(element);
+    if (binding == null) {
+      // the validator checks the codes without a value set
+      see(new CodingValidationRequest(cc, null), lang, key(cc));
+    } else {
+      ValueSet vs = resolve(element, binding);
+      if (vs != null) {
+        see(new CodingValidationRequest(cc, vs), lang, key(vs)+"|"+key(cc));
+        // if the CodeableConcept is ok, the validator also checks each coding against the value set
+        for (Coding c : cc.getCoding()) {
+          if (c.hasSystem() && c.hasCode() && context.supportsSystem(c.getSystem(), baseOptions.getFhirVersion())) {
+            see(new CodingValidationRequest(c, vs), lang, key(vs)+"|"+key(c));
+          }
+        }
+      }
+    }
+  }
+
+  private void seeCoding(Element element, String lang) {
+    Coding c = ObjectConverter.readAsCoding(element);
+    ElementDefinitionBindingComponent binding = getBinding(element);
+    ValueSet vs = binding == null ? null : resolve(element, binding);
+    if (vs != null && c.hasSystem() && c.hasCode()) {
+      see(new CodingValidationRequest(c, vs), lang, key(vs)+"|"+key(c));
+    }
+  }
+
+  private void see(CodingValidationRequest request, String lang, String key) {
+    if (seen.add(lang+"|"+key)) {
+      List<CodingValidationRequest> list = requests.get(lang);
+      if (list == null) {
+        list = new ArrayList<>();
+        requests.put(lang, list);
+      }
+      list.add(request);
+    }
+  }
+
+  /**
+   * @return the binding in the element's definition, if it is to a value set and isn't an example binding
+   */
+  private ElementDefinitionBindingComponent getBinding(Element element) {
+    ElementDefinition ed = element.getProperty() == null ? null : element.getProperty().getDefinition();
+    if (ed == null || !ed.hasBinding() || !ed.getBinding().hasValueSet() || ed.getBinding().getStrength() == BindingStrength.EXAMPLE) {
+      return null;
+    }
+    return ed.getBinding();
+  }
+
+  private ValueSet resolve(Element element, ElementDefinitionBindingComponent binding) {
+    if (!Utilities.isAbsoluteUrl(binding.getValueSet())) {
+      return null; // contained or relative; leave these to the validator
+    }
+    return context.findTxResource(ValueSet.class, binding.getValueSet(), element.getProperty().getStructure());
+  }
+
+  private String key(ValueSet vs) {
+    return vs == null ? "" : vs.getVersionedUrl()+"@"+System.identityHashCode(vs);
+  }
+
+  private String key(Coding c) {
+    return c.getSystem()+"|"+c.getVersion()+"#"+c.getCode()+"|"+c.getDisplay();
+  }
+
+  private String key(CodeableConcept cc) {
+    StringBuilder b = new StringBuilder();
+    for (Coding c : cc.getCoding()) {
+      b.append(key(c));
+      b.append(";");
+    }
+    b.append(cc.getText());
+    return b.toString();
+  }
+}
@@ -231,6 +231,24 @@ public class ValidationContext {
         return res;
     }
 
+    /**
+     * a copy for validating some of the content on another thread. The copy has its own
+     * set of internal references; add them back to this one when the thread is done
+     */
+    public ValidationContext forWorker() {
+        ValidationContext res = new ValidationContext(appContext);
+        res.resource = resource;
+        res.rootResource = rootResource;
+        res.groupingResource = groupingResource;
+        res.profile = profile;
+        res.checkSpecials = checkSpecials;
+        res.version = version;
+        res.internalRefs = new HashSet<>();
+        res.sliceRecords = sliceRecords;
+        res.dump("forWorker");
+        return res;
+    }
+
     public String getVersion() {
       return version;
     }
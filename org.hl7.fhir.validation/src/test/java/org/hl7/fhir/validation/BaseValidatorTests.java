@@ -0,0 +1,192 @@
+package org.hl7.fhir.validation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.utilities.i18n.I18nConstants;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
+import org.hl7.fhir.validation.instance.utils.NodeStack;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The fixed-arity and Supplier forms of rule, warning and hint have to report exactly what the varargs forms do
+ */
+public class BaseValidatorTests {
+
+  private static final String DATE = "2024-01-01";
+  private static final String PATH = "Patient.name[2]";
+  private static final String MSG0 = I18nConstants.BUNDLE_BUNDLE_ENTRY_NOFIRSTRESOURCE;
+  private static final String MSG1 = I18nConstants.CONCEPTMAP_GROUP_SOURCE_UNKNOWN;
+  private static final String MSG2 = I18nConstants.SD_VALUE_TYPE_REPEAT_HINT;
+
+  private static BaseValidator validator;
+  private static NodeStack stack;
+
+  @BeforeAll
+  public static void setUp() throws Exception {
+    SimpleWorkerContext context = new SimpleWorkerContext.SimpleWorkerContextBuilder().fromNothing();
+    validator = new BaseValidator(context, null, false);
+    Element element = new Element("Patient");
+    element.setPath("Patient");
+    element.markLocation(3, 7);
+    stack = new NodeStack(context, null, element, null);
+  }
+
+  private static String describe(List<ValidationMessage> messages) {
+    StringBuilder b = new StringBuilder();
+    for (ValidationMessage vm : messages) {
+      b.append(vm.getLevel()).append("|").append(vm.getType()).append("|").append(vm.getLine()).append(":").append(vm.getCol()).append("|")
+        .append(vm.getLocation()).append("|").append(vm.getRuleDate()).append("|").append(vm.getMessageId()).append("|").append(vm.getMessage()).append("\n");
+    }
+    return b.toString();
+  }
+
+  private static Supplier<String> path(String path) {
+    return () -> path;
+  }
+
+  private static Supplier<String> notCalled() {
+    return () -> {
+      fail("the path was built for a check that passed");
+      return null;
+    };
+  }
+
+  @Test
+  public void testLineColOverloads() {
+    for (boolean pass : new boolean[] { true, false }) {
+      List<ValidationMessage> varargs = new ArrayList<>();
+      List<ValidationMessage> fixed = new ArrayList<>();
+      assertEquals(pass, validator.rule(varargs, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG0, new Object[0]));
+      assertEquals(pass, validator.rule(fixed, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG0));
+      assertEquals(pass, validator.rule(varargs, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG1, new Object[] { "a" }));
+      assertEquals(pass, validator.rule(fixed, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG1, "a"));
+      assertEquals(pass, validator.rule(varargs, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG2, new Object[] { "a", 2 }));
+      assertEquals(pass, validator.rule(fixed, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG2, "a", 2));
+      assertEquals(pass, validator.warning(varargs, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG0, new Object[0]));
+      assertEquals(pass, validator.warning(fixed, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG0));
+      assertEquals(pass, validator.warning(varargs, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG1, new Object[] { "a" }));
+      assertEquals(pass, validator.warning(fixed, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG1, "a"));
+      assertEquals(pass, validator.warning(varargs, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG2, new Object[] { "a", 2 }));
+      assertEquals(pass, validator.warning(fixed, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG2, "a", 2));
+      assertEquals(pass, validator.hint(varargs, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG1, new Object[] { "a" }));
+      assertEquals(pass, validator.hint(fixed, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG1, "a"));
+      assertEquals(pass, validator.hint(varargs, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG2, new Object[] { "a", 2 }));
+      assertEquals(pass, validator.hint(fixed, DATE, IssueType.INVALID, 1, 2, PATH, pass, MSG2, "a", 2));
+      assertEquals(pass ? 0 : 8, varargs.size());
+      assertEquals(describe(varargs), describe(fixed));
+    }
+  }
+
+  @Test
+  public void testNodeStackOverloads() {
+    for (boolean pass : new boolean[] { true, false }) {
+      List<ValidationMessage> varargs = new ArrayList<>();
+      List<ValidationMessage> fixed = new ArrayList<>();
+      assertEquals(pass, validator.rule(varargs, DATE, IssueType.INVALID, stack, pass, MSG0, new Object[0]));
+      assertEquals(pass, validator.rule(fixed, DATE, IssueType.INVALID, stack, pass, MSG0));
+      assertEquals(pass, validator.rule(varargs, DATE, IssueType.INVALID, stack, pass, MSG1, new Object[] { "a" }));
+      assertEquals(pass, validator.rule(fixed, DATE, IssueType.INVALID, stack, pass, MSG1, "a"));
+      assertEquals(pass, validator.rule(varargs, DATE, IssueType.INVALID, stack, pass, MSG2, new Object[] { "a", 2 }));
+      assertEquals(pass, validator.rule(fixed, DATE, IssueType.INVALID, stack, pass, MSG2, "a", 2));
+      assertEquals(pass, validator.warning(varargs, DATE, IssueType.INVALID, stack, pass, MSG0, new Object[0]));
+      assertEquals(pass, validator.warning(fixed, DATE, IssueType.INVALID, stack, pass, MSG0));
+      assertEquals(pass, validator.warning(varargs, DATE, IssueType.INVALID, stack, pass, MSG1, new Object[] { "a" }));
+      assertEquals(pass, validator.warning(fixed, DATE, IssueType.INVALID, stack, pass, MSG1, "a"));
+      assertEquals(pass, validator.warning(varargs, DATE, IssueType.INVALID, stack, pass, MSG2, new Object[] { "a", 2 }));
+      assertEquals(pass, validator.warning(fixed, DATE, IssueType.INVALID, stack, pass, MSG2, "a", 2));
+      assertEquals(pass, validator.hint(varargs, DATE, IssueType.INVALID, stack, pass, MSG0, new Object[0]));
+      assertEquals(pass, validator.hint(fixed, DATE, IssueType.INVALID, stack, pass, MSG0));
+      assertEquals(pass, validator.hint(varargs, DATE, IssueType.INVALID, stack, pass, MSG1, new Object[] { "a" }));
+      assertEquals(pass, validator.hint(fixed, DATE, IssueType.INVALID, stack, pass, MSG1, "a"));
+      assertEquals(pass, validator.hint(varargs, DATE, IssueType.INVALID, stack, pass, MSG2, new Object[] { "a", 2 }));
+      assertEquals(pass, validator.hint(fixed, DATE, IssueType.INVALID, stack, pass, MSG2, "a", 2));
+      assertEquals(pass ? 0 : 9, varargs.size());
+      assertEquals(describe(varargs), describe(fixed));
+    }
+  }
+
+  @Test
+  public void testSupplierOverloads() {
+    List<ValidationMessage> varargs = new ArrayList<>();
+    List<ValidationMessage> supplied = new ArrayList<>();
+    assertFalse(validator.rule(varargs, DATE, IssueType.INVALID, 1, 2, PATH, false, MSG2, new Object[] { "a", 2 }));
+    assertFalse(validator.rule(supplied, DATE, IssueType.INVALID, 1, 2, path(PATH), false, MSG2, "a", 2));
+    assertFalse(validator.rule(varargs, DATE, IssueType.INVALID, PATH, false, MSG1, new Object[] { "a" }));
+    assertFalse(validator.rule(supplied, DATE, IssueType.INVALID, path(PATH), false, MSG1, "a"));
+    assertFalse(validator.warning(varargs, DATE, IssueType.INVALID, 1, 2, PATH, false, MSG2, new Object[] { "a", 2 }));
+    assertFalse(validator.warning(supplied, DATE, IssueType.INVALID, 1, 2, path(PATH), false, MSG2, "a", 2));
+    assertFalse(validator.warning(varargs, DATE, IssueType.INVALID, PATH, false, MSG1, new Object[] { "a" }));
+    assertFalse(validator.warning(supplied, DATE, IssueType.INVALID, path(PATH), false, MSG1, "a"));
+    assertFalse(validator.hint(varargs, DATE, IssueType.INVALID, 1, 2, PATH, false, MSG2, new Object[] { "a", 2 }));
+    assertFalse(validator.hint(supplied, DATE, IssueType.INVALID, 1, 2, path(PATH), false, MSG2, "a", 2));
+    assertFalse(validator.hint(varargs, DATE, IssueType.INVALID, PATH, false, MSG1, new Object[] { "a" }));
+    assertFalse(validator.hint(supplied, DATE, IssueType.INVALID, path(PATH), false, MSG1, "a"));
+    assertEquals(6, varargs.size());
+    assertEquals(describe(varargs), describe(supplied));
+
+    // and the path isn't built at all for a check that passes
+    List<ValidationMessage> none = new ArrayList<>();
+    assertTrue(validator.rule(none, DATE, IssueType.INVALID, 1, 2, notCalled(), true, MSG1, "a"));
+    assertTrue(validator.rule(none, DATE, IssueType.INVALID, notCalled(), true, MSG1, "a"));
+    assertTrue(validator.warning(none, DATE, IssueType.INVALID, 1, 2, notCalled(), true, MSG1, "a"));
+    assertTrue(validator.warning(none, DATE, IssueType.INVALID, notCalled(), true, MSG1, "a"));
+    assertTrue(validator.hint(none, DATE, IssueType.INVALID, 1, 2, notCalled(), true, MSG1, "a"));
+    assertTrue(validator.hint(none, DATE, IssueType.INVALID, notCalled(), true, MSG1, "a"));
+    assertEquals(0, none.size());
+  }
+
+  /**
+   * A rough benchmark, not a strict one: on checks that pass, which are most of them, building the path 
+   * and the arguments array before the call (as the varargs forms make call sites do) is the garbage 
+   * that the supplier and fixed-arity forms avoid. This measures the bytes each style allocates on this thread
+   */
+  @Test
+  public void testPassingChecksAllocateLess() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled());
+    com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) threads;
+    long id = Thread.currentThread().getId();
+    int count = 100000;
+    List<ValidationMessage> none = new ArrayList<>();
+    long eager = 0;
+    long fixed = 0;
+    long lazy = 0;
+    // the first rounds are to warm up
+    for (int round = 0; round < 3; round++) {
+      long t = mx.getThreadAllocatedBytes(id);
+      for (int i = 0; i < count; i++) {
+        validator.rule(none, DATE, IssueType.INVALID, 1, 2, PATH + "[" + i + "]", i >= 0, MSG1, new Object[] { "a" });
+      }
+      eager = mx.getThreadAllocatedBytes(id) - t;
+      t = mx.getThreadAllocatedBytes(id);
+      for (int i = 0; i < count; i++) {
+        validator.rule(none, DATE, IssueType.INVALID, 1, 2, PATH, i >= 0, MSG1, "a");
+      }
+      fixed = mx.getThreadAllocatedBytes(id) - t;
+      t = mx.getThreadAllocatedBytes(id);
+      for (int i = 0; i < count; i++) {
+        int index = i;
+        validator.rule(none, DATE, IssueType.INVALID, 1, 2, () -> PATH + "[" + index + "]", i >= 0, MSG1, "a");
+      }
+      lazy = mx.getThreadAllocatedBytes(id) - t;
+    }
+    System.out.println("Bytes allocated for " + count + " passing checks: path and arguments built first " + eager + ", fixed arity " + fixed + ", path supplier " + lazy);
+    assertEquals(0, none.size());
+    assertTrue(lazy < eager);
+    assertTrue(fixed < eager);
+  }
+}
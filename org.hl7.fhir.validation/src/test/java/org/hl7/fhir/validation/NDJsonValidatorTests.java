@@ -0,0 +1,162 @@
+package org.hl7.fhir.validation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.OperationOutcome;
+import org.hl7.fhir.r5.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r5.model.OperationOutcome.OperationOutcomeIssueComponent;
+import org.hl7.fhir.r5.utils.ToolingExtensions;
+import org.hl7.fhir.utilities.FhirPublication;
+import org.hl7.fhir.validation.cli.renderers.NDJsonRenderer;
+import org.hl7.fhir.validation.cli.renderers.ValidationOutputRenderer;
+import org.hl7.fhir.validation.tests.utilities.TestUtilities;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class NDJsonValidatorTests {
+
+  private static final String VALID = "{\"resourceType\":\"Patient\",\"id\":\"a\",\"active\":true}";
+  private static final String INVALID = "{\"resourceType\":\"Patient\",\"id\":\"b\",\"foo\":\"bar\"}";
+  private static final String MALFORMED = "{\"resourceType\":\"Patient\",\"id\":\"c\",";
+
+  private static ValidationEngine engine;
+
+  @BeforeAll
+  public static void setUp() throws Exception {
+    engine = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", "n/a", FhirPublication.R4, "4.0.1");
+  }
+
+  private static class CollectingRenderer extends ValidationOutputRenderer {
+    private final List<OperationOutcome> outcomes = new ArrayList<>();
+
+    @Override
+    public void render(OperationOutcome op) throws IOException {
+      outcomes.add(op);
+    }
+
+    @Override
+    public boolean isSingleFile() {
+      return true;
+    }
+
+    @Override
+    public String getStyleCode() {
+      return "test";
+    }
+
+    @Override
+    public void setFolder(File dir) {
+    }
+  }
+
+  private CollectingRenderer validate(NDJsonValidator validator, String... lines) throws Exception {
+    CollectingRenderer renderer = new CollectingRenderer();
+    String src = String.join("\n", lines);
+    validator.validate("test.ndjson", new ByteArrayInputStream(src.getBytes(StandardCharsets.UTF_8)), renderer);
+    return renderer;
+  }
+
+  private boolean hasError(OperationOutcome op) {
+    for (OperationOutcomeIssueComponent issue : op.getIssue()) {
+      if (issue.getSeverity() == IssueSeverity.ERROR || issue.getSeverity() == IssueSeverity.FATAL) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void assertAllOnLine(OperationOutcome op, int line) {
+    for (OperationOutcomeIssueComponent issue : op.getIssue()) {
+      assertEquals(line, ToolingExtensions.readIntegerExtension(issue, ToolingExtensions.EXT_ISSUE_LINE, -1));
+    }
+  }
+
+  @Test
+  public void testMultipleLines() throws Exception {
+    NDJsonValidator validator = new NDJsonValidator(engine, null).setReportAllOk(true).setMaxInFlight(2);
+    CollectingRenderer renderer = validate(validator, VALID, INVALID, VALID, INVALID, VALID);
+    assertEquals(5, validator.getLineCount());
+    assertEquals(5, renderer.outcomes.size());
+    for (int i = 0; i < 5; i++) {
+      // outcomes come back in line order, even though there are more lines than can be in flight at once
+      assertEquals(i % 2 == 1, hasError(renderer.outcomes.get(i)));
+      assertAllOnLine(renderer.outcomes.get(i), i + 1);
+      assertEquals("test.ndjson", ToolingExtensions.readStringExtension(renderer.outcomes.get(i), ToolingExtensions.EXT_OO_FILE));
+    }
+    assertTrue(validator.getErrorCount() >= 2);
+  }
+
+  @Test
+  public void testBlankLines() throws Exception {
+    NDJsonValidator validator = new NDJsonValidator(engine, null).setReportAllOk(true);
+    CollectingRenderer renderer = validate(validator, "", VALID, "   ", "", INVALID, "");
+    // blank lines are skipped, but still counted when working out line numbers
+    assertEquals(2, validator.getLineCount());
+    assertEquals(2, renderer.outcomes.size());
+    assertFalse(hasError(renderer.outcomes.get(0)));
+    assertAllOnLine(renderer.outcomes.get(0), 2);
+    assertTrue(hasError(renderer.outcomes.get(1)));
+    assertAllOnLine(renderer.outcomes.get(1), 5);
+  }
+
+  @Test
+  public void testMalformedLine() throws Exception {
+    NDJsonValidator validator = new NDJsonValidator(engine, null).setReportAllOk(true);
+    CollectingRenderer renderer = validate(validator, VALID, MALFORMED, VALID);
+    // a line that isn't JSON is reported against that line, and doesn't stop the rest of the file
+    assertEquals(3, validator.getLineCount());
+    assertEquals(3, renderer.outcomes.size());
+    assertFalse(hasError(renderer.outcomes.get(0)));
+    assertTrue(hasError(renderer.outcomes.get(1)));
+    assertAllOnLine(renderer.outcomes.get(1), 2);
+    assertFalse(hasError(renderer.outcomes.get(2)));
+  }
+
+  @Test
+  public void testOnlyIssuesReported() throws Exception {
+    NDJsonValidator validator = new NDJsonValidator(engine, null);
+    CollectingRenderer renderer = validate(validator, VALID, INVALID, VALID);
+    assertEquals(3, validator.getLineCount());
+    int errors = 0;
+    for (OperationOutcome op : renderer.outcomes) {
+      assertTrue(op.hasIssue());
+      if (hasError(op)) {
+        errors++;
+        assertAllOnLine(op, 2);
+      }
+    }
+    assertEquals(1, errors);
+  }
+
+  @Test
+  public void testRenderer() throws Exception {
+    NDJsonValidator validator = new NDJsonValidator(engine, null).setReportAllOk(true);
+    NDJsonRenderer renderer = new NDJsonRenderer();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    renderer.setOutput(new PrintStream(bytes, true, "UTF-8"));
+    renderer.start(false);
+    validator.validate("test.ndjson", new ByteArrayInputStream(String.join("\n", VALID, "", INVALID).getBytes(StandardCharsets.UTF_8)), renderer);
+    renderer.finish();
+
+    // one outcome per line, each of which is a complete resource
+    String[] lines = bytes.toString("UTF-8").trim().split("\\r?\\n");
+    assertEquals(2, lines.length);
+    OperationOutcome first = (OperationOutcome) new JsonParser().parse(lines[0]);
+    OperationOutcome second = (OperationOutcome) new JsonParser().parse(lines[1]);
+    assertFalse(hasError(first));
+    assertTrue(hasError(second));
+    assertAllOnLine(second, 3);
+  }
+}
@@ -76,6 +76,8 @@ public class ValidatorCliTests {
     public void executeTask(CliContext cliContext, String[] args, TimeTracker tt, TimeTracker.Session tts) {}
   };
   @Spy
+  TxSnapshotTask txSnapshotTask;
+  @Spy
   TransformTask transformTask;
 
   @Spy
@@ -116,6 +118,7 @@ public class ValidatorCliTests {
           spreadsheetTask,
           testsTask,
           txTestsTask,
+          txSnapshotTask,
           transformTask,
           versionTask,
           //validate is the default
@@ -222,6 +225,16 @@ public class ValidatorCliTests {
     Mockito.verify(validationService).generateSpreadsheet(same(cliContext), same(validationEngine));
   }
 
+  @Test
+  public void txSnapshotTest() throws Exception {
+    final String[] args = new String[]{"-build-tx-snapshot", "example.tx#1.0.0", "-output", "tx.tgz"};
+    CliContext cliContext = Params.loadCliContext(args);
+    ValidatorCli cli = mockValidatorCliWithService(cliContext);
+    cli.readParamsAndExecuteTask(cliContext, args);
+    Mockito.verify(validationService).determineVersion(same(cliContext));
+    Mockito.verify(validationService).buildTerminologySnapshot(same(cliContext), same(validationEngine));
+  }
+
   @Test
   public void fhirpathTest() throws Exception {
     final String[] args = new String[]{"-fhirpath", "dummyExpression"};
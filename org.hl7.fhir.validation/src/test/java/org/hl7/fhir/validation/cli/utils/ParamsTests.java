@@ -6,6 +6,7 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.File;
 import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Locale;
 
 import org.hl7.fhir.validation.cli.model.CliContext;
@@ -34,4 +35,59 @@ public class ParamsTests {
     });
     assertThat(error.getMessage(), containsString("this-does-not-exist.json"));
   }
-}
\ No newline at end of file
+
+  @Test
+  void testThreads() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-threads", "8"});
+    assertEquals(8, cliContext.getThreads());
+  }
+
+  @Test
+  void testThreadsNotInteger() {
+    java.lang.Error error = Assertions.assertThrows(java.lang.Error.class, () -> {
+      Params.loadCliContext(new String[]{"-threads", "many"});
+    });
+    assertThat(error.getMessage(), containsString("-threads"));
+  }
+
+  @Test
+  void testBundleThreads() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-bundle-threads", "4"});
+    assertEquals(4, cliContext.getBundleThreads());
+    assertEquals(1, cliContext.getThreads());
+  }
+
+  @Test
+  void testMinimalMemory() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-minimal-memory"});
+    Assertions.assertTrue(cliContext.isMinimalMemory());
+  }
+
+  @Test
+  void testSnapshotCache() throws Exception {
+    Assertions.assertFalse(Params.loadCliContext(new String[]{}).isSnapshotCache());
+    CliContext cliContext = Params.loadCliContext(new String[]{"-snapshot-cache"});
+    Assertions.assertTrue(cliContext.isSnapshotCache());
+  }
+
+  @Test
+  void testTxBatch() throws Exception {
+    Assertions.assertFalse(Params.loadCliContext(new String[]{}).isBatchTerminology());
+    CliContext cliContext = Params.loadCliContext(new String[]{"-tx-batch"});
+    Assertions.assertTrue(cliContext.isBatchTerminology());
+  }
+
+  @Test
+  void testTxSnapshot() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-tx-snapshot", "a.tgz", "-tx-snapshot", "b"});
+    Assertions.assertEquals(Arrays.asList("a.tgz", "b"), cliContext.getTxSnapshots());
+  }
+
+  @Test
+  void testBuildTxSnapshot() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-build-tx-snapshot", "example.tx#1.0.0", "-output", "tx.tgz"});
+    Assertions.assertEquals(EngineMode.TX_SNAPSHOT, cliContext.getMode());
+    Assertions.assertEquals("example.tx#1.0.0", cliContext.getTxSnapshotId());
+    Assertions.assertEquals("tx.tgz", cliContext.getOutput());
+  }
+}
@@ -0,0 +1,275 @@
+package org.hl7.fhir.validation.instance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.utilities.FhirPublication;
+import org.hl7.fhir.utilities.i18n.I18nConstants;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.validation.ValidationEngine;
+import org.hl7.fhir.validation.tests.utilities.TestUtilities;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class BundleValidationTests {
+
+  private static final Pattern FULL_URL = Pattern.compile("'(urn:uuid:[^']+)'");
+
+  private static ValidationEngine engine;
+
+  @BeforeAll
+  public static void setUp() throws Exception {
+    engine = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", "n/a", FhirPublication.R4, "4.0.1");
+  }
+
+  /**
+   * A document: entry 0 is the Composition, and the rest are Basic resources. targets[i] are the
+   * entries that entry i refers to (the Composition through its section, the others through subject,
+   * so they have at most one)
+   */
+  private static class TestBundle {
+    private final List<List<Integer>> targets = new ArrayList<>();
+
+    private TestBundle(int size) {
+      for (int i = 0; i < size; i++) {
+        targets.add(new ArrayList<>());
+      }
+    }
+
+    private void link(int source, int target) {
+      targets.get(source).add(target);
+    }
+
+    private String fullUrl(int i) {
+      return String.format("urn:uuid:00000000-0000-0000-0000-%012d", i);
+    }
+
+    private String toJson() {
+      StringBuilder b = new StringBuilder();
+      b.append("{\"resourceType\":\"Bundle\",\"identifier\":{\"system\":\"urn:ietf:rfc:3986\",\"value\":\"urn:uuid:11111111-1111-1111-1111-111111111111\"},");
+      b.append("\"type\":\"document\",\"timestamp\":\"2024-01-01T00:00:00Z\",\"entry\":[");
+      for (int i = 0; i < targets.size(); i++) {
+        if (i > 0) {
+          b.append(",");
+        }
+        b.append("{\"fullUrl\":\"").append(fullUrl(i)).append("\",\"resource\":");
+        if (i == 0) {
+          b.append("{\"resourceType\":\"Composition\",\"status\":\"final\",\"type\":{\"text\":\"test\"},\"date\":\"2024-01-01\",");
+          b.append("\"author\":[{\"display\":\"test\"}],\"title\":\"test\",\"section\":[{\"title\":\"test\",\"entry\":[");
+          for (int j = 0; j < targets.get(i).size(); j++) {
+            b.append(j > 0 ? "," : "").append("{\"reference\":\"").append(fullUrl(targets.get(i).get(j))).append("\"}");
+          }
+          b.append("]}]}");
+        } else {
+          b.append("{\"resourceType\":\"Basic\",\"code\":{\"text\":\"test\"}");
+          if (!targets.get(i).isEmpty()) {
+            b.append(",\"subject\":{\"reference\":\"").append(fullUrl(targets.get(i).get(0))).append("\"}");
+          }
+          b.append("}");
+        }
+        b.append("}");
+      }
+      b.append("]}");
+      return b.toString();
+    }
+
+    /**
+     * the reverse links and orphans, the way checkAllInterlinked found them before it was made linear:
+     * everything reachable from the first entry, then passes over all the entries until a pass finds
+     * no more entries that link to something already reached
+     */
+    private void expected(List<String> reverse, List<String> orphans) {
+      Set<Integer> visited = new HashSet<>();
+      visit(visited, 0);
+      boolean found;
+      do {
+        found = false;
+        for (int i = 0; i < targets.size(); i++) {
+          if (!visited.contains(i)) {
+            boolean add = false;
+            for (int t : targets.get(i)) {
+              if (t != i && visited.contains(t)) {
+                add = true;
+              }
+            }
+            if (add) {
+              reverse.add(fullUrl(i));
+              visit(visited, i);
+              found = true;
+            }
+          }
+        }
+      } while (found);
+      for (int i = 0; i < targets.size(); i++) {
+        if (!visited.contains(i)) {
+          orphans.add(fullUrl(i));
+        }
+      }
+    }
+
+    private void visit(Set<Integer> visited, int start) {
+      List<Integer> todo = new ArrayList<>();
+      todo.add(start);
+      while (!todo.isEmpty()) {
+        int i = todo.remove(todo.size() - 1);
+        if (visited.add(i)) {
+          todo.addAll(targets.get(i));
+        }
+      }
+    }
+  }
+
+  private void check(TestBundle bundle) throws Exception {
+    List<ValidationMessage> messages = new ArrayList<>();
+    engine.getValidator(FhirFormat.JSON).validate(null, messages, new ByteArrayInputStream(bundle.toJson().getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON);
+
+    List<String> reverse = new ArrayList<>();
+    List<String> orphans = new ArrayList<>();
+    for (ValidationMessage vm : messages) {
+      if (I18nConstants.BUNDLE_BUNDLE_ENTRY_REVERSE_R4.equals(vm.getMessageId())) {
+        reverse.add(fullUrlIn(vm));
+      } else if (I18nConstants.BUNDLE_BUNDLE_ENTRY_ORPHAN_DOCUMENT.equals(vm.getMessageId())) {
+        orphans.add(fullUrlIn(vm));
+      }
+    }
+    List<String> expectedReverse = new ArrayList<>();
+    List<String> expectedOrphans = new ArrayList<>();
+    bundle.expected(expectedReverse, expectedOrphans);
+    assertEquals(expectedReverse, reverse);
+    assertEquals(expectedOrphans, orphans);
+  }
+
+  private String fullUrlIn(ValidationMessage vm) {
+    Matcher m = FULL_URL.matcher(vm.getMessage());
+    return m.find() ? m.group(1) : vm.getMessage();
+  }
+
+  @Test
+  public void testInterlinkedSmall() throws Exception {
+    // 0 -> 1 -> 2; 4 -> 3 -> 1 (reverse, found in a second pass); 5 is an orphan; 6 -> 5 is an orphan too
+    TestBundle bundle = new TestBundle(7);
+    bundle.link(0, 1);
+    bundle.link(1, 2);
+    bundle.link(4, 3);
+    bundle.link(3, 1);
+    bundle.link(6, 5);
+    List<String> reverse = new ArrayList<>();
+    List<String> orphans = new ArrayList<>();
+    bundle.expected(reverse, orphans);
+    assertEquals(List.of(bundle.fullUrl(3), bundle.fullUrl(4)), reverse);
+    assertEquals(List.of(bundle.fullUrl(5), bundle.fullUrl(6)), orphans);
+    check(bundle);
+  }
+
+  @Test
+  public void testInterlinkedDeepChains() throws Exception {
+    // a long forward chain from the Composition, and a long reverse chain laid out backwards, so that
+    // scanning the entries in order only finds one more reverse link each time round
+    int chain = 2000;
+    TestBundle bundle = new TestBundle(1 + chain * 2);
+    bundle.link(0, 1);
+    for (int i = 1; i < chain; i++) {
+      bundle.link(i, i + 1);
+    }
+    int last = chain * 2;
+    bundle.link(last, 1);
+    for (int i = chain + 1; i < last; i++) {
+      bundle.link(i, i + 1);
+    }
+    List<String> reverse = new ArrayList<>();
+    List<String> orphans = new ArrayList<>();
+    bundle.expected(reverse, orphans);
+    assertEquals(chain, reverse.size());
+    assertEquals(bundle.fullUrl(last), reverse.get(0));
+    assertEquals(bundle.fullUrl(chain + 1), reverse.get(chain - 1));
+    assertEquals(0, orphans.size());
+    check(bundle);
+  }
+
+  @Test
+  public void testInterlinkedLarge() throws Exception {
+    // a large bundle with a mix of forward links, reverse links, cycles and orphans
+    int size = 3000;
+    Random random = new Random(20241017);
+    TestBundle bundle = new TestBundle(size);
+    for (int i = 0; i < 50; i++) {
+      bundle.link(0, 1 + random.nextInt(size - 1));
+    }
+    for (int i = 1; i < size; i++) {
+      if (random.nextInt(10) < 8) {
+        bundle.link(i, 1 + random.nextInt(size - 1));
+      }
+    }
+    List<String> reverse = new ArrayList<>();
+    List<String> orphans = new ArrayList<>();
+    bundle.expected(reverse, orphans);
+    assertEquals(size, 1 + reverse.size() + orphans.size() + countForward(bundle));
+    check(bundle);
+  }
+
+  private int countForward(TestBundle bundle) {
+    Set<Integer> visited = new HashSet<>();
+    bundle.visit(visited, 0);
+    return visited.size() - 1;
+  }
+
+  /**
+   * A collection of Basic resources, some of which refer to the one before, and some of which have errors
+   */
+  private String makeCollection(int size) {
+    StringBuilder b = new StringBuilder();
+    b.append("{\"resourceType\":\"Bundle\",\"type\":\"collection\",\"entry\":[");
+    for (int i = 0; i < size; i++) {
+      b.append(i > 0 ? "," : "").append("{\"fullUrl\":\"").append(String.format("urn:uuid:00000000-0000-0000-0000-%012d", i)).append("\",\"resource\":");
+      b.append("{\"resourceType\":\"Basic\",\"code\":{\"text\":\"test\"}");
+      if (i % 5 == 1) {
+        b.append(",\"subject\":{\"reference\":\"").append(String.format("urn:uuid:00000000-0000-0000-0000-%012d", i - 1)).append("\"}");
+      }
+      if (i % 7 == 3) {
+        b.append(",\"created\":\"2024-13-45\"");
+      }
+      if (i % 11 == 4) {
+        b.append(",\"unknown\":true");
+      }
+      b.append("}}");
+    }
+    b.append("]}");
+    return b.toString();
+  }
+
+  private List<String> validate(String json, int threads) throws Exception {
+    List<ValidationMessage> messages = new ArrayList<>();
+    engine.setBundleThreads(threads);
+    try {
+      engine.getValidator(FhirFormat.JSON).validate(null, messages, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON);
+    } finally {
+      engine.setBundleThreads(1);
+    }
+    List<String> res = new ArrayList<>();
+    for (ValidationMessage vm : messages) {
+      res.add(vm.getLevel() + " " + vm.getLocation() + " " + vm.getMessageId() + " " + vm.getMessage());
+    }
+    return res;
+  }
+
+  @Test
+  public void testParallelSameAsSequential() throws Exception {
+    String json = makeCollection(200);
+    List<String> sequential = validate(json, 1);
+    assertTrue(sequential.size() > 30);
+    // twice, so the second time round the entries are validated on threads the engine has already used
+    assertEquals(sequential, validate(json, 4));
+    assertEquals(sequential, validate(json, 4));
+  }
+}
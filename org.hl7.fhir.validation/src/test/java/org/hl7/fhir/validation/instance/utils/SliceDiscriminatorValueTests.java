@@ -0,0 +1,123 @@
+package org.hl7.fhir.validation.instance.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.elementmodel.Manager;
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.model.IntegerType;
+import org.hl7.fhir.r5.model.StringType;
+import org.hl7.fhir.r5.model.UriType;
+import org.hl7.fhir.utilities.FhirPublication;
+import org.hl7.fhir.validation.ValidationEngine;
+import org.hl7.fhir.validation.tests.utilities.TestUtilities;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The shortcut has to give the same answer as the discriminator expressions the validator builds for fixed values
+ * ('value' in path) and patterns (path.where(value = 'value').exists()), or no answer at all
+ */
+public class SliceDiscriminatorValueTests {
+
+  private static final String PATIENT = "{\"resourceType\":\"Patient\","
+      + "\"extension\":[{\"url\":\"http://a\",\"valueString\":\"x\"},{\"url\":\"http://b\",\"valueCode\":\"y\"},{\"url\":\"http://a\",\"valueBoolean\":true}],"
+      + "\"identifier\":[{\"system\":\"urn:a\",\"value\":\"1\"},{\"value\":\"2\"},{\"system\":\"urn:b\",\"value\":\"3\"}],"
+      + "\"name\":[{\"given\":[\"Ann\",\"Bob\"]},{\"given\":[\"Cat\"]},{\"family\":\"Dee\"}]}";
+
+  private static FHIRPathEngine fpe;
+  private static Element patient;
+
+  @BeforeAll
+  public static void setUp() throws Exception {
+    ValidationEngine engine = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", "n/a", FhirPublication.R4, "4.0.1");
+    fpe = new FHIRPathEngine(engine.getContext());
+    patient = Manager.parseSingle(engine.getContext(), new ByteArrayInputStream(PATIENT.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON);
+  }
+
+  private boolean evaluate(Element element, String expression) {
+    return fpe.evaluateToBoolean(null, patient, patient, element, fpe.parse(expression));
+  }
+
+  /**
+   * @param expected what the shortcut should say, or null if it can't tell
+   */
+  private void check(Element element, String path, String value, Boolean expected) {
+    boolean fixed = evaluate(element, "true and ('" + value + "' in " + path + ")");
+    boolean pattern = evaluate(element, "true and " + path + ".where(value = '" + value + "').exists()");
+    assertEquals(fixed, pattern);
+    Boolean shortcut = new SliceDiscriminatorValue(path, value).matches(element);
+    if (expected == null) {
+      assertNull(shortcut);
+    } else {
+      assertEquals(expected, shortcut);
+      assertEquals(fixed, shortcut.booleanValue());
+    }
+  }
+
+  @Test
+  public void testExtensionUrl() {
+    List<Element> extensions = patient.getChildren("extension");
+    assertEquals(3, extensions.size());
+    check(extensions.get(0), "url", "http://a", true);
+    check(extensions.get(0), "url", "http://b", false);
+    check(extensions.get(1), "url", "http://b", true);
+    check(extensions.get(2), "url", "http://a", true);
+    check(extensions.get(2), "url", "http://c", false);
+  }
+
+  @Test
+  public void testIdentifierSystem() {
+    List<Element> identifiers = patient.getChildren("identifier");
+    assertEquals(3, identifiers.size());
+    check(identifiers.get(0), "system", "urn:a", true);
+    check(identifiers.get(0), "system", "urn:b", false);
+    check(identifiers.get(2), "system", "urn:b", true);
+    // no system: the expression is false, and the shortcut leaves it to the expression
+    check(identifiers.get(1), "system", "urn:a", null);
+    assertFalse(evaluate(identifiers.get(1), "true and ('urn:a' in system)"));
+  }
+
+  @Test
+  public void testSeveralValues() {
+    Element first = patient.getChildren("name").get(0);
+    check(first, "given", "Ann", true);
+    check(first, "given", "Bob", true);
+    check(first, "given", "Cat", false);
+    // and through more than one step, where each step has several values
+    check(patient, "identifier.system", "urn:b", true);
+    check(patient, "identifier.system", "urn:c", false);
+    check(patient, "name.given", "Cat", true);
+    check(patient, "name.given", "Dee", false);
+    check(patient, "extension.url", "http://b", true);
+  }
+
+  @Test
+  public void testChoice() {
+    // in the instance, value[x] is valueString etc, so the shortcut can't see it, but the expression can
+    Element first = patient.getChildren("extension").get(0);
+    check(first, "value", "x", null);
+    assertTrue(evaluate(first, "true and ('x' in value)"));
+    check(patient.getChildren("extension").get(1), "value", "x", null);
+    check(patient, "extension.value", "y", null);
+  }
+
+  @Test
+  public void testIndexableValues() {
+    assertEquals("http://a", SliceDiscriminatorValue.indexableValue(new UriType("http://a")));
+    assertEquals("a b", SliceDiscriminatorValue.indexableValue(new StringType("a b")));
+    assertNull(SliceDiscriminatorValue.indexableValue(new StringType("it's")));
+    assertNull(SliceDiscriminatorValue.indexableValue(new IntegerType(1)));
+    assertTrue(SliceDiscriminatorValue.isSimplePath("identifier.system"));
+    assertFalse(SliceDiscriminatorValue.isSimplePath("value.ofType(string)"));
+    assertFalse(SliceDiscriminatorValue.isSimplePath("extension.as"));
+  }
+}
@@ -5,17 +5,25 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.hl7.fhir.r5.formats.IParser.OutputStyle;
+import org.hl7.fhir.r5.formats.JsonParser;
+
 import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.model.Bundle;
 import org.hl7.fhir.r5.model.OperationOutcome;
 import org.hl7.fhir.r5.model.OperationOutcome.IssueSeverity;
 import org.hl7.fhir.r5.model.OperationOutcome.OperationOutcomeIssueComponent;
 import org.hl7.fhir.r5.test.utils.TestingUtilities;
 import org.hl7.fhir.utilities.CommaSeparatedStringBuilder;
 import org.hl7.fhir.utilities.FhirPublication;
+import org.hl7.fhir.utilities.TextFile;
+import org.hl7.fhir.utilities.Utilities;
 import org.hl7.fhir.utilities.settings.FhirSettings;
 import org.hl7.fhir.utilities.tests.CacheVerificationLogger;
 import org.hl7.fhir.validation.IgLoader;
 import org.hl7.fhir.validation.ValidationEngine;
+import org.hl7.fhir.validation.ValidationRecord;
+import org.hl7.fhir.validation.ValidatorUtils.SourceFile;
 import org.hl7.fhir.validation.tests.utilities.TestUtilities;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -209,6 +217,43 @@ public class ValidationEngineTests {
     assertTrue(logger.verifyHasNoRequests(), "Unexpected request to TX server");
   }
 
+  @Test
+  public void testParallelSameAsSequential() throws Exception {
+    if (!TestUtilities.silent)
+      System.out.println("TestParallel: Validate several sources in parallel and sequentially");
+    ValidationEngine ve = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", DEF_TX, FhirPublication.R4, "4.0.1");
+    String folder = TestingUtilities.tempFolder("validation-engine-parallel");
+    List<String> sources = new ArrayList<>();
+    for (String name : new String[] { "patient-example.xml", "patient-example.json", "observation401_ucum.json", "observation301.xml" }) {
+      String fn = Utilities.path(folder, name);
+      TextFile.bytesToFile(TestingUtilities.loadTestResourceBytes("validator", name), fn);
+      sources.add(fn);
+    }
+
+    ve.setThreads(1);
+    int validations = ve.getContext().clock().count("validation");
+    List<ValidationRecord> sequentialRecord = new ArrayList<>();
+    Bundle sequential = (Bundle) ve.validate(sources, null, new ArrayList<SourceFile>(), sequentialRecord, null, true, 0, true);
+    Assertions.assertEquals(validations + sources.size(), ve.getContext().clock().count("validation"));
+    ve.setThreads(4);
+    List<ValidationRecord> parallelRecord = new ArrayList<>();
+    Bundle parallel = (Bundle) ve.validate(sources, null, new ArrayList<SourceFile>(), parallelRecord, null, true, 0, true);
+    // the workers' times are added to the context's clock, as they would have been sequentially
+    Assertions.assertEquals(validations + 2 * sources.size(), ve.getContext().clock().count("validation"));
+
+    Assertions.assertEquals(sources.size(), sequential.getEntry().size());
+    Assertions.assertEquals(compose(sequential), compose(parallel));
+    Assertions.assertEquals(sequentialRecord.size(), parallelRecord.size());
+    for (int i = 0; i < sequentialRecord.size(); i++) {
+      Assertions.assertEquals(sequentialRecord.get(i).getLocation(), parallelRecord.get(i).getLocation());
+      Assertions.assertEquals(sequentialRecord.get(i).getMessages().size(), parallelRecord.get(i).getMessages().size());
+    }
+  }
+
+  private String compose(Bundle bundle) throws Exception {
+    return new JsonParser().setOutputStyle(OutputStyle.PRETTY).composeString(bundle);
+  }
+
 
   public static void execute() throws Exception {
     ValidationEngineTests self = new ValidationEngineTests();